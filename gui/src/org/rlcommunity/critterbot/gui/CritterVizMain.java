@@ -7,13 +7,13 @@ package org.rlcommunity.critterbot.gui;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
-import java.util.List;
 
 import org.rlcommunity.critterbot.javadrops.clients.DiscoInterfaceClient;
 import org.rlcommunity.critterbot.javadrops.drops.CritterControlDrop;
 import org.rlcommunity.critterbot.javadrops.drops.CritterRewardDrop;
 import org.rlcommunity.critterbot.javadrops.drops.CritterStateDrop;
 import org.rlcommunity.critterbot.javadrops.drops.DropInterface;
+import org.rlcommunity.critterbot.javadrops.drops.DropListener;
 import org.rlcommunity.critterbot.javadrops.drops.SimulatorDrop;
 /**
  *
@@ -23,6 +23,8 @@ public class CritterVizMain {
     public static final int critterVizPort = 2330;
     public static final String critterVizHost = "localhost";
     public static final int dropQueueSize = 32;
+    /** How long, in milliseconds, we wait for drops at a time */
+    public static final long receiveTimeout = 1000;
     
     public CritterStateDrop currentState;
     
@@ -56,20 +58,16 @@ public class CritterVizMain {
         runGUI(currentState,dropInterface);
         //me.runGUI(me.currentState,dropInterface);
         
-        while (true) {
-            // Receive drops from the simulator
-            List<SimulatorDrop> drops = dropInterface.receiveDrops();
-
-            // Pass them on to the agent (this may be an empty list)
-            for (SimulatorDrop d : drops) {
-                observeDrop(d);
-            }
-          
-            // Sleep for a little while to give the processor a break
-            try {
-                Thread.sleep(10);
-            } catch (InterruptedException ex) {
+        // Be passed each drop as soon as it is received
+        dropInterface.addDropListener(new DropListener() {
+            public void dropReceived(SimulatorDrop pDrop) {
+                observeDrop(pDrop);
             }
+        });
+
+        while (true) {
+            // Wait for drops from the simulator
+            dropInterface.receiveDrops(receiveTimeout);
         }
     }
     
@@ -0,0 +1,303 @@
+/* Copyright 2009 Marc G. Bellemare
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package org.rlcommunity.critterbot.javadrops;
+
+/**
+  * DropCodec
+  *
+  * Encodes whole drop frames (header, size and data, as described in
+  *  DropProtocol) into a single reusable ByteBuffer, and decodes them from
+  *  one. Drops implementing ByteBufferDrop write and read their data
+  *  directly in the buffer; other drops go through an InterfaceOutputStream
+  *  or InterfaceInputStream wrapped around it, so that every drop may be
+  *  used with a codec.
+  *
+  * A codec is not thread-safe, and the buffer returned by encode() is only
+  *  valid until the next call to encode().
+  *
+  * Author: Marc G. Bellemare
+  *
+  */
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.rlcommunity.critterbot.javadrops.drops.ByteBufferDrop;
+import org.rlcommunity.critterbot.javadrops.drops.SimulatorDrop;
+
+public class DropCodec
+{
+  protected static final int INT_SIZE = 4;
+  protected static final int INITIAL_BUFFER_SIZE = 512;
+
+  public static final ByteOrder FRAME_ENDIAN = ByteOrder.LITTLE_ENDIAN;
+
+  /** Reads from the remaining bytes of a ByteBuffer */
+  protected static class ByteBufferInputStream extends InputStream
+  {
+    protected ByteBuffer aBuffer;
+
+    public void setBuffer(ByteBuffer pBuffer) { aBuffer = pBuffer; }
+
+    public int read()
+    {
+      if (!aBuffer.hasRemaining()) return -1;
+      return aBuffer.get() & 0xFF;
+    }
+
+    public int read(byte[] pBytes, int pOffset, int pLength)
+    {
+      if (!aBuffer.hasRemaining()) return -1;
+
+      int length = Math.min(pLength, aBuffer.remaining());
+      aBuffer.get(pBytes, pOffset, length);
+      return length;
+    }
+
+    public int available()
+    {
+      return aBuffer.remaining();
+    }
+  }
+
+  /** Writes into a ByteBuffer; overflowing it throws a
+    *  BufferOverflowException */
+  protected static class ByteBufferOutputStream extends OutputStream
+  {
+    protected ByteBuffer aBuffer;
+
+    public void setBuffer(ByteBuffer pBuffer) { aBuffer = pBuffer; }
+
+    public void write(int pByte)
+    {
+      aBuffer.put((byte)pByte);
+    }
+
+    public void write(byte[] pBytes, int pOffset, int pLength)
+    {
+      aBuffer.put(pBytes, pOffset, pLength);
+    }
+  }
+
+  /** Decides how frame headers are written and read */
+  protected final DropProtocol aProtocol;
+  protected final boolean aDirect;
+
+  /** The buffer in which frames are encoded */
+  protected ByteBuffer aBuffer;
+
+  /** Streams for drops which do not implement ByteBufferDrop */
+  protected final ByteBufferOutputStream aFallbackOut = new ByteBufferOutputStream();
+  protected final InterfaceOutputStream aFallbackEncoder = new InterfaceOutputStream(aFallbackOut);
+  protected final ByteBufferInputStream aFallbackIn = new ByteBufferInputStream();
+  protected final InterfaceInputStream aFallbackDecoder = new InterfaceInputStream(aFallbackIn);
+
+  /** Creates a new codec.
+    *
+    * @param pProtocol The connection whose headers we encode and decode.
+    * @param pDirect Whether frames are encoded in a direct buffer. This is
+    *   only worthwhile if they are then written to a channel; streams need
+    *   an array-backed buffer.
+    */
+  public DropCodec(DropProtocol pProtocol, boolean pDirect)
+  {
+    aProtocol = pProtocol;
+    aDirect = pDirect;
+    aBuffer = allocate(INITIAL_BUFFER_SIZE);
+  }
+
+  /** Encodes a whole frame.
+    *
+    * @return A buffer holding the frame between its position and its limit,
+    *   valid until the next call to encode().
+    */
+  public ByteBuffer encode(SimulatorDrop pDrop)
+  {
+    int peerId = aProtocol.getPeerId(pDrop.getClass());
+    String name = (peerId >= 0)? null : pDrop.getClass().getSimpleName();
+    int size = pDrop.getSize();
+
+    int frameSize = INT_SIZE + INT_SIZE + size;
+    if (name != null)
+      frameSize += name.length();
+    requireBufferSize(frameSize);
+
+    // getSize() may be wrong for drops which we do not encode ourselves;
+    //  try again with more room if they overflow the buffer
+    while (true)
+    {
+      try
+      {
+        aBuffer.clear();
+
+        if (name == null)
+          aBuffer.putInt(-1 - peerId);
+        else
+        {
+          aBuffer.putInt(name.length());
+          for (int i = 0; i < name.length(); i++)
+            aBuffer.put((byte)name.charAt(i));
+        }
+
+        aBuffer.putInt(size);
+
+        if (pDrop instanceof ByteBufferDrop)
+          ((ByteBufferDrop)pDrop).writeData(aBuffer);
+        else
+        {
+          aFallbackOut.setBuffer(aBuffer);
+          pDrop.writeData(aFallbackEncoder);
+        }
+
+        aBuffer.flip();
+        return aBuffer;
+      }
+      catch (BufferOverflowException e)
+      {
+        if (pDrop instanceof ByteBufferDrop)
+          throw new RuntimeException("Drop larger than its size: "+
+            pDrop.getClass().getSimpleName());
+        aBuffer = allocate(2 * aBuffer.capacity());
+      }
+      catch (IOException e)
+      {
+        // Cannot happen when writing to memory
+        throw new RuntimeException(e);
+      }
+    }
+  }
+
+  /** Encodes a whole frame into a new buffer, which unlike that returned
+    *  by encode() may be kept, e.g. in a queue. */
+  public ByteBuffer encodeCopy(SimulatorDrop pDrop)
+  {
+    return copy(encode(pDrop));
+  }
+
+  /** Copies the remaining bytes of a buffer into a new heap buffer */
+  public static ByteBuffer copy(ByteBuffer pFrame)
+  {
+    ByteBuffer frame = ByteBuffer.allocate(pFrame.remaining());
+    frame.order(FRAME_ENDIAN);
+    frame.put(pFrame);
+    frame.flip();
+    return frame;
+  }
+
+  /** Decodes the frame at the position of a buffer, and moves the position
+    *  past it. If the buffer does not hold the whole frame, the position is
+    *  left unchanged and an EOFException is thrown.
+    *
+    * @return The new drop, or null if it was a type table (see
+    *  DropProtocol.readDrop).
+    * @throws ClassNotFoundException If the drop's type is unknown.
+    */
+  public SimulatorDrop decode(ByteBuffer pIn)
+    throws IOException, ClassNotFoundException
+  {
+    ByteOrder order = pIn.order();
+    int start = pIn.position();
+
+    pIn.order(FRAME_ENDIAN);
+    try
+    {
+      if (pIn.remaining() < INT_SIZE)
+        throw new EOFException();
+      int header = pIn.getInt();
+
+      String name = null;
+      if (header >= 0)
+      {
+        // If we don't test for this, we can kill the heap
+        if (header > DropProtocol.MAX_CLASSNAME_LENGTH)
+          throw new RuntimeException ("Garbage data");
+        if (pIn.remaining() < header)
+          throw new EOFException();
+
+        byte[] nameBytes = new byte[header];
+        pIn.get(nameBytes);
+        name = new String(nameBytes, "US-ASCII");
+      }
+
+      if (pIn.remaining() < INT_SIZE)
+        throw new EOFException();
+      int dropSize = pIn.getInt();
+      if (dropSize < 0 || dropSize > DropProtocol.MAX_DROP_SIZE)
+        throw new RuntimeException ("Garbage data");
+      if (pIn.remaining() < dropSize)
+        throw new EOFException();
+
+      SimulatorDrop newDrop = (name == null)?
+        aProtocol.createDrop(-1 - header) : aProtocol.createDrop(name);
+
+      if (newDrop instanceof ByteBufferDrop)
+      {
+        int dataStart = pIn.position();
+        ((ByteBufferDrop)newDrop).readData(pIn, dropSize);
+        pIn.position(dataStart + dropSize);
+      }
+      else
+      {
+        aFallbackIn.setBuffer(pIn);
+        newDrop.readData(aFallbackDecoder, dropSize);
+      }
+
+      return aProtocol.received(newDrop);
+    }
+    catch (EOFException e)
+    {
+      pIn.position(start);
+      throw e;
+    }
+    finally
+    {
+      pIn.order(order);
+    }
+  }
+
+  /** Writes an array of ints at the buffer's position, in bulk, and moves
+    *  the position past them. */
+  public static void putInts(ByteBuffer pOut, int[] pValues)
+  {
+    pOut.asIntBuffer().put(pValues);
+    pOut.position(pOut.position() + pValues.length * INT_SIZE);
+  }
+
+  /** Fills an array of ints from the buffer's position, in bulk, and moves
+    *  the position past them. */
+  public static void getInts(ByteBuffer pIn, int[] pValues)
+  {
+    pIn.asIntBuffer().get(pValues);
+    pIn.position(pIn.position() + pValues.length * INT_SIZE);
+  }
+
+  protected void requireBufferSize(int pSize)
+  {
+    if (aBuffer.capacity() < pSize)
+      aBuffer = allocate(Math.max(pSize, 2 * aBuffer.capacity()));
+  }
+
+  protected ByteBuffer allocate(int pSize)
+  {
+    ByteBuffer buffer = aDirect? ByteBuffer.allocateDirect(pSize) :
+      ByteBuffer.allocate(pSize);
+    buffer.order(FRAME_ENDIAN);
+    return buffer;
+  }
+}
@@ -0,0 +1,297 @@
+/* Copyright 2009 Marc G. Bellemare
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package org.rlcommunity.critterbot.javadrops;
+
+/**
+  * DropProtocol
+  *
+  * Reads and writes drops on one connection. A drop is normally sent as its
+  *  class name (an int length followed by ASCII characters), followed by its
+  *  size and data. Once the other end has sent us a DropTypeTable listing
+  *  the numeric ids it knows, drops of those types are sent with the negated
+  *  id (-1 - id) in place of the name length and no name, so that neither
+  *  end needs to build strings or use reflection for them.
+  *
+  * Frames are encoded by a DropCodec and written to the stream at once.
+  *
+  * Ends that never send a table, such as the Python clients, keep receiving
+  *  drops by name. A server should only announce its own table in reply to
+  *  one (see shouldAnnounce()).
+  *
+  * Both ends may also agree to delta-encode state drops (see
+  *  StateDeltaCodec): an end which accepts them lists CritterStateDeltaDrop
+  *  in its table, and state drops are only sent as deltas if both tables
+  *  list it. Frames are turned into deltas by toWire() as they are written,
+  *  so that frames discarded before being written do not break the chain
+  *  of deltas; deltas are turned back into state drops by received().
+  *
+  * Author: Marc G. Bellemare
+  *
+  */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.rlcommunity.critterbot.javadrops.drops.ByteBufferDrop;
+import org.rlcommunity.critterbot.javadrops.drops.CritterStateDeltaDrop;
+import org.rlcommunity.critterbot.javadrops.drops.CritterStateDrop;
+import org.rlcommunity.critterbot.javadrops.drops.DropFactory;
+import org.rlcommunity.critterbot.javadrops.drops.DropTypeRegistry;
+import org.rlcommunity.critterbot.javadrops.drops.DropTypeTable;
+import org.rlcommunity.critterbot.javadrops.drops.SimulatorDrop;
+
+public class DropProtocol
+{
+  public static final int MAX_CLASSNAME_LENGTH = 1024;
+  /** The largest drop we accept; anything larger is assumed to be garbage */
+  public static final int MAX_DROP_SIZE = 1 << 20;
+
+  protected final DropTypeRegistry aRegistry;
+
+  /** The id under which the other end wants to receive each drop type;
+    *  null until it has sent us its table */
+  protected volatile Map<Class<?>,Integer> aPeerIds;
+  /** Whether we have sent our own table */
+  protected volatile boolean aAnnounced;
+
+  /** Encodes the frames written by writeDrop */
+  protected final DropCodec aCodec = new DropCodec(this, false);
+
+  /** Whether we accept, and send, delta-encoded state drops */
+  protected volatile boolean aDeltaEncoding = false;
+  protected final StateDeltaCodec aDeltaCodec = new StateDeltaCodec();
+
+  public DropProtocol()
+  {
+    this(DropTypeRegistry.getDefault());
+  }
+
+  public DropProtocol(DropTypeRegistry pRegistry)
+  {
+    aRegistry = pRegistry;
+  }
+
+  /** Reads in the next drop. Type tables sent by the other end are
+    *  processed here and not returned.
+    *
+    * @return The new drop, or null if a type table was read instead.
+    * @throws ClassNotFoundException If the drop's type is unknown.
+    */
+  public SimulatorDrop readDrop(InterfaceInputStream pIn)
+    throws IOException, ClassNotFoundException
+  {
+    int header = pIn.readInt();
+    SimulatorDrop newDrop;
+
+    if (header < 0)
+      newDrop = createDrop(-1 - header);
+    else
+    {
+      // If we don't test for this, we can kill the heap
+      if (header > MAX_CLASSNAME_LENGTH)
+        throw new RuntimeException ("Garbage data");
+
+      newDrop = createDrop(pIn.readString(header));
+    }
+
+    // Read in the drop size
+    int dropSize = pIn.readInt();
+    if (dropSize < 0 || dropSize > MAX_DROP_SIZE)
+      throw new RuntimeException ("Garbage data");
+
+    // Read in the drop!
+    if (newDrop instanceof ByteBufferDrop)
+    {
+      ByteBuffer data = pIn.readBuffer(dropSize);
+      ((ByteBufferDrop)newDrop).readData(data, dropSize);
+    }
+    else
+      newDrop.readData(pIn, dropSize);
+
+    return received(newDrop);
+  }
+
+  /** Writes out a drop, by id if the other end knows its type, by name
+    *  otherwise. The caller is responsible for synchronizing on pOut.
+    */
+  public void writeDrop(InterfaceOutputStream pOut, SimulatorDrop pDrop)
+    throws IOException
+  {
+    pOut.writeBuffer(toWire(aCodec.encode(pDrop)));
+  }
+
+  /** Sets whether we accept delta-encoded state drops, and send them to an
+    *  end which also does. This must be set before our table is sent. */
+  public void setDeltaEncoding(boolean pDeltaEncoding)
+  {
+    aDeltaEncoding = pDeltaEncoding;
+  }
+
+  /** Returns whether state drops are sent to the other end as deltas */
+  public boolean isDeltaNegotiated()
+  {
+    return aDeltaEncoding && getPeerId(CritterStateDeltaDrop.class) >= 0;
+  }
+
+  /** Returns the codec turning state drops into deltas and back, e.g. for
+    *  its statistics */
+  public StateDeltaCodec getDeltaCodec()
+  {
+    return aDeltaCodec;
+  }
+
+  /** Returns the frame to be written in place of the given one, which is
+    *  the frame itself unless it is a state drop which should be sent as a
+    *  delta. Frames must be passed to this method in the order in which they
+    *  are written, and be written once returned.
+    */
+  public ByteBuffer toWire(ByteBuffer pFrame)
+  {
+    if (!isDeltaNegotiated())
+      return pFrame;
+
+    int stateId = getPeerId(CritterStateDrop.class);
+    int start = pFrame.position();
+    if (stateId < 0 || pFrame.remaining() < 8 ||
+        readInt(pFrame, start) != -1 - stateId ||
+        readInt(pFrame, start + 4) != StateDeltaCodec.STATE_SIZE)
+      return pFrame;
+
+    ByteBuffer frame = pFrame.duplicate();
+    frame.order(DropCodec.FRAME_ENDIAN);
+    return aDeltaCodec.encode(frame, start + 8,
+      -1 - getPeerId(CritterStateDeltaDrop.class));
+  }
+
+  /** Reads a little-endian int, whatever the buffer's byte order */
+  protected static int readInt(ByteBuffer pIn, int pIndex)
+  {
+    return (pIn.get(pIndex) & 0xFF) | (pIn.get(pIndex + 1) & 0xFF) << 8 |
+      (pIn.get(pIndex + 2) & 0xFF) << 16 | (pIn.get(pIndex + 3) & 0xFF) << 24;
+  }
+
+  /** Returns the codec used by writeDrop. It may be used to encode frames
+    *  elsewhere, under the same synchronization as writeDrop. */
+  public DropCodec getCodec()
+  {
+    return aCodec;
+  }
+
+  /** Creates a new drop from a type id found in a frame header */
+  public SimulatorDrop createDrop(int pId) throws ClassNotFoundException
+  {
+    SimulatorDrop newDrop = aRegistry.create(pId);
+    if (newDrop == null)
+      throw new ClassNotFoundException("Drop type id "+pId);
+    return newDrop;
+  }
+
+  /** Creates a new drop from a name found in a frame header */
+  public SimulatorDrop createDrop(String pName) throws ClassNotFoundException
+  {
+    return DropFactory.create(pName);
+  }
+
+  /** Processes a drop that has just been read in.
+    *
+    * @return The drop, or null if it was a type table or a state delta
+    *  which could not be decoded.
+    */
+  public SimulatorDrop received(SimulatorDrop pDrop)
+  {
+    if (pDrop instanceof DropTypeTable)
+    {
+      setPeerTable((DropTypeTable)pDrop);
+      return null;
+    }
+    else if (pDrop instanceof CritterStateDeltaDrop)
+      // Null if the delta could not be decoded
+      return aDeltaCodec.decode((CritterStateDeltaDrop)pDrop);
+    else
+      return pDrop;
+  }
+
+  /** Returns the id under which the other end wants to receive drops of
+    *  the given type, or -1 if they should be sent by name. */
+  public int getPeerId(Class<?> pType)
+  {
+    Map<Class<?>,Integer> peerIds = aPeerIds;
+    if (peerIds == null)
+      return -1;
+
+    Integer id = peerIds.get(pType);
+    return (id == null)? -1 : id.intValue();
+  }
+
+  /** Sends our table of drop types to the other end, which may then send
+    *  us drops by id. The caller is responsible for synchronizing on pOut.
+    */
+  public void announce(InterfaceOutputStream pOut) throws IOException
+  {
+    pOut.writeBuffer(encodeAnnouncement());
+  }
+
+  /** Encodes our table of drop types with the codec, for ends which write
+    *  frames themselves; see announce(). */
+  public ByteBuffer encodeAnnouncement()
+  {
+    aAnnounced = true;
+
+    DropTypeTable table = aRegistry.getTable();
+    if (!aDeltaEncoding)
+    {
+      int index = table.names.indexOf(CritterStateDeltaDrop.class.getSimpleName());
+      if (index >= 0)
+      {
+        table.ids.remove(index);
+        table.names.remove(index);
+      }
+    }
+
+    return aCodec.encode(table);
+  }
+
+  /** Returns whether the other end has sent us its table, but we have not
+    *  yet sent ours. */
+  public boolean shouldAnnounce()
+  {
+    return aPeerIds != null && !aAnnounced;
+  }
+
+  /** Returns whether drops are sent to the other end by id */
+  public boolean isNegotiated()
+  {
+    return aPeerIds != null;
+  }
+
+  /** Records the ids under which the other end wants to receive the types
+    *  that we both know. */
+  protected void setPeerTable(DropTypeTable pTable)
+  {
+    Map<Class<?>,Integer> peerIds = new HashMap<Class<?>,Integer>();
+
+    for (int i = 0; i < pTable.ids.size(); i++)
+    {
+      int peerId = pTable.ids.get(i);
+      int localId = aRegistry.getId(pTable.names.get(i));
+
+      if (localId >= 0 && peerId >= 0 && peerId <= DropTypeRegistry.MAX_TYPE_ID)
+        peerIds.put(aRegistry.getType(localId), peerId);
+    }
+
+    aPeerIds = peerIds;
+  }
+}
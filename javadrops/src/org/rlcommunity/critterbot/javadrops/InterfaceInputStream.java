@@ -132,6 +132,18 @@ public class InterfaceInputStream
     return buf;
   }
 
+  /** Reads len bytes into a little-endian buffer, which remains valid
+    *  until the next read.
+    */
+  public ByteBuffer readBuffer(int len) throws IOException
+  {
+    requireBufferSize(len);
+    aIn.readFully(aBuffer.array(), 0, len);
+    aBuffer.limit(len);
+
+    return aBuffer;
+  }
+
   public String readString(int len) throws IOException
   {
     byte[] buf = readBytes(len); 
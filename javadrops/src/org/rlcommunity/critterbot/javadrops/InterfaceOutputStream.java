@@ -125,6 +125,29 @@ public class InterfaceOutputStream
     aOut.write(array, offset, len);
   }
 
+  /** Writes the remaining bytes of a buffer, in a single call if it is
+    *  backed by an array.
+    */
+  public void writeBuffer(ByteBuffer buffer) throws IOException
+  {
+    if (buffer.hasArray())
+    {
+      aOut.write(buffer.array(), buffer.arrayOffset() + buffer.position(),
+        buffer.remaining());
+      buffer.position(buffer.limit());
+    }
+    else
+    {
+      byte[] chunk = new byte[Math.min(buffer.remaining(), 8192)];
+      while (buffer.hasRemaining())
+      {
+        int len = Math.min(chunk.length, buffer.remaining());
+        buffer.get(chunk, 0, len);
+        aOut.write(chunk, 0, len);
+      }
+    }
+  }
+
   public void writeString(String s) throws IOException
   {
     int len = s.length();
@@ -0,0 +1,250 @@
+/* Copyright 2009 Marc G. Bellemare
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package org.rlcommunity.critterbot.javadrops;
+
+/**
+  * StateDeltaCodec
+  *
+  * Delta-encodes the CritterStateDrops sent on one connection, and decodes
+  *  those received on it. The data of a state drop is a sequence of ints
+  *  (see CritterStateDrop.FIELD_NAMES), most of which do not change from
+  *  one drop to the next. Each value is sent as its difference from the
+  *  previous state sent, zigzag-encoded as a variable-length integer, and
+  *  only if it changed. The data of a CritterStateDeltaDrop is:
+  *
+  *   byte flags (KEYFRAME), byte sequence number, byte number of values,
+  *   a bitmap of the values which changed (bit i of byte i/8), and the
+  *   differences of these values, in order
+  *
+  *  A keyframe holds differences from a state of all zeros, and so may be
+  *  decoded on its own; one is sent first, then every keyframe interval.
+  *  Should a delta be lost, the receiver notices the gap in sequence
+  *  numbers and ignores deltas until the next keyframe.
+  *
+  * The sending and receiving halves are independent, and may be used by
+  *  different threads; each half must only be used by one thread at a time.
+  *
+  * Author: Marc G. Bellemare
+  *
+  */
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.rlcommunity.critterbot.javadrops.drops.CritterStateDeltaDrop;
+import org.rlcommunity.critterbot.javadrops.drops.CritterStateDrop;
+
+public class StateDeltaCodec
+{
+  /** How many deltas are sent between keyframes, by default once a second
+    *  at the robot's 100 Hz */
+  public static final int defaultKeyframeInterval = 100;
+
+  /** Set in the flags of a keyframe */
+  public static final int KEYFRAME = 0x01;
+
+  /** The size of the data of a state drop, and its number of values */
+  public static final int STATE_SIZE = new CritterStateDrop().getSize();
+  public static final int STATE_VALUES = STATE_SIZE / 4;
+
+  protected static final int BITMAP_SIZE = (STATE_VALUES + 7) / 8;
+  /** The largest encoded data: flags, sequence, count, bitmap and values
+    *  of up to 5 bytes each */
+  protected static final int MAX_DELTA_SIZE = 3 + BITMAP_SIZE + 5 * STATE_VALUES;
+
+  protected final int aKeyframeInterval;
+
+  /** The values last sent, and how many deltas were sent since the last
+    *  keyframe; -1 until the first keyframe */
+  protected final int[] aSent = new int[STATE_VALUES];
+  protected int aSinceKeyframe = -1;
+  protected int aSendSequence = 0;
+  protected final ByteBuffer aDeltaBuffer = allocate(MAX_DELTA_SIZE);
+
+  /** The values last received, and whether they are in step with the
+    *  sender */
+  protected final int[] aReceived = new int[STATE_VALUES];
+  protected boolean aInStep = false;
+  protected int aReceiveSequence;
+  protected final ByteBuffer aStateBuffer = allocate(STATE_SIZE);
+
+  /** Statistics */
+  protected volatile long aEncodedCount, aEncodedBytes, aLostCount;
+
+  public StateDeltaCodec()
+  {
+    this(defaultKeyframeInterval);
+  }
+
+  /** @param pKeyframeInterval How many deltas are sent between two
+    *  keyframes; 0 to only send keyframes. */
+  public StateDeltaCodec(int pKeyframeInterval)
+  {
+    if (pKeyframeInterval < 0)
+      throw new IllegalArgumentException("Invalid keyframe interval: "+
+        pKeyframeInterval);
+    aKeyframeInterval = pKeyframeInterval;
+  }
+
+  /** Encodes the data of a state drop as a CritterStateDeltaDrop frame.
+    *
+    * @param pData A buffer holding the state's data, encoded as in a frame.
+    * @param pOffset Where the state's data starts in pData.
+    * @param pHeader The header of the new frame.
+    * @return A new buffer holding the whole frame.
+    */
+  public ByteBuffer encode(ByteBuffer pData, int pOffset, int pHeader)
+  {
+    boolean keyframe = (aSinceKeyframe < 0 ||
+      aSinceKeyframe >= aKeyframeInterval);
+    if (keyframe)
+    {
+      Arrays.fill(aSent, 0);
+      aSinceKeyframe = 0;
+    }
+    else
+      aSinceKeyframe++;
+
+    ByteBuffer out = aDeltaBuffer;
+    out.clear();
+    out.put((byte)(keyframe? KEYFRAME : 0));
+    out.put((byte)aSendSequence++);
+    out.put((byte)STATE_VALUES);
+
+    int bitmap = out.position();
+    out.position(bitmap + BITMAP_SIZE);
+    for (int i = 0; i < BITMAP_SIZE; i++)
+      out.put(bitmap + i, (byte)0);
+
+    for (int i = 0; i < STATE_VALUES; i++)
+    {
+      int value = pData.getInt(pOffset + 4 * i);
+      int delta = value - aSent[i];
+      if (delta != 0)
+      {
+        out.put(bitmap + i / 8, (byte)(out.get(bitmap + i / 8) | (1 << (i % 8))));
+        putVarint(out, (delta << 1) ^ (delta >> 31));
+        aSent[i] = value;
+      }
+    }
+    out.flip();
+
+    ByteBuffer frame = allocate(4 + 4 + out.remaining());
+    frame.putInt(pHeader);
+    frame.putInt(out.remaining());
+    frame.put(out);
+    frame.flip();
+
+    aEncodedCount++;
+    aEncodedBytes += frame.remaining();
+    return frame;
+  }
+
+  /** Decodes a delta received on this connection.
+    *
+    * @return The state, or null if it cannot be decoded because an earlier
+    *  delta was lost.
+    */
+  public CritterStateDrop decode(CritterStateDeltaDrop pDrop)
+  {
+    ByteBuffer in = ByteBuffer.wrap(pDrop.data);
+    if (in.remaining() < 3)
+      throw new RuntimeException ("Garbage data");
+
+    int flags = in.get();
+    int sequence = in.get() & 0xFF;
+    int count = in.get() & 0xFF;
+    if (count != STATE_VALUES)
+      throw new RuntimeException ("State delta of "+count+" values, expected "+
+        STATE_VALUES);
+
+    boolean keyframe = (flags & KEYFRAME) != 0;
+    if (keyframe)
+    {
+      Arrays.fill(aReceived, 0);
+      aInStep = true;
+    }
+    else if (aInStep && sequence != aReceiveSequence)
+    {
+      System.err.println ("Warning: state deltas lost, waiting for a keyframe");
+      aInStep = false;
+    }
+    aReceiveSequence = (sequence + 1) & 0xFF;
+
+    if (!aInStep)
+    {
+      aLostCount++;
+      return null;
+    }
+
+    int bitmap = in.position();
+    in.position(bitmap + BITMAP_SIZE);
+    for (int i = 0; i < STATE_VALUES; i++)
+    {
+      if ((in.get(bitmap + i / 8) & (1 << (i % 8))) != 0)
+      {
+        int zigzag = getVarint(in);
+        aReceived[i] += (zigzag >>> 1) ^ -(zigzag & 1);
+      }
+    }
+
+    aStateBuffer.clear();
+    DropCodec.putInts(aStateBuffer, aReceived);
+    aStateBuffer.flip();
+
+    CritterStateDrop state = new CritterStateDrop();
+    state.readData(aStateBuffer, STATE_SIZE);
+    return state;
+  }
+
+  /** Returns the number of states encoded */
+  public long getEncodedCount() { return aEncodedCount; }
+
+  /** Returns the size of the frames encoded, in bytes */
+  public long getEncodedBytes() { return aEncodedBytes; }
+
+  /** Returns the number of deltas received which could not be decoded */
+  public long getLostCount() { return aLostCount; }
+
+  protected static void putVarint(ByteBuffer pOut, int pValue)
+  {
+    while ((pValue & ~0x7F) != 0)
+    {
+      pOut.put((byte)((pValue & 0x7F) | 0x80));
+      pValue >>>= 7;
+    }
+    pOut.put((byte)pValue);
+  }
+
+  protected static int getVarint(ByteBuffer pIn)
+  {
+    int value = 0;
+    for (int shift = 0; shift < 35; shift += 7)
+    {
+      int b = pIn.get();
+      value |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0)
+        return value;
+    }
+
+    throw new RuntimeException ("Garbage data");
+  }
+
+  protected static ByteBuffer allocate(int pSize)
+  {
+    ByteBuffer buffer = ByteBuffer.allocate(pSize);
+    buffer.order(DropCodec.FRAME_ENDIAN);
+    return buffer;
+  }
+}
@@ -55,6 +55,8 @@ public class DiscoAgent {
 	/** TCP information for connection to a disco server **/
 	private static final int portNum = 2330;
 	private static final String hostName = "localhost";
+	/** How long, in milliseconds, main() waits for drops at a time */
+	private static final long receiveTimeout = 1000;
 	
     /**
      * Create a new DiscoAgent.
@@ -183,8 +185,8 @@ public class DiscoAgent {
         DiscoAgent agent = new DiscoAgent();
         
         while (true) {
-            // Receive drops from the simulator
-            List<SimulatorDrop> drops = dropInterface.receiveDrops();
+            // Wait for drops from the simulator
+            List<SimulatorDrop> drops = dropInterface.receiveDrops(receiveTimeout);
 
             // Pass them on to the agent (this may be an empty list)
             for (SimulatorDrop d : drops) {
@@ -196,12 +198,6 @@ public class DiscoAgent {
             if (actionDrop != null) {
                 dropInterface.sendDrop(actionDrop);
             }
-            
-            // Sleep for a little while to give the processor a break
-            try {
-                Thread.sleep(10);
-            } catch (InterruptedException ex) {
-            }
         }
     }
 }
@@ -24,33 +24,67 @@ import java.net.InetAddress;
 import java.net.Socket;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
+import org.rlcommunity.critterbot.javadrops.DropProtocol;
 import org.rlcommunity.critterbot.javadrops.InterfaceInputStream;
 import org.rlcommunity.critterbot.javadrops.InterfaceOutputStream;
-import org.rlcommunity.critterbot.javadrops.drops.DropFactory;
 import org.rlcommunity.critterbot.javadrops.drops.SimulatorDrop;
 
 
-public class DiscoInterfaceClient extends Thread implements DropClient
+public class DiscoInterfaceClient extends Thread implements SignallingDropClient
 {
-  public final int MAX_CLASSNAME_LENGTH = 1024;
+  public final int MAX_CLASSNAME_LENGTH = DropProtocol.MAX_CLASSNAME_LENGTH;
 
-  /** The maximum number of drops to keep in the queue */
+  /** The maximum number of drops of each type to keep in the queue */
   protected final int aMaxQueuedDrops;
   
   protected Socket aClient;
 
   /** List of queue'd elements waiting to be parsed by our server */
-  protected final LinkedList<SimulatorDrop> aInQueue;
+  protected final InboundDropQueue aInQueue;
 
   protected InterfaceInputStream aIn;
   protected InterfaceOutputStream aOut;
 
+  /** How drops are encoded on this connection */
+  protected final DropProtocol aProtocol = new DropProtocol();
+
   protected boolean aClosed = true;
 
+  /** Told whenever a drop is added to aInQueue */
+  protected final List<DropArrivalListener> aArrivalListeners =
+    new CopyOnWriteArrayList<DropArrivalListener>();
+
 
   /** Creates a new client handler corresponding to the given Socket */
   public DiscoInterfaceClient(InetAddress pNet, int pPort, int pMaxQueueSize) {
+    this(pNet, pPort, pMaxQueueSize, false);
+  }
+
+  /** Creates a new client connected to the given server.
+    *
+    * @param pNegotiateTypes Whether to send our table of drop types to the
+    *   server, so that drops are exchanged by numeric id rather than by
+    *   name. This should only be set when the server is a
+    *   DiscoInterfaceServer; other servers may not know about type tables.
+    */
+  public DiscoInterfaceClient(InetAddress pNet, int pPort, int pMaxQueueSize,
+    boolean pNegotiateTypes) {
+    this(pNet, pPort, pMaxQueueSize, pNegotiateTypes, false);
+  }
+
+  /** Creates a new client connected to the given server.
+    *
+    * @param pNegotiateTypes As above.
+    * @param pDeltaEncoding Whether to ask for state drops to be sent as
+    *   deltas, and to send ours as deltas, if the server agrees. This has
+    *   no effect unless pNegotiateTypes is set.
+    */
+  public DiscoInterfaceClient(InetAddress pNet, int pPort, int pMaxQueueSize,
+    boolean pNegotiateTypes, boolean pDeltaEncoding) {
+    aProtocol.setDeltaEncoding(pDeltaEncoding);
+
     try {
 		aClient = new Socket(pNet, pPort);
 		aClosed = false;
@@ -73,8 +107,25 @@ public class DiscoInterfaceClient extends Thread implements DropClient
       System.err.println ("Failed to create input/output streams.");     	
     }
 
-    aInQueue = new LinkedList<SimulatorDrop>();
+    aInQueue = new InboundDropQueue(pMaxQueueSize);
     aMaxQueuedDrops = pMaxQueueSize;
+
+    if (pNegotiateTypes && !aClosed)
+    {
+      // The server replies with its own table
+      try
+      {
+        synchronized(aOut)
+        {
+          aProtocol.announce(aOut);
+        }
+      }
+      catch (IOException e)
+      {
+        System.err.println ("Could not send drop types to the server.");
+        this.close();
+      }
+    }
   }
 
   /** Main code for this Thread */
@@ -83,53 +134,27 @@ public class DiscoInterfaceClient extends Thread implements DropClient
     while (!aClosed)
     {
       // Block and wait for new data
-      // Read in a new drop (first its class name)
       try 
       {
-        int nameLength = aIn.readInt();
+        // Read in a new drop, either by name or by type id
+        SimulatorDrop newDrop = aProtocol.readDrop(aIn);
 
-        // If we don't test for this, we can kill the heap 
-        if (nameLength > MAX_CLASSNAME_LENGTH)
+        // A null drop was a type table, and needs no further processing
+        if (newDrop != null)
         {
-          throw new RuntimeException ("Garbage data");
-        }
+          // Add the drop to the queue, which discards old elements
+          aInQueue.add(newDrop);
 
-        String className = aIn.readString(nameLength);
-
-        // Create a new Drop
-        try
-        {
-          SimulatorDrop newDrop = DropFactory.create(className);
-
-          // Read in the drop size
-          int dropSize = aIn.readInt();
-          // Read in the drop!
-          newDrop.readData(aIn, dropSize);
-        
-          // Add the drop to the queue
-          synchronized(aInQueue)
-          {
-            aInQueue.add(newDrop);
-            // Remove old elements
-            while (aInQueue.size() > aMaxQueuedDrops) {
-                SimulatorDrop deadDrop = aInQueue.removeFirst();
-                //System.err.println ("Warning: discarding old drop: "+
-                //        deadDrop.getClass().getSimpleName());
-            }
-          }
-        }
-        catch (ClassNotFoundException e)
-        {
-          System.err.println ("Invalid drop name: "+className);
-          System.err.println ("Aborting - no synchronization mechanism.");
-          close();
-        }
-        // Catch other ugly exceptions here, and throw them as Runtime
-        catch (Exception e)
-        {
-          throw new RuntimeException(e);
+          for (DropArrivalListener l : aArrivalListeners)
+            l.dropsArrived(this);
         }
       }
+      catch (ClassNotFoundException e)
+      {
+        System.err.println ("Invalid drop name: "+e.getMessage());
+        System.err.println ("Aborting - no synchronization mechanism.");
+        close();
+      }
       catch (IOException e)
       {
         System.err.println ("IOException in DiscoInterfaceClientHandler.run - aborting.");
@@ -161,14 +186,7 @@ public class DiscoInterfaceClient extends Thread implements DropClient
       // Write the Drop's data to the output stream
       try
       {
-        String className = pData.getClass().getSimpleName();
-        aOut.writeString(className);
-    
-        // Write the drop size
-        aOut.writeInt(pData.getSize());
-        
-        // Get the drop to write itself to the output stream
-        pData.writeData(aOut);
+        aProtocol.writeDrop(aOut, pData);
       }
       catch (IOException e)
       {
@@ -185,15 +203,20 @@ public class DiscoInterfaceClient extends Thread implements DropClient
   public List<SimulatorDrop> receive()
   {
 	LinkedList<SimulatorDrop> drops = new LinkedList<SimulatorDrop>();
-    // Pop a drop if there is one
-    synchronized (aInQueue)
-    {
-      while (!aInQueue.isEmpty())
-        drops.add(aInQueue.remove());
-    }
+    aInQueue.drainTo(drops);
     return drops;
   }
 
+  public void addArrivalListener(DropArrivalListener pListener)
+  {
+    aArrivalListeners.add(pListener);
+  }
+
+  public void removeArrivalListener(DropArrivalListener pListener)
+  {
+    aArrivalListeners.remove(pListener);
+  }
+
   /** 'Lazy' close of the socket. This will cause the socket to be closed 
     *  by the client thread.
     */
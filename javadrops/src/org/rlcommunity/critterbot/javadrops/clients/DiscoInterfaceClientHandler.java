@@ -17,41 +17,115 @@ package org.rlcommunity.critterbot.javadrops.clients;
   * DiscoInterfaceClientHandler
   *
   * This class handles client handling for the Disco Interface TCP/IP server.
+  *
+  * Drops sent to the client are encoded right away and queued in an
+  *  OutboundDropQueue, which a separate writer thread drains, so that a
+  *  slow client never blocks the sender.
   */
 
+import org.rlcommunity.critterbot.javadrops.DropCodec;
+import org.rlcommunity.critterbot.javadrops.DropProtocol;
 import org.rlcommunity.critterbot.javadrops.InterfaceInputStream;
 import org.rlcommunity.critterbot.javadrops.InterfaceOutputStream;
 import org.rlcommunity.critterbot.javadrops.drops.*;
 
 
 import java.net.Socket;
+import java.nio.ByteBuffer;
 
-import java.util.LinkedList;
 
 import java.io.IOException;
 
 
 public class DiscoInterfaceClientHandler extends Thread
 {
-  public final int MAX_CLASSNAME_LENGTH = 1024;
+  public final int MAX_CLASSNAME_LENGTH = DropProtocol.MAX_CLASSNAME_LENGTH;
 
-  /** The maximum number of drops to keep in the queue */
+  /** The maximum number of drops of each type to keep in the queue */
   protected final int aMaxQueuedDrops;
   
   protected Socket aClient;
 
   /** List of queue'd elements waiting to be parsed by our server */
-  protected final LinkedList<SimulatorDrop> aInQueue;
+  protected final InboundDropQueue aInQueue;
 
   protected InterfaceInputStream aIn;
   protected InterfaceOutputStream aOut;
 
-  protected boolean aClosed = false;
+  /** How drops are encoded on this connection */
+  protected final DropProtocol aProtocol = new DropProtocol();
+
+  /** Frames waiting to be written to the client */
+  protected final OutboundDropQueue aOutQueue;
+  protected final Writer aWriter = new Writer();
+
+  protected volatile boolean aClosed = false;
+
+  /** Told, on behalf of aArrivalSource, whenever a drop is added to
+    *  aInQueue */
+  protected volatile DropArrivalListener aArrivalListener;
+  protected volatile DropClient aArrivalSource;
+
+  /** Writes out the queued frames */
+  protected class Writer extends Thread
+  {
+    public Writer()
+    {
+      super("DiscoInterfaceClientHandler writer");
+      setDaemon(true);
+    }
+
+    public void run()
+    {
+      try
+      {
+        ByteBuffer frame = aOutQueue.take();
+        while (frame != null)
+        {
+          aOut.writeBuffer(aProtocol.toWire(frame));
+          frame = aOutQueue.take();
+        }
+      }
+      catch (InterruptedException e)
+      {
+      }
+      catch (IOException e)
+      {
+        if (!aClosed)
+        {
+          System.err.println ("IOException in DiscoInterfaceClientHandler writer - aborting.");
+          System.err.println ("Type: "+e.toString());
+        }
+      }
+
+      if (aOutQueue.isOverflowed())
+        System.err.println ("Client too slow, disconnecting: "+aOutQueue);
+      disconnect();
+    }
+  }
 
+  /** Sets whether we accept, and send, delta-encoded state drops; see
+    *  DropProtocol. This must be set before the handler is started. */
+  public void setDeltaEncoding(boolean pDeltaEncoding)
+  {
+    aProtocol.setDeltaEncoding(pDeltaEncoding);
+  }
 
   /** Creates a new client handler corresponding to the given Socket */
   public DiscoInterfaceClientHandler(Socket pClient, int pMaxQueueSize) {
+    this(pClient, pMaxQueueSize, new OutboundDropQueue());
+  }
+
+  /** Creates a new client handler corresponding to the given Socket.
+    *
+    * @param pMaxQueueSize The maximum number of received drops of each type
+    *   to keep.
+    * @param pOutQueue The queue holding the drops waiting to be sent.
+    */
+  public DiscoInterfaceClientHandler(Socket pClient, int pMaxQueueSize,
+    OutboundDropQueue pOutQueue) {
     aClient = pClient;
+    aOutQueue = pOutQueue;
     try
     {
       aIn = new InterfaceInputStream(aClient.getInputStream());
@@ -62,63 +136,55 @@ public class DiscoInterfaceClientHandler extends Thread
       System.err.println ("Failed to create input/output streams."); 
     }
 
-    aInQueue = new LinkedList<SimulatorDrop>();
+    aInQueue = new InboundDropQueue(pMaxQueueSize);
     aMaxQueuedDrops = pMaxQueueSize;
   }
 
   /** Main code for this Thread */
   public void run()
   {
+    aWriter.start();
+
     while (!aClosed)
     {
       // Block and wait for new data
-      // Read in a new drop (first its class name)
       try 
       {
-        int nameLength = aIn.readInt();
+        // Read in a new drop, either by name or by type id
+        SimulatorDrop newDrop = aProtocol.readDrop(aIn);
 
-        // If we don't test for this, we can kill the heap 
-        if (nameLength > MAX_CLASSNAME_LENGTH)
+        // Reply to the other end's table of drop types with ours
+        if (aProtocol.shouldAnnounce())
         {
-          throw new RuntimeException ("Garbage data");
-        }
-
-        String className = aIn.readString(nameLength);
-
-        // Create a new Drop
-        try
-        {
-          SimulatorDrop newDrop = DropFactory.create(className);
-
-          // Read in the drop size
-          int dropSize = aIn.readInt();
-          // Read in the drop!
-          newDrop.readData(aIn, dropSize);
-        
-          // Add the drop to the queue
-          synchronized(aInQueue)
+          DropCodec codec = aProtocol.getCodec();
+          synchronized(codec)
           {
-            aInQueue.add(newDrop);
-            // Remove old elements
-            while (aInQueue.size() > aMaxQueuedDrops) {
-                SimulatorDrop deadDrop = aInQueue.removeFirst();
-                System.err.println ("Warning: discarding old drop: "+
-                        deadDrop.getClass().getSimpleName());
-            }
+            aOutQueue.addFirst(DropTypeTable.class,
+              DropCodec.copy(aProtocol.encodeAnnouncement()));
           }
         }
-        catch (ClassNotFoundException e)
-        {
-          System.err.println ("Invalid drop name: "+className);
-          System.err.println ("Aborting - no synchronization mechanism.");
-          close();
-        }
-        // Catch other ugly exceptions here, and throw them as Runtime
-        catch (Exception e)
+
+        // A null drop was a type table, and needs no further processing
+        if (newDrop != null)
         {
-          throw new RuntimeException(e);
+          // Add the drop to the queue; old control drops are replaced
+          //  quietly, other old drops only if too many are queued
+          SimulatorDrop deadDrop = aInQueue.add(newDrop);
+          if (deadDrop != null)
+            System.err.println ("Warning: discarding old drop: "+
+                    deadDrop.getClass().getSimpleName());
+
+          DropArrivalListener listener = aArrivalListener;
+          if (listener != null)
+            listener.dropsArrived(aArrivalSource);
         }
       }
+      catch (ClassNotFoundException e)
+      {
+        System.err.println ("Invalid drop name: "+e.getMessage());
+        System.err.println ("Aborting - no synchronization mechanism.");
+        close();
+      }
       catch (IOException e)
       {
         System.err.println ("IOException in DiscoInterfaceClientHandler.run - aborting.");
@@ -130,49 +196,55 @@ public class DiscoInterfaceClientHandler extends Thread
     }
 
     // We are closed, end the socket
-    try
-    {
-      aClient.close();
-    }
-    // Really, there is nothing to do if we fail to close the socket
-    catch (Exception ee)
-    {
-    }
+    disconnect();
   }
 
-  /** Send out a drop */ 
+  /** Send out a drop. The drop is encoded immediately, and may be
+    *  modified once this returns; it is written out later by the writer
+    *  thread. */
   public void send(SimulatorDrop pData)
   {
-    synchronized(aOut) 
-    {
-      // Write the Drop's data to the output stream
-      try
-      {
-        String className = pData.getClass().getSimpleName();
-        aOut.writeString(className);
-    
-        // Write the drop size
-        aOut.writeInt(pData.getSize());
-        
-        // Get the drop to write itself to the output stream
-        pData.writeData(aOut);
-      }
-      catch (IOException e)
-      {
-        System.err.println ("IOException in DiscoInterfaceClientHandler.send :: quitting");
-        throw new RuntimeException(e);
-      }
-    }
+    send(new EncodedDrop(pData));
+  }
+
+  /** Send out a drop which is also sent to other clients, reusing its
+    *  frame if it was already encoded for a client with the same drop
+    *  types. */
+  public void send(EncodedDrop pDrop)
+  {
+    if (aClosed) return;
+
+    ByteBuffer frame = pDrop.getFrame(aProtocol);
+
+    // The writer thread reports the overflow as it ends
+    if (!aOutQueue.offer(pDrop.getType(), frame) && aOutQueue.isOverflowed())
+      disconnect();
+  }
+
+  /** Returns the queue of drops waiting to be sent to this client, e.g. to
+    *  look at its depth and how many drops it discarded. */
+  public OutboundDropQueue getOutboundQueue()
+  {
+    return aOutQueue;
+  }
+
+  /** Sets the listener told when this client has sent us a drop.
+    *
+    * @param pListener The listener, or null.
+    * @param pSource The DropClient given to the listener, normally the
+    *   server which collects this client's drops.
+    */
+  public void setArrivalListener(DropArrivalListener pListener,
+    DropClient pSource)
+  {
+    aArrivalSource = pSource;
+    aArrivalListener = pListener;
   }
 
   public SimulatorDrop receive()
   {
     // Pop a drop if there is one
-    synchronized (aInQueue)
-    {
-      if (aInQueue.isEmpty()) return null;
-      else return aInQueue.remove();
-    }
+    return aInQueue.poll();
   }
 
   /** 'Lazy' close of the socket. This will cause the socket to be closed 
@@ -183,5 +255,21 @@ public class DiscoInterfaceClientHandler extends Thread
     aClosed = true;
   }
 
+  /** Closes the socket right away, which also ends the reading thread */
+  protected void disconnect()
+  {
+    close();
+    aOutQueue.close();
+
+    try
+    {
+      aClient.close();
+    }
+    // Really, there is nothing to do if we fail to close the socket
+    catch (Exception ee)
+    {
+    }
+  }
+
   public boolean isClosed() { return aClosed; }
 }
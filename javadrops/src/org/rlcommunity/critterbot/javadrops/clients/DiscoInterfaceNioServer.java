@@ -0,0 +1,519 @@
+/* Copyright 2009 Marc G. Bellemare
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package org.rlcommunity.critterbot.javadrops.clients;
+
+/**
+  * DiscoInterfaceNioServer
+  *
+  * A drop server speaking the same protocol as DiscoInterfaceServer, but
+  *  which serves all of its clients from a single thread using non-blocking
+  *  channels, rather than one thread per client. Incoming bytes are
+  *  buffered per client and decoded into drops once whole frames have
+  *  arrived; outgoing drops are encoded by send(), queued in each client's
+  *  bounded OutboundDropQueue, and written out by the server thread as the
+  *  clients' sockets accept them.
+  *
+  *  A new DiscoInterfaceNioServer should first be created, then started
+  *   using Thread.start().
+  *
+  * @author Marc G. Bellemare
+  */
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.rlcommunity.critterbot.javadrops.DropCodec;
+import org.rlcommunity.critterbot.javadrops.DropProtocol;
+import org.rlcommunity.critterbot.javadrops.drops.DropTypeTable;
+import org.rlcommunity.critterbot.javadrops.drops.SimulatorDrop;
+
+public class DiscoInterfaceNioServer extends Thread implements SignallingDropClient
+{
+  /** The largest amount of undecoded data we keep for a client; a client
+    *  sending larger drops than this is assumed to be sending garbage */
+  public static final int MAX_FRAME_SIZE = 1 << 20;
+
+  protected static final int INITIAL_READ_BUFFER_SIZE = 4096;
+  /** The most frames handed to the socket in one gathering write */
+  protected static final int MAX_GATHERED_FRAMES = 16;
+
+  /** One connected client */
+  protected class Connection
+  {
+    protected final SocketChannel aChannel;
+    protected final SelectionKey aKey;
+
+    /** How drops are encoded on this connection */
+    protected final DropProtocol aProtocol = new DropProtocol();
+
+    /** Bytes received but not yet decoded */
+    protected ByteBuffer aReadBuffer = ByteBuffer.allocate(INITIAL_READ_BUFFER_SIZE);
+    /** Decodes frames from aReadBuffer, on the server thread */
+    protected final DropCodec aDecoder = new DropCodec(aProtocol, false);
+
+    /** Encoded frames waiting to be written */
+    protected final OutboundDropQueue aOutQueue =
+      new OutboundDropQueue(aOutboundCapacity, aOverflowPolicy);
+    /** Frames taken from aOutQueue and being written, in a single
+      *  gathering write, between aWriteStart and aWriteEnd */
+    protected final ByteBuffer[] aWriting = new ByteBuffer[MAX_GATHERED_FRAMES];
+    protected int aWriteStart = 0, aWriteEnd = 0;
+
+    /** Decoded drops waiting to be collected by receive() */
+    protected final InboundDropQueue aInQueue = new InboundDropQueue(aMaxQueuedDrops);
+
+    protected volatile boolean aClosed = false;
+
+    public Connection(SocketChannel pChannel) throws IOException
+    {
+      aChannel = pChannel;
+      aChannel.configureBlocking(false);
+      aKey = aChannel.register(aSelector, SelectionKey.OP_READ, this);
+      aProtocol.setDeltaEncoding(aDeltaEncoding);
+    }
+
+    /** Queues a drop's frame for writing.
+      *
+      * @return false if the queue overflowed and the client should be
+      *  disconnected.
+      */
+    public boolean queue(EncodedDrop pDrop)
+    {
+      return aOutQueue.offer(pDrop.getType(), pDrop.getFrame(aProtocol));
+    }
+
+    /** Asks to be told when we can write, if there is anything to write */
+    public void updateInterest()
+    {
+      if (aClosed || !aKey.isValid()) return;
+
+      if (aOutQueue.isOverflowed())
+      {
+        System.err.println ("Client too slow, disconnecting: "+aOutQueue);
+        close();
+        return;
+      }
+
+      int ops = SelectionKey.OP_READ;
+      if (aWriteStart < aWriteEnd || !aOutQueue.isEmpty())
+        ops |= SelectionKey.OP_WRITE;
+
+      if (aKey.interestOps() != ops)
+        aKey.interestOps(ops);
+    }
+
+    /** Reads whatever the client has sent and decodes the complete drops */
+    public void read() throws IOException
+    {
+      if (!aReadBuffer.hasRemaining())
+      {
+        if (aReadBuffer.capacity() >= MAX_FRAME_SIZE)
+          throw new RuntimeException ("Garbage data");
+
+        ByteBuffer larger = ByteBuffer.allocate(2 * aReadBuffer.capacity());
+        aReadBuffer.flip();
+        larger.put(aReadBuffer);
+        aReadBuffer = larger;
+      }
+
+      if (aChannel.read(aReadBuffer) < 0)
+      {
+        close();
+        return;
+      }
+
+      aReadBuffer.flip();
+      try
+      {
+        while (aReadBuffer.hasRemaining())
+        {
+          SimulatorDrop newDrop;
+          try
+          {
+            newDrop = aDecoder.decode(aReadBuffer);
+          }
+          catch (EOFException e)
+          {
+            // The rest of the frame has not arrived yet
+            break;
+          }
+          catch (ClassNotFoundException e)
+          {
+            System.err.println ("Invalid drop name: "+e.getMessage());
+            System.err.println ("Aborting - no synchronization mechanism.");
+            close();
+            return;
+          }
+
+          // Reply to the client's table of drop types with ours
+          if (aProtocol.shouldAnnounce())
+            announce();
+
+          // A null drop was a type table, and needs no further processing
+          if (newDrop != null)
+          {
+            // Old control drops are replaced quietly, other old drops only
+            //  if too many are queued
+            SimulatorDrop deadDrop = aInQueue.add(newDrop);
+            if (deadDrop != null)
+              System.err.println ("Warning: discarding old drop: "+
+                      deadDrop.getClass().getSimpleName());
+
+            for (DropArrivalListener l : aArrivalListeners)
+              l.dropsArrived(DiscoInterfaceNioServer.this);
+          }
+        }
+      }
+      finally
+      {
+        aReadBuffer.compact();
+      }
+    }
+
+    /** Writes out as many queued frames as the socket will take */
+    public void write() throws IOException
+    {
+      while (true)
+      {
+        // Refill the gathering array once all of it has been written
+        if (aWriteStart == aWriteEnd)
+        {
+          aWriteStart = aWriteEnd = 0;
+          ByteBuffer frame;
+          while (aWriteEnd < aWriting.length &&
+                 (frame = aOutQueue.poll()) != null)
+            aWriting[aWriteEnd++] = aProtocol.toWire(frame);
+
+          if (aWriteEnd == 0)
+            break;
+        }
+
+        aChannel.write(aWriting, aWriteStart, aWriteEnd - aWriteStart);
+
+        // Let go of the frames that were completely written
+        while (aWriteStart < aWriteEnd && !aWriting[aWriteStart].hasRemaining())
+          aWriting[aWriteStart++] = null;
+
+        // The socket's buffer is full; wait until we are told to write
+        if (aWriteStart < aWriteEnd)
+          break;
+      }
+    }
+
+    public void close()
+    {
+      aClosed = true;
+      aOutQueue.close();
+      aKey.cancel();
+      aClients.remove(this);
+
+      try
+      {
+        aChannel.close();
+      }
+      // Really, there is nothing to do if we fail to close the socket
+      catch (IOException e)
+      {
+      }
+    }
+
+    protected void announce()
+    {
+      DropCodec encoder = aProtocol.getCodec();
+      synchronized (encoder)
+      {
+        aOutQueue.addFirst(DropTypeTable.class,
+          DropCodec.copy(aProtocol.encodeAnnouncement()));
+      }
+    }
+
+    public SimulatorDrop receive()
+    {
+      // Pop a drop if there is one
+      return aInQueue.poll();
+    }
+
+    public boolean isClosed() { return aClosed; }
+  }
+
+  protected ServerSocketChannel aServerChannel;
+  protected Selector aSelector;
+
+  /** The connected clients. Added and removed by the server thread, and
+    *  traversed by send() and receive() */
+  protected final List<Connection> aClients = new CopyOnWriteArrayList<Connection>();
+
+  /** The maximum number of drops of each type in each client queue */
+  protected final int aMaxQueuedDrops;
+
+  /** The capacity and overflow policy of each client's outbound queue */
+  protected final int aOutboundCapacity;
+  protected final OutboundDropQueue.OverflowPolicy aOverflowPolicy;
+
+  /** Whether clients may ask for delta-encoded state drops */
+  protected volatile boolean aDeltaEncoding =
+    DiscoInterfaceServer.defaultDeltaEncoding;
+
+  protected volatile boolean aClosed = false;
+
+  /** Told, on the server thread, whenever a client sends us a drop */
+  protected final List<DropArrivalListener> aArrivalListeners =
+    new CopyOnWriteArrayList<DropArrivalListener>();
+
+  /**
+    * Constructs a new Server which listens on the given port, sending
+    *  and receiving drops via TCP/IP.
+    *
+    * @param pPort The port to listen to.
+    */
+  public DiscoInterfaceNioServer(int pPort) {
+    this(pPort, DiscoInterfaceServer.defaultMaxQueuedDrops);
+  }
+
+  /**
+    * Constructs a new Server which listens on the given port, sending
+    *  and receiving drops via TCP/IP.
+    *
+    * @param pPort The port to listen to.
+    * @param pMaxQueuedDrops The maximum number of received drops of each type
+    *   kept for each client until receive() is called.
+    */
+  public DiscoInterfaceNioServer(int pPort, int pMaxQueuedDrops) {
+    this(pPort, pMaxQueuedDrops, OutboundDropQueue.defaultCapacity,
+      OutboundDropQueue.defaultPolicy);
+  }
+
+  /**
+    * Constructs a new Server which listens on the given port, sending
+    *  and receiving drops via TCP/IP.
+    *
+    * @param pPort The port to listen to.
+    * @param pMaxQueuedDrops The maximum number of received drops of each type
+    *   kept for each client until receive() is called.
+    * @param pOutboundCapacity The maximum number of drops waiting to be
+    *   sent to each client.
+    * @param pPolicy What to do when a client's outbound queue is full.
+    */
+  public DiscoInterfaceNioServer(int pPort, int pMaxQueuedDrops,
+    int pOutboundCapacity, OutboundDropQueue.OverflowPolicy pPolicy) {
+    super("DiscoInterfaceNioServer");
+    aOutboundCapacity = pOutboundCapacity;
+    aOverflowPolicy = pPolicy;
+
+    try
+    {
+      aSelector = Selector.open();
+      aServerChannel = ServerSocketChannel.open();
+      aServerChannel.socket().setReuseAddress(true);
+      aServerChannel.socket().bind(new InetSocketAddress(pPort));
+      aServerChannel.configureBlocking(false);
+      aServerChannel.register(aSelector, SelectionKey.OP_ACCEPT);
+    }
+    catch (IOException e)
+    {
+      System.err.println ("Failed to create DropServer socket, "+
+        e.getMessage());
+      aClosed = true;
+    }
+
+    aMaxQueuedDrops = pMaxQueuedDrops;
+  }
+
+  /**
+    * Send a given Drop out to all connected clients. The drop is encoded
+    *  immediately, once for all clients, but written out later by the
+    *  server thread.
+    */
+  public void send(SimulatorDrop pDrop)
+  {
+    if (aClients.isEmpty())
+      return;
+
+    // Encode the drop once for all clients
+    EncodedDrop encoded = new EncodedDrop(pDrop);
+
+    // Overflowing clients are disconnected by the server thread
+    for (Connection c : aClients)
+      if (!c.isClosed())
+        c.queue(encoded);
+
+    // The server thread needs to start listening for OP_WRITE
+    aSelector.wakeup();
+  }
+
+  /**
+    * Returns a (possibly empty) list of drops that were received from all
+    *  connected clients since the last call to receiveDrops.
+    */
+  public List<SimulatorDrop> receive()
+  {
+    LinkedList<SimulatorDrop> drops = new LinkedList<SimulatorDrop>();
+
+    for (Connection c : aClients)
+    {
+      SimulatorDrop drop = c.receive();
+
+      while (drop != null)
+      {
+        drops.add(drop);
+        drop = c.receive();
+      }
+    }
+
+    return drops;
+  }
+
+  /** Returns the outbound queue of each connected client, e.g. to look at
+    *  their depth and how many drops they discarded. */
+  public List<OutboundDropQueue> getOutboundQueues()
+  {
+    List<OutboundDropQueue> queues = new ArrayList<OutboundDropQueue>();
+    for (Connection c : aClients)
+      queues.add(c.aOutQueue);
+    return queues;
+  }
+
+  /** Returns the port we listen to, e.g. the one chosen by the system
+    *  when constructed with port 0; -1 if we could not listen */
+  public int getPort()
+  {
+    return (aServerChannel == null)? -1 :
+      aServerChannel.socket().getLocalPort();
+  }
+
+  /** Returns the number of connected clients */
+  public int getNumClients()
+  {
+    return aClients.size();
+  }
+
+  /** Sets whether clients may ask for delta-encoded state drops (see
+    *  DropProtocol); only clients connecting afterwards are affected. */
+  public void setDeltaEncoding(boolean pDeltaEncoding)
+  {
+    aDeltaEncoding = pDeltaEncoding;
+  }
+
+  /** Stops the server thread and closes all connections. */
+  public void close()
+  {
+    aClosed = true;
+    if (aSelector != null)
+      aSelector.wakeup();
+  }
+
+  public void addArrivalListener(DropArrivalListener pListener)
+  {
+    aArrivalListeners.add(pListener);
+  }
+
+  public void removeArrivalListener(DropArrivalListener pListener)
+  {
+    aArrivalListeners.remove(pListener);
+  }
+
+  /** From the Thread class */
+  @Override
+  public void run()
+  {
+    while (!aClosed)
+    {
+      try
+      {
+        for (Connection c : aClients)
+          c.updateInterest();
+
+        aSelector.select();
+
+        Iterator<SelectionKey> keys = aSelector.selectedKeys().iterator();
+        while (keys.hasNext())
+        {
+          SelectionKey key = keys.next();
+          keys.remove();
+
+          if (!key.isValid())
+            continue;
+
+          if (key.isAcceptable())
+            accept();
+          else
+            handle((Connection)key.attachment(), key);
+        }
+      }
+      catch (IOException e)
+      {
+        throw new RuntimeException(e.getMessage());
+      }
+    }
+
+    // We are closed, end all sockets
+    for (Connection c : aClients)
+      c.close();
+
+    try
+    {
+      if (aServerChannel != null) aServerChannel.close();
+      if (aSelector != null) aSelector.close();
+    }
+    catch (IOException e)
+    {
+    }
+  }
+
+  protected void accept() throws IOException
+  {
+    SocketChannel channel = aServerChannel.accept();
+    if (channel == null)
+      return;
+
+    System.out.println ("New client!");
+    channel.socket().setTcpNoDelay(true);
+    aClients.add(new Connection(channel));
+  }
+
+  /** Reads from and writes to a client, closing it if anything goes wrong */
+  protected void handle(Connection pClient, SelectionKey pKey)
+  {
+    try
+    {
+      if (pKey.isReadable())
+        pClient.read();
+      if (pKey.isValid() && pKey.isWritable())
+        pClient.write();
+    }
+    catch (IOException e)
+    {
+      System.err.println ("IOException in DiscoInterfaceNioServer - closing client.");
+      System.err.println ("Type: "+e.toString());
+      pClient.close();
+    }
+    catch (RuntimeException e)
+    {
+      // Garbage from one client should not bring down the others
+      System.err.println ("Closing client: "+e.toString());
+      pClient.close();
+    }
+  }
+}
@@ -24,12 +24,18 @@ package org.rlcommunity.critterbot.javadrops.clients;
   *  A new DiscoInterfaceServer should first be created, then started using
   *   Thread.start().
   *
+  *  Drops sent to each client wait in a bounded OutboundDropQueue, so that
+  *   a slow client cannot hold up the sender; the queue's capacity and
+  *   overflow policy may be given to the constructor.
+  *
   * @author Marc G. Bellemare
   */
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import java.io.IOException;
 
@@ -40,17 +46,38 @@ import org.rlcommunity.critterbot.javadrops.drops.*;
  * Added by Brian
  */
 
-public class DiscoInterfaceServer extends Thread implements DropClient 
+public class DiscoInterfaceServer extends Thread implements SignallingDropClient
 {
   protected ServerSocket aSocket;
 
   protected LinkedList<DiscoInterfaceClientHandler> aClients;
 
-  /** The maximum number of drops in each client queue */
+  /** The maximum number of drops of each type in each client queue */
   protected int aMaxQueuedDrops;
 
   public static final int defaultMaxQueuedDrops = 20;
 
+  /** The capacity and overflow policy of each client's outbound queue */
+  protected final int aOutboundCapacity;
+  protected final OutboundDropQueue.OverflowPolicy aOverflowPolicy;
+
+  /** Whether clients may ask for delta-encoded state drops */
+  protected volatile boolean aDeltaEncoding = defaultDeltaEncoding;
+
+  public static final boolean defaultDeltaEncoding = true;
+
+  /** Told whenever one of our clients sends us a drop */
+  protected final List<DropArrivalListener> aArrivalListeners =
+    new CopyOnWriteArrayList<DropArrivalListener>();
+  protected final DropArrivalListener aHandlerListener =
+    new DropArrivalListener() {
+      public void dropsArrived(DropClient pClient)
+      {
+        for (DropArrivalListener l : aArrivalListeners)
+          l.dropsArrived(pClient);
+      }
+    };
+
   /**
     * Constructs a new Server which listens on the given port, sending
     *  and receiving drops via TCP/IP.
@@ -68,6 +95,26 @@ public class DiscoInterfaceServer extends Thread implements DropClient
     * @param pPort The port to listen to.
     */
   public DiscoInterfaceServer(int pPort, int pMaxQueuedDrops) {
+    this(pPort, pMaxQueuedDrops, OutboundDropQueue.defaultCapacity,
+      OutboundDropQueue.defaultPolicy);
+  }
+
+  /**
+    * Constructs a new Server which listens on the given port, sending
+    *  and receiving drops via TCP/IP.
+    *
+    * @param pPort The port to listen to.
+    * @param pMaxQueuedDrops The maximum number of received drops of each type
+    *   kept for each client.
+    * @param pOutboundCapacity The maximum number of drops waiting to be
+    *   sent to each client.
+    * @param pPolicy What to do when a client's outbound queue is full.
+    */
+  public DiscoInterfaceServer(int pPort, int pMaxQueuedDrops,
+    int pOutboundCapacity, OutboundDropQueue.OverflowPolicy pPolicy) {
+    aOutboundCapacity = pOutboundCapacity;
+    aOverflowPolicy = pPolicy;
+
     try
     {
       aSocket = new ServerSocket(pPort);
@@ -83,16 +130,26 @@ public class DiscoInterfaceServer extends Thread implements DropClient
     aMaxQueuedDrops = pMaxQueuedDrops;
   }
 
+  /** Sets whether clients may ask for delta-encoded state drops (see
+    *  DropProtocol); only clients connecting afterwards are affected. */
+  public void setDeltaEncoding(boolean pDeltaEncoding)
+  {
+    aDeltaEncoding = pDeltaEncoding;
+  }
+
   /**
-    * Send a given Drop out to all connected clients.
+    * Send a given Drop out to all connected clients. The drop is encoded
+    *  once, and the same frame is queued for every client.
     */
   public void send(SimulatorDrop pDrop)
   {
     cleanupClients();
 
+    EncodedDrop encoded = new EncodedDrop(pDrop);
+
     // Simply call each client handler's send method
     for (DiscoInterfaceClientHandler ch : aClients)
-      ch.send(pDrop);
+      ch.send(encoded);
   }
 
   /**
@@ -122,6 +179,16 @@ public class DiscoInterfaceServer extends Thread implements DropClient
     return drops;
   }
 
+  /** Returns the outbound queue of each connected client, e.g. to look at
+    *  their depth and how many drops they discarded. */
+  public synchronized List<OutboundDropQueue> getOutboundQueues()
+  {
+    List<OutboundDropQueue> queues = new ArrayList<OutboundDropQueue>();
+    for (DiscoInterfaceClientHandler ch : aClients)
+      queues.add(ch.getOutboundQueue());
+    return queues;
+  }
+
   /** Method to get rid of sockets that have been closed */
   public synchronized void cleanupClients()
   {
@@ -140,6 +207,16 @@ public class DiscoInterfaceServer extends Thread implements DropClient
       aClients.remove(ch);
   }
 
+  public void addArrivalListener(DropArrivalListener pListener)
+  {
+    aArrivalListeners.add(pListener);
+  }
+
+  public void removeArrivalListener(DropArrivalListener pListener)
+  {
+    aArrivalListeners.remove(pListener);
+  }
+
   /** From the Thread class */
     @Override
   public void run()
@@ -154,7 +231,10 @@ public class DiscoInterfaceServer extends Thread implements DropClient
         Socket clientSocket = aSocket.accept();
         System.out.println ("New client!");
         DiscoInterfaceClientHandler ch = 
-          new DiscoInterfaceClientHandler(clientSocket, aMaxQueuedDrops);
+          new DiscoInterfaceClientHandler(clientSocket, aMaxQueuedDrops,
+            new OutboundDropQueue(aOutboundCapacity, aOverflowPolicy));
+        ch.setArrivalListener(aHandlerListener, this);
+        ch.setDeltaEncoding(aDeltaEncoding);
         ch.start();
         aClients.add(ch);
       }
@@ -108,6 +108,8 @@ public class DiscoRewardGenerator {
     /** A main method for running the reward generator. Copied from DiscoAgent.java. */
 
     public static final int discoRewardGeneratorPort = 2326;
+    /** How long, in milliseconds, main() waits for drops at a time */
+    protected static final long receiveTimeout = 1000;
     
     public static void main(String[] args) {
         // Create a TCP server to talk with Disco
@@ -125,8 +127,8 @@ public class DiscoRewardGenerator {
         DiscoRewardGenerator generator = new DiscoRewardGenerator();
         
         while (true) {
-            // Receive drops from the simulator
-            List<SimulatorDrop> drops = dropInterface.receiveDrops();
+            // Wait for drops from the simulator
+            List<SimulatorDrop> drops = dropInterface.receiveDrops(receiveTimeout);
 
             // Pass them on (this may be an empty list)
             for (SimulatorDrop d : drops) {
@@ -138,12 +140,6 @@ public class DiscoRewardGenerator {
             if (rewardDrop != null) {
                 dropInterface.sendDrop(rewardDrop);
             }
-            
-            // Sleep for a little while to give the processor a break
-            try {
-                Thread.sleep(10);
-            } catch (InterruptedException ex) {
-            }
         }
     }
 }
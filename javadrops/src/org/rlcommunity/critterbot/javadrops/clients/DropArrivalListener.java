@@ -0,0 +1,32 @@
+/* Copyright 2009 Marc G. Bellemare
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package org.rlcommunity.critterbot.javadrops.clients;
+
+/**
+  * DropArrivalListener
+  *
+  * Told by a SignallingDropClient when it has new drops, so that whoever
+  *  collects them does not need to poll the client.
+  *
+  * @author Marc G. Bellemare
+  */
+
+public interface DropArrivalListener
+{
+  /** Called when new drops may be collected with pClient.receive(). This is
+    *  called on the thread which received the drops, and should return
+    *  quickly.
+    */
+  public void dropsArrived(DropClient pClient);
+}
@@ -0,0 +1,110 @@
+/* Copyright 2009 Marc G. Bellemare
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package org.rlcommunity.critterbot.javadrops.clients;
+
+/**
+  * EncodedDrop
+  *
+  * A drop being broadcast to several clients, together with the frames it
+  *  has been encoded into. Frames only differ between clients by their
+  *  header (the drop's name, or the id the client gave its type), so the
+  *  drop is encoded once per distinct header rather than once per client;
+  *  each client is then given its own duplicate() of the shared frame,
+  *  whose content must not be modified.
+  *
+  * @author Marc G. Bellemare
+  */
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.rlcommunity.critterbot.javadrops.DropCodec;
+import org.rlcommunity.critterbot.javadrops.DropProtocol;
+import org.rlcommunity.critterbot.javadrops.drops.SimulatorDrop;
+
+public class EncodedDrop
+{
+  protected final SimulatorDrop aDrop;
+
+  /** The frame for the first header we encoded, which is usually the only
+    *  one; frames for other headers are kept in aOtherFrames */
+  protected int aFirstId;
+  protected ByteBuffer aFirstFrame;
+  protected Map<Integer,ByteBuffer> aOtherFrames;
+
+  public EncodedDrop(SimulatorDrop pDrop)
+  {
+    aDrop = pDrop;
+  }
+
+  public SimulatorDrop getDrop()
+  {
+    return aDrop;
+  }
+
+  public Class<?> getType()
+  {
+    return aDrop.getClass();
+  }
+
+  /** Returns a frame encoding the drop for the given connection, encoding
+    *  it with the connection's codec if no frame with the same header was
+    *  encoded yet.
+    *
+    * @return A buffer of its own, sharing its content with the other frames
+    *   returned for the same header.
+    */
+  public synchronized ByteBuffer getFrame(DropProtocol pProtocol)
+  {
+    int id = pProtocol.getPeerId(aDrop.getClass());
+
+    if (aFirstFrame == null)
+    {
+      aFirstId = id;
+      aFirstFrame = encode(pProtocol);
+      return aFirstFrame.duplicate();
+    }
+    else if (aFirstId == id)
+      return aFirstFrame.duplicate();
+
+    if (aOtherFrames == null)
+      aOtherFrames = new HashMap<Integer,ByteBuffer>();
+
+    ByteBuffer frame = aOtherFrames.get(id);
+    if (frame == null)
+    {
+      frame = encode(pProtocol);
+      aOtherFrames.put(id, frame);
+    }
+
+    return frame.duplicate();
+  }
+
+  /** Returns the number of times the drop was encoded */
+  public synchronized int getEncodedCount()
+  {
+    if (aFirstFrame == null) return 0;
+    return 1 + (aOtherFrames == null? 0 : aOtherFrames.size());
+  }
+
+  protected ByteBuffer encode(DropProtocol pProtocol)
+  {
+    DropCodec codec = pProtocol.getCodec();
+    synchronized (codec)
+    {
+      return codec.encodeCopy(aDrop);
+    }
+  }
+}
@@ -0,0 +1,176 @@
+/* Copyright 2009 Marc G. Bellemare
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package org.rlcommunity.critterbot.javadrops.clients;
+
+/**
+  * InboundDropQueue
+  *
+  * The drops received from one connection, waiting to be collected by
+  *  receive(). How drops of each type are queued is decided by their
+  *  CoalescingPolicy: by default, only the latest control drop is kept,
+  *  since only it matters to the robot, whereas every other drop is kept
+  *  in order.
+  *
+  * The queue holds at most a given number of drops of each type; when a
+  *  type has too many, its oldest drops are discarded, so that a burst of
+  *  one type never pushes out drops of another.
+  *
+  * @author Marc G. Bellemare
+  */
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.rlcommunity.critterbot.javadrops.drops.CritterControlDrop;
+import org.rlcommunity.critterbot.javadrops.drops.SimulatorDrop;
+
+public class InboundDropQueue
+{
+  /** How drops of one type are queued */
+  public enum CoalescingPolicy {
+    /** Keep every drop, in order */
+    FIFO,
+    /** Keep only the newest drop; a new drop replaces the queued one */
+    LATEST_ONLY
+  };
+
+  public static final CoalescingPolicy defaultPolicy = CoalescingPolicy.FIFO;
+
+  protected final LinkedList<SimulatorDrop> aDrops = new LinkedList<SimulatorDrop>();
+  /** The maximum number of queued drops of each type */
+  protected final int aMaxQueuedDrops;
+
+  /** The policy of each type which does not use defaultPolicy */
+  protected final Map<Class<?>,CoalescingPolicy> aPolicies =
+    new HashMap<Class<?>,CoalescingPolicy>();
+  /** The number of queued drops of each type */
+  protected final Map<Class<?>,Integer> aCounts = new HashMap<Class<?>,Integer>();
+
+  /** Statistics */
+  protected long aCoalescedCount, aDiscardedCount;
+
+  /** Creates a new queue, which keeps only the latest control drop.
+    *
+    * @param pMaxQueuedDrops The maximum number of queued drops of each type.
+    */
+  public InboundDropQueue(int pMaxQueuedDrops)
+  {
+    if (pMaxQueuedDrops <= 0)
+      throw new IllegalArgumentException("Invalid queue size: "+pMaxQueuedDrops);
+
+    aMaxQueuedDrops = pMaxQueuedDrops;
+    aPolicies.put(CritterControlDrop.class, CoalescingPolicy.LATEST_ONLY);
+  }
+
+  /** Sets how drops of the given type are queued */
+  public synchronized void setPolicy(Class<?> pType, CoalescingPolicy pPolicy)
+  {
+    aPolicies.put(pType, pPolicy);
+  }
+
+  public synchronized CoalescingPolicy getPolicy(Class<?> pType)
+  {
+    CoalescingPolicy policy = aPolicies.get(pType);
+    return (policy == null)? defaultPolicy : policy;
+  }
+
+  /** Adds a newly received drop to the queue.
+    *
+    * @return A drop that had to be discarded because too many drops of its
+    *  type were queued, or null. Drops replaced under the LATEST_ONLY policy
+    *  are not returned.
+    */
+  public synchronized SimulatorDrop add(SimulatorDrop pDrop)
+  {
+    Class<?> type = pDrop.getClass();
+    int count = getCount(type);
+    SimulatorDrop discarded = null;
+
+    if (count > 0 && getPolicy(type) == CoalescingPolicy.LATEST_ONLY)
+    {
+      removeOldest(type);
+      aCoalescedCount++;
+      count--;
+    }
+    else if (count >= aMaxQueuedDrops)
+    {
+      discarded = removeOldest(type);
+      aDiscardedCount++;
+      count--;
+    }
+
+    aDrops.add(pDrop);
+    aCounts.put(type, count + 1);
+
+    return discarded;
+  }
+
+  /** Removes the oldest queued drop, or returns null if there is none */
+  public synchronized SimulatorDrop poll()
+  {
+    if (aDrops.isEmpty())
+      return null;
+
+    SimulatorDrop drop = aDrops.removeFirst();
+    Class<?> type = drop.getClass();
+    aCounts.put(type, getCount(type) - 1);
+    return drop;
+  }
+
+  /** Moves all queued drops, oldest first, to the given list */
+  public synchronized void drainTo(List<SimulatorDrop> pOut)
+  {
+    pOut.addAll(aDrops);
+    aDrops.clear();
+    aCounts.clear();
+  }
+
+  public synchronized boolean isEmpty() { return aDrops.isEmpty(); }
+
+  public synchronized int size() { return aDrops.size(); }
+
+  /** Returns the number of drops replaced by a newer drop of their type
+    *  under the LATEST_ONLY policy */
+  public synchronized long getCoalescedCount() { return aCoalescedCount; }
+
+  /** Returns the number of drops discarded because too many drops of their
+    *  type were queued */
+  public synchronized long getDiscardedCount() { return aDiscardedCount; }
+
+  protected int getCount(Class<?> pType)
+  {
+    Integer count = aCounts.get(pType);
+    return (count == null)? 0 : count.intValue();
+  }
+
+  /** Removes the oldest queued drop of the given type; the caller updates
+    *  aCounts */
+  protected SimulatorDrop removeOldest(Class<?> pType)
+  {
+    for (Iterator<SimulatorDrop> it = aDrops.iterator(); it.hasNext(); )
+    {
+      SimulatorDrop drop = it.next();
+      if (drop.getClass() == pType)
+      {
+        it.remove();
+        return drop;
+      }
+    }
+
+    return null;
+  }
+}
@@ -0,0 +1,233 @@
+/* Copyright 2009 Marc G. Bellemare
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package org.rlcommunity.critterbot.javadrops.clients;
+
+/**
+  * OutboundDropQueue
+  *
+  * A bounded queue of encoded drop frames waiting to be written to one
+  *  client. The simulation thread adds frames to it and never blocks; a
+  *  writer drains it at whatever pace the client's socket allows. What
+  *  happens when a slow client lets the queue fill up is decided by its
+  *  OverflowPolicy.
+  *
+  * @author Marc G. Bellemare
+  */
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+public class OutboundDropQueue
+{
+  /** What to do with a new frame when the queue is full */
+  public enum OverflowPolicy {
+    /** Discard the oldest queued frames */
+    DROP_OLDEST,
+    /** Keep only the newest queued frame of each drop type; if the queue
+     *   is still full, discard the oldest frames */
+    LATEST_ONLY,
+    /** Give up on the client */
+    DISCONNECT
+  };
+
+  public static final int defaultCapacity = 100;
+  public static final OverflowPolicy defaultPolicy = OverflowPolicy.DROP_OLDEST;
+
+  protected static class Entry
+  {
+    public final Class<?> type;
+    public final ByteBuffer frame;
+
+    public Entry(Class<?> pType, ByteBuffer pFrame)
+    {
+      type = pType;
+      frame = pFrame;
+    }
+  }
+
+  protected final LinkedList<Entry> aEntries = new LinkedList<Entry>();
+  /** Frames which must not be discarded, written before aEntries in the
+    *  order they were added; they do not count towards the capacity */
+  protected final LinkedList<ByteBuffer> aPinned = new LinkedList<ByteBuffer>();
+  protected final int aCapacity;
+  protected final OverflowPolicy aPolicy;
+
+  /** Statistics */
+  protected long aQueuedCount, aSentCount, aDroppedCount;
+  protected int aMaxDepth;
+
+  protected boolean aOverflowed = false;
+  protected boolean aClosed = false;
+
+  public OutboundDropQueue()
+  {
+    this(defaultCapacity, defaultPolicy);
+  }
+
+  /** Creates a new queue.
+    *
+    * @param pCapacity The maximum number of frames held by the queue.
+    * @param pPolicy What to do when a frame is added to a full queue.
+    */
+  public OutboundDropQueue(int pCapacity, OverflowPolicy pPolicy)
+  {
+    if (pCapacity <= 0)
+      throw new IllegalArgumentException("Invalid queue capacity: "+pCapacity);
+
+    aCapacity = pCapacity;
+    aPolicy = pPolicy;
+  }
+
+  /** Adds a frame to the queue, applying the overflow policy.
+    *
+    * @param pType The type of the drop encoded in pFrame.
+    * @param pFrame The encoded frame; it should not be modified afterwards.
+    * @return false if the frame was refused because the queue overflowed
+    *  under the DISCONNECT policy, or because the queue is closed.
+    */
+  public synchronized boolean offer(Class<?> pType, ByteBuffer pFrame)
+  {
+    if (aClosed || aOverflowed)
+      return false;
+
+    switch (aPolicy)
+    {
+      case DISCONNECT:
+        if (aEntries.size() >= aCapacity)
+        {
+          aOverflowed = true;
+          aDroppedCount++;
+          notifyAll();
+          return false;
+        }
+        break;
+      case LATEST_ONLY:
+        // Replace any older frame of the same type
+        for (Iterator<Entry> it = aEntries.iterator(); it.hasNext(); )
+        {
+          if (it.next().type == pType)
+          {
+            it.remove();
+            aDroppedCount++;
+          }
+        }
+        break;
+      default:
+        break;
+    }
+
+    aEntries.add(new Entry(pType, pFrame));
+    aQueuedCount++;
+
+    while (aEntries.size() > aCapacity)
+    {
+      aEntries.removeFirst();
+      aDroppedCount++;
+    }
+
+    if (aEntries.size() > aMaxDepth)
+      aMaxDepth = aEntries.size();
+
+    notifyAll();
+    return true;
+  }
+
+  /** Adds a frame which must not be discarded, such as part of the
+    *  protocol, ahead of the queued drops. Such frames are never discarded
+    *  by the overflow policy, and do not count towards the capacity. */
+  public synchronized void addFirst(Class<?> pType, ByteBuffer pFrame)
+  {
+    if (aClosed) return;
+
+    aPinned.add(pFrame);
+    aQueuedCount++;
+    notifyAll();
+  }
+
+  /** Removes the next frame, or returns null if the queue is empty */
+  public synchronized ByteBuffer poll()
+  {
+    if (!aPinned.isEmpty())
+    {
+      aSentCount++;
+      return aPinned.removeFirst();
+    }
+
+    if (aEntries.isEmpty())
+      return null;
+
+    aSentCount++;
+    return aEntries.removeFirst().frame;
+  }
+
+  /** Removes the next frame, waiting for one if the queue is empty.
+    *
+    * @return The next frame, or null if the queue was closed or overflowed.
+    */
+  public synchronized ByteBuffer take() throws InterruptedException
+  {
+    while (isEmpty() && !aClosed && !aOverflowed)
+      wait();
+
+    if (aClosed || aOverflowed)
+      return null;
+
+    return poll();
+  }
+
+  /** Discards the queued frames and wakes up any waiting writer */
+  public synchronized void close()
+  {
+    aClosed = true;
+    aEntries.clear();
+    aPinned.clear();
+    notifyAll();
+  }
+
+  public synchronized boolean isEmpty()
+  {
+    return aEntries.isEmpty() && aPinned.isEmpty();
+  }
+
+  /** Returns the number of frames waiting to be written */
+  public synchronized int size() { return aEntries.size() + aPinned.size(); }
+
+  /** Returns the largest number of frames that have waited at once */
+  public synchronized int getMaxDepth() { return aMaxDepth; }
+
+  /** Returns the number of frames discarded because of the overflow
+    *  policy */
+  public synchronized long getDroppedCount() { return aDroppedCount; }
+
+  /** Returns the number of frames handed to the writer */
+  public synchronized long getSentCount() { return aSentCount; }
+
+  /** Returns the number of frames accepted by the queue */
+  public synchronized long getQueuedCount() { return aQueuedCount; }
+
+  /** Returns whether the queue overflowed under the DISCONNECT policy */
+  public synchronized boolean isOverflowed() { return aOverflowed; }
+
+  public int getCapacity() { return aCapacity; }
+
+  public OverflowPolicy getPolicy() { return aPolicy; }
+
+  @Override
+  public synchronized String toString()
+  {
+    return "depth "+aEntries.size()+"/"+aCapacity+" (max "+aMaxDepth+"), "+
+      aSentCount+" sent, "+aDroppedCount+" dropped, "+aPolicy;
+  }
+}
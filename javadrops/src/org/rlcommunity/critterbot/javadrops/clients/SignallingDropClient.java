@@ -0,0 +1,31 @@
+/* Copyright 2009 Marc G. Bellemare
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package org.rlcommunity.critterbot.javadrops.clients;
+
+/**
+  * SignallingDropClient
+  *
+  * A DropClient which tells its listeners when it has received new drops.
+  *  A DropInterface whose clients all signal can wait for drops instead of
+  *  polling its clients.
+  *
+  * @author Marc G. Bellemare
+  */
+
+public interface SignallingDropClient extends DropClient
+{
+  public void addArrivalListener(DropArrivalListener pListener);
+
+  public void removeArrivalListener(DropArrivalListener pListener);
+}
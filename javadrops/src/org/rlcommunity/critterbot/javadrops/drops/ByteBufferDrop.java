@@ -0,0 +1,41 @@
+/* Copyright 2009 Marc G. Bellemare
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package org.rlcommunity.critterbot.javadrops.drops;
+
+/**
+  * ByteBufferDrop
+  *
+  * A drop which can also save itself to, and restore itself from, a
+  *  ByteBuffer. Drops implementing this interface are encoded and decoded
+  *  by DropCodec in a single buffer rather than one value at a time, and
+  *  may transfer their int arrays in bulk (see DropCodec.putInts).
+  *
+  * The buffers given to these methods are little-endian, as are the
+  *  interface streams, and positioned at the start of the drop's data.
+  *  Both methods must transfer exactly getSize() bytes.
+  */
+
+import java.nio.ByteBuffer;
+
+public interface ByteBufferDrop extends SimulatorDrop
+{
+  /** Write the drop's data to the given buffer */
+  public void writeData(ByteBuffer pOut);
+  /** Restore data from a given buffer.
+   *
+   * @param pIn The buffer from which the data should be restored.
+   * @param pDropSize The size of the drop, if needed by the drop reader.
+   */
+  public void readData(ByteBuffer pIn, int pDropSize);
+}
@@ -21,16 +21,20 @@ package org.rlcommunity.critterbot.javadrops.drops;
   */
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.EnumSet;
 
 import org.rlcommunity.critterbot.javadrops.InterfaceInputStream;
 import org.rlcommunity.critterbot.javadrops.InterfaceOutputStream;
 
-public class CritterControlDrop implements SimulatorDrop
+public class CritterControlDrop implements ByteBufferDrop
 {
   public enum MotorMode { WHEEL_SPACE, XYTHETA_SPACE, WHEEL_VOLTAGE };
   public enum LedMode { NONE, CLEAR, BATTERY, BALL, ERROR, EMERGENCY, BUSY, CUSTOM };
 
+  private static final MotorMode[] MOTOR_MODES = MotorMode.values();
+  private static final LedMode[] LED_MODES = LedMode.values();
+
   /** The motor mode determining which fields are actually used */
   public MotorMode motor_mode;
   /** The LED mode (currently unused) */
@@ -63,6 +67,20 @@ public class CritterControlDrop implements SimulatorDrop
       pOut.writeByte((byte)b);
     }
 
+    public void readData(ByteBuffer pIn)
+    {
+      r = pIn.get() & 0xFF;
+      g = pIn.get() & 0xFF;
+      b = pIn.get() & 0xFF;
+    }
+
+    public void writeData(ByteBuffer pOut)
+    {
+      pOut.put((byte)r);
+      pOut.put((byte)g);
+      pOut.put((byte)b);
+    }
+
     public int getSize()
     {
       return 3 * Byte.SIZE;
@@ -185,6 +203,65 @@ public class CritterControlDrop implements SimulatorDrop
 
   }
 
+  /** Writes the drop to a buffer, in the same order as
+    *  writeData(InterfaceOutputStream).
+    *
+    * @param pOut The buffer to which the data should be written
+    */
+  public void writeData(ByteBuffer pOut)
+  {
+    pOut.putInt(motor_mode.ordinal());
+
+    switch (motor_mode)
+    {
+      case XYTHETA_SPACE:
+        pOut.putInt(x_vel);
+        pOut.putInt(y_vel);
+        pOut.putInt(theta_vel);
+        break;
+      default:
+        pOut.putInt(m100_vel);
+        pOut.putInt(m220_vel);
+        pOut.putInt(m340_vel);
+        break;
+    }
+
+    pOut.putInt(led_mode.ordinal());
+
+    for(int i = 0; i < LED_VALUES_SIZE; i++)
+        LEDValues[i].writeData(pOut);
+  }
+
+  /** Reverse of writeData(ByteBuffer)
+    *
+    * @param pIn The buffer from which we read the data
+    */
+  public void readData(ByteBuffer pIn, int pDropSize)
+  {
+    assert (pDropSize == getSize());
+
+    motor_mode = MOTOR_MODES[pIn.getInt()];
+
+    switch (motor_mode)
+    {
+      case XYTHETA_SPACE:
+        x_vel = pIn.getInt();
+        y_vel = pIn.getInt();
+        theta_vel = pIn.getInt();
+        break;
+      default:
+        m100_vel = pIn.getInt();
+        m220_vel = pIn.getInt();
+        m340_vel = pIn.getInt();
+        break;
+    }
+
+    led_mode = LED_MODES[pIn.getInt()];
+
+    for(int i = 0; i < LED_VALUES_SIZE; i++)
+        LEDValues[i].readData(pIn);
+  }
+
   @Override
   public String toString()
   {
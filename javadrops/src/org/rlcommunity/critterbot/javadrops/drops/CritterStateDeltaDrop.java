@@ -0,0 +1,63 @@
+/* Copyright 2009 Marc G. Bellemare
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package org.rlcommunity.critterbot.javadrops.drops;
+
+/**
+  * CritterStateDeltaDrop
+  *
+  * A CritterStateDrop as sent on a connection which negotiated delta
+  *  encoding: its values are encoded as differences from the previous state
+  *  sent on the same connection (see StateDeltaCodec). This drop only holds
+  *  the encoded data; DropProtocol turns it back into a CritterStateDrop as
+  *  soon as it is received, so that it is never seen by DropClients.
+  */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.rlcommunity.critterbot.javadrops.InterfaceInputStream;
+import org.rlcommunity.critterbot.javadrops.InterfaceOutputStream;
+
+public class CritterStateDeltaDrop implements ByteBufferDrop
+{
+  /** The encoded state */
+  public byte[] data = new byte[0];
+
+  public int getSize()
+  {
+    return data.length;
+  }
+
+  public void writeData(InterfaceOutputStream pOut) throws IOException
+  {
+    pOut.writeBytes(data, 0, data.length);
+  }
+
+  public void readData(InterfaceInputStream pIn, int pDropSize)
+    throws IOException
+  {
+    data = pIn.readBytes(pDropSize);
+  }
+
+  public void writeData(ByteBuffer pOut)
+  {
+    pOut.put(data);
+  }
+
+  public void readData(ByteBuffer pIn, int pDropSize)
+  {
+    data = new byte[pDropSize];
+    pIn.get(data);
+  }
+}
@@ -22,13 +22,18 @@ package org.rlcommunity.critterbot.javadrops.drops;
   */
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.EnumSet;
+import java.util.List;
 
+import org.rlcommunity.critterbot.javadrops.DropCodec;
 import org.rlcommunity.critterbot.javadrops.InterfaceInputStream;
 import org.rlcommunity.critterbot.javadrops.InterfaceOutputStream;
 
-public class CritterStateDrop implements SimulatorDrop
+public class CritterStateDrop implements ByteBufferDrop
 {
   /* This class replicates the Disco concept of USeconds, however due to
    * most Java constructs only dealing will milliseconds, when exporting
@@ -51,7 +56,21 @@ public class CritterStateDrop implements SimulatorDrop
       public void writeData(InterfaceOutputStream pOut) throws IOException
       {
           pOut.writeUnsignedInt(tv_sec);
-          pOut.writeUnsignedInt(tv_sec);
+          pOut.writeUnsignedInt(tv_usec);
+      }
+
+      public void readData(ByteBuffer pIn)
+      {
+          tv_sec = 0xFFFFFFFFL & (long)pIn.getInt();
+          tv_usec = 0xFFFFFFFFL & (long)pIn.getInt();
+          if(tv_usec > MAX_USEC)
+              tv_usec = MAX_USEC;
+      }
+
+      public void writeData(ByteBuffer pOut)
+      {
+          pOut.putInt((int)tv_sec);
+          pOut.putInt((int)tv_usec);
       }
       
       public int getSize()
@@ -65,6 +84,12 @@ public class CritterStateDrop implements SimulatorDrop
           *  in a second will hopefully never change */
           return tv_sec * 1000 + (tv_usec / 1000);
       }
+
+      public void setTimeInMillis(long pMillis)
+      {
+          tv_sec = pMillis / 1000;
+          tv_usec = (pMillis % 1000) * 1000;
+      }
   }
   public class motor_struct
   {
@@ -93,6 +118,22 @@ public class CritterStateDrop implements SimulatorDrop
       pOut.writeInt(temp);
     }
 
+    public void readData(ByteBuffer pIn)
+    {
+      command = pIn.getInt();
+      velocity = pIn.getInt();
+      current = pIn.getInt();
+      temp = pIn.getInt();
+    }
+
+    public void writeData(ByteBuffer pOut)
+    {
+      pOut.putInt(command);
+      pOut.putInt(velocity);
+      pOut.putInt(current);
+      pOut.putInt(temp);
+    }
+
     public int getSize()
     {
       return 4 * Integer.SIZE;
@@ -117,6 +158,20 @@ public class CritterStateDrop implements SimulatorDrop
       pOut.writeInt(z);
     }
 
+    public void readData(ByteBuffer pIn)
+    {
+      x = pIn.getInt();
+      y = pIn.getInt();
+      z = pIn.getInt();
+    }
+
+    public void writeData(ByteBuffer pOut)
+    {
+      pOut.putInt(x);
+      pOut.putInt(y);
+      pOut.putInt(z);
+    }
+
     public int getSize()
     {
       return 3 * Integer.SIZE;
@@ -183,6 +238,60 @@ public class CritterStateDrop implements SimulatorDrop
   public static final int THERMAL_SIZE       = 8;
   public static final int BUMP_SIZE          = 32;
 
+  /** The names of the int values making up the data of a drop, in the
+    *  order they are written, e.g. "batv40", "motor100.current" or
+    *  "ir_distance[3]"; enums are written as ints. Each value is 4 bytes,
+    *  so that a value can be read directly from encoded data. */
+  public static final List<String> FIELD_NAMES;
+
+  static
+  {
+    List<String> names = new ArrayList<String>();
+    names.add("time.tv_sec");
+    names.add("time.tv_usec");
+    names.add("data_source");
+    names.add("power_source");
+    names.add("charge_state");
+    names.add("bus_voltage");
+    names.add("batv40");
+    names.add("batv160");
+    names.add("batv280");
+    for (String motor : new String[] {"motor100", "motor220", "motor340"})
+      for (String value : new String[] {"command", "velocity", "current", "temp"})
+        names.add(motor+"."+value);
+    for (String vector : new String[] {"accel", "mag"})
+      for (String value : new String[] {"x", "y", "z"})
+        names.add(vector+"."+value);
+    names.add("rotation");
+    addArrayNames(names, "ir_distance", IR_DISTANCE_SIZE);
+    addArrayNames(names, "ir_light", IR_LIGHT_SIZE);
+    addArrayNames(names, "light", LIGHT_SIZE);
+    addArrayNames(names, "thermal", THERMAL_SIZE);
+    addArrayNames(names, "bump", BUMP_SIZE);
+    names.add("error_flags");
+    names.add("cycle_time");
+    names.add("monitor_state");
+
+    FIELD_NAMES = Collections.unmodifiableList(names);
+  }
+
+  private static void addArrayNames(List<String> pNames, String pName, int pSize)
+  {
+    for (int i = 0; i < pSize; i++)
+      pNames.add(pName+"["+i+"]");
+  }
+
+  /** Returns where the given value (see FIELD_NAMES) is found in the data
+    *  of a drop, in bytes from its start, or -1 if there is no such value */
+  public static int getFieldOffset(String pName)
+  {
+    int index = FIELD_NAMES.indexOf(pName);
+    return (index < 0)? -1 : index * Integer.SIZE / 8;
+  }
+
+  private static final DataSource[] DATA_SOURCES = DataSource.values();
+  private static final PowerSource[] POWER_SOURCES = PowerSource.values();
+
   /** Returns the size of the data contained in this Drop.
     * This value must correspond to the amount of data sent/received in
     *  writeData/readData.
@@ -358,4 +467,70 @@ public class CritterStateDrop implements SimulatorDrop
     cycle_time = pIn.readInt();
     monitor_state = pIn.readInt();
   }
+
+  /** Writes this data drop to the given buffer, in the same order as
+   *  writeData(InterfaceOutputStream). The sensor arrays are written in bulk.
+   *
+   * @param pOut The buffer to which the drop should be written.
+   */
+  public void writeData(ByteBuffer pOut) {
+    time.writeData(pOut);
+    pOut.putInt(data_source.ordinal());
+    pOut.putInt(power_source.ordinal());
+    pOut.putInt(ChargeStateToInt(charge_state));
+    pOut.putInt(bus_voltage);
+    pOut.putInt(batv40);
+    pOut.putInt(batv160);
+    pOut.putInt(batv280);
+    motor100.writeData(pOut);
+    motor220.writeData(pOut);
+    motor340.writeData(pOut);
+    accel.writeData(pOut);
+    mag.writeData(pOut);
+    pOut.putInt(rotation);
+
+    DropCodec.putInts(pOut, ir_distance);
+    DropCodec.putInts(pOut, ir_light);
+    DropCodec.putInts(pOut, light);
+    DropCodec.putInts(pOut, thermal);
+    DropCodec.putInts(pOut, bump);
+
+    pOut.putInt(error_flags);
+    pOut.putInt(cycle_time);
+    pOut.putInt(monitor_state);
+  }
+
+  /** Reads in a drop from a buffer; the reverse of writeData(ByteBuffer).
+   *
+   * @param pIn The buffer from which the drop should be read.
+   */
+  public void readData(ByteBuffer pIn, int pDropSize)
+  {
+    assert (pDropSize == getSize());
+    time.readData(pIn);
+    data_source = DATA_SOURCES[pIn.getInt()];
+    power_source = POWER_SOURCES[pIn.getInt()];
+    charge_state = IntToChargeState(pIn.getInt());
+
+    bus_voltage = pIn.getInt();
+    batv40 = pIn.getInt();
+    batv160 = pIn.getInt();
+    batv280 = pIn.getInt();
+    motor100.readData(pIn);
+    motor220.readData(pIn);
+    motor340.readData(pIn);
+    accel.readData(pIn);
+    mag.readData(pIn);
+    rotation = pIn.getInt();
+
+    DropCodec.getInts(pIn, ir_distance);
+    DropCodec.getInts(pIn, ir_light);
+    DropCodec.getInts(pIn, light);
+    DropCodec.getInts(pIn, thermal);
+    DropCodec.getInts(pIn, bump);
+
+    error_flags = pIn.getInt();
+    cycle_time = pIn.getInt();
+    monitor_state = pIn.getInt();
+  }
 }
@@ -16,7 +16,9 @@ package org.rlcommunity.critterbot.javadrops.drops;
 /**
   * DropFactory
   *
-  * Used to create new drop instances from a given drop name
+  * Used to create new drop instances from a given drop name. Drops known to
+  *  the default DropTypeRegistry are created without reflection; other names
+  *  are looked up as classes of this package.
   */
 
 
@@ -26,6 +28,10 @@ public class DropFactory
   public static SimulatorDrop create(String baseName) 
     throws ClassNotFoundException
   {
+    SimulatorDrop registered = DropTypeRegistry.getDefault().create(baseName);
+    if (registered != null)
+      return registered;
+
     // Assume that all drops are in the same package as us
     String packageName = 
       getStaticClass().getPackage().getName();
@@ -24,32 +24,98 @@ package org.rlcommunity.critterbot.javadrops.drops;
 
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
+import org.rlcommunity.critterbot.javadrops.clients.DropArrivalListener;
 import org.rlcommunity.critterbot.javadrops.clients.DropClient;
+import org.rlcommunity.critterbot.javadrops.clients.SignallingDropClient;
 
 public class DropInterface
 {
+  /** How often, in milliseconds, receiveDrops(timeout) polls clients which
+    *  do not tell us when they receive drops */
+  public static final long pollInterval = 10;
+
+  /** The wall clock, which rate-limited subscriptions use by default */
+  public static final DropClock WALL_CLOCK = new DropClock() {
+      public long nanoTime()
+      {
+        return System.nanoTime();
+      }
+    };
+
   protected LinkedList<DropClient> aClients;
+  /** Which drops are sent to each client */
+  protected LinkedList<DropSubscription> aSubscriptions;
+
+  /** Whether any subscription limits its rate, and the clock it is
+    *  limited against; the clock is not read otherwise */
+  protected boolean aRateLimited = false;
+  protected DropClock aClock = WALL_CLOCK;
+
+  /** Whether all of our clients are SignallingDropClients */
+  protected boolean aAllClientsSignal = true;
+
+  /** Set when a client tells us it has new drops; guarded by itself */
+  protected final Object aArrivalLock = new Object();
+  protected boolean aDropsArrived = false;
+  protected final DropArrivalListener aArrivalListener =
+    new DropArrivalListener() {
+      public void dropsArrived(DropClient pClient)
+      {
+        synchronized (aArrivalLock)
+        {
+          aDropsArrived = true;
+          aArrivalLock.notifyAll();
+        }
+      }
+    };
+
+  /** Subscribers to the received drops */
+  protected final List<DropListener> aListeners =
+    new CopyOnWriteArrayList<DropListener>();
   
   public DropInterface()
   {
     aClients = new LinkedList<DropClient>();
+    aSubscriptions = new LinkedList<DropSubscription>();
   }
 
   /**
     * Send a given Drop out to all DropClients, which may be Disco interfaces,
-    *  keyboard clients, RL agents, etc.
+    *  keyboard clients, RL agents, etc., that subscribed to its type. Clients
+    *  with a maximum rate may instead get it later, if it is still the
+    *  latest drop of its type (see DropSubscription).
     */
   public void sendDrop(SimulatorDrop pDrop)
   {
-    // Simply call each client handler's send method
-    for (DropClient ch : aClients)
-      ch.send(pDrop);
+    long now = aRateLimited? aClock.nanoTime() : 0;
+
+    for (DropSubscription s : aSubscriptions)
+      s.offer(pDrop, now);
+  }
+
+  /**
+    * Sends out the drops held back by rate-limited subscriptions whose
+    *  interval has elapsed. These are otherwise only sent along with the next
+    *  drop, so this should be called regularly, e.g. at every simulator step.
+    */
+  public void sendHeldDrops()
+  {
+    if (aRateLimited)
+      sendDrop(null);
+  }
+
+  /** Sets the clock against which subscriptions limit their rate */
+  public void setClock(DropClock pClock)
+  {
+    aClock = pClock;
   }
 
   /**
     * Returns a (possibly empty) list of drops that were received from all
-    *  connected clients since the last call to receiveDrops.
+    *  connected clients since the last call to receiveDrops. The drops are
+    *  also passed to our DropListeners.
     */
   public List<SimulatorDrop> receiveDrops()
   {
@@ -67,11 +133,112 @@ public class DropInterface
         drops.add(drop);
     }
 
+    notifyListeners(drops);
     return drops;
   }
 
+  /**
+    * Returns the drops received from all connected clients since the last
+    *  call to receiveDrops, waiting for at most pTimeout milliseconds for
+    *  some to arrive. Clients which are not SignallingDropClients are
+    *  polled every pollInterval milliseconds while waiting.
+    *
+    * @return A list of drops, empty if none arrived before the timeout or
+    *  if the thread was interrupted.
+    */
+  public List<SimulatorDrop> receiveDrops(long pTimeout)
+  {
+    long deadline = System.currentTimeMillis() + pTimeout;
+
+    while (true)
+    {
+      // Drops arriving from now on will be seen by the next wait
+      synchronized (aArrivalLock)
+      {
+        aDropsArrived = false;
+      }
+
+      List<SimulatorDrop> drops = receiveDrops();
+      if (!drops.isEmpty())
+        return drops;
+
+      long timeLeft = deadline - System.currentTimeMillis();
+      if (timeLeft <= 0)
+        return drops;
+
+      try
+      {
+        synchronized (aArrivalLock)
+        {
+          if (!aDropsArrived)
+            aArrivalLock.wait(aAllClientsSignal?
+              timeLeft : Math.min(timeLeft, pollInterval));
+        }
+      }
+      catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+        return drops;
+      }
+    }
+  }
+
   public void addClient(DropClient newClient){
-      aClients.add(newClient);
+      addClient(newClient, 0);
   }
-}
 
+  /**
+    * Adds a client which is only sent some of the drops.
+    *
+    * @param pClient The new client.
+    * @param pMaxRate The maximum number of drops of each type sent to the
+    *   client per second, or 0 for no limit.
+    * @param pTypes The types of drops sent to the client; all types if none
+    *   are given.
+    * @return The client's subscription.
+    */
+  public DropSubscription addClient(DropClient pClient, double pMaxRate,
+    Class<?>... pTypes)
+  {
+      DropSubscription subscription =
+        new DropSubscription(pClient, pMaxRate, pTypes);
+      aSubscriptions.add(subscription);
+      if (pMaxRate > 0)
+        aRateLimited = true;
+
+      addReceiver(pClient);
+      return subscription;
+  }
+
+  /** Collects the drops received by a client in receiveDrops() */
+  protected void addReceiver(DropClient pClient)
+  {
+      aClients.add(pClient);
+
+      if (pClient instanceof SignallingDropClient)
+        ((SignallingDropClient)pClient).addArrivalListener(aArrivalListener);
+      else
+        aAllClientsSignal = false;
+  }
+
+  /** Subscribes a listener to all drops subsequently received */
+  public void addDropListener(DropListener pListener)
+  {
+    aListeners.add(pListener);
+  }
+
+  public void removeDropListener(DropListener pListener)
+  {
+    aListeners.remove(pListener);
+  }
+
+  /** Passes the received drops to our listeners */
+  protected void notifyListeners(List<SimulatorDrop> pDrops)
+  {
+    if (aListeners.isEmpty()) return;
+
+    for (SimulatorDrop drop : pDrops)
+      for (DropListener l : aListeners)
+        l.dropReceived(drop);
+  }
+}
@@ -0,0 +1,179 @@
+/* Copyright 2009 Marc G. Bellemare
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package org.rlcommunity.critterbot.javadrops.drops;
+
+/**
+  * DropSubscription
+  *
+  * Decides which of the drops sent through a DropInterface are passed on
+  *  to one of its clients: only drops of the subscribed types, and for each
+  *  type at most maxRate drops per second. A drop arriving before its type's
+  *  interval has elapsed is held back, replacing any older held drop of the
+  *  same type, and passed on at the first sendDrop() or sendHeldDrops() after
+  *  the interval has elapsed; the client thus always gets the latest value.
+  *  Time is measured by the DropInterface's DropClock.
+  *
+  * @author Marc G. Bellemare
+  */
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.rlcommunity.critterbot.javadrops.clients.DropClient;
+
+public class DropSubscription
+{
+  /** The decimation state of one drop type */
+  protected static class TypeState
+  {
+    /** When a drop of this type was last passed on, in nanoseconds */
+    public long lastSent;
+    /** The latest drop held back, if any */
+    public SimulatorDrop held;
+  }
+
+  protected final DropClient aClient;
+  /** The subscribed types, or null for all types */
+  protected final Set<Class<?>> aTypes;
+  /** The minimum time between two drops of the same type, in nanoseconds;
+    *  0 if the rate is not limited */
+  protected final long aMinInterval;
+
+  protected final Map<Class<?>,TypeState> aStates =
+    new HashMap<Class<?>,TypeState>();
+  /** The number of drops currently held back */
+  protected int aHeldCount = 0;
+
+  /** Statistics */
+  protected long aSentCount, aDecimatedCount;
+
+  /** Creates a new subscription.
+    *
+    * @param pClient The client to which drops are passed on.
+    * @param pMaxRate The maximum number of drops of each type passed on per
+    *   second, or 0 for no limit.
+    * @param pTypes The drop types passed on; all types if none are given.
+    */
+  public DropSubscription(DropClient pClient, double pMaxRate,
+    Class<?>... pTypes)
+  {
+    if (pMaxRate < 0)
+      throw new IllegalArgumentException("Invalid drop rate: "+pMaxRate);
+
+    aClient = pClient;
+    aMinInterval = (pMaxRate == 0)? 0 : (long)(1000000000L / pMaxRate);
+
+    if (pTypes.length == 0)
+      aTypes = null;
+    else
+    {
+      aTypes = new HashSet<Class<?>>();
+      for (Class<?> type : pTypes)
+        aTypes.add(type);
+    }
+  }
+
+  public DropClient getClient() { return aClient; }
+
+  /** Returns whether drops of the given type are passed on at all */
+  public boolean accepts(Class<?> pType)
+  {
+    return aTypes == null || aTypes.contains(pType);
+  }
+
+  /** Passes on a drop, or holds it back if its type was passed on too
+    *  recently. Drops held back earlier whose interval has elapsed are
+    *  passed on first.
+    *
+    * @param pDrop The new drop, or null to only pass on held drops.
+    * @param pNow The current time, in nanoseconds, from the DropInterface's
+    *  clock; unused if the rate is not limited.
+    */
+  public synchronized void offer(SimulatorDrop pDrop, long pNow)
+  {
+    if (aMinInterval == 0)
+    {
+      if (pDrop != null && accepts(pDrop.getClass()))
+      {
+        aClient.send(pDrop);
+        aSentCount++;
+      }
+      return;
+    }
+
+    // Pass on the held drops of other types which are now due
+    if (aHeldCount > 0)
+    {
+      for (Map.Entry<Class<?>,TypeState> e : aStates.entrySet())
+      {
+        TypeState state = e.getValue();
+        if (state.held != null &&
+            (pDrop == null || e.getKey() != pDrop.getClass()) &&
+            pNow - state.lastSent >= aMinInterval)
+          sendHeld(state, pNow);
+      }
+    }
+
+    if (pDrop == null || !accepts(pDrop.getClass()))
+      return;
+
+    TypeState state = aStates.get(pDrop.getClass());
+    if (state == null)
+    {
+      state = new TypeState();
+      state.lastSent = pNow - aMinInterval;
+      aStates.put(pDrop.getClass(), state);
+    }
+
+    if (state.held != null)
+    {
+      // The new drop supersedes the held one
+      state.held = null;
+      aHeldCount--;
+      aDecimatedCount++;
+    }
+
+    if (pNow - state.lastSent >= aMinInterval)
+    {
+      aClient.send(pDrop);
+      aSentCount++;
+      state.lastSent = pNow;
+    }
+    else
+    {
+      state.held = pDrop;
+      aHeldCount++;
+    }
+  }
+
+  protected void sendHeld(TypeState pState, long pNow)
+  {
+    SimulatorDrop drop = pState.held;
+    pState.held = null;
+    aHeldCount--;
+
+    aClient.send(drop);
+    aSentCount++;
+    pState.lastSent = pNow;
+  }
+
+  /** Returns the number of drops passed on to the client */
+  public synchronized long getSentCount() { return aSentCount; }
+
+  /** Returns the number of drops superseded by a newer drop of the same
+    *  type before they could be passed on */
+  public synchronized long getDecimatedCount() { return aDecimatedCount; }
+}
@@ -0,0 +1,165 @@
+/* Copyright 2009 Marc G. Bellemare
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package org.rlcommunity.critterbot.javadrops.drops;
+
+/**
+  * DropTypeRegistry
+  *
+  * Maps drop names and compact numeric ids to factories creating new drops of
+  *  the corresponding type, so that incoming drops can be created without
+  *  reflection. The default registry knows about all the drops of this
+  *  package; other drop types may be added to it with register().
+  */
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class DropTypeRegistry
+{
+  /** Creates new, empty drops of a given type */
+  public interface Factory
+  {
+    public SimulatorDrop create();
+  }
+
+  /** The largest id a drop type may be given */
+  public static final int MAX_TYPE_ID = 255;
+
+  private static final DropTypeRegistry defaultRegistry = createDefault();
+
+  protected final Factory[] aFactories = new Factory[MAX_TYPE_ID + 1];
+  protected final String[] aNames = new String[MAX_TYPE_ID + 1];
+  protected final Class<?>[] aTypes = new Class<?>[MAX_TYPE_ID + 1];
+  protected final Map<String,Integer> aIdsByName = new HashMap<String,Integer>();
+  protected final Map<Class<?>,Integer> aIdsByType = new HashMap<Class<?>,Integer>();
+
+  /** Returns the registry shared by all connections */
+  public static DropTypeRegistry getDefault()
+  {
+    return defaultRegistry;
+  }
+
+  /** Adds a drop type to the registry.
+    *
+    * @param pId The numeric id of the new type, between 0 and MAX_TYPE_ID.
+    * @param pType The class of the drops created by pFactory; its simple
+    *   name is the name of the type.
+    * @param pFactory The factory used to create new drops of this type.
+    */
+  public synchronized void register(int pId, Class<? extends SimulatorDrop> pType,
+    Factory pFactory)
+  {
+    if (pId < 0 || pId > MAX_TYPE_ID)
+      throw new IllegalArgumentException("Invalid drop type id: "+pId);
+    if (aFactories[pId] != null)
+      throw new IllegalArgumentException("Drop type id "+pId+" is already "+
+        "used by "+aNames[pId]);
+
+    String name = pType.getSimpleName();
+    aFactories[pId] = pFactory;
+    aNames[pId] = name;
+    aTypes[pId] = pType;
+    aIdsByName.put(name, pId);
+    aIdsByType.put(pType, pId);
+  }
+
+  /** Creates a new drop from its numeric id, or returns null if no type has
+    *  this id.
+    */
+  public SimulatorDrop create(int pId)
+  {
+    if (pId < 0 || pId > MAX_TYPE_ID)
+      return null;
+
+    Factory factory;
+    synchronized (this) { factory = aFactories[pId]; }
+
+    return (factory == null)? null : factory.create();
+  }
+
+  /** Creates a new drop from its name, or returns null if no type has
+    *  this name.
+    */
+  public SimulatorDrop create(String pName)
+  {
+    int id = getId(pName);
+    return (id < 0)? null : create(id);
+  }
+
+  /** Returns the id of the type with the given name, or -1 if none */
+  public synchronized int getId(String pName)
+  {
+    Integer id = aIdsByName.get(pName);
+    return (id == null)? -1 : id.intValue();
+  }
+
+  /** Returns the id of the given drop type, or -1 if it is not registered */
+  public synchronized int getId(Class<?> pType)
+  {
+    Integer id = aIdsByType.get(pType);
+    return (id == null)? -1 : id.intValue();
+  }
+
+  /** Returns the name of the type with the given id, or null if none */
+  public synchronized String getName(int pId)
+  {
+    if (pId < 0 || pId > MAX_TYPE_ID)
+      return null;
+    return aNames[pId];
+  }
+
+  /** Returns the class of the type with the given id, or null if none */
+  public synchronized Class<?> getType(int pId)
+  {
+    if (pId < 0 || pId > MAX_TYPE_ID)
+      return null;
+    return aTypes[pId];
+  }
+
+  /** Returns a table listing the ids and names of all registered types */
+  public synchronized DropTypeTable getTable()
+  {
+    DropTypeTable table = new DropTypeTable();
+
+    for (int i = 0; i <= MAX_TYPE_ID; i++)
+      if (aNames[i] != null)
+        table.add(i, aNames[i]);
+
+    return table;
+  }
+
+  private static DropTypeRegistry createDefault()
+  {
+    DropTypeRegistry registry = new DropTypeRegistry();
+
+    // These ids are part of the protocol; new types should be given new ids
+    //  rather than reuse old ones
+    registry.register(0, CritterStateDrop.class, new Factory() {
+      public SimulatorDrop create() { return new CritterStateDrop(); } });
+    registry.register(1, CritterControlDrop.class, new Factory() {
+      public SimulatorDrop create() { return new CritterControlDrop(); } });
+    registry.register(2, CritterRewardDrop.class, new Factory() {
+      public SimulatorDrop create() { return new CritterRewardDrop(); } });
+    registry.register(3, CritterLogTagDrop.class, new Factory() {
+      public SimulatorDrop create() { return new CritterLogTagDrop("", ""); } });
+    registry.register(4, WiiDiscoDrop.class, new Factory() {
+      public SimulatorDrop create() { return new WiiDiscoDrop(); } });
+    registry.register(5, DropTypeTable.class, new Factory() {
+      public SimulatorDrop create() { return new DropTypeTable(); } });
+    registry.register(6, CritterStateDeltaDrop.class, new Factory() {
+      public SimulatorDrop create() { return new CritterStateDeltaDrop(); } });
+
+    return registry;
+  }
+}
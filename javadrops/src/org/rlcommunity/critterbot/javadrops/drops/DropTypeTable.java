@@ -0,0 +1,91 @@
+/* Copyright 2009 Marc G. Bellemare
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package org.rlcommunity.critterbot.javadrops.drops;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.rlcommunity.critterbot.javadrops.InterfaceInputStream;
+import org.rlcommunity.critterbot.javadrops.InterfaceOutputStream;
+
+/**
+ * Lists the drop types that one end of a connection knows, with the numeric
+ *  id under which it wants to receive each of them. Each end sends it at
+ *  most once, at the start of a connection; see DropProtocol.
+ *
+ * @author Marc G. Bellemare (mg17 at cs ualberta ca)
+ */
+public class DropTypeTable implements SimulatorDrop {
+    /** The ids of the listed types */
+    public final List<Integer> ids = new ArrayList<Integer>();
+    /** The names of the listed types, in the same order as ids */
+    public final List<String> names = new ArrayList<String>();
+
+    /** Adds a drop type to the table. */
+    public void add(int pId, String pName) {
+        ids.add(pId);
+        names.add(pName);
+    }
+
+    /** Returns the size, in bytes, of this drop
+     *
+     * @return Size, in bytes, of this drop.
+     */
+    public int getSize() {
+        int size = Integer.SIZE / 8; // Number of entries
+        for (String name : names)
+            size += 2 * Integer.SIZE / 8 + name.length();
+        return size;
+    }
+
+    /** Writes this drop to an output stream
+     *
+     * @param pOut The output stream that this drop should be written to.
+     *
+     * @throws java.io.IOException
+     */
+    public void writeData(InterfaceOutputStream pOut) throws IOException {
+        pOut.writeInt(ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+            pOut.writeInt(ids.get(i));
+            pOut.writeString(names.get(i));
+        }
+    }
+
+    /**
+     * Reads in a drop from a given input stream.
+     *
+     * @param pIn The input stream from which we want to read the drop.
+     *
+     * @throws java.io.IOException
+     */
+    public void readData(InterfaceInputStream pIn, int pDropSize) throws IOException {
+        ids.clear();
+        names.clear();
+
+        int count = pIn.readInt();
+        if (count < 0 || count > DropTypeRegistry.MAX_TYPE_ID + 1)
+            throw new IOException("Invalid drop type table size: " + count);
+
+        for (int i = 0; i < count; i++) {
+            int id = pIn.readInt();
+            int nameLength = pIn.readInt();
+            if (nameLength < 0 || nameLength > pDropSize)
+                throw new IOException("Invalid drop type name length: " +
+                        nameLength);
+            add(id, pIn.readString(nameLength));
+        }
+    }
+}
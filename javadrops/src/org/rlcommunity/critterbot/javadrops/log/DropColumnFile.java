@@ -0,0 +1,327 @@
+/* Copyright 2009 Marc G. Bellemare
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package org.rlcommunity.critterbot.javadrops.log;
+
+/**
+  * DropColumnFile
+  *
+  * Reads a column file, which holds recorded CritterStateDrop fields column
+  *  by column, written by DropColumnWriter. Rows are grouped in chunks; a
+  *  chunk holds, one after the other, the timestamps of its rows (longs, in
+  *  microseconds since the epoch) and the values of each field (ints), named
+  *  as in CritterStateDrop.FIELD_NAMES. The file is laid out as:
+  *
+  *   header: int magic, int version, int chunk rows, int unused,
+  *           long row count, long directory offset
+  *   field names: int count, then for each a short length and ASCII bytes
+  *   column chunks, each aligned to 8 bytes
+  *   directory: int chunk count, then for each chunk its int row count and
+  *     an entry for its timestamps and for each field:
+  *     long offset, int stored size, int encoding, long min, long max
+  *
+  *  Everything is little-endian. A column chunk is stored either as it is
+  *  (RAW) or compressed with java.util.zip (DEFLATE). The min and max of
+  *  each chunk let chunks without any value of interest be skipped.
+  *
+  * The file is memory-mapped; the columns of raw chunks are views of the
+  *  mapping, so that reading one field never touches the others. As the
+  *  file is mapped whole, it may not be larger than 2GB; longer logs are
+  *  converted to several files, e.g. one per range of time.
+  *
+  * Author: Marc G. Bellemare
+  *
+  */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+public class DropColumnFile
+{
+  /** "CBDC" */
+  public static final int MAGIC = 0x43444243;
+  public static final int VERSION = 1;
+
+  public static final int HEADER_SIZE = 4 + 4 + 4 + 4 + 8 + 8;
+  public static final int ENTRY_SIZE = 8 + 4 + 4 + 8 + 8;
+
+  /** The encodings of column chunks */
+  public static final int RAW = 0;
+  public static final int DEFLATE = 1;
+
+  public static final String FILE_EXTENSION = ".dropcol";
+
+  public static final ByteOrder ENDIAN = DropLogFormat.ENDIAN;
+
+  /** The name of the timestamp column, which precedes the fields */
+  public static final String TIMESTAMP = "timestamp";
+
+  protected final MappedByteBuffer aBuffer;
+  protected final int aChunkRows;
+  protected final long aRowCount;
+  protected final List<String> aFields;
+
+  /** The row count of each chunk */
+  protected final int[] aChunkRowCounts;
+  /** The directory entries of each chunk's columns, timestamps first */
+  protected final long[][] aOffsets, aMins, aMaxes;
+  protected final int[][] aSizes, aEncodings;
+
+  /** Opens a column file */
+  public DropColumnFile(File pFile) throws IOException
+  {
+    RandomAccessFile file = new RandomAccessFile(pFile, "r");
+    try
+    {
+      FileChannel channel = file.getChannel();
+      aBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      aBuffer.order(ENDIAN);
+    }
+    finally
+    {
+      // The mapping remains valid
+      file.close();
+    }
+
+    if (aBuffer.remaining() < HEADER_SIZE || aBuffer.getInt() != MAGIC)
+      throw new IOException("Not a drop column file: "+pFile);
+    int version = aBuffer.getInt();
+    if (version != VERSION)
+      throw new IOException("Unsupported drop column file version: "+version);
+
+    aChunkRows = aBuffer.getInt();
+    aBuffer.getInt();
+    aRowCount = aBuffer.getLong();
+    long directoryOffset = aBuffer.getLong();
+    if (directoryOffset == 0)
+      throw new IOException("Incomplete drop column file: "+pFile);
+
+    List<String> fields = new ArrayList<String>();
+    int fieldCount = aBuffer.getInt();
+    for (int i = 0; i < fieldCount; i++)
+    {
+      byte[] name = new byte[aBuffer.getShort()];
+      aBuffer.get(name);
+      fields.add(new String(name, "US-ASCII"));
+    }
+    aFields = Collections.unmodifiableList(fields);
+
+    aBuffer.position((int)directoryOffset);
+    int chunks = aBuffer.getInt();
+    int columns = fieldCount + 1;
+
+    aChunkRowCounts = new int[chunks];
+    aOffsets = new long[chunks][columns];
+    aSizes = new int[chunks][columns];
+    aEncodings = new int[chunks][columns];
+    aMins = new long[chunks][columns];
+    aMaxes = new long[chunks][columns];
+
+    for (int c = 0; c < chunks; c++)
+    {
+      aChunkRowCounts[c] = aBuffer.getInt();
+      for (int i = 0; i < columns; i++)
+      {
+        aOffsets[c][i] = aBuffer.getLong();
+        aSizes[c][i] = aBuffer.getInt();
+        aEncodings[c][i] = aBuffer.getInt();
+        aMins[c][i] = aBuffer.getLong();
+        aMaxes[c][i] = aBuffer.getLong();
+      }
+    }
+  }
+
+  /** Returns the names of the fields, in the order of their columns */
+  public List<String> getFields() { return aFields; }
+
+  public long getRowCount() { return aRowCount; }
+
+  public int getChunkCount() { return aChunkRowCounts.length; }
+
+  public int getChunkRowCount(int pChunk) { return aChunkRowCounts[pChunk]; }
+
+  /** Returns the smallest value of a field in a chunk; TIMESTAMP may be
+    *  given as a field */
+  public long getMin(String pField, int pChunk)
+  {
+    return aMins[pChunk][getColumn(pField)];
+  }
+
+  /** Returns the largest value of a field in a chunk */
+  public long getMax(String pField, int pChunk)
+  {
+    return aMaxes[pChunk][getColumn(pField)];
+  }
+
+  /** Returns the values of a field in a chunk. Raw chunks are returned as a
+    *  view of the file; compressed chunks are decompressed into memory. */
+  public IntBuffer getInts(String pField, int pChunk) throws IOException
+  {
+    int column = getColumn(pField);
+    if (column == 0)
+      throw new IllegalArgumentException("Timestamps are longs");
+    return getChunk(pChunk, column).asIntBuffer();
+  }
+
+  /** Returns the timestamps of the rows of a chunk */
+  public LongBuffer getTimestamps(int pChunk) throws IOException
+  {
+    return getChunk(pChunk, 0).asLongBuffer();
+  }
+
+  /** Returns all values of a field, in a single array */
+  public int[] readInts(String pField) throws IOException
+  {
+    int[] values = new int[(int)aRowCount];
+    int row = 0;
+    for (int c = 0; c < getChunkCount(); c++)
+    {
+      IntBuffer chunk = getInts(pField, c);
+      int rows = chunk.remaining();
+      chunk.get(values, row, rows);
+      row += rows;
+    }
+
+    return values;
+  }
+
+  /** Returns all timestamps, in a single array */
+  public long[] readTimestamps() throws IOException
+  {
+    long[] values = new long[(int)aRowCount];
+    int row = 0;
+    for (int c = 0; c < getChunkCount(); c++)
+    {
+      LongBuffer chunk = getTimestamps(c);
+      int rows = chunk.remaining();
+      chunk.get(values, row, rows);
+      row += rows;
+    }
+
+    return values;
+  }
+
+  /** Returns the column of a field, 0 for the timestamps */
+  protected int getColumn(String pField)
+  {
+    if (TIMESTAMP.equals(pField))
+      return 0;
+
+    int index = aFields.indexOf(pField);
+    if (index < 0)
+      throw new IllegalArgumentException("No such column: "+pField);
+    return index + 1;
+  }
+
+  /** Returns the data of a column chunk, decompressed if needed */
+  protected ByteBuffer getChunk(int pChunk, int pColumn) throws IOException
+  {
+    int elementSize = (pColumn == 0)? 8 : 4;
+    int size = aChunkRowCounts[pChunk] * elementSize;
+
+    // Views must not share the position of the whole file's buffer
+    ByteBuffer stored = aBuffer.duplicate();
+    stored.position((int)aOffsets[pChunk][pColumn]);
+    stored.limit(stored.position() + aSizes[pChunk][pColumn]);
+    stored = stored.slice();
+
+    ByteBuffer data;
+    switch (aEncodings[pChunk][pColumn])
+    {
+      case RAW:
+        data = stored;
+        break;
+      case DEFLATE:
+        data = inflate(stored, size);
+        break;
+      default:
+        throw new IOException("Unknown column encoding: "+
+          aEncodings[pChunk][pColumn]);
+    }
+
+    data.order(ENDIAN);
+    return data;
+  }
+
+  protected static ByteBuffer inflate(ByteBuffer pStored, int pSize)
+    throws IOException
+  {
+    byte[] in = new byte[pStored.remaining()];
+    pStored.get(in);
+    byte[] out = new byte[pSize];
+
+    Inflater inflater = new Inflater();
+    try
+    {
+      inflater.setInput(in);
+      int size = inflater.inflate(out);
+      if (size != pSize)
+        throw new IOException("Corrupt column chunk");
+    }
+    catch (DataFormatException e)
+    {
+      throw new IOException("Corrupt column chunk: "+e.getMessage());
+    }
+    finally
+    {
+      inflater.end();
+    }
+
+    return ByteBuffer.wrap(out);
+  }
+
+  /** Writes a header at the buffer's position */
+  protected static void putHeader(ByteBuffer pOut, int pChunkRows,
+    long pRowCount, long pDirectoryOffset)
+  {
+    pOut.putInt(MAGIC);
+    pOut.putInt(VERSION);
+    pOut.putInt(pChunkRows);
+    pOut.putInt(0);
+    pOut.putLong(pRowCount);
+    pOut.putLong(pDirectoryOffset);
+  }
+
+  protected static int getNamesSize(List<String> pNames)
+  {
+    int size = 4;
+    for (String name : pNames)
+      size += 2 + name.length();
+    return size;
+  }
+
+  /** Writes the field names at the buffer's position */
+  protected static void putNames(ByteBuffer pOut, List<String> pNames)
+    throws IOException
+  {
+    pOut.putInt(pNames.size());
+    for (String name : pNames)
+    {
+      byte[] bytes = name.getBytes("US-ASCII");
+      pOut.putShort((short)bytes.length);
+      pOut.put(bytes);
+    }
+  }
+}
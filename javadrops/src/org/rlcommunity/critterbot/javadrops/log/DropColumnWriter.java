@@ -0,0 +1,312 @@
+/* Copyright 2009 Marc G. Bellemare
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package org.rlcommunity.critterbot.javadrops.log;
+
+/**
+  * DropColumnWriter
+  *
+  * Writes CritterStateDrop records to a column file (see DropColumnFile):
+  *  rows are gathered in memory, one array per field, and each full chunk
+  *  is written out column after column, optionally compressed. convert()
+  *  turns a whole drop log into a column file, reading the fields directly
+  *  from the log's frames.
+  *
+  * Author: Marc G. Bellemare
+  *
+  */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+
+import org.rlcommunity.critterbot.javadrops.drops.CritterStateDrop;
+
+public class DropColumnWriter
+{
+  public static final int defaultChunkRows = 1 << 16;
+
+  protected static final List<String> FIELD_NAMES = CritterStateDrop.FIELD_NAMES;
+  /** The size of the data of a state drop */
+  protected static final int STATE_SIZE = new CritterStateDrop().getSize();
+
+  protected final RandomAccessFile aFile;
+  protected final FileChannel aChannel;
+  protected final int aChunkRows;
+  protected final Deflater aDeflater;
+
+  /** The rows of the current chunk, one array per column */
+  protected final long[] aTimestamps;
+  protected final int[][] aValues;
+  protected int aRows = 0;
+
+  protected long aRowCount = 0;
+  /** The row count of each chunk written, and the directory entries of
+    *  their columns */
+  protected final List<Integer> aChunkRowCounts = new ArrayList<Integer>();
+  protected final List<long[]> aEntries = new ArrayList<long[]>();
+
+  /** The buffer through which chunks are written */
+  protected ByteBuffer aOut;
+  protected byte[] aCompressed = new byte[0];
+
+  /** Creates a new, empty column file.
+    *
+    * @param pFile The file to write; it is replaced if it exists.
+    * @param pChunkRows The number of rows in each chunk.
+    * @param pCompress Whether to compress the chunks of each column.
+    */
+  public DropColumnWriter(File pFile, int pChunkRows, boolean pCompress)
+    throws IOException
+  {
+    if (pChunkRows <= 0)
+      throw new IllegalArgumentException("Invalid chunk size: "+pChunkRows);
+
+    aChunkRows = pChunkRows;
+    aDeflater = pCompress? new Deflater(Deflater.BEST_SPEED) : null;
+    aTimestamps = new long[pChunkRows];
+    aValues = new int[FIELD_NAMES.size()][pChunkRows];
+    aOut = allocate(8 * pChunkRows);
+
+    aFile = new RandomAccessFile(pFile, "rw");
+    aFile.setLength(0);
+    aChannel = aFile.getChannel();
+
+    // The directory's offset is filled in by close()
+    ByteBuffer header = allocate(DropColumnFile.HEADER_SIZE);
+    DropColumnFile.putHeader(header, aChunkRows, 0, 0);
+    header.flip();
+    write(header);
+
+    ByteBuffer names = allocate(DropColumnFile.getNamesSize(FIELD_NAMES));
+    DropColumnFile.putNames(names, FIELD_NAMES);
+    names.flip();
+    write(names);
+    pad();
+  }
+
+  /** Adds a row from the encoded data of a state drop.
+    *
+    * @param pTimestamp The time of the row, in microseconds since the epoch.
+    * @param pData The buffer holding the data.
+    * @param pOffset Where the data starts in the buffer.
+    */
+  public void add(long pTimestamp, ByteBuffer pData, int pOffset)
+    throws IOException
+  {
+    int row = aRows;
+    aTimestamps[row] = pTimestamp;
+    for (int i = 0; i < aValues.length; i++)
+      aValues[i][row] = pData.getInt(pOffset + 4 * i);
+
+    if (++aRows == aChunkRows)
+      writeChunk();
+  }
+
+  /** Adds a row from a state drop */
+  public void add(long pTimestamp, CritterStateDrop pDrop) throws IOException
+  {
+    ByteBuffer data = allocate(STATE_SIZE);
+    pDrop.writeData(data);
+    add(pTimestamp, data, 0);
+  }
+
+  /** Returns the number of rows added */
+  public long getRowCount() { return aRowCount + aRows; }
+
+  /** Writes out the last chunk and the directory, and closes the file */
+  public void close() throws IOException
+  {
+    try
+    {
+      if (aRows > 0)
+        writeChunk();
+
+      long directoryOffset = aChannel.position();
+      ByteBuffer directory = allocate(4 + aChunkRowCounts.size() *
+        (4 + (FIELD_NAMES.size() + 1) * DropColumnFile.ENTRY_SIZE));
+      directory.putInt(aChunkRowCounts.size());
+      for (int c = 0; c < aChunkRowCounts.size(); c++)
+      {
+        directory.putInt(aChunkRowCounts.get(c));
+        int first = c * (FIELD_NAMES.size() + 1);
+        for (int i = first; i <= first + FIELD_NAMES.size(); i++)
+        {
+          long[] entry = aEntries.get(i);
+          directory.putLong(entry[0]);
+          directory.putInt((int)entry[1]);
+          directory.putInt((int)entry[2]);
+          directory.putLong(entry[3]);
+          directory.putLong(entry[4]);
+        }
+      }
+      directory.flip();
+      write(directory);
+
+      ByteBuffer header = allocate(DropColumnFile.HEADER_SIZE);
+      DropColumnFile.putHeader(header, aChunkRows, aRowCount, directoryOffset);
+      header.flip();
+      aChannel.position(0);
+      write(header);
+    }
+    finally
+    {
+      if (aDeflater != null)
+        aDeflater.end();
+      aFile.close();
+    }
+  }
+
+  /** Writes out the rows gathered, one column after the other */
+  protected void writeChunk() throws IOException
+  {
+    aOut.clear();
+    long min = Long.MAX_VALUE, max = Long.MIN_VALUE;
+    for (int row = 0; row < aRows; row++)
+    {
+      aOut.putLong(aTimestamps[row]);
+      min = Math.min(min, aTimestamps[row]);
+      max = Math.max(max, aTimestamps[row]);
+    }
+    writeColumn(min, max);
+
+    for (int[] column : aValues)
+    {
+      aOut.clear();
+      int columnMin = Integer.MAX_VALUE, columnMax = Integer.MIN_VALUE;
+      for (int row = 0; row < aRows; row++)
+      {
+        int value = column[row];
+        if (value < columnMin) columnMin = value;
+        if (value > columnMax) columnMax = value;
+      }
+      aOut.asIntBuffer().put(column, 0, aRows);
+      aOut.position(4 * aRows);
+      writeColumn(columnMin, columnMax);
+    }
+
+    aChunkRowCounts.add(aRows);
+    aRowCount += aRows;
+    aRows = 0;
+  }
+
+  /** Writes out the column chunk in aOut and records its directory entry */
+  protected void writeColumn(long pMin, long pMax) throws IOException
+  {
+    aOut.flip();
+    ByteBuffer out = aOut;
+    long offset = aChannel.position();
+    int encoding = DropColumnFile.RAW;
+
+    if (aDeflater != null)
+    {
+      int size = aOut.remaining();
+      if (aCompressed.length < size)
+        aCompressed = new byte[size];
+
+      aDeflater.reset();
+      aDeflater.setInput(aOut.array(), 0, size);
+      aDeflater.finish();
+      int compressedSize = aDeflater.deflate(aCompressed);
+
+      // Incompressible chunks are stored as they are
+      if (aDeflater.finished() && compressedSize < size)
+      {
+        out = ByteBuffer.wrap(aCompressed, 0, compressedSize);
+        encoding = DropColumnFile.DEFLATE;
+      }
+    }
+
+    int storedSize = out.remaining();
+    write(out);
+    pad();
+
+    aEntries.add(new long[] {offset, storedSize, encoding, pMin, pMax});
+  }
+
+  /** Aligns the next column to 8 bytes, so that it may be viewed as a
+    *  LongBuffer or IntBuffer */
+  protected void pad() throws IOException
+  {
+    int padding = (int)(-aChannel.position() & 7);
+    if (padding > 0)
+      write(ByteBuffer.allocate(padding));
+  }
+
+  protected void write(ByteBuffer pBuffer) throws IOException
+  {
+    while (pBuffer.hasRemaining())
+      aChannel.write(pBuffer);
+  }
+
+  protected static ByteBuffer allocate(int pSize)
+  {
+    ByteBuffer buffer = ByteBuffer.allocate(pSize);
+    buffer.order(DropColumnFile.ENDIAN);
+    return buffer;
+  }
+
+  /** Writes the state records of a drop log to a column file.
+    *
+    * @return The number of rows written.
+    */
+  public static long convert(DropLogReader pReader, File pFile, int pChunkRows,
+    boolean pCompress) throws IOException
+  {
+    pReader.setTypes(CritterStateDrop.class);
+    DropColumnWriter writer = new DropColumnWriter(pFile, pChunkRows, pCompress);
+
+    try
+    {
+      while (pReader.nextFrame())
+      {
+        // State drops of another layout cannot be read this way
+        if (pReader.getDataSize() == STATE_SIZE)
+          writer.add(pReader.getTimestamp(), pReader.getBuffer(),
+            pReader.getDataOffset());
+      }
+    }
+    finally
+    {
+      writer.close();
+    }
+
+    return writer.getRowCount();
+  }
+
+  /** Converts a drop log to a column file.
+    *
+    * Usage: DropColumnWriter [logprefix] [column file] [-z to compress]
+    */
+  public static void main(String[] args) throws IOException
+  {
+    if (args.length < 2)
+    {
+      System.out.println ("Usage: DropColumnWriter [logprefix] [column file] "+
+        "[-z to compress]");
+      return;
+    }
+
+    boolean compress = (args.length > 2 && args[2].equals("-z"));
+    DropLogReader reader = new DropLogReader(args[0]);
+    long rows = convert(reader, new File(args[1]), defaultChunkRows, compress);
+    reader.close();
+
+    System.out.println ("Wrote "+rows+" rows to "+args[1]);
+  }
+}
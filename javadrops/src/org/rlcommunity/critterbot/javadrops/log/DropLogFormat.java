@@ -0,0 +1,137 @@
+/* Copyright 2009 Marc G. Bellemare
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package org.rlcommunity.critterbot.javadrops.log;
+
+/**
+  * DropLogFormat
+  *
+  * Describes the binary drop log. A log is a sequence of segment files named
+  *  <prefix>.<sequence number>.droplog, each of which starts with a header:
+  *
+  *   int magic, int version, int sequence number, long creation time (ms)
+  *
+  *  followed by records, each of which is a timestamp in microseconds since
+  *  the epoch (a long) followed by a whole drop frame, exactly as sent over
+  *  Disco (see DropProtocol). The first record of each segment is the
+  *  DropTypeTable of the writer; the numeric type ids of the other frames
+  *  refer to it. Everything is little-endian, like the frames.
+  *
+  * Next to each segment, a <prefix>.<sequence number>.dropidx file holds
+  *  its sparse index (see DropLogIndex): a header like the segment's, with
+  *  its own magic number, followed by fixed-size entries.
+  *
+  * Author: Marc G. Bellemare
+  *
+  */
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.rlcommunity.critterbot.javadrops.DropCodec;
+
+public class DropLogFormat
+{
+  /** "CBDL" */
+  public static final int MAGIC = 0x4C444243;
+  public static final int VERSION = 1;
+  /** "CBDI" */
+  public static final int INDEX_MAGIC = 0x49444243;
+
+  public static final int HEADER_SIZE = 4 + 4 + 4 + 8;
+  /** The size of a record's timestamp, which precedes its frame */
+  public static final int TIMESTAMP_SIZE = 8;
+
+  public static final String FILE_EXTENSION = ".droplog";
+  public static final String INDEX_EXTENSION = ".dropidx";
+
+  public static final ByteOrder ENDIAN = DropCodec.FRAME_ENDIAN;
+
+  /** Returns the file holding the given segment of a log */
+  public static File getSegmentFile(String pPrefix, int pSequence)
+  {
+    return new File(String.format("%s.%06d%s", pPrefix, pSequence,
+      FILE_EXTENSION));
+  }
+
+  /** Writes a segment header at the buffer's position */
+  public static void putHeader(ByteBuffer pOut, int pSequence, long pCreationTime)
+  {
+    putHeader(pOut, MAGIC, pSequence, pCreationTime);
+  }
+
+  /** Writes an index file header at the buffer's position */
+  public static void putIndexHeader(ByteBuffer pOut, int pSequence,
+    long pCreationTime)
+  {
+    putHeader(pOut, INDEX_MAGIC, pSequence, pCreationTime);
+  }
+
+  protected static void putHeader(ByteBuffer pOut, int pMagic, int pSequence,
+    long pCreationTime)
+  {
+    pOut.putInt(pMagic);
+    pOut.putInt(VERSION);
+    pOut.putInt(pSequence);
+    pOut.putLong(pCreationTime);
+  }
+
+  /** Reads and checks a segment header at the buffer's position.
+    *
+    * @return The segment's sequence number.
+    */
+  public static int getHeader(ByteBuffer pIn)
+  {
+    if (pIn.remaining() < HEADER_SIZE || pIn.getInt() != MAGIC)
+      throw new RuntimeException("Not a drop log segment");
+    return getHeaderRest(pIn);
+  }
+
+  /** Reads and checks an index file header at the buffer's position.
+    *
+    * @return The sequence number of the indexed segment.
+    */
+  public static int getIndexHeader(ByteBuffer pIn)
+  {
+    if (pIn.remaining() < HEADER_SIZE || pIn.getInt() != INDEX_MAGIC)
+      throw new RuntimeException("Not a drop log index");
+    return getHeaderRest(pIn);
+  }
+
+  /** Reads the rest of a header, after its magic number */
+  protected static int getHeaderRest(ByteBuffer pIn)
+  {
+    int version = pIn.getInt();
+    if (version != VERSION)
+      throw new RuntimeException("Unsupported drop log version: "+version);
+
+    int sequence = pIn.getInt();
+    // The creation time is informative only
+    pIn.getLong();
+    return sequence;
+  }
+
+  /** Returns the current time in microseconds since the epoch, with the
+    *  precision of System.nanoTime() */
+  public static class Clock
+  {
+    protected final long aBaseMicros = System.currentTimeMillis() * 1000;
+    protected final long aBaseNanos = System.nanoTime();
+
+    public long getMicros()
+    {
+      return aBaseMicros + (System.nanoTime() - aBaseNanos) / 1000;
+    }
+  }
+}
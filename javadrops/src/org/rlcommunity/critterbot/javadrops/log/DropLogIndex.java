@@ -0,0 +1,335 @@
+/* Copyright 2009 Marc G. Bellemare
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package org.rlcommunity.critterbot.javadrops.log;
+
+/**
+  * DropLogIndex
+  *
+  * A sparse index of one drop log segment. The records of a segment, after
+  *  its type table, are divided into blocks of consecutive records; for each
+  *  block the index holds:
+  *
+  *   long first timestamp, long file offset, int length (bytes),
+  *   int number of records, long type bits
+  *
+  *  The type bits have bit (id % 64) set for the writer's id of every drop
+  *  type found in the block (all bits for drops encoded by name), so that
+  *  blocks without any drop of interest can be skipped without reading them.
+  *
+  * DropLogWriter appends the entries of each batch to an index file next to
+  *  the segment as it writes the batch out; see DropLogFormat. A segment
+  *  without an index file, or with records beyond its last entry (e.g.
+  *  after a crash), is indexed by scanning it when loaded.
+  *
+  * Author: Marc G. Bellemare
+  *
+  */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class DropLogIndex
+{
+  public static final int ENTRY_SIZE = 8 + 8 + 4 + 4 + 8;
+  /** The type bits of a block which may hold drops of any type */
+  public static final long ALL_TYPES = ~0L;
+  /** The size beyond which a block is ended, in bytes */
+  public static final int defaultBlockSize = 64 << 10;
+
+  /** The entries, in order, as parallel arrays */
+  protected int aSize = 0;
+  protected long[] aTimestamps = new long[64];
+  protected long[] aOffsets = new long[64];
+  protected int[] aLengths = new int[64];
+  protected int[] aCounts = new int[64];
+  protected long[] aTypeBits = new long[64];
+
+  /** Returns the type bit of the given writer's type id */
+  public static long getTypeBit(int pId)
+  {
+    return 1L << (pId & 63);
+  }
+
+  /** Returns the type bits of a frame, read from its header */
+  public static long getFrameTypeBits(ByteBuffer pIn, int pFramePosition)
+  {
+    int header = pIn.getInt(pFramePosition);
+    return (header < 0)? getTypeBit(-1 - header) : ALL_TYPES;
+  }
+
+  public int size() { return aSize; }
+
+  public long getTimestamp(int pEntry) { return aTimestamps[pEntry]; }
+  public long getOffset(int pEntry) { return aOffsets[pEntry]; }
+  public int getLength(int pEntry) { return aLengths[pEntry]; }
+  public int getRecordCount(int pEntry) { return aCounts[pEntry]; }
+  public long getTypeBits(int pEntry) { return aTypeBits[pEntry]; }
+
+  /** Returns the offset just past the last indexed block */
+  public long getEnd()
+  {
+    return (aSize == 0)? 0 : aOffsets[aSize - 1] + aLengths[aSize - 1];
+  }
+
+  /** Returns the timestamp of the first indexed record, or Long.MAX_VALUE */
+  public long getFirstTimestamp()
+  {
+    return (aSize == 0)? Long.MAX_VALUE : aTimestamps[0];
+  }
+
+  /** Returns the last block whose first record is earlier than the given
+    *  timestamp, which is where a record at that time would be found, or
+    *  0 if there is none */
+  public int find(long pTimestamp)
+  {
+    // Find the first block starting at or after the timestamp
+    int low = 0, high = aSize;
+    while (low < high)
+    {
+      int mid = (low + high) >>> 1;
+      if (aTimestamps[mid] < pTimestamp)
+        low = mid + 1;
+      else
+        high = mid;
+    }
+
+    return (low > 0)? low - 1 : 0;
+  }
+
+  /** Appends an entry */
+  public void add(long pTimestamp, long pOffset, int pLength, int pCount,
+    long pTypeBits)
+  {
+    if (aSize == aTimestamps.length)
+    {
+      int capacity = aSize * 2;
+      aTimestamps = grow(aTimestamps, capacity);
+      aOffsets = grow(aOffsets, capacity);
+      aLengths = grow(aLengths, capacity);
+      aCounts = grow(aCounts, capacity);
+      aTypeBits = grow(aTypeBits, capacity);
+    }
+
+    aTimestamps[aSize] = pTimestamp;
+    aOffsets[aSize] = pOffset;
+    aLengths[aSize] = pLength;
+    aCounts[aSize] = pCount;
+    aTypeBits[aSize] = pTypeBits;
+    aSize++;
+  }
+
+  /** Writes the entries from the given one on at the buffer's position */
+  public void put(ByteBuffer pOut, int pFrom)
+  {
+    for (int i = pFrom; i < aSize; i++)
+    {
+      pOut.putLong(aTimestamps[i]);
+      pOut.putLong(aOffsets[i]);
+      pOut.putInt(aLengths[i]);
+      pOut.putInt(aCounts[i]);
+      pOut.putLong(aTypeBits[i]);
+    }
+  }
+
+  /** Indexes whole records, starting a new block at the first one and
+    *  whenever the current block reaches the block size.
+    *
+    * @param pRecords The records; their position is left unchanged.
+    * @param pOffset The file offset of the first record.
+    * @param pBlockSize The size beyond which a block is ended.
+    * @return The number of bytes of whole records indexed.
+    */
+  public int index(ByteBuffer pRecords, long pOffset, int pBlockSize)
+  {
+    ByteBuffer in = pRecords.duplicate();
+    in.order(DropLogFormat.ENDIAN);
+    int start = in.position();
+    int blockStart = -1;
+
+    while (in.remaining() >= DropLogFormat.TIMESTAMP_SIZE)
+    {
+      int position = in.position();
+      long timestamp = in.getLong();
+      long bits = getFrameTypeBits(in, in.position());
+      if (!DropLogReader.skipFrame(in))
+        break;
+
+      if (blockStart < 0 || position - blockStart >= pBlockSize)
+      {
+        add(timestamp, pOffset + position - start, 0, 0, 0);
+        blockStart = position;
+      }
+
+      int last = aSize - 1;
+      aLengths[last] = in.position() - blockStart;
+      aCounts[last]++;
+      aTypeBits[last] |= bits;
+    }
+
+    return (blockStart < 0)? 0 :
+      (int)(aOffsets[aSize - 1] + aLengths[aSize - 1] - pOffset);
+  }
+
+  /** Returns the index file of the given segment */
+  public static File getIndexFile(File pSegment)
+  {
+    String name = pSegment.getPath();
+    if (name.endsWith(DropLogFormat.FILE_EXTENSION))
+      name = name.substring(0, name.length() -
+        DropLogFormat.FILE_EXTENSION.length());
+    return new File(name + DropLogFormat.INDEX_EXTENSION);
+  }
+
+  /** Loads the index of a segment; the part of the segment which is not
+    *  covered by its index file, if any, is indexed by scanning it */
+  public static DropLogIndex load(File pSegment) throws IOException
+  {
+    DropLogIndex index = new DropLogIndex();
+    File indexFile = getIndexFile(pSegment);
+
+    if (indexFile.exists())
+    {
+      ByteBuffer in = readFile(indexFile);
+      if (in.remaining() >= DropLogFormat.HEADER_SIZE &&
+          in.getInt(0) == DropLogFormat.INDEX_MAGIC)
+      {
+        DropLogFormat.getIndexHeader(in);
+        // A partly written last entry is ignored
+        while (in.remaining() >= ENTRY_SIZE)
+          index.add(in.getLong(), in.getLong(), in.getInt(), in.getInt(),
+            in.getLong());
+      }
+      else
+        System.err.println ("Warning: ignoring invalid drop log index "+
+          indexFile);
+    }
+
+    long end = index.getEnd();
+    long segmentSize = pSegment.length();
+    if (end < segmentSize)
+    {
+      ByteBuffer segment = DropLogReader.map(pSegment);
+      if (end == 0)
+      {
+        // Skip the header and type table
+        DropLogFormat.getHeader(segment);
+        if (segment.remaining() >= DropLogFormat.TIMESTAMP_SIZE)
+        {
+          segment.position(segment.position() + DropLogFormat.TIMESTAMP_SIZE);
+          DropLogReader.skipFrame(segment);
+        }
+      }
+      else
+        segment.position((int)end);
+
+      index.index(segment, segment.position(), defaultBlockSize);
+    }
+
+    return index;
+  }
+
+  /** Loads the indexes of many segments at once.
+    *
+    * @param pThreads The number of segments loaded at the same time.
+    */
+  public static List<DropLogIndex> loadAll(List<File> pSegments, int pThreads)
+    throws IOException
+  {
+    List<DropLogIndex> indexes = new ArrayList<DropLogIndex>();
+    if (pSegments.size() <= 1 || pThreads <= 1)
+    {
+      for (File segment : pSegments)
+        indexes.add(load(segment));
+      return indexes;
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(
+      Math.min(pThreads, pSegments.size()));
+    try
+    {
+      List<Future<DropLogIndex>> futures = new ArrayList<Future<DropLogIndex>>();
+      for (final File segment : pSegments)
+      {
+        futures.add(executor.submit(new Callable<DropLogIndex>() {
+          public DropLogIndex call() throws IOException
+          {
+            return load(segment);
+          }
+        }));
+      }
+
+      for (Future<DropLogIndex> future : futures)
+        indexes.add(future.get());
+      return indexes;
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while loading drop log indexes");
+    }
+    catch (ExecutionException e)
+    {
+      if (e.getCause() instanceof IOException)
+        throw (IOException)e.getCause();
+      throw new RuntimeException(e.getCause());
+    }
+    finally
+    {
+      executor.shutdown();
+    }
+  }
+
+  protected static ByteBuffer readFile(File pFile) throws IOException
+  {
+    RandomAccessFile file = new RandomAccessFile(pFile, "r");
+    try
+    {
+      FileChannel channel = file.getChannel();
+      ByteBuffer buffer = ByteBuffer.allocate((int)channel.size());
+      buffer.order(DropLogFormat.ENDIAN);
+      while (buffer.hasRemaining() && channel.read(buffer) >= 0)
+        ;
+      buffer.flip();
+      return buffer;
+    }
+    finally
+    {
+      file.close();
+    }
+  }
+
+  protected static long[] grow(long[] pArray, int pCapacity)
+  {
+    long[] array = new long[pCapacity];
+    System.arraycopy(pArray, 0, array, 0, pArray.length);
+    return array;
+  }
+
+  protected static int[] grow(int[] pArray, int pCapacity)
+  {
+    int[] array = new int[pCapacity];
+    System.arraycopy(pArray, 0, array, 0, pArray.length);
+    return array;
+  }
+}
@@ -0,0 +1,437 @@
+/* Copyright 2009 Marc G. Bellemare
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package org.rlcommunity.critterbot.javadrops.log;
+
+/**
+  * DropLogQuery
+  *
+  * Computes statistics of the CritterStateDrop fields recorded in a drop
+  *  log, e.g. the mean motor current while the robot was on battery power.
+  *  The fields are named as in CritterStateDrop.FIELD_NAMES.
+  *
+  * A query reads the state records of a time range, keeps those accepted by
+  *  all of its filters, and gathers, for each of its fields, statistics
+  *  (see FieldStats), optionally a histogram and statistics per time window.
+  *  Fields are read directly from the log's encoded frames: drops are never
+  *  decoded. The segments of the log are read in parallel, by as many
+  *  threads as requested, and their results are then merged.
+  *
+  * Author: Marc G. Bellemare
+  *
+  */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.rlcommunity.critterbot.javadrops.drops.CritterStateDrop;
+
+public class DropLogQuery
+{
+  /** Decides which records are used */
+  public interface Filter
+  {
+    public boolean accept(Record pRecord);
+  }
+
+  /** A view of the state record being read; only valid during the call it
+    *  is passed to */
+  public static class Record
+  {
+    protected long aTimestamp;
+    protected ByteBuffer aBuffer;
+    protected int aOffset;
+
+    /** Returns the time the record was logged, in microseconds since the
+      *  epoch */
+    public long getTimestamp() { return aTimestamp; }
+
+    /** Returns the value at the given offset (see
+      *  CritterStateDrop.getFieldOffset()) */
+    public int get(int pFieldOffset)
+    {
+      return aBuffer.getInt(aOffset + pFieldOffset);
+    }
+
+    /** Returns the value of the given field; get(int) is faster */
+    public int get(String pField)
+    {
+      return get(getOffset(pField));
+    }
+  }
+
+  /** Accepts records whose value of a field is within a range */
+  public static class RangeFilter implements Filter
+  {
+    protected final int aOffset, aMin, aMax;
+
+    /** Accepts values from pMin to pMax, inclusive */
+    public RangeFilter(String pField, int pMin, int pMax)
+    {
+      aOffset = getOffset(pField);
+      aMin = pMin;
+      aMax = pMax;
+    }
+
+    public boolean accept(Record pRecord)
+    {
+      int value = pRecord.get(aOffset);
+      return value >= aMin && value <= aMax;
+    }
+  }
+
+  /** The statistics of one time window */
+  public static class Window
+  {
+    protected final long aStart;
+    protected final FieldStats[] aStats;
+
+    public Window(long pStart, int pFields)
+    {
+      aStart = pStart;
+      aStats = newStats(pFields);
+    }
+
+    /** Returns the time the window starts at, in microseconds since the
+      *  epoch */
+    public long getStart() { return aStart; }
+
+    /** Returns the statistics of the query's given field */
+    public FieldStats getStats(int pField) { return aStats[pField]; }
+  }
+
+  /** The results of a query, or of part of it */
+  public class Result
+  {
+    protected long aRecordCount, aMatchedCount;
+    protected final FieldStats[] aStats = newStats(aFields.size());
+    protected final FieldHistogram[] aHistograms =
+      new FieldHistogram[aFields.size()];
+    protected final TreeMap<Long,Window> aWindows = new TreeMap<Long,Window>();
+
+    protected Result()
+    {
+      for (int i = 0; i < aHistograms.length; i++)
+        if (aHistogramBins.get(i) != null)
+          aHistograms[i] = aHistogramBins.get(i).copyEmpty();
+    }
+
+    /** Returns the number of state records read */
+    public long getRecordCount() { return aRecordCount; }
+
+    /** Returns the number of state records accepted by the filters */
+    public long getMatchedCount() { return aMatchedCount; }
+
+    public FieldStats getStats(String pField) { return aStats[indexOf(pField)]; }
+
+    /** Returns the histogram of a field, or null if it has none */
+    public FieldHistogram getHistogram(String pField)
+    {
+      return aHistograms[indexOf(pField)];
+    }
+
+    /** Returns the windows holding any accepted record, in order */
+    public List<Window> getWindows()
+    {
+      return new ArrayList<Window>(aWindows.values());
+    }
+
+    protected void add(Record pRecord)
+    {
+      Window window = null;
+      if (aWindowSize > 0)
+      {
+        long start = aWindowOrigin + Math.max(0,
+          (pRecord.aTimestamp - aWindowOrigin) / aWindowSize) * aWindowSize;
+        window = aWindows.get(start);
+        if (window == null)
+        {
+          window = new Window(start, aOffsets.length);
+          aWindows.put(start, window);
+        }
+      }
+
+      for (int i = 0; i < aOffsets.length; i++)
+      {
+        int value = pRecord.get(aOffsets[i]);
+        aStats[i].add(value);
+        if (aHistograms[i] != null)
+          aHistograms[i].add(value);
+        if (window != null)
+          window.aStats[i].add(value);
+      }
+    }
+
+    protected void merge(Result pOther)
+    {
+      aRecordCount += pOther.aRecordCount;
+      aMatchedCount += pOther.aMatchedCount;
+
+      for (int i = 0; i < aStats.length; i++)
+      {
+        aStats[i].merge(pOther.aStats[i]);
+        if (aHistograms[i] != null)
+          aHistograms[i].merge(pOther.aHistograms[i]);
+      }
+
+      // A window may span two segments
+      for (Map.Entry<Long,Window> e : pOther.aWindows.entrySet())
+      {
+        Window window = aWindows.get(e.getKey());
+        if (window == null)
+          aWindows.put(e.getKey(), e.getValue());
+        else
+          for (int i = 0; i < window.aStats.length; i++)
+            window.aStats[i].merge(e.getValue().aStats[i]);
+      }
+    }
+  }
+
+  public static final int defaultThreads =
+    Runtime.getRuntime().availableProcessors();
+
+  /** The size of the data of a state drop */
+  protected static final int STATE_SIZE = new CritterStateDrop().getSize();
+
+  protected final DropLogReader aReader;
+
+  protected long aStart = Long.MIN_VALUE, aEnd = Long.MAX_VALUE;
+  protected final List<String> aFields = new ArrayList<String>();
+  protected int[] aOffsets = new int[0];
+  protected final List<FieldHistogram> aHistogramBins =
+    new ArrayList<FieldHistogram>();
+  protected final List<Filter> aFilters = new ArrayList<Filter>();
+  /** The length of the time windows in microseconds, or 0 for none */
+  protected long aWindowSize = 0;
+  protected long aWindowOrigin;
+
+  /** Creates a query over the whole log with the given prefix */
+  public DropLogQuery(String pPrefix) throws IOException
+  {
+    this(new DropLogReader(pPrefix));
+  }
+
+  public DropLogQuery(DropLogReader pReader)
+  {
+    aReader = pReader;
+  }
+
+  /** Returns where the given field is found in the data of a state drop */
+  public static int getOffset(String pField)
+  {
+    int offset = CritterStateDrop.getFieldOffset(pField);
+    if (offset < 0)
+      throw new IllegalArgumentException("No such state field: "+pField);
+    return offset;
+  }
+
+  /** Only reads the records from pStart on, up to but excluding pEnd, in
+    *  microseconds since the epoch */
+  public void setRange(long pStart, long pEnd)
+  {
+    aStart = pStart;
+    aEnd = pEnd;
+  }
+
+  /** Gathers statistics of the given field */
+  public void addField(String pField)
+  {
+    addField(pField, null);
+  }
+
+  /** Gathers statistics and a histogram of the given field.
+    *
+    * @param pHistogram An empty histogram, whose bins are used; null for
+    *   none.
+    */
+  public void addField(String pField, FieldHistogram pHistogram)
+  {
+    int offset = getOffset(pField);
+    if (aFields.contains(pField))
+      throw new IllegalArgumentException("Field already queried: "+pField);
+
+    aFields.add(pField);
+    aHistogramBins.add(pHistogram);
+
+    int[] offsets = new int[aOffsets.length + 1];
+    System.arraycopy(aOffsets, 0, offsets, 0, aOffsets.length);
+    offsets[aOffsets.length] = offset;
+    aOffsets = offsets;
+  }
+
+  public List<String> getFields() { return aFields; }
+
+  /** Returns the index of a field, e.g. for Window.getStats() */
+  public int indexOf(String pField)
+  {
+    int index = aFields.indexOf(pField);
+    if (index < 0)
+      throw new IllegalArgumentException("Field not queried: "+pField);
+    return index;
+  }
+
+  /** Only uses the records accepted by the given filter */
+  public void addFilter(Filter pFilter)
+  {
+    aFilters.add(pFilter);
+  }
+
+  /** Only uses the records whose value of the given field is between pMin
+    *  and pMax, inclusive */
+  public void addFilter(String pField, int pMin, int pMax)
+  {
+    addFilter(new RangeFilter(pField, pMin, pMax));
+  }
+
+  /** Also gathers statistics per time window of the given length, in
+    *  microseconds; windows start from the start of the range, or of the
+    *  log. 0 for no windows. */
+  public void setWindowSize(long pMicros)
+  {
+    if (pMicros < 0)
+      throw new IllegalArgumentException("Invalid window size: "+pMicros);
+    aWindowSize = pMicros;
+  }
+
+  /** Runs the query with defaultThreads threads */
+  public Result run() throws IOException
+  {
+    return run(defaultThreads);
+  }
+
+  /** Runs the query, reading up to the given number of segments at once */
+  public Result run(int pThreads) throws IOException
+  {
+    aReader.setTypes(CritterStateDrop.class);
+    aReader.loadIndexes();
+    aWindowOrigin = (aStart == Long.MIN_VALUE)? aReader.getStartTime() : aStart;
+
+    final List<DropLogReader> parts = aReader.splitBySegment(aStart, aEnd);
+    Result result = new Result();
+    if (parts.isEmpty())
+      return result;
+
+    if (pThreads <= 1 || parts.size() == 1)
+    {
+      for (DropLogReader part : parts)
+        result.merge(scan(part));
+      return result;
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(
+      Math.min(pThreads, parts.size()));
+    try
+    {
+      List<Future<Result>> futures = new ArrayList<Future<Result>>();
+      for (final DropLogReader part : parts)
+      {
+        futures.add(executor.submit(new Callable<Result>() {
+          public Result call() throws IOException
+          {
+            return scan(part);
+          }
+        }));
+      }
+
+      for (Future<Result> future : futures)
+        result.merge(future.get());
+      return result;
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while querying drop log");
+    }
+    catch (ExecutionException e)
+    {
+      if (e.getCause() instanceof IOException)
+        throw (IOException)e.getCause();
+      throw new RuntimeException(e.getCause());
+    }
+    finally
+    {
+      executor.shutdownNow();
+      for (DropLogReader part : parts)
+        part.close();
+    }
+  }
+
+  /** Computes the results of one part of the log */
+  protected Result scan(DropLogReader pPart) throws IOException
+  {
+    Result result = new Result();
+    Record record = new Record();
+
+    records:
+    while (pPart.nextFrame())
+    {
+      // State drops of another layout cannot be read this way
+      if (pPart.getDataSize() != STATE_SIZE)
+        continue;
+
+      result.aRecordCount++;
+      record.aTimestamp = pPart.getTimestamp();
+      record.aBuffer = pPart.getBuffer();
+      record.aOffset = pPart.getDataOffset();
+
+      for (Filter filter : aFilters)
+        if (!filter.accept(record))
+          continue records;
+
+      result.aMatchedCount++;
+      result.add(record);
+    }
+
+    return result;
+  }
+
+  protected static FieldStats[] newStats(int pCount)
+  {
+    FieldStats[] stats = new FieldStats[pCount];
+    for (int i = 0; i < pCount; i++)
+      stats[i] = new FieldStats();
+    return stats;
+  }
+
+  /** Prints the statistics of the given fields over a whole log.
+    *
+    * Usage: DropLogQuery [logprefix] [field]...
+    */
+  public static void main(String[] args) throws IOException
+  {
+    if (args.length < 2)
+    {
+      System.out.println ("Usage: DropLogQuery [logprefix] [field]...");
+      System.out.println ("Fields: "+CritterStateDrop.FIELD_NAMES);
+      return;
+    }
+
+    DropLogQuery query = new DropLogQuery(args[0]);
+    for (int i = 1; i < args.length; i++)
+      query.addField(args[i]);
+
+    Result result = query.run();
+    System.out.println (result.getRecordCount()+" state records");
+    for (String field : query.getFields())
+      System.out.println (field+": "+result.getStats(field));
+  }
+}
@@ -0,0 +1,708 @@
+/* Copyright 2009 Marc G. Bellemare
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package org.rlcommunity.critterbot.javadrops.log;
+
+/**
+  * DropLogReader
+  *
+  * Reads the records of a drop log written by DropLogWriter, in order,
+  *  across all of its segments. Segments are memory-mapped; while one is
+  *  being read, the next one is mapped and loaded in the background, so that
+  *  reading does not stall at segment boundaries.
+  *
+  * A reader is a cursor: next() moves to the next record, whose timestamp
+  *  and drop are then returned by getTimestamp() and getDrop(). It is not
+  *  thread-safe.
+  *
+  * The segment indexes (see DropLogIndex) let a reader seek to a time
+  *  directly, stop at the end of a time range and, when only some drop types
+  *  are selected, skip the blocks holding none of them and the frames of
+  *  other types without decoding them. Indexes are loaded when first
+  *  needed, or all at once, in parallel, by loadIndexes(). A log may be
+  *  read in parallel through one reader per segment; see splitBySegment().
+  *
+  * Author: Marc G. Bellemare
+  *
+  */
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.rlcommunity.critterbot.javadrops.DropCodec;
+import org.rlcommunity.critterbot.javadrops.DropProtocol;
+import org.rlcommunity.critterbot.javadrops.drops.DropTypeRegistry;
+import org.rlcommunity.critterbot.javadrops.drops.DropTypeTable;
+import org.rlcommunity.critterbot.javadrops.drops.SimulatorDrop;
+
+public class DropLogReader
+{
+  /** Decodes the type ids of one segment, as given by its writer's table */
+  protected static class LogProtocol extends DropProtocol
+  {
+    /** The writer's name and our own id for each of the writer's ids */
+    protected final String[] aNames = new String[DropTypeRegistry.MAX_TYPE_ID + 1];
+    protected final int[] aLocalIds = new int[DropTypeRegistry.MAX_TYPE_ID + 1];
+
+    /** Returns which of the writer's ids have one of the given names */
+    public boolean[] getIds(Set<String> pNames)
+    {
+      boolean[] ids = new boolean[aNames.length];
+      for (int i = 0; i < aNames.length; i++)
+        ids[i] = (aNames[i] != null && pNames.contains(aNames[i]));
+      return ids;
+    }
+
+    public SimulatorDrop createDrop(int pId) throws ClassNotFoundException
+    {
+      if (pId < 0 || pId >= aNames.length || aNames[pId] == null)
+        throw new ClassNotFoundException("Drop type id "+pId);
+
+      if (aLocalIds[pId] >= 0)
+        return super.createDrop(aLocalIds[pId]);
+      else
+        return createDrop(aNames[pId]);
+    }
+
+    public SimulatorDrop received(SimulatorDrop pDrop)
+    {
+      if (!(pDrop instanceof DropTypeTable))
+        return pDrop;
+
+      DropTypeTable table = (DropTypeTable)pDrop;
+      DropTypeRegistry registry = DropTypeRegistry.getDefault();
+
+      Arrays.fill(aNames, null);
+      for (int i = 0; i < table.ids.size(); i++)
+      {
+        int id = table.ids.get(i);
+        if (id >= 0 && id < aNames.length)
+        {
+          aNames[id] = table.names.get(i);
+          aLocalIds[id] = registry.getId(aNames[id]);
+        }
+      }
+
+      return null;
+    }
+  }
+
+  public static final int defaultLoadThreads =
+    Runtime.getRuntime().availableProcessors();
+
+  /** The segment files, in order */
+  protected final List<File> aSegments;
+  /** The index and first timestamp of each segment, once loaded */
+  protected final DropLogIndex[] aIndexes;
+  protected final long[] aFirstTimestamps;
+
+  protected int aSegmentIndex = -1;
+  protected ByteBuffer aBuffer;
+  protected LogProtocol aProtocol;
+  protected DropCodec aDecoder;
+
+  /** The next segment, being mapped in the background */
+  protected final ExecutorService aReadAhead;
+  protected int aNextIndex = -1;
+  protected Future<ByteBuffer> aNext;
+
+  /** The current record */
+  protected long aTimestamp;
+  protected SimulatorDrop aDrop;
+  /** Where the data of the current frame is found, if it was not decoded */
+  protected int aDataOffset, aDataSize;
+
+  protected boolean aWarnedUnknown = false;
+
+  /** The end of the time range read, exclusive */
+  protected long aEnd = Long.MAX_VALUE;
+
+  /** The selected drop types, or null for all types */
+  protected Class<?>[] aTypes;
+  protected Set<String> aTypeNames;
+  /** Which of the current segment's ids, and type bits, are selected */
+  protected boolean[] aSelectedIds;
+  protected long aSelectedBits;
+  /** The index block holding the current position, if types are selected */
+  protected int aBlock;
+
+  /** Opens the log whose segments start with the given path prefix */
+  public DropLogReader(String pPrefix) throws IOException
+  {
+    this(findSegments(pPrefix));
+  }
+
+  /** Opens a log made of the given segments, in order */
+  public DropLogReader(List<File> pSegments) throws IOException
+  {
+    if (pSegments.isEmpty())
+      throw new IOException("No drop log segments");
+
+    aSegments = new ArrayList<File>(pSegments);
+    aIndexes = new DropLogIndex[aSegments.size()];
+    aFirstTimestamps = new long[aSegments.size()];
+    Arrays.fill(aFirstTimestamps, -1);
+    aReadAhead = Executors.newSingleThreadExecutor(new ThreadFactory() {
+      public Thread newThread(Runnable pRunnable)
+      {
+        Thread t = new Thread(pRunnable, "DropLogReader read-ahead");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+  }
+
+  /** Returns the segment files of a log, in order */
+  public static List<File> findSegments(String pPrefix)
+  {
+    File prefix = new File(pPrefix);
+    File dir = prefix.getAbsoluteFile().getParentFile();
+    final String name = prefix.getName() + ".";
+
+    File[] files = dir.listFiles(new FilenameFilter() {
+      public boolean accept(File pDir, String pName)
+      {
+        return pName.startsWith(name) &&
+          pName.endsWith(DropLogFormat.FILE_EXTENSION) &&
+          pName.length() == name.length() + 6 +
+            DropLogFormat.FILE_EXTENSION.length();
+      }
+    });
+
+    List<File> segments = new ArrayList<File>();
+    if (files != null)
+    {
+      segments.addAll(Arrays.asList(files));
+      // Sequence numbers have a fixed width
+      Collections.sort(segments);
+    }
+
+    return segments;
+  }
+
+  public List<File> getSegments()
+  {
+    return Collections.unmodifiableList(aSegments);
+  }
+
+  /** Returns the index of the given segment, loading it if needed */
+  public DropLogIndex getIndex(int pSegment) throws IOException
+  {
+    if (aIndexes[pSegment] == null)
+      aIndexes[pSegment] = DropLogIndex.load(aSegments.get(pSegment));
+    return aIndexes[pSegment];
+  }
+
+  /** Loads the indexes of all segments, in parallel */
+  public void loadIndexes() throws IOException
+  {
+    List<File> missing = new ArrayList<File>();
+    for (int i = 0; i < aIndexes.length; i++)
+      if (aIndexes[i] == null)
+        missing.add(aSegments.get(i));
+
+    List<DropLogIndex> loaded = DropLogIndex.loadAll(missing, defaultLoadThreads);
+    for (int i = 0, j = 0; i < aIndexes.length; i++)
+      if (aIndexes[i] == null)
+        aIndexes[i] = loaded.get(j++);
+  }
+
+  /** Only returns drops of the given types, or of all types if none are
+    *  given, from the next record on */
+  public void setTypes(Class<?>... pTypes)
+  {
+    if (pTypes.length == 0)
+    {
+      aTypes = null;
+      aTypeNames = null;
+    }
+    else
+    {
+      aTypes = pTypes.clone();
+      aTypeNames = new HashSet<String>();
+      DropTypeRegistry registry = DropTypeRegistry.getDefault();
+      for (Class<?> type : pTypes)
+      {
+        String name = registry.getName(registry.getId(type));
+        if (name != null)
+          aTypeNames.add(name);
+      }
+    }
+
+    selectTypes();
+  }
+
+  /** Reads the records from the given time on, up to but excluding the
+    *  given end time */
+  public void setRange(long pStart, long pEnd) throws IOException
+  {
+    aEnd = pEnd;
+    seek(pStart);
+  }
+
+  /** Returns one reader for each segment holding records of the given time
+    *  range, reading only these records and the selected types. The readers
+    *  may be used by different threads. */
+  public List<DropLogReader> splitBySegment(long pStart, long pEnd)
+    throws IOException
+  {
+    List<DropLogReader> readers = new ArrayList<DropLogReader>();
+    for (int i = 0; i < aSegments.size(); i++)
+    {
+      if (getFirstTimestamp(i) >= pEnd)
+        break;
+      // A record at pStart may end this segment as well as start the next
+      if (i + 1 < aSegments.size() && getFirstTimestamp(i + 1) < pStart)
+        continue;
+
+      DropLogReader reader = new DropLogReader(aSegments.subList(i, i + 1));
+      reader.aIndexes[0] = aIndexes[i];
+      reader.aFirstTimestamps[0] = aFirstTimestamps[i];
+      if (aTypes != null)
+        reader.setTypes(aTypes);
+      reader.setRange(pStart, pEnd);
+      readers.add(reader);
+    }
+
+    return readers;
+  }
+
+  /** Moves to the next record.
+    *
+    * @return false if there are no more records.
+    */
+  public boolean next() throws IOException
+  {
+    return advance(true);
+  }
+
+  /** Moves to the next record of the selected types without decoding its
+    *  drop. The frame's data is then found in getBuffer(), from
+    *  getDataOffset() on, for getDataSize() bytes; getDrop() returns null.
+    *  Unless types are selected, the frames returned may be of any type.
+    *
+    * @return false if there are no more records.
+    */
+  public boolean nextFrame() throws IOException
+  {
+    return advance(false);
+  }
+
+  /** Moves to the next record, decoding its drop or not */
+  protected boolean advance(boolean pDecode) throws IOException
+  {
+    while (true)
+    {
+      if (aBuffer == null ||
+          aBuffer.remaining() < DropLogFormat.TIMESTAMP_SIZE)
+      {
+        if (!openSegment(aSegmentIndex + 1))
+        {
+          aDrop = null;
+          return false;
+        }
+        continue;
+      }
+
+      if (aBuffer.getLong(aBuffer.position()) >= aEnd)
+      {
+        // Stay before the end of the range
+        aDrop = null;
+        return false;
+      }
+
+      if (aTypes != null && skipUnselected())
+        continue;
+
+      if (pDecode? (readRecord() && isSelected(aDrop)) : readFrame())
+        return true;
+    }
+  }
+
+  /** Returns the buffer holding the current segment */
+  public ByteBuffer getBuffer() { return aBuffer; }
+
+  /** Returns where the data of the frame read by nextFrame() starts in
+    *  getBuffer() */
+  public int getDataOffset() { return aDataOffset; }
+
+  /** Returns the size of the data of the frame read by nextFrame() */
+  public int getDataSize() { return aDataSize; }
+
+  /** Moves past the record at the position of the current segment,
+    *  noting where its data is.
+    *
+    * @return false if it is not of a selected type.
+    */
+  protected boolean readFrame() throws IOException
+  {
+    aTimestamp = aBuffer.getLong();
+    aDrop = null;
+
+    int header = (aBuffer.remaining() >= 4)? aBuffer.getInt() : 0;
+    boolean selected = true;
+    if (header > 0)
+    {
+      if (header > aBuffer.remaining())
+      {
+        aBuffer.position(aBuffer.limit());
+        return false;
+      }
+
+      // Frames of types we do not know the id of are rare; we compare names
+      byte[] name = new byte[header];
+      aBuffer.get(name);
+      selected = (aTypeNames == null ||
+        aTypeNames.contains(new String(name, "US-ASCII")));
+    }
+
+    int size = (aBuffer.remaining() >= 4)? aBuffer.getInt() : -1;
+    if (size < 0 || size > aBuffer.remaining())
+    {
+      // The last record was not completely written; ignore it
+      aBuffer.position(aBuffer.limit());
+      return false;
+    }
+
+    aDataOffset = aBuffer.position();
+    aDataSize = size;
+    aBuffer.position(aDataOffset + size);
+    return selected;
+  }
+
+  /** Returns whether a drop is of one of the selected types */
+  protected boolean isSelected(SimulatorDrop pDrop)
+  {
+    if (aTypes == null)
+      return true;
+
+    for (Class<?> type : aTypes)
+      if (type.isInstance(pDrop))
+        return true;
+    return false;
+  }
+
+  /** Skips the index block at the current position if it holds none of the
+    *  selected types, or the current record if it is of another type.
+    *
+    * @return true if anything was skipped.
+    */
+  protected boolean skipUnselected() throws IOException
+  {
+    DropLogIndex index = getIndex(aSegmentIndex);
+    int position = aBuffer.position();
+
+    while (aBlock < index.size() &&
+           position >= index.getOffset(aBlock) + index.getLength(aBlock))
+      aBlock++;
+
+    if (aBlock < index.size() && position == index.getOffset(aBlock) &&
+        (index.getTypeBits(aBlock) & aSelectedBits) == 0)
+    {
+      // The index may cover records which were not completely written
+      aBuffer.position(Math.min(position + index.getLength(aBlock),
+        aBuffer.limit()));
+      return true;
+    }
+
+    if (aBuffer.remaining() < DropLogFormat.TIMESTAMP_SIZE + 4)
+    {
+      // The last record was not completely written; ignore it
+      aBuffer.position(aBuffer.limit());
+      return true;
+    }
+
+    int header = aBuffer.getInt(position + DropLogFormat.TIMESTAMP_SIZE);
+    if (header < 0 && -1 - header < aSelectedIds.length &&
+        !aSelectedIds[-1 - header])
+    {
+      aBuffer.position(position + DropLogFormat.TIMESTAMP_SIZE);
+      if (!skipFrame(aBuffer))
+        aBuffer.position(aBuffer.limit());
+      return true;
+    }
+
+    return false;
+  }
+
+  /** Computes which of the current segment's ids are selected */
+  protected void selectTypes()
+  {
+    if (aTypes == null || aProtocol == null)
+      return;
+
+    aSelectedIds = aProtocol.getIds(aTypeNames);
+    aSelectedBits = 0;
+    for (int i = 0; i < aSelectedIds.length; i++)
+      if (aSelectedIds[i])
+        aSelectedBits |= DropLogIndex.getTypeBit(i);
+  }
+
+  /** Returns the timestamp of the current record, in microseconds since
+    *  the epoch */
+  public long getTimestamp() { return aTimestamp; }
+
+  /** Returns the drop of the current record */
+  public SimulatorDrop getDrop() { return aDrop; }
+
+  /** Returns the timestamp of the first record of the log */
+  public long getStartTime() throws IOException
+  {
+    return getFirstTimestamp(0);
+  }
+
+  /** Moves before the first record whose timestamp is at least the given
+    *  one; the next call to next() returns that record, or the first
+    *  following record of the selected types. The end of the range is
+    *  unchanged. */
+  public void seek(long pTimestamp) throws IOException
+  {
+    // Find the last segment which starts before the timestamp, or the
+    //  first one; records at the timestamp may end the previous segment
+    int low = 0, high = aSegments.size() - 1;
+    while (low < high)
+    {
+      int mid = (low + high + 1) >>> 1;
+      if (getFirstTimestamp(mid) >= pTimestamp)
+        high = mid - 1;
+      else
+        low = mid;
+    }
+
+    openSegment(low);
+
+    // Jump to the block where the record would be, then scan from there
+    DropLogIndex index = getIndex(low);
+    if (index.size() > 0 && index.getFirstTimestamp() < pTimestamp)
+    {
+      aBlock = index.find(pTimestamp);
+      aBuffer.position((int)index.getOffset(aBlock));
+    }
+    skipTo(pTimestamp);
+  }
+
+  /** Returns the timestamp of the first record of the given segment */
+  protected long getFirstTimestamp(int pSegment) throws IOException
+  {
+    if (aFirstTimestamps[pSegment] < 0)
+      aFirstTimestamps[pSegment] = getFirstTimestamp(aSegments.get(pSegment));
+    return aFirstTimestamps[pSegment];
+  }
+
+  /** Skips the records of the current segment which are earlier than the
+    *  given timestamp, without decoding them */
+  protected void skipTo(long pTimestamp)
+  {
+    while (aBuffer.remaining() >= DropLogFormat.TIMESTAMP_SIZE)
+    {
+      int start = aBuffer.position();
+      if (aBuffer.getLong() >= pTimestamp || !skipFrame(aBuffer))
+      {
+        aBuffer.position(start);
+        return;
+      }
+    }
+  }
+
+  /** Moves past the frame at the buffer's position.
+    *
+    * @return false if the buffer does not hold the whole frame.
+    */
+  public static boolean skipFrame(ByteBuffer pIn)
+  {
+    if (pIn.remaining() < 4) return false;
+    int header = pIn.getInt();
+    if (header > 0)
+    {
+      if (pIn.remaining() < header) return false;
+      pIn.position(pIn.position() + header);
+    }
+
+    if (pIn.remaining() < 4) return false;
+    int size = pIn.getInt();
+    if (size < 0 || pIn.remaining() < size) return false;
+    pIn.position(pIn.position() + size);
+    return true;
+  }
+
+  /** Reads the record at the position of the current segment.
+    *
+    * @return false if it was not a drop to be returned.
+    */
+  protected boolean readRecord() throws IOException
+  {
+    int start = aBuffer.position();
+    aTimestamp = aBuffer.getLong();
+
+    try
+    {
+      aDrop = aDecoder.decode(aBuffer);
+      // A null drop was the segment's type table
+      return (aDrop != null);
+    }
+    catch (EOFException e)
+    {
+      // The last record was not completely written; ignore it
+      aBuffer.position(aBuffer.limit());
+      return false;
+    }
+    catch (ClassNotFoundException e)
+    {
+      if (!aWarnedUnknown)
+      {
+        System.err.println ("Warning: skipping unknown drops in log: "+
+          e.getMessage());
+        aWarnedUnknown = true;
+      }
+
+      aBuffer.position(start + DropLogFormat.TIMESTAMP_SIZE);
+      if (!skipFrame(aBuffer))
+        aBuffer.position(aBuffer.limit());
+      return false;
+    }
+  }
+
+  /** Makes the given segment the current one, positioned after its type
+    *  table, and starts loading the following one.
+    *
+    * @return false if there is no such segment.
+    */
+  protected boolean openSegment(int pIndex) throws IOException
+  {
+    if (pIndex >= aSegments.size())
+    {
+      aBuffer = null;
+      return false;
+    }
+
+    ByteBuffer buffer = null;
+    if (aNextIndex == pIndex)
+    {
+      try
+      {
+        buffer = aNext.get();
+      }
+      catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+      }
+      catch (ExecutionException e)
+      {
+        // Try again in this thread
+      }
+    }
+    if (buffer == null)
+      buffer = map(aSegments.get(pIndex));
+
+    // Every segment is self-contained
+    buffer.position(0);
+    DropLogFormat.getHeader(buffer);
+    aBuffer = buffer;
+    aSegmentIndex = pIndex;
+    aProtocol = new LogProtocol();
+    aDecoder = new DropCodec(aProtocol, false);
+
+    // Read in the type table
+    if (aBuffer.remaining() >= DropLogFormat.TIMESTAMP_SIZE)
+      readRecord();
+    aBlock = 0;
+    selectTypes();
+
+    readAhead(pIndex + 1);
+    return true;
+  }
+
+  /** Starts mapping and loading the given segment in the background */
+  protected void readAhead(final int pIndex)
+  {
+    if (aNextIndex == pIndex || pIndex >= aSegments.size())
+      return;
+
+    aNextIndex = pIndex;
+    aNext = aReadAhead.submit(new Callable<ByteBuffer>() {
+      public ByteBuffer call() throws IOException
+      {
+        MappedByteBuffer buffer = map(aSegments.get(pIndex));
+        buffer.load();
+        return buffer;
+      }
+    });
+  }
+
+  /** Maps a whole segment into memory */
+  protected static MappedByteBuffer map(File pSegment) throws IOException
+  {
+    RandomAccessFile file = new RandomAccessFile(pSegment, "r");
+    try
+    {
+      FileChannel channel = file.getChannel();
+      MappedByteBuffer buffer =
+        channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      buffer.order(DropLogFormat.ENDIAN);
+      return buffer;
+    }
+    finally
+    {
+      // The mapping remains valid
+      file.close();
+    }
+  }
+
+  /** Returns the timestamp of a segment's first record, its type table */
+  protected static long getFirstTimestamp(File pSegment) throws IOException
+  {
+    RandomAccessFile file = new RandomAccessFile(pSegment, "r");
+    try
+    {
+      ByteBuffer start = ByteBuffer.allocate(DropLogFormat.HEADER_SIZE +
+        DropLogFormat.TIMESTAMP_SIZE);
+      start.order(DropLogFormat.ENDIAN);
+      file.getChannel().read(start, 0);
+      start.flip();
+
+      DropLogFormat.getHeader(start);
+      if (start.remaining() < DropLogFormat.TIMESTAMP_SIZE)
+        return Long.MAX_VALUE;
+      return start.getLong();
+    }
+    finally
+    {
+      file.close();
+    }
+  }
+
+  /** Releases the read-ahead thread */
+  public void close()
+  {
+    aReadAhead.shutdownNow();
+    aBuffer = null;
+  }
+}
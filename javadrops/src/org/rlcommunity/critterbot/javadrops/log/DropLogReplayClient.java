@@ -0,0 +1,360 @@
+/* Copyright 2009 Marc G. Bellemare
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package org.rlcommunity.critterbot.javadrops.log;
+
+/**
+  * DropLogReplayClient
+  *
+  * A DropClient which produces the drops of a recorded drop log, as if they
+  *  came from the robot: at the pace they were recorded, a multiple of it,
+  *  or as fast as they are collected. State drops are marked as coming from
+  *  a LOGFILE. Drops sent to this client are ignored.
+  *
+  * The replay runs in its own thread, which reads ahead of the consumer by
+  *  at most the queue's capacity; when replaying as fast as possible, a slow
+  *  consumer therefore slows down the replay rather than lose drops.
+  *
+  * Author: Marc G. Bellemare
+  *
+  */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.rlcommunity.critterbot.javadrops.clients.DiscoInterfaceServer;
+import org.rlcommunity.critterbot.javadrops.clients.DropArrivalListener;
+import org.rlcommunity.critterbot.javadrops.clients.SignallingDropClient;
+import org.rlcommunity.critterbot.javadrops.drops.CritterStateDrop;
+import org.rlcommunity.critterbot.javadrops.drops.DropInterface;
+import org.rlcommunity.critterbot.javadrops.drops.SimulatorDrop;
+
+public class DropLogReplayClient extends Thread implements SignallingDropClient
+{
+  /** The speed at which drops are replayed as fast as they are collected */
+  public static final double AS_FAST_AS_POSSIBLE = 0;
+
+  public static final int defaultQueueSize = 1024;
+
+  protected final DropLogReader aReader;
+  protected final BlockingQueue<SimulatorDrop> aQueue;
+
+  protected final List<DropArrivalListener> aArrivalListeners =
+    new CopyOnWriteArrayList<DropArrivalListener>();
+
+  /** Guards aSeekTo and aClosed, and wakes up the replay thread */
+  protected final Object aLock = new Object();
+  /** A timestamp to seek to, or null */
+  protected Long aSeekTo;
+  protected boolean aClosed = false;
+
+  protected volatile double aSpeed;
+  protected volatile boolean aFinished = false;
+
+  /** Statistics */
+  protected volatile long aReplayedCount;
+  /** How late, in microseconds, the latest drop was replayed */
+  protected volatile long aLag;
+
+  /** Creates a client replaying the log at the recorded pace */
+  public DropLogReplayClient(String pPrefix) throws IOException
+  {
+    this(new DropLogReader(pPrefix), 1.0, defaultQueueSize);
+  }
+
+  /** Creates a new replay client; start() begins the replay.
+    *
+    * @param pReader The log to be replayed, from its current position.
+    * @param pSpeed How many times faster than recorded to replay the log,
+    *   or AS_FAST_AS_POSSIBLE.
+    * @param pQueueSize How many drops may wait to be collected.
+    */
+  public DropLogReplayClient(DropLogReader pReader, double pSpeed,
+    int pQueueSize)
+  {
+    super("DropLogReplayClient");
+    setDaemon(true);
+
+    aReader = pReader;
+    aQueue = new ArrayBlockingQueue<SimulatorDrop>(pQueueSize);
+    setSpeed(pSpeed);
+  }
+
+  /** Returns the drops replayed since the last call */
+  public List<SimulatorDrop> receive()
+  {
+    List<SimulatorDrop> drops = new ArrayList<SimulatorDrop>(aQueue.size());
+    aQueue.drainTo(drops);
+    return drops;
+  }
+
+  /** Drops sent to a log are ignored */
+  public void send(SimulatorDrop pData)
+  {
+  }
+
+  /** Sets how many times faster than recorded to replay the log, or
+    *  AS_FAST_AS_POSSIBLE. The new speed applies from the next drop. */
+  public void setSpeed(double pSpeed)
+  {
+    if (pSpeed < 0)
+      throw new IllegalArgumentException("Invalid replay speed: "+pSpeed);
+    aSpeed = pSpeed;
+
+    synchronized (aLock)
+    {
+      aLock.notifyAll();
+    }
+  }
+
+  public double getSpeed() { return aSpeed; }
+
+  /** Continues the replay from the first drop recorded at or after the given
+    *  time, in microseconds since the epoch. Drops not yet collected are
+    *  discarded. */
+  public void seek(long pTimestamp)
+  {
+    synchronized (aLock)
+    {
+      aSeekTo = pTimestamp;
+      aLock.notifyAll();
+    }
+  }
+
+  /** Returns whether the whole log has been replayed; a seek starts the
+    *  replay again. */
+  public boolean isFinished() { return aFinished; }
+
+  /** Returns the number of drops replayed */
+  public long getReplayedCount() { return aReplayedCount; }
+
+  /** Returns how late, in microseconds, the latest drop was replayed
+    *  compared to the requested pace */
+  public long getLag() { return aLag; }
+
+  /** Stops the replay */
+  public void close()
+  {
+    synchronized (aLock)
+    {
+      aClosed = true;
+      aLock.notifyAll();
+    }
+  }
+
+  public void addArrivalListener(DropArrivalListener pListener)
+  {
+    aArrivalListeners.add(pListener);
+  }
+
+  public void removeArrivalListener(DropArrivalListener pListener)
+  {
+    aArrivalListeners.remove(pListener);
+  }
+
+  /** From the Thread class */
+  @Override
+  public void run()
+  {
+    // The log time and clock time which the replay is paced from
+    long anchorTimestamp = 0, anchorNanos = 0;
+    double anchorSpeed = AS_FAST_AS_POSSIBLE;
+
+    try
+    {
+      while (true)
+      {
+        Long seekTo;
+        synchronized (aLock)
+        {
+          // Once finished, wait for a seek
+          while (aFinished && aSeekTo == null && !aClosed)
+            aLock.wait();
+
+          if (aClosed) break;
+
+          seekTo = aSeekTo;
+          aSeekTo = null;
+        }
+
+        if (seekTo != null)
+        {
+          aReader.seek(seekTo.longValue());
+          aQueue.clear();
+          aFinished = false;
+          anchorSpeed = AS_FAST_AS_POSSIBLE;
+        }
+
+        if (!aReader.next())
+        {
+          aFinished = true;
+          continue;
+        }
+
+        long timestamp = aReader.getTimestamp();
+        double speed;
+        boolean skip = false;
+
+        while ((speed = aSpeed) != AS_FAST_AS_POSSIBLE)
+        {
+          // Pace the replay from this drop after a seek or change of speed
+          if (speed != anchorSpeed)
+          {
+            anchorTimestamp = timestamp;
+            anchorNanos = System.nanoTime();
+            anchorSpeed = speed;
+          }
+
+          long due = anchorNanos +
+            (long)((timestamp - anchorTimestamp) * 1000 / speed);
+          if (waitUntil(due))
+          {
+            aLag = (System.nanoTime() - due) / 1000;
+            break;
+          }
+
+          // A seek or close() discards this drop; a change of speed paces
+          //  the replay from it again
+          if (isSeekingOrClosed())
+          {
+            skip = true;
+            break;
+          }
+        }
+
+        if (skip)
+          continue;
+        if (speed == AS_FAST_AS_POSSIBLE)
+          anchorSpeed = AS_FAST_AS_POSSIBLE;
+
+        SimulatorDrop drop = aReader.getDrop();
+        if (drop instanceof CritterStateDrop)
+          ((CritterStateDrop)drop).data_source =
+            CritterStateDrop.DataSource.LOGFILE;
+
+        if (!put(drop))
+          continue;
+        aReplayedCount++;
+
+        for (DropArrivalListener l : aArrivalListeners)
+          l.dropsArrived(this);
+      }
+    }
+    catch (InterruptedException e)
+    {
+    }
+    catch (IOException e)
+    {
+      System.err.println ("Could not read drop log: "+e.getMessage());
+    }
+    finally
+    {
+      aFinished = true;
+      aReader.close();
+    }
+  }
+
+  /** Waits until the given System.nanoTime().
+    *
+    * @return false if the wait was cut short by a seek, a change of speed
+    *  or close().
+    */
+  protected boolean waitUntil(long pDue) throws InterruptedException
+  {
+    double speed = aSpeed;
+
+    synchronized (aLock)
+    {
+      long timeLeft;
+      while ((timeLeft = pDue - System.nanoTime()) > 0)
+      {
+        if (aClosed || aSeekTo != null || aSpeed != speed)
+          return false;
+        aLock.wait(timeLeft / 1000000, (int)(timeLeft % 1000000));
+      }
+
+      return !aClosed;
+    }
+  }
+
+  /** Returns whether the replay was asked to seek or to stop */
+  protected boolean isSeekingOrClosed()
+  {
+    synchronized (aLock)
+    {
+      return aClosed || aSeekTo != null;
+    }
+  }
+
+  /** Queues a drop, waiting for room if the consumer is behind.
+    *
+    * @return false if the wait was cut short by a seek or close().
+    */
+  protected boolean put(SimulatorDrop pDrop) throws InterruptedException
+  {
+    while (!aQueue.offer(pDrop, 10, TimeUnit.MILLISECONDS))
+    {
+      synchronized (aLock)
+      {
+        if (aClosed || aSeekTo != null)
+          return false;
+      }
+    }
+
+    return true;
+  }
+
+  /** Replays a log to Disco clients, e.g. agents or GUIs.
+    *
+    * Usage: DropLogReplayClient [logprefix] [speed, 0 for max] [port]
+    */
+  public static void main(String[] args) throws IOException
+  {
+    if (args.length < 1)
+    {
+      System.out.println ("Usage: DropLogReplayClient [logprefix] "+
+        "[speed, 0 for max, default=1] [port, default=2324]");
+      return;
+    }
+
+    double speed = (args.length > 1)? Double.parseDouble(args[1]) : 1.0;
+    int port = (args.length > 2)? Integer.parseInt(args[2]) : 2324;
+
+    DiscoInterfaceServer discoServer = new DiscoInterfaceServer(port);
+    discoServer.start();
+
+    DropLogReplayClient replay = new DropLogReplayClient(
+      new DropLogReader(args[0]), speed, defaultQueueSize);
+
+    // Only used to wait for the replayed drops
+    DropInterface dropInterface = new DropInterface();
+    dropInterface.addClient(replay);
+
+    System.out.println ("Replaying "+args[0]+" on port "+port);
+    replay.start();
+
+    while (!replay.isFinished() || replay.aQueue.size() > 0)
+    {
+      for (SimulatorDrop drop : dropInterface.receiveDrops(1000))
+        discoServer.send(drop);
+    }
+
+    System.out.println ("Replayed "+replay.getReplayedCount()+" drops.");
+    System.exit(0);
+  }
+}
@@ -0,0 +1,414 @@
+/* Copyright 2009 Marc G. Bellemare
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package org.rlcommunity.critterbot.javadrops.log;
+
+/**
+  * DropLogWriter
+  *
+  * A DropClient which appends every drop it is sent, with a timestamp, to a
+  *  binary drop log (see DropLogFormat). Drops are encoded into an in-memory
+  *  batch by the sending thread; a background thread writes out whole
+  *  batches at once (group commit), at most every flush interval unless the
+  *  batch fills up, and starts a new segment file once the current one has
+  *  reached the segment size. Existing segments are never overwritten.
+  *
+  * As each batch is written out, its records are also added to the index
+  *  of the segment (see DropLogIndex), whose new entries are appended to the
+  *  segment's index file; readers thus never need to scan a log to find a
+  *  time or a drop type.
+  *
+  * A sender only waits if the batch being filled is full while the previous
+  *  one is still being written out.
+  *
+  * Author: Marc G. Bellemare
+  *
+  */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+import org.rlcommunity.critterbot.javadrops.DropCodec;
+import org.rlcommunity.critterbot.javadrops.DropProtocol;
+import org.rlcommunity.critterbot.javadrops.clients.DropClient;
+import org.rlcommunity.critterbot.javadrops.drops.DropTypeRegistry;
+import org.rlcommunity.critterbot.javadrops.drops.DropTypeTable;
+import org.rlcommunity.critterbot.javadrops.drops.SimulatorDrop;
+
+public class DropLogWriter implements DropClient
+{
+  public static final long defaultSegmentSize = 64L << 20;
+  public static final int defaultBatchSize = 1 << 20;
+  /** How long, in milliseconds, records may wait before being written */
+  public static final long defaultFlushInterval = 100;
+
+  protected final String aPrefix;
+  protected final long aSegmentSize;
+  protected final long aFlushInterval;
+  /** Whether each batch is forced to the disk once written */
+  protected final boolean aForce;
+
+  /** Encodes frames with the numeric ids of our own registry */
+  protected final DropProtocol aProtocol = new DropProtocol();
+  protected final DropCodec aCodec = aProtocol.getCodec();
+  /** Our table of drop types, encoded by name, which starts each segment */
+  protected final ByteBuffer aTableFrame;
+
+  protected final DropLogFormat.Clock aClock = new DropLogFormat.Clock();
+
+  /** Guards aActive, the swapping of the batches and aClosed */
+  protected final Object aLock = new Object();
+  /** The batch being filled by send() */
+  protected ByteBuffer aActive;
+  /** The batch being written out by aWriter */
+  protected ByteBuffer aFlushing;
+  protected boolean aClosed = false;
+
+  protected final Writer aWriter = new Writer();
+
+  /** Writes out what is left when the program exits; removed by close() */
+  protected final Thread aShutdownHook = new Thread() {
+      public void run() { close(); }
+    };
+
+  /** The current segment; only used by aWriter */
+  protected RandomAccessFile aFile;
+  protected FileChannel aChannel;
+  protected int aSequence = -1;
+  protected long aSegmentBytes;
+  /** The index of the current segment and its file; only used by aWriter */
+  protected DropLogIndex aIndex;
+  protected RandomAccessFile aIndexFile;
+  protected FileChannel aIndexChannel;
+
+  /** Statistics */
+  protected volatile long aRecordCount, aBatchCount, aBytesWritten;
+  protected volatile int aSegmentCount;
+
+  /** Writes out the batches filled by send() */
+  protected class Writer extends Thread
+  {
+    public Writer()
+    {
+      super("DropLogWriter");
+      setDaemon(true);
+    }
+
+    public void run()
+    {
+      try
+      {
+        while (true)
+        {
+          synchronized (aLock)
+          {
+            while (aActive.position() == 0 && !aClosed)
+              aLock.wait();
+
+            // Gather more records into this batch
+            long deadline = System.currentTimeMillis() + aFlushInterval;
+            long timeLeft;
+            while (!aClosed && aActive.position() < aActive.capacity() / 2 &&
+                   (timeLeft = deadline - System.currentTimeMillis()) > 0)
+              aLock.wait(timeLeft);
+
+            if (aActive.position() == 0)
+              break;
+
+            ByteBuffer batch = aActive;
+            aActive = aFlushing;
+            aActive.clear();
+            aFlushing = batch;
+
+            // Senders waiting for room may go on
+            aLock.notifyAll();
+          }
+
+          aFlushing.flip();
+          writeBatch(aFlushing);
+        }
+      }
+      catch (InterruptedException e)
+      {
+      }
+      catch (IOException e)
+      {
+        System.err.println ("Could not write drop log: "+e.getMessage());
+        synchronized (aLock)
+        {
+          aClosed = true;
+          aLock.notifyAll();
+        }
+      }
+      finally
+      {
+        closeSegment();
+      }
+    }
+  }
+
+  public DropLogWriter(String pPrefix)
+  {
+    this(pPrefix, defaultSegmentSize, defaultFlushInterval, false);
+  }
+
+  /** Creates a new log writer and starts its thread.
+    *
+    * @param pPrefix The path of the segment files, to which their sequence
+    *   number and extension are appended.
+    * @param pSegmentSize The size, in bytes, beyond which a new segment is
+    *   started.
+    * @param pFlushInterval How long, in milliseconds, records may wait in
+    *   memory before being written out.
+    * @param pForce Whether to force each batch to the disk, rather than
+    *   leave it to the operating system.
+    */
+  public DropLogWriter(String pPrefix, long pSegmentSize, long pFlushInterval,
+    boolean pForce)
+  {
+    aPrefix = pPrefix;
+    aSegmentSize = pSegmentSize;
+    aFlushInterval = pFlushInterval;
+    aForce = pForce;
+
+    DropTypeTable table = DropTypeRegistry.getDefault().getTable();
+    // The table itself is encoded by name, as the reader does not know our
+    //  ids yet
+    aTableFrame = DropCodec.copy(aCodec.encode(table));
+    aProtocol.received(table);
+
+    aActive = allocate(defaultBatchSize);
+    aFlushing = allocate(defaultBatchSize);
+
+    aWriter.start();
+
+    Runtime.getRuntime().addShutdownHook(aShutdownHook);
+  }
+
+  /** The log does not produce any drops */
+  public List<SimulatorDrop> receive()
+  {
+    return null;
+  }
+
+  /** Appends a drop to the log */
+  public void send(SimulatorDrop pData)
+  {
+    if (pData == null) return;
+
+    synchronized (aLock)
+    {
+      while (!aClosed)
+      {
+        ByteBuffer frame = aCodec.encode(pData);
+        int recordSize = DropLogFormat.TIMESTAMP_SIZE + frame.remaining();
+
+        if (aActive.remaining() >= recordSize)
+        {
+          // Wake up the writer for the first record of a batch, and once
+          //  the batch is half full
+          boolean notify = (aActive.position() == 0);
+
+          aActive.putLong(aClock.getMicros());
+          aActive.put(frame);
+          aRecordCount++;
+
+          if (notify || aActive.position() >= aActive.capacity() / 2)
+            aLock.notifyAll();
+          return;
+        }
+        else if (aActive.position() == 0)
+          // The record is larger than a whole batch
+          aActive = allocate(recordSize);
+        else
+        {
+          // Wait for the writer to take the full batch; the codec may be
+          //  used by another sender meanwhile, so we encode again after
+          aLock.notifyAll();
+          try
+          {
+            aLock.wait();
+          }
+          catch (InterruptedException e)
+          {
+            Thread.currentThread().interrupt();
+            System.err.println ("Warning: drop not logged: "+
+              pData.getClass().getSimpleName());
+            return;
+          }
+        }
+      }
+    }
+  }
+
+  /** Writes out the remaining records and closes the log. Drops sent
+    *  afterwards are ignored. */
+  public void close()
+  {
+    synchronized (aLock)
+    {
+      aClosed = true;
+      aLock.notifyAll();
+    }
+
+    // The hook would otherwise hold on to us until the program exits
+    if (Thread.currentThread() != aShutdownHook)
+    {
+      try
+      {
+        Runtime.getRuntime().removeShutdownHook(aShutdownHook);
+      }
+      catch (IllegalStateException e)
+      {
+        // The program is exiting, and the hook will run anyway
+      }
+    }
+
+    if (Thread.currentThread() != aWriter)
+    {
+      try
+      {
+        aWriter.join();
+      }
+      catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /** Writes out a batch of whole records, starting a new segment first if
+    *  it would make the current one larger than the segment size */
+  protected void writeBatch(ByteBuffer pBatch) throws IOException
+  {
+    if (aChannel == null ||
+        (aSegmentBytes + pBatch.remaining() > aSegmentSize &&
+         aSegmentBytes > DropLogFormat.HEADER_SIZE + DropLogFormat.TIMESTAMP_SIZE +
+           aTableFrame.remaining()))
+      // Timestamps never decrease within a log
+      startSegment(pBatch.getLong(pBatch.position()));
+
+    int firstEntry = aIndex.size();
+    aIndex.index(pBatch, aSegmentBytes, DropLogIndex.defaultBlockSize);
+
+    aSegmentBytes += pBatch.remaining();
+    aBytesWritten += pBatch.remaining();
+    while (pBatch.hasRemaining())
+      aChannel.write(pBatch);
+
+    // The index is written after the records it refers to, so that it never
+    //  covers records which are not on the disk
+    ByteBuffer entries = allocate((aIndex.size() - firstEntry) *
+      DropLogIndex.ENTRY_SIZE);
+    aIndex.put(entries, firstEntry);
+    entries.flip();
+    while (entries.hasRemaining())
+      aIndexChannel.write(entries);
+
+    if (aForce)
+    {
+      aChannel.force(false);
+      aIndexChannel.force(false);
+    }
+    aBatchCount++;
+  }
+
+  /** Closes the current segment and creates the next one, starting with
+    *  its header and our table of drop types.
+    *
+    * @param pTimestamp The timestamp of the table's record.
+    */
+  protected void startSegment(long pTimestamp) throws IOException
+  {
+    closeSegment();
+
+    File file;
+    do
+    {
+      aSequence++;
+      file = DropLogFormat.getSegmentFile(aPrefix, aSequence);
+    }
+    while (file.exists());
+
+    aFile = new RandomAccessFile(file, "rw");
+    aChannel = aFile.getChannel();
+    aSegmentCount++;
+
+    ByteBuffer start = allocate(DropLogFormat.HEADER_SIZE +
+      DropLogFormat.TIMESTAMP_SIZE + aTableFrame.remaining());
+    DropLogFormat.putHeader(start, aSequence, System.currentTimeMillis());
+    start.putLong(pTimestamp);
+    start.put(aTableFrame.duplicate());
+    start.flip();
+
+    aSegmentBytes = start.remaining();
+    while (start.hasRemaining())
+      aChannel.write(start);
+
+    aIndex = new DropLogIndex();
+    aIndexFile = new RandomAccessFile(DropLogIndex.getIndexFile(file), "rw");
+    aIndexFile.setLength(0);
+    aIndexChannel = aIndexFile.getChannel();
+
+    ByteBuffer header = allocate(DropLogFormat.HEADER_SIZE);
+    DropLogFormat.putIndexHeader(header, aSequence, System.currentTimeMillis());
+    header.flip();
+    while (header.hasRemaining())
+      aIndexChannel.write(header);
+  }
+
+  protected void closeSegment()
+  {
+    if (aChannel == null) return;
+
+    try
+    {
+      aChannel.force(false);
+      aFile.close();
+      if (aIndexFile != null)
+        aIndexFile.close();
+    }
+    catch (IOException e)
+    {
+      System.err.println ("Could not close drop log segment: "+e.getMessage());
+    }
+
+    aChannel = null;
+    aFile = null;
+    aIndexChannel = null;
+    aIndexFile = null;
+  }
+
+  protected ByteBuffer allocate(int pSize)
+  {
+    ByteBuffer buffer = ByteBuffer.allocate(pSize);
+    buffer.order(DropLogFormat.ENDIAN);
+    return buffer;
+  }
+
+  /** Returns the number of drops logged */
+  public long getRecordCount() { return aRecordCount; }
+
+  /** Returns the number of batches written out */
+  public long getBatchCount() { return aBatchCount; }
+
+  /** Returns the number of bytes written out, excluding segment headers */
+  public long getBytesWritten() { return aBytesWritten; }
+
+  /** Returns the number of segments created */
+  public int getSegmentCount() { return aSegmentCount; }
+}
@@ -0,0 +1,94 @@
+/* Copyright 2009 Marc G. Bellemare
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package org.rlcommunity.critterbot.javadrops.log;
+
+/**
+  * FieldHistogram
+  *
+  * Counts the values of one field in equal-width bins over [min, max);
+  *  values outside of this range are counted separately. Histograms with
+  *  the same bins can be merged.
+  *
+  * Author: Marc G. Bellemare
+  *
+  */
+
+public class FieldHistogram
+{
+  protected final int aMin, aMax;
+  protected final long[] aCounts;
+  protected long aBelow = 0, aAbove = 0;
+
+  /** Creates an empty histogram.
+    *
+    * @param pMin The lowest value counted in the first bin.
+    * @param pMax The value above the last bin.
+    * @param pBins The number of bins.
+    */
+  public FieldHistogram(int pMin, int pMax, int pBins)
+  {
+    if (pMax <= pMin || pBins <= 0)
+      throw new IllegalArgumentException("Invalid histogram: ["+pMin+", "+
+        pMax+") in "+pBins+" bins");
+
+    aMin = pMin;
+    aMax = pMax;
+    aCounts = new long[pBins];
+  }
+
+  /** Returns an empty histogram with the same bins as this one */
+  public FieldHistogram copyEmpty()
+  {
+    return new FieldHistogram(aMin, aMax, aCounts.length);
+  }
+
+  public void add(int pValue)
+  {
+    if (pValue < aMin)
+      aBelow++;
+    else if (pValue >= aMax)
+      aAbove++;
+    else
+      aCounts[(int)(((long)pValue - aMin) * aCounts.length / ((long)aMax - aMin))]++;
+  }
+
+  /** Adds the values counted by another histogram, with the same bins */
+  public void merge(FieldHistogram pOther)
+  {
+    if (pOther.aMin != aMin || pOther.aMax != aMax ||
+        pOther.aCounts.length != aCounts.length)
+      throw new IllegalArgumentException("Histograms have different bins");
+
+    for (int i = 0; i < aCounts.length; i++)
+      aCounts[i] += pOther.aCounts[i];
+    aBelow += pOther.aBelow;
+    aAbove += pOther.aAbove;
+  }
+
+  public int getBinCount() { return aCounts.length; }
+
+  /** Returns the lowest value counted in the given bin */
+  public int getBinStart(int pBin)
+  {
+    return (int)(aMin + ((long)aMax - aMin) * pBin / aCounts.length);
+  }
+
+  public long getCount(int pBin) { return aCounts[pBin]; }
+
+  /** Returns the number of values below the first bin */
+  public long getBelowCount() { return aBelow; }
+
+  /** Returns the number of values above the last bin */
+  public long getAboveCount() { return aAbove; }
+}
@@ -0,0 +1,90 @@
+/* Copyright 2009 Marc G. Bellemare
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package org.rlcommunity.critterbot.javadrops.log;
+
+/**
+  * FieldStats
+  *
+  * Streaming statistics of the values of one field: count, minimum, maximum,
+  *  mean and standard deviation. Statistics gathered separately, e.g. by
+  *  different threads, can be merged.
+  *
+  * Author: Marc G. Bellemare
+  *
+  */
+
+public class FieldStats
+{
+  protected long aCount = 0;
+  protected int aMin = Integer.MAX_VALUE;
+  protected int aMax = Integer.MIN_VALUE;
+  /** The running mean, and the sum of squared differences from it, updated
+    *  as in Welford's method; unlike a sum of squares, these do not lose
+    *  precision when the values are large compared to their spread */
+  protected double aMean = 0, aM2 = 0;
+
+  public void add(int pValue)
+  {
+    aCount++;
+    if (pValue < aMin) aMin = pValue;
+    if (pValue > aMax) aMax = pValue;
+
+    double delta = pValue - aMean;
+    aMean += delta / aCount;
+    aM2 += delta * (pValue - aMean);
+  }
+
+  /** Adds the values counted by other statistics to these, combining the
+    *  means and squared differences as in Chan et al.'s parallel method */
+  public void merge(FieldStats pOther)
+  {
+    if (pOther.aCount == 0) return;
+
+    long count = aCount + pOther.aCount;
+    double delta = pOther.aMean - aMean;
+    aMean += delta * pOther.aCount / count;
+    aM2 += pOther.aM2 + delta * delta * ((double)aCount * pOther.aCount / count);
+
+    aCount = count;
+    aMin = Math.min(aMin, pOther.aMin);
+    aMax = Math.max(aMax, pOther.aMax);
+  }
+
+  public long getCount() { return aCount; }
+
+  /** Returns the smallest value, or Integer.MAX_VALUE if there is none */
+  public int getMin() { return aMin; }
+
+  /** Returns the largest value, or Integer.MIN_VALUE if there is none */
+  public int getMax() { return aMax; }
+
+  /** Returns the mean value, or NaN if there is none */
+  public double getMean()
+  {
+    return (aCount == 0)? Double.NaN : aMean;
+  }
+
+  /** Returns the (population) standard deviation, or NaN if there are no
+    *  values */
+  public double getStandardDeviation()
+  {
+    return (aCount == 0)? Double.NaN : Math.sqrt(aM2 / aCount);
+  }
+
+  public String toString()
+  {
+    return String.format("count=%d min=%d max=%d mean=%.3f sd=%.3f",
+      aCount, aMin, aMax, getMean(), getStandardDeviation());
+  }
+}
@@ -5,8 +5,6 @@ package org.rlcommunity.critterbot.agents;
  */
 import java.util.Arrays;
 import java.util.List;
-import java.util.logging.Level;
-import java.util.logging.Logger;
 import org.rlcommunity.critterbot.javadrops.clients.DropClient;
 import org.rlcommunity.critterbot.javadrops.drops.CritterControlDrop;
 import org.rlcommunity.critterbot.javadrops.drops.CritterStateDrop;
@@ -40,6 +38,8 @@ public class AgentProcess implements Runnable {
    *  corresponding to drive backward and drive forward
    */
   protected int action = 1;
+  /** How long, in milliseconds, the agent waits for drops at a time */
+  protected static final long receiveTimeout = 1000;
 
   /**
    * Create a new Agent.
@@ -155,21 +155,19 @@ public class AgentProcess implements Runnable {
   }
 
   public void run() {
-    while (true) {
-      List<SimulatorDrop> received = aDropInterface.receiveDrops();
+    while (!Thread.currentThread().isInterrupted()) {
+      // Wait for drops, and act as soon as they arrive
+      List<SimulatorDrop> received = aDropInterface.receiveDrops(receiveTimeout);
 
       // Receive drops
       for (SimulatorDrop drop : received) {
         observeDrop(drop);
       }
 
-      // Send our control drop
-      aDropInterface.sendDrop(act());
-      
-      try {
-        Thread.sleep(10);
-      } catch (InterruptedException ex) {
-        Logger.getLogger(AgentProcess.class.getName()).log(Level.SEVERE, null, ex);
+      // Send our control drop, if we have one
+      SimulatorDrop actionDrop = act();
+      if (actionDrop != null) {
+        aDropInterface.sendDrop(actionDrop);
       }
     }
   }
@@ -0,0 +1,120 @@
+/* Copyright 2009 Marc G. Bellemare
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package org.rlcommunity.critterbot.agents;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.rlcommunity.critterbot.javadrops.clients.DropArrivalListener;
+import org.rlcommunity.critterbot.javadrops.clients.SignallingDropClient;
+import org.rlcommunity.critterbot.javadrops.drops.SimulatorDrop;
+
+/** Two DropClients feeding into each other through DropRingBuffers, for an
+  *  agent and a simulator running in the same JVM. This plays the same role
+  *  as DropClientAsynchronousWrapper, but without locks or per-drop
+  *  allocations.
+  *
+  * Each client must be used by a single thread, e.g. the agent's first
+  *  client by the agent thread and the second client by the simulator
+  *  thread. The list returned by receive() is reused, and only valid until
+  *  the next call to receive().
+  *
+  * @author Marc G. Bellemare
+  */
+public class DropClientRingBufferPair {
+  public class RingClient implements SignallingDropClient {
+    protected final DropRingBuffer aSendRing;
+    protected final DropRingBuffer aReceiveRing;
+
+    /** The client receiving what we send */
+    protected RingClient aPeer;
+
+    protected final List<DropArrivalListener> aArrivalListeners =
+      new CopyOnWriteArrayList<DropArrivalListener>();
+
+    protected final ArrayList<SimulatorDrop> aReceived;
+
+    public RingClient(DropRingBuffer pSendRing, DropRingBuffer pReceiveRing) {
+      aSendRing = pSendRing;
+      aReceiveRing = pReceiveRing;
+      aReceived = new ArrayList<SimulatorDrop>(pReceiveRing.getCapacity());
+    }
+
+    /** Returns the drops sent by the other client since the last call,
+      *  waiting for some according to the ring's wait strategy. */
+    public List<SimulatorDrop> receive() {
+      aReceived.clear();
+      aReceiveRing.drainTo(aReceived);
+
+      return aReceived;
+    }
+
+    public void send(SimulatorDrop pData) {
+      // Agents send null when they have nothing to say
+      if (pData == null)
+        return;
+
+      if (!aSendRing.offer(pData)) {
+        System.err.println ("Warning: discarding drop: "+
+          pData.getClass().getSimpleName());
+        return;
+      }
+
+      for (DropArrivalListener l : aPeer.aArrivalListeners)
+        l.dropsArrived(aPeer);
+    }
+
+    public void addArrivalListener(DropArrivalListener pListener) {
+      aArrivalListeners.add(pListener);
+    }
+
+    public void removeArrivalListener(DropArrivalListener pListener) {
+      aArrivalListeners.remove(pListener);
+    }
+
+    /** Returns the ring through which this client receives drops */
+    public DropRingBuffer getReceiveRing() { return aReceiveRing; }
+  }
+
+  protected RingClient aFirstClient;
+  protected RingClient aSecondClient;
+
+  /** Creates a pair of clients which do not wait for drops */
+  public DropClientRingBufferPair() {
+    this(DropRingBuffer.defaultCapacity, DropRingBuffer.WaitStrategy.NONE,
+      DropRingBuffer.WaitStrategy.NONE);
+  }
+
+  /** Creates a new pair of clients.
+    *
+    * @param pCapacity The number of drops each ring holds.
+    * @param pFirstWait How the first client's receive() waits for drops.
+    * @param pSecondWait How the second client's receive() waits for drops.
+    */
+  public DropClientRingBufferPair(int pCapacity,
+    DropRingBuffer.WaitStrategy pFirstWait,
+    DropRingBuffer.WaitStrategy pSecondWait) {
+    DropRingBuffer toFirst = new DropRingBuffer(pCapacity, pFirstWait);
+    DropRingBuffer toSecond = new DropRingBuffer(pCapacity, pSecondWait);
+
+    // Create the two drop clients so that they feed into eachother
+    aFirstClient = new RingClient(toSecond, toFirst);
+    aSecondClient = new RingClient(toFirst, toSecond);
+    aFirstClient.aPeer = aSecondClient;
+    aSecondClient.aPeer = aFirstClient;
+  }
+
+  public RingClient getFirstClient() { return aFirstClient; }
+  public RingClient getSecondClient() { return aSecondClient; }
+}
@@ -0,0 +1,219 @@
+/* Copyright 2009 Marc G. Bellemare
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package org.rlcommunity.critterbot.agents;
+
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+import org.rlcommunity.critterbot.javadrops.drops.SimulatorDrop;
+
+/** A fixed-size ring of drops passed from exactly one producer thread to
+  *  exactly one consumer thread, without locks. The producer only writes
+  *  aTail and the consumer only writes aHead, so that each index has a
+  *  single writer; a slot is handed over by the volatile write of the index
+  *  that follows it.
+  *
+  * The consumer may wait for drops to arrive, by parking its thread or by
+  *  waiting on a monitor (see WaitStrategy). The producer never waits: a
+  *  drop sent to a full ring is discarded.
+  *
+  * @author Marc G. Bellemare
+  */
+public class DropRingBuffer {
+  /** What the consumer does when it asks for drops and the ring is empty */
+  public enum WaitStrategy {
+    /** Return immediately */
+    NONE,
+    /** Park the consumer thread until the producer unparks it */
+    PARK,
+    /** Wait on a monitor until the producer notifies it */
+    BLOCK
+  };
+
+  public static final int defaultCapacity = 256;
+  /** How long, in milliseconds, a consumer waits for drops by default */
+  public static final long defaultMaxWait = 100;
+
+  protected final SimulatorDrop[] aSlots;
+  protected final int aMask;
+
+  /** The index of the next drop to be read; written by the consumer */
+  protected volatile long aHead = 0;
+  /** The index of the next free slot; written by the producer */
+  protected volatile long aTail = 0;
+
+  /** The producer's last view of aHead, so that it does not need to read
+    *  the consumer's index for every drop */
+  protected long aCachedHead = 0;
+
+  protected final WaitStrategy aWaitStrategy;
+  protected volatile long aMaxWait = defaultMaxWait;
+
+  /** The parked consumer, if any (PARK) */
+  protected volatile Thread aParkedThread;
+  /** Whether the consumer is waiting on aMonitor (BLOCK) */
+  protected volatile boolean aBlocked;
+  protected final Object aMonitor = new Object();
+
+  /** Written by the producer only */
+  protected volatile long aDroppedCount = 0;
+
+  public DropRingBuffer() {
+    this(defaultCapacity, WaitStrategy.NONE);
+  }
+
+  /** Creates a new ring.
+    *
+    * @param pCapacity The number of drops held by the ring, rounded up to a
+    *   power of two.
+    * @param pWaitStrategy How the consumer waits for drops.
+    */
+  public DropRingBuffer(int pCapacity, WaitStrategy pWaitStrategy) {
+    if (pCapacity <= 0)
+      throw new IllegalArgumentException("Invalid ring capacity: "+pCapacity);
+
+    int capacity = 1;
+    while (capacity < pCapacity)
+      capacity <<= 1;
+
+    aSlots = new SimulatorDrop[capacity];
+    aMask = capacity - 1;
+    aWaitStrategy = pWaitStrategy;
+  }
+
+  /** Adds a drop to the ring. Must only be called by the producer.
+    *
+    * @return false if the ring was full and the drop was discarded.
+    */
+  public boolean offer(SimulatorDrop pDrop) {
+    long tail = aTail;
+
+    if (tail - aCachedHead >= aSlots.length) {
+      aCachedHead = aHead;
+      if (tail - aCachedHead >= aSlots.length) {
+        aDroppedCount++;
+        return false;
+      }
+    }
+
+    aSlots[(int)tail & aMask] = pDrop;
+    // Publishes the slot to the consumer
+    aTail = tail + 1;
+
+    wakeConsumer();
+    return true;
+  }
+
+  /** Moves every drop in the ring to pOut, waiting for at least one if the
+    *  ring is empty and the wait strategy allows it. Must only be called by
+    *  the consumer.
+    *
+    * @return The number of drops added to pOut.
+    */
+  public int drainTo(List<SimulatorDrop> pOut) {
+    if (aHead == aTail && aWaitStrategy != WaitStrategy.NONE)
+      await();
+
+    long head = aHead;
+    long tail = aTail;
+
+    for (long i = head; i < tail; i++) {
+      int slot = (int)i & aMask;
+      pOut.add(aSlots[slot]);
+      // Let go of the drop
+      aSlots[slot] = null;
+    }
+
+    // Hands the slots back to the producer
+    aHead = tail;
+    return (int)(tail - head);
+  }
+
+  /** Waits until the ring is not empty, or for at most the maximum wait */
+  protected void await() {
+    long deadline = System.nanoTime() + aMaxWait * 1000000L;
+
+    switch (aWaitStrategy) {
+      case PARK:
+        aParkedThread = Thread.currentThread();
+        try {
+          // The producer checks aParkedThread after writing aTail
+          while (aHead == aTail) {
+            long left = deadline - System.nanoTime();
+            if (left <= 0 || Thread.interrupted()) break;
+            LockSupport.parkNanos(left);
+          }
+        }
+        finally {
+          aParkedThread = null;
+        }
+        break;
+      case BLOCK:
+        synchronized (aMonitor) {
+          aBlocked = true;
+          try {
+            // The producer checks aBlocked after writing aTail
+            while (aHead == aTail) {
+              long left = deadline - System.nanoTime();
+              if (left <= 0) break;
+              aMonitor.wait(left / 1000000L, (int)(left % 1000000L));
+            }
+          }
+          catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+          finally {
+            aBlocked = false;
+          }
+        }
+        break;
+      default:
+        break;
+    }
+  }
+
+  /** Wakes up the consumer if it is waiting for drops */
+  protected void wakeConsumer() {
+    switch (aWaitStrategy) {
+      case PARK:
+        Thread parked = aParkedThread;
+        if (parked != null)
+          LockSupport.unpark(parked);
+        break;
+      case BLOCK:
+        if (aBlocked) {
+          synchronized (aMonitor) {
+            aMonitor.notify();
+          }
+        }
+        break;
+      default:
+        break;
+    }
+  }
+
+  /** Sets how long, in milliseconds, the consumer waits for drops */
+  public void setMaxWait(long pMillis) { aMaxWait = pMillis; }
+
+  public long getMaxWait() { return aMaxWait; }
+
+  public WaitStrategy getWaitStrategy() { return aWaitStrategy; }
+
+  public int getCapacity() { return aSlots.length; }
+
+  /** Returns the number of drops waiting in the ring */
+  public int size() { return (int)(aTail - aHead); }
+
+  /** Returns the number of drops discarded because the ring was full */
+  public long getDroppedCount() { return aDroppedCount; }
+}
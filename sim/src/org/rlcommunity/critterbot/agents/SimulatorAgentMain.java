@@ -16,9 +16,10 @@ public class SimulatorAgentMain {
       // Create the simulator
       SimulatorProcess simProcess = new SimulatorProcess();
 
-      // Create a wrapper to asynchronously communicate between the simulator
-      //  and the agent
-      DropClientAsynchronousWrapper wrapper = new DropClientAsynchronousWrapper();
+      // Create a pair of ring buffers to asynchronously communicate between
+      //  the simulator and the agent; the agent's DropInterface is signalled
+      //  when drops arrive
+      DropClientRingBufferPair wrapper = new DropClientRingBufferPair();
       // The agent gets one client
       dropSource = wrapper.getFirstClient();
 
@@ -73,7 +73,9 @@ public class SimulatorProcess implements Runnable {
 
     private CritterbotDataVisualizerClient createVisualizer(DropInterface dropInterface) {
         CritterbotDataVisualizerClient client = new CritterbotDataVisualizerClient();
-        dropInterface.addClient(client);
+        // The visualizer only displays state drops, and need not see them all
+        dropInterface.addClient(client,
+          CritterbotDataVisualizerClient.MAX_DISPLAY_RATE, CritterStateDrop.class);
         return client;
     }
 
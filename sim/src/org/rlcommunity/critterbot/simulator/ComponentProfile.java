@@ -0,0 +1,103 @@
+/* Copyright 2009 Marc G. Bellemare
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package org.rlcommunity.critterbot.simulator;
+
+/**
+ * ComponentProfile
+ *
+ * Per-step timing and allocation histograms for one SimulatorComponent, as
+ *  recorded by the SimulatorProfiler.
+ *
+ * @author Marc G. Bellemare
+ */
+public class ComponentProfile implements ComponentProfileMBean {
+    protected final String aName;
+    /** Time taken by each step, in nanoseconds */
+    protected final SimulatorHistogram aTime = new SimulatorHistogram();
+    /** Bytes allocated by each step */
+    protected final SimulatorHistogram aAllocated = new SimulatorHistogram();
+    /** Whether allocations are recorded at all */
+    protected final boolean aTracksAllocations;
+
+    public ComponentProfile(String pName, boolean pTracksAllocations) {
+        aName = pName;
+        aTracksAllocations = pTracksAllocations;
+    }
+
+    /** Records one step of the component.
+     *
+     * @param pNanos The time taken by the component, in nanoseconds.
+     * @param pBytes The number of bytes it allocated.
+     */
+    public void record(long pNanos, long pBytes) {
+        aTime.record(pNanos);
+        if (aTracksAllocations)
+            aAllocated.record(pBytes);
+    }
+
+    public SimulatorHistogram getTimeHistogram() {
+        return aTime;
+    }
+
+    public SimulatorHistogram getAllocationHistogram() {
+        return aAllocated;
+    }
+
+    public String getComponentName() {
+        return aName;
+    }
+
+    public long getStepCount() {
+        return aTime.getCount();
+    }
+
+    public double getMeanMicros() {
+        return aTime.getMean() / 1000.0;
+    }
+
+    public long getMedianMicros() {
+        return aTime.getPercentile(50) / 1000;
+    }
+
+    public long getP99Micros() {
+        return aTime.getPercentile(99) / 1000;
+    }
+
+    public long getMaxMicros() {
+        return aTime.getMax() / 1000;
+    }
+
+    public double getMeanAllocatedBytes() {
+        return aTracksAllocations ? aAllocated.getMean() : -1;
+    }
+
+    public long getMaxAllocatedBytes() {
+        return aTracksAllocations ? aAllocated.getMax() : -1;
+    }
+
+    public void reset() {
+        aTime.reset();
+        aAllocated.reset();
+    }
+
+    /** Returns a short summary, e.g. "Light 0.52ms (p99 1.02ms, 12.3KB)". */
+    @Override
+    public String toString() {
+        String s = String.format("%s %.2fms (p99 %.2fms", aName,
+                aTime.getMean() / 1e6, aTime.getPercentile(99) / 1e6);
+        if (aTracksAllocations)
+            s += String.format(", %.1fKB", aAllocated.getMean() / 1024);
+        return s + ")";
+    }
+}
@@ -0,0 +1,43 @@
+/* Copyright 2009 Marc G. Bellemare
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package org.rlcommunity.critterbot.simulator;
+
+/**
+ * ComponentProfileMBean
+ *
+ * The JMX view of a ComponentProfile: how long one SimulatorComponent takes,
+ *  and how much memory it allocates, per step.
+ *
+ * @author Marc G. Bellemare
+ */
+public interface ComponentProfileMBean {
+    /** The name of the profiled component */
+    public String getComponentName();
+
+    /** The number of profiled steps */
+    public long getStepCount();
+
+    public double getMeanMicros();
+    public long getMedianMicros();
+    public long getP99Micros();
+    public long getMaxMicros();
+
+    /** The mean number of bytes allocated per step, or -1 if the JVM does
+     *   not report allocations. */
+    public double getMeanAllocatedBytes();
+    public long getMaxAllocatedBytes();
+
+    /** Forgets the steps profiled so far */
+    public void reset();
+}
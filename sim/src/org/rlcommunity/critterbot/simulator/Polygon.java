@@ -21,6 +21,11 @@ package org.rlcommunity.critterbot.simulator;
  *  of successive points, with the n^th point being connected to the first
  *  point.
  *
+ * The points are stored once, in the polygon's local frame, together with
+ *  the pose (position and direction) of that frame. Moving the polygon only
+ *  changes its pose; the points, edges and bounding box in world coordinates
+ *  are recomputed the first time a query needs them after a move.
+ *
  * @author Marc G. Bellemare
  */
 
@@ -28,7 +33,6 @@ import java.awt.Color;
 import java.awt.Graphics;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.ListIterator;
 
 public class Polygon {
   /** Some flags to request debug information */
@@ -59,10 +63,42 @@ public class Polygon {
 	/** The polygon's bounding box */
 	protected double bx, by, bw, bh;
 
-	protected LinkedList<Vector2D> points;
+	/** The number of points in this polygon */
+	protected int aNumPoints;
+
+	/** The (x,y) coordinates of each point, in the polygon's local frame */
+	protected double[] aLocalX, aLocalY;
+
+	/** The position and direction of the local frame, in world coordinates */
+	protected double aPoseX, aPoseY, aPoseDir;
+
+	/**
+	 * Whether the world coordinates below (and the bounding box) correspond
+	 * to the current pose.
+	 */
+	protected boolean aWorldValid;
 
+	/**
+	 * The (x,y) world coordinates of each point. The first point is repeated
+	 * after the last one to close the loop; the arrays may be longer than
+	 * that.
+	 */
 	protected double[] aXPoints, aYPoints;
 
+	/**
+	 * The vector from the previous point to each point, i.e. the i^th edge
+	 * goes from point i-1 to point i (edge 0 comes from the last point), and
+	 * the outward normal to each edge. These are kept up to date as the
+	 * world coordinates are recomputed, so that ray and intersection tests do
+	 * not need to recompute them.
+	 */
+	protected double[] aEdgeX, aEdgeY;
+	protected double[] aNormalX, aNormalY;
+
+	/** Used to compute normals exactly as computeNormal() does */
+	private static final double COS_NORMAL = Math.cos(Math.PI / 2);
+	private static final double SIN_NORMAL = Math.sin(Math.PI / 2);
+
     /** Creates a new Polygon with no points.
      *  In order to complete the construction of this polygon, the creator
      *   should call doneAddPoints() after adding points.
@@ -94,31 +130,92 @@ public class Polygon {
 	}
 
     public void init() {
-		points = new LinkedList<Vector2D>();
+		aNumPoints = 0;
+		allocatePoints(4);
+		aPoseX = aPoseY = aPoseDir = 0;
+		aWorldValid = true;
 		bx = by = Double.POSITIVE_INFINITY;
 		bw = bh = 0;
 	}
 
+	/**
+	 * (Re)allocates the coordinate and edge arrays so that they can hold the
+	 * given number of points, keeping the existing data.
+	 */
+	private void allocatePoints(int pCapacity) {
+		double[] newLocalX = new double[pCapacity];
+		double[] newLocalY = new double[pCapacity];
+		double[] newX = new double[pCapacity + 1];
+		double[] newY = new double[pCapacity + 1];
+		double[] newEdgeX = new double[pCapacity];
+		double[] newEdgeY = new double[pCapacity];
+		double[] newNormalX = new double[pCapacity];
+		double[] newNormalY = new double[pCapacity];
+
+		if (aNumPoints > 0) {
+			System.arraycopy(aLocalX, 0, newLocalX, 0, aNumPoints);
+			System.arraycopy(aLocalY, 0, newLocalY, 0, aNumPoints);
+			System.arraycopy(aXPoints, 0, newX, 0, aNumPoints + 1);
+			System.arraycopy(aYPoints, 0, newY, 0, aNumPoints + 1);
+			System.arraycopy(aEdgeX, 0, newEdgeX, 0, aNumPoints);
+			System.arraycopy(aEdgeY, 0, newEdgeY, 0, aNumPoints);
+			System.arraycopy(aNormalX, 0, newNormalX, 0, aNumPoints);
+			System.arraycopy(aNormalY, 0, newNormalY, 0, aNumPoints);
+		}
+
+		aLocalX = newLocalX;
+		aLocalY = newLocalY;
+		aXPoints = newX;
+		aYPoints = newY;
+		aEdgeX = newEdgeX;
+		aEdgeY = newEdgeY;
+		aNormalX = newNormalX;
+		aNormalY = newNormalY;
+	}
+
 	public int size() {
-		return points.size();
+		return aNumPoints;
 	}
 
+	/**
+	 * Returns the points of this polygon. The list is a copy; modifying it
+	 * does not modify the polygon.
+	 *
+	 * @return A new list containing this polygon's points, in order
+	 */
 	public LinkedList<Vector2D> getPoints() {
+		LinkedList<Vector2D> points = new LinkedList<Vector2D>();
+		updateWorldPoints();
+
+		for (int i = 0; i < aNumPoints; i++)
+			points.add(new Vector2D(aXPoints[i], aYPoints[i]));
+
 		return points;
 	}
 
 	/**
-	 * Add a point to this polygon.
+	 * Add a point to this polygon. The point is given in world coordinates.
 	 */
 	public void addPoint(double x, double y) {
-		Vector2D pt = new Vector2D(x, y);
-		// Add the new point to our list and adjust the bounding box if
-		// necessary
-		points.add(pt);
-		adjustBoundingBox(pt, points.size() == 1);
+		updateWorldPoints();
+		if (aNumPoints + 1 > aEdgeX.length)
+			allocatePoints(2 * aEdgeX.length);
 
-		// Not quite efficient
-		aXPoints = aYPoints = null;
+		// Add the new point to our arrays and adjust the bounding box if
+		// necessary
+		aXPoints[aNumPoints] = x;
+		aYPoints[aNumPoints] = y;
+		toLocal(aNumPoints);
+		aNumPoints++;
+		adjustBoundingBox(x, y, aNumPoints == 1);
+
+		// Re-iterate the first point to close the loop
+		aXPoints[aNumPoints] = aXPoints[0];
+		aYPoints[aNumPoints] = aYPoints[0];
+
+		// Only the new edge and the closing edge (edge 0) have changed
+		updateEdge(aNumPoints - 1);
+		updateEdge(0);
 	}
 
 	/**
@@ -127,16 +224,21 @@ public class Polygon {
 	 */
 	public void doneAddPoints() {
 		// If less than three points, things are bad
-		if (points.size() < 3)
+		if (aNumPoints < 3)
 			return;
 
-		// Find the clockwiseness of this Polygon
-		Vector2D p1 = points.getLast();
+		updateWorldPoints();
 
+		// Find the clockwiseness of this Polygon
 		boolean isClockwise = false;
 		boolean resolved = false;
 
-		for (Vector2D p2 : points) {
+		Vector2D p1 = new Vector2D(aXPoints[aNumPoints - 1],
+				aYPoints[aNumPoints - 1]);
+
+		for (int i = 0; i < aNumPoints; i++) {
+			Vector2D p2 = new Vector2D(aXPoints[i], aYPoints[i]);
+
 			// Find out the handedness of the p2-p1 edge
 			Vector2D center = new Vector2D(0.5 * p1.x + 0.5 * p2.x, 0.5 * p1.y
 					+ 0.5 * p2.y);
@@ -178,45 +280,158 @@ public class Polygon {
 
 		// If the polygon is not clockwise, re-add the points backwards
 		if (!isClockwise) {
-			LinkedList<Vector2D> oldPoints = points;
+			int numPoints = aNumPoints;
+			double[] oldX = aXPoints;
+			double[] oldY = aYPoints;
+			double poseX = aPoseX, poseY = aPoseY, poseDir = aPoseDir;
 
 			// Re-initialize the polygon, as if we had no points
 			init();
-			ListIterator<Vector2D> it = oldPoints.listIterator();
-
-			// Get the last element
-			while (it.hasNext())
-				it.next();
+			allocatePoints(numPoints);
 
 			// Add the points in reverse order
-			while (it.hasPrevious()) {
-				Vector2D pt = it.previous();
-				addPoint(pt.x, pt.y);
-			}
-		}
+			for (int i = numPoints - 1; i >= 0; i--)
+				addPoint(oldX[i], oldY[i]);
 
-        createPointArrays();
+			setLocalFrame(poseX, poseY, poseDir);
+		}
     }
 
-    private void createPointArrays() {
-        int num = points.size();
-        aXPoints = new double[num + 1];
-        aYPoints = new double[num + 1];
+	/**
+	 * Computes the local coordinates of a point from its world coordinates,
+	 * using the current pose.
+	 *
+	 * @param pIndex The index of the point
+	 */
+	private void toLocal(int pIndex) {
+		double x = aXPoints[pIndex] - aPoseX;
+		double y = aYPoints[pIndex] - aPoseY;
 
-        int idx = 0;
-        // Set the (x,y) coordinates of each point in turn
-        for (Vector2D pt : points) {
-            aXPoints[idx] = pt.x;
-            aYPoints[idx] = pt.y;
+		if (aPoseDir == 0) {
+			aLocalX[pIndex] = x;
+			aLocalY[pIndex] = y;
+		}
+		else {
+			double cost = Math.cos(-aPoseDir);
+			double sint = Math.sin(-aPoseDir);
+			aLocalX[pIndex] = x * cost - y * sint;
+			aLocalY[pIndex] = y * cost + x * sint;
+		}
+	}
 
-            idx++;
-        }
+	/**
+	 * Recomputes the world coordinates of the points, the edges and the
+	 * bounding box from the local coordinates and the pose, if the polygon
+	 * has moved since they were last computed. Queries call this themselves;
+	 * code that reads the world coordinates or the bounding box directly
+	 * must call it first.
+	 */
+	protected void updateWorldPoints() {
+		if (aWorldValid)
+			return;
 
-        // Re-iterate the first point to close the loop
-        Vector2D first = points.getFirst();
-        aXPoints[num] = first.x;
-        aYPoints[num] = first.y;
-    }
+		double cost = Math.cos(aPoseDir);
+		double sint = Math.sin(aPoseDir);
+
+		bx = by = Double.POSITIVE_INFINITY;
+		bw = bh = 0;
+
+		for (int i = 0; i < aNumPoints; i++) {
+			double x = aLocalX[i], y = aLocalY[i];
+
+			aXPoints[i] = aPoseX + (x * cost - y * sint);
+			aYPoints[i] = aPoseY + (y * cost + x * sint);
+
+			adjustBoundingBox(aXPoints[i], aYPoints[i], i == 0);
+		}
+
+		updateEdges();
+		aWorldValid = true;
+	}
+
+	/**
+	 * Moves this polygon so that its local frame is at the given pose. The
+	 * world coordinates are only recomputed when they are next needed.
+	 *
+	 * @param pPos The new position of the local frame
+	 * @param pDir The new direction of the local frame
+	 */
+	public void setPose(Vector2D pPos, double pDir) {
+		setPose(pPos.x, pPos.y, pDir);
+	}
+
+	private void setPose(double pX, double pY, double pDir) {
+		if (pX == aPoseX && pY == aPoseY && pDir == aPoseDir)
+			return;
+
+		aPoseX = pX;
+		aPoseY = pY;
+		aPoseDir = pDir;
+		aWorldValid = false;
+	}
+
+	/**
+	 * Re-expresses this polygon's points in the frame at the given pose,
+	 * without moving the polygon. Subsequent calls to setPose() then move the
+	 * polygon relative to that frame.
+	 *
+	 * @param pPos The position of the new local frame
+	 * @param pDir The direction of the new local frame
+	 */
+	public void setLocalFrame(Vector2D pPos, double pDir) {
+		setLocalFrame(pPos.x, pPos.y, pDir);
+	}
+
+	private void setLocalFrame(double pX, double pY, double pDir) {
+		if (pX == aPoseX && pY == aPoseY && pDir == aPoseDir)
+			return;
+
+		updateWorldPoints();
+
+		aPoseX = pX;
+		aPoseY = pY;
+		aPoseDir = pDir;
+
+		for (int i = 0; i < aNumPoints; i++)
+			toLocal(i);
+	}
+
+	/**
+	 * Recomputes the vector and the normal of the given edge from the current
+	 * points. The normal is computed as in computeNormal().
+	 *
+	 * @param pEdge The index of the edge to be updated
+	 */
+	private void updateEdge(int pEdge) {
+		int prev = (pEdge == 0) ? aNumPoints - 1 : pEdge - 1;
+
+		double ex = aXPoints[pEdge] - aXPoints[prev];
+		double ey = aYPoints[pEdge] - aYPoints[prev];
+		aEdgeX[pEdge] = ex;
+		aEdgeY[pEdge] = ey;
+
+		double nx = ex * COS_NORMAL - ey * SIN_NORMAL;
+		double ny = ey * COS_NORMAL + ex * SIN_NORMAL;
+		double l = Math.sqrt(nx * nx + ny * ny);
+		if (l > 0) {
+			nx /= l;
+			ny /= l;
+		}
+		aNormalX[pEdge] = nx;
+		aNormalY[pEdge] = ny;
+	}
+
+	/** Recomputes all edge vectors and normals, and closes the loop. */
+	private void updateEdges() {
+		if (aNumPoints == 0)
+			return;
+
+		aXPoints[aNumPoints] = aXPoints[0];
+		aYPoints[aNumPoints] = aYPoints[0];
+
+		for (int i = 0; i < aNumPoints; i++)
+			updateEdge(i);
+	}
     
 	/**
 	 * Translate this polygon with the given (dx,dy) vector
@@ -228,30 +443,7 @@ public class Polygon {
 		if (delta.x == 0 && delta.y == 0)
 			return;
 
-		// Adjust the bounding box
-		bx += delta.x;
-		by += delta.y;
-
-		// adjust all points :( we could also optimize things by simply keeping
-		// track of the translation and adjusting only when necessary (e.g.
-		// when we need the points, rather than the bounding box)
-		int idx = 0;
-		for (Vector2D p : points) {
-			p.x += delta.x;
-			p.y += delta.y;
-
-			if (aXPoints != null) {
-				aXPoints[idx] = p.x;
-				aYPoints[idx] = p.y;
-				idx++;
-			}
-		}
-
-		if (aXPoints != null && points.size() > 0) {
-			Vector2D first = points.getFirst();
-			aXPoints[idx] = first.x;
-			aYPoints[idx] = first.y;
-		}
+		setPose(aPoseX + delta.x, aPoseY + delta.y, aPoseDir);
 	}
 
 	/**
@@ -264,19 +456,50 @@ public class Polygon {
 	 *            box
 	 */
 	public void adjustBoundingBox(Vector2D pt, boolean firstPt) {
-		if (pt.x < bx) {
+		adjustBoundingBox(pt.x, pt.y, firstPt);
+	}
+
+	private void adjustBoundingBox(double x, double y, boolean firstPt) {
+		if (x < bx) {
 			if (!firstPt)
-				bw += bx - pt.x;
-			bx = pt.x;
-		} else if (pt.x - bx > bw)
-			bw = pt.x - bx;
+				bw += bx - x;
+			bx = x;
+		} else if (x - bx > bw)
+			bw = x - bx;
 
-		if (pt.y < by) {
+		if (y < by) {
 			if (!firstPt)
-				bh += by - pt.y;
-			by = pt.y;
-		} else if (pt.y - by > bh)
-			bh = pt.y - by;
+				bh += by - y;
+			by = y;
+		} else if (y - by > bh)
+			bh = y - by;
+	}
+
+	/**
+	 * Grows the given box, stored as { minX, minY, maxX, maxY }, so that it
+	 * contains this polygon's bounding box. Polygons without points leave the
+	 * box unchanged.
+	 *
+	 * @param pBox
+	 *            The box to be grown
+	 * @return Whether this polygon has a bounding box
+	 */
+	public boolean addBoundingBox(double[] pBox) {
+		if (aNumPoints == 0)
+			return false;
+
+		updateWorldPoints();
+
+		if (bx < pBox[0])
+			pBox[0] = bx;
+		if (by < pBox[1])
+			pBox[1] = by;
+		if (bx + bw > pBox[2])
+			pBox[2] = bx + bw;
+		if (by + bh > pBox[3])
+			pBox[3] = by + bh;
+
+		return true;
 	}
 
 	/**
@@ -295,37 +518,12 @@ public class Polygon {
 		double cost = Math.cos(theta);
 		double sint = Math.sin(theta);
 
-		double x, y;
-
-		// Adjust the bounding box by finding the new maxes
-		bx = by = Double.POSITIVE_INFINITY;
-		bw = bh = 0;
-
-		// Rotate all points
-		int idx = 0;
-		boolean firstPt = true;
-		for (Vector2D p : points) {
-			x = p.x - center.x;
-			y = p.y - center.y;
-
-			p.x = center.x + (x * cost - y * sint);
-			p.y = center.y + (y * cost + x * sint);
-
-			adjustBoundingBox(p, firstPt);
-			firstPt = false;
+		// Rotating the polygon rotates its frame's origin around the center
+		double x = aPoseX - center.x;
+		double y = aPoseY - center.y;
 
-			if (aXPoints != null) {
-				aXPoints[idx] = p.x;
-				aYPoints[idx] = p.y;
-				idx++;
-			}
-		}
-
-		if (aXPoints != null && points.size() > 0) {
-			Vector2D first = points.getFirst();
-			aXPoints[idx] = first.x;
-			aYPoints[idx] = first.y;
-		}
+		setPose(center.x + (x * cost - y * sint),
+				center.y + (y * cost + x * sint), aPoseDir + theta);
 	}
 
 	/**
@@ -337,24 +535,35 @@ public class Polygon {
 	 * @return Whether point p is inside this polygon
 	 */
 	public boolean contains(Vector2D p) {
-		int numPoints = points.size();
+		return contains(p.x, p.y);
+	}
 
-		if (numPoints < 3)
+	/**
+	 * Returns whether the point (px,py) is inside this polygon; see
+	 * contains(Vector2D).
+	 */
+	public boolean contains(double px, double py) {
+		if (aNumPoints < 3)
 			return false; // No cheating
 
+		updateWorldPoints();
+
 		// Use the even-odd rule
 		int count = 0;
-		Vector2D cur = points.getLast();
+		int cur = aNumPoints - 1;
 
 		// Walk the list of edges
-		for (Vector2D next : points) {
+		for (int next = 0; next < aNumPoints; next++) {
+			double nextX = aXPoints[next], nextY = aYPoints[next];
+			double curX = aXPoints[cur], curY = aYPoints[cur];
+
 			// If the edge from the previous point (starting with the last point
 			// in the list) to np crosses the half-line (p.x,p.y)-(inf,p.y),
 			// increment the count
-			if ((next.y > p.y && cur.y < p.y) || (next.y < p.y && cur.y > p.y)) {
+			if ((nextY > py && curY < py) || (nextY < py && curY > py)) {
 				// Make sure that the intersection falls on the x > 0 half-line
-				double alpha = (next.y - p.y) / (next.y - cur.y);
-				double ix = next.x - p.x + alpha * (cur.x - next.x);
+				double alpha = (nextY - py) / (nextY - curY);
+				double ix = nextX - px + alpha * (curX - nextX);
 				if (ix > 0)
 					count++;
 			}
@@ -375,15 +584,15 @@ public class Polygon {
    *    otherwise.
    */
 	public boolean contains(Polygon pPoly) {
-		int numPoints = points.size();
-
-		if (numPoints < 3)
+		if (aNumPoints < 3)
 			return false;
 
+    pPoly.updateWorldPoints();
+
     // Test each point of the other polygon, in turn, and verify that it lies
     //  inside this Polygon
-    for (Vector2D p : pPoly.getPoints()) {
-      if (!contains(p)) return false;
+    for (int i = 0; i < pPoly.aNumPoints; i++) {
+      if (!contains(pPoly.aXPoints[i], pPoly.aYPoints[i])) return false;
     }
 
     // We could not find a point of the other polygon not inside this polygon,
@@ -431,6 +640,44 @@ public class Polygon {
 		if (pPoly == null)
 			return isects;
 
+		// There are at most n x m intersections
+		if (num <= 0)
+			num = aNumPoints * pPoly.aNumPoints;
+
+		double[] alphas = new double[num];
+		double[] betas = new double[num];
+		int found = getIntersections(pPoly, alphas, betas);
+
+		for (int i = 0; i < found; i++)
+			isects.add(new Intersection(alphas[i], betas[i]));
+
+		return isects;
+	}
+
+	/**
+	 * Allocation-free version of getIntersections(Polygon, int). Up to
+	 * pAlphas.length intersections are stored, in order, as pairs
+	 * (pAlphas[i], pBetas[i]).
+	 *
+	 * @param pPoly
+	 *            The polygon to test for intersections
+	 * @param pAlphas
+	 *            Receives the intersections in this polygon's coordinates
+	 * @param pBetas
+	 *            Receives the intersections in pPoly's coordinates; must be
+	 *            at least as long as pAlphas
+	 * @return The number of intersections found
+	 */
+	public int getIntersections(Polygon pPoly, double[] pAlphas, double[] pBetas) {
+		int num = pAlphas.length;
+		int found = 0;
+
+		if (pPoly == null || num == 0)
+			return 0;
+
+		updateWorldPoints();
+		pPoly.updateWorldPoints();
+
 		// Compare the bounding boxes first, and hope that they don't intersect
 		// @todo this can be rewritten as we now only care about intersections
 		// at the edges, NOT whether the two polygons occupy the same space
@@ -447,64 +694,61 @@ public class Polygon {
 		if (!((l < bx && bx < r) || (l < br && br < r) || (t < by && by < b) || (t < bb && bb < b))
 				&& !((bx < l && l < br) || (bx < r && r < br)
 						|| (by < t && t < bb) || (by < b && b < bb)))
-			return isects;
-
-		boolean done = false;
+			return 0;
 
-		// We keep track of the edge numbering to properly generate polygon
-		// coordinates
-		int edge1 = 0;
+		double[] bX = pPoly.aXPoints, bY = pPoly.aYPoints;
+		double[] bEdgeX = pPoly.aEdgeX, bEdgeY = pPoly.aEdgeY;
+		int bNumPoints = pPoly.aNumPoints;
 
 		// Use brute force if the bounding box test fails, for lack of
-		// programming time (all-edges comparison)
-		Vector2D pa1 = this.points.getLast();
-		for (Vector2D pa2 : this.points) {
-			int edge2 = 0;
+		// programming time (all-edges comparison). We keep track of the edge
+		// numbering to properly generate polygon coordinates
+		int pa1 = aNumPoints - 1;
+		for (int edge1 = 0; edge1 < aNumPoints; edge1++) {
+			double pa1x = aXPoints[pa1], pa1y = aYPoints[pa1];
+			double eax = aEdgeX[edge1], eay = aEdgeY[edge1];
+
+			int pb1 = bNumPoints - 1;
+			for (int edge2 = 0; edge2 < bNumPoints; edge2++) {
+				double ebx = bEdgeX[edge2], eby = bEdgeY[edge2];
 
-			Vector2D pb1 = pPoly.points.getLast();
-			for (Vector2D pb2 : pPoly.points) {
 				// Test whether the line segment pa1-pa2 intersects pb1-pb2
-				double denom = (pb2.y - pb1.y) * (pa2.x - pa1.x)
-						- (pb2.x - pb1.x) * (pa2.y - pa1.y);
+				double denom = eby * eax - ebx * eay;
 
 				// Assume general case and go on with your life
 				if (denom == 0) {
-					edge2++;
-					pb1 = pb2;
+					pb1 = edge2;
 					continue;
 				}
 
-				double num1 = (pb2.x - pb1.x) * (pa1.y - pb1.y)
-						- (pb2.y - pb1.y) * (pa1.x - pb1.x);
-				double num2 = (pa2.x - pa1.x) * (pa1.y - pb1.y)
-						- (pa2.y - pa1.y) * (pa1.x - pb1.x);
+				double dy = pa1y - bY[pb1];
+				double dx = pa1x - bX[pb1];
+				double num1 = ebx * dy - eby * dx;
+				double num2 = eax * dy - eay * dx;
 
 				double alpha = num1 / denom;
 				double beta = num2 / denom;
 
 				// Are these two line segments intersecting?
 				if (alpha > 0 && alpha < 1 && beta > 0 && beta < 1) {
-					isects.add(new Intersection(alpha + edge1, beta + edge2));
-					if (num > 0) {
-						num--;
-						// If we've reached the max. number of intersections
-						// that we
-						// need, return what we've found
-						if (num == 0)
-							return isects;
-					}
+					pAlphas[found] = alpha + edge1;
+					pBetas[found] = beta + edge2;
+					found++;
+
+					// If we've reached the max. number of intersections
+					// that we need, return what we've found
+					if (found == num)
+						return found;
 				}
 
-				edge2++;
-				pb1 = pb2;
+				pb1 = edge2;
 			}
 
-			edge1++;
-			pa1 = pa2;
+			pa1 = edge1;
 		}
 
-		// Return a possibly empty or smaller-than-requested list
-		return isects;
+		// Return a possibly smaller-than-requested number of intersections
+		return found;
 	}
 
 	/**
@@ -519,68 +763,102 @@ public class Polygon {
 	 *         intersection.
 	 */
 	public RayIntersection intersect(Ray r) {
-		RayIntersection isect = null;
+		RayIntersection isect = new RayIntersection();
+		isect.rayAlpha = Double.POSITIVE_INFINITY;
+
+		if (intersect(r, isect))
+			return isect;
+		else
+			return null;
+	}
 
+	/**
+	 * Allocation-free version of intersect(Ray). The closest intersection of
+	 * the ray with this polygon is stored in pIsect, but only if it is closer
+	 * than pIsect.rayAlpha; this makes it easy to find the closest
+	 * intersection over a set of polygons. The normal and point of pIsect are
+	 * reused if they are not null.
+	 *
+	 * @param r
+	 *            The ray of interest
+	 * @param pIsect
+	 *            The closest intersection found so far; its rayAlpha should
+	 *            be positive infinity if there is none
+	 * @return Whether pIsect was modified
+	 */
+	public boolean intersect(Ray r, RayIntersection pIsect) {
 		// For now, do an all edges comparison with the polygon
 		// I feel like there is a much easier way to do this...
-		Vector2D r1 = r.src;
-		Vector2D r2 = r.src.plus(r.dir);
+		double r1x = r.src.x;
+		double r1y = r.src.y;
+		// This is (r.src + r.dir) - r.src, which is not quite r.dir
+		double rdx = (r1x + r.dir.x) - r1x;
+		double rdy = (r1y + r.dir.y) - r1y;
+
+		int minEdge = -1;
+		double minAlpha = 0;
+		double minBeta = pIsect.rayAlpha;
 
-		int edgeIdx = 0;
-		double minBeta = Double.POSITIVE_INFINITY;
+		updateWorldPoints();
+
+		int p1 = aNumPoints - 1;
+		for (int edge = 0; edge < aNumPoints; edge++) {
+			double ex = aEdgeX[edge], ey = aEdgeY[edge];
 
-		Vector2D p1 = points.getLast();
-		for (Vector2D p2 : points) {
 			// Test whether the line segment p1-p2 interescts
 			// r.src-(r.src+r.dir)
-			double denom = (r2.y - r1.y) * (p2.x - p1.x) - (r2.x - r1.x)
-					* (p2.y - p1.y);
+			double denom = rdy * ex - rdx * ey;
 
 			// Parallel lines
 			if (denom == 0) {
-				p1 = p2;
+				p1 = edge;
 				continue;
 			}
 
-			double num1 = (r2.x - r1.x) * (p1.y - r1.y) - (r2.y - r1.y)
-					* (p1.x - r1.x);
-			double num2 = (p2.x - p1.x) * (p1.y - r1.y) - (p2.y - p1.y)
-					* (p1.x - r1.x);
+			double dy = aYPoints[p1] - r1y;
+			double dx = aXPoints[p1] - r1x;
+			double num1 = rdx * dy - rdy * dx;
+			double num2 = ex * dy - ey * dx;
 
 			double alpha = num1 / denom;
 			double beta = num2 / denom;
 
 			// We only require that the ray be directed towards the polygon and
 			// that the ray interesct the line segment. Also, rays are assumed
-			// to have a minimum length of EPSILON (to avoid rounding errors)
+			// to have a minimum length of EPSILON (to avoid rounding errors).
+			// Because we are dealing with concave polygons, we cannot assume
+			// a finite number of intersections with the ray, so we keep going
 			if (alpha > 0 && alpha < 1 && beta > EPSILON && beta < minBeta) {
-				if (isect == null)
-					isect = new RayIntersection();
 				minBeta = beta;
+				minAlpha = alpha;
+				minEdge = edge;
+			}
 
-				isect.polygon = this;
-				isect.ray = r;
+			p1 = edge;
+		}
 
-				isect.polyAlpha = edgeIdx + alpha;
-				isect.rayAlpha = beta;
+		if (minEdge < 0)
+			return false;
 
-				// Some extra information - maybe it's a bad idea to compute it
-				// by default?
-				isect.normal = this.computeNormal(p1, p2);
-				isect.point = r.getPoint(beta);
+		pIsect.polygon = this;
+		pIsect.ray = r;
 
-				// Because we are dealing with concave polygons, we cannot
-				// assume
-				// a finite number of intersections with the ray, so we cannot
-				// return this intersection now
-			}
+		pIsect.polyAlpha = minEdge + minAlpha;
+		pIsect.rayAlpha = minBeta;
 
-			p1 = p2;
-			edgeIdx++;
-		}
+		// Some extra information - maybe it's a bad idea to compute it
+		// by default?
+		if (pIsect.normal == null)
+			pIsect.normal = new Vector2D(0, 0);
+		pIsect.normal.x = aNormalX[minEdge];
+		pIsect.normal.y = aNormalY[minEdge];
+
+		if (pIsect.point == null)
+			pIsect.point = new Vector2D(0, 0);
+		pIsect.point.x = r.src.x + minBeta * r.dir.x;
+		pIsect.point.y = r.src.y + minBeta * r.dir.y;
 
-		// Return a potentially null intersection
-		return isect;
+		return true;
 	}
 
 	/**
@@ -601,26 +879,18 @@ public class Polygon {
 			return null;
 
 		int edgeNum = (int) alpha;
-		if (edgeNum >= points.size())
+		if (edgeNum >= aNumPoints)
 			return null;
 
 		double c = alpha - edgeNum;
+		updateWorldPoints();
 
-		// Find the edge of interest
-		Vector2D p1 = points.getLast();
-		for (Vector2D p2 : points) {
-			if (edgeNum == 0) {
-				// Interpolate to find the point of interest
-				return new Vector2D((1.0 - c) * p1.x + c * p2.x, (1.0 - c)
-						* p1.y + c * p2.y);
-			}
-
-			edgeNum--;
-			p1 = p2;
-		}
+		// Find the edge of interest and interpolate to find the point
+		int p1 = (edgeNum == 0) ? aNumPoints - 1 : edgeNum - 1;
+		int p2 = edgeNum;
 
-		// Oops? Something went wrong
-        throw new UnsupportedOperationException("Polygon.getPoint(alpha) - unexpected result.");
+		return new Vector2D((1.0 - c) * aXPoints[p1] + c * aXPoints[p2], 
+				(1.0 - c) * aYPoints[p1] + c * aYPoints[p2]);
 	}
 
 	/**
@@ -637,25 +907,12 @@ public class Polygon {
 			return null;
 
 		int edgeNum = (int) alpha;
-		if (edgeNum >= points.size())
+		if (edgeNum >= aNumPoints)
 			return null;
 
-		double c = alpha - edgeNum;
-
-		// Find the edge that we want
-		Vector2D p1 = points.getLast();
-		for (Vector2D p2 : points) {
-			if (edgeNum == 0) {
-				// Return the perpendicular to this edge
-				return computeNormal(p1, p2);
-			}
-
-			p1 = p2;
-			edgeNum--;
-		}
-
-		// Oops? Something went wrong
-        throw new UnsupportedOperationException("Polygon.getNormal(alpha) - unexpected result.");
+		// Return the perpendicular to this edge
+		updateWorldPoints();
+		return new Vector2D(aNormalX[edgeNum], aNormalY[edgeNum]);
 	}
 
 	/**
@@ -705,12 +962,32 @@ public class Polygon {
 	 *            The polygon to copy data from
 	 */
 	protected void copyFrom(Polygon org) {
-		// We will add each point from the original polygon in
-		// Because we are passing the (x,y) coordinates, we are assured
-		// that we will not be reusing the original Polygon's points
-		for (Vector2D pt : org.points)
-			this.addPoint(pt.x, pt.y);
-		this.doneAddPoints();
+		// Copy the arrays outright; the original is already in clockwise
+		// order, and this way the copy's world coordinates are exactly those
+		// of the original for any pose
+		int n = org.aNumPoints;
+		if (n > aEdgeX.length)
+			allocatePoints(n);
+
+		aNumPoints = n;
+		System.arraycopy(org.aLocalX, 0, aLocalX, 0, n);
+		System.arraycopy(org.aLocalY, 0, aLocalY, 0, n);
+		System.arraycopy(org.aXPoints, 0, aXPoints, 0, n + 1);
+		System.arraycopy(org.aYPoints, 0, aYPoints, 0, n + 1);
+		System.arraycopy(org.aEdgeX, 0, aEdgeX, 0, n);
+		System.arraycopy(org.aEdgeY, 0, aEdgeY, 0, n);
+		System.arraycopy(org.aNormalX, 0, aNormalX, 0, n);
+		System.arraycopy(org.aNormalY, 0, aNormalY, 0, n);
+
+		aPoseX = org.aPoseX;
+		aPoseY = org.aPoseY;
+		aPoseDir = org.aPoseDir;
+		aWorldValid = org.aWorldValid;
+
+		bx = org.bx;
+		by = org.by;
+		bw = org.bw;
+		bh = org.bh;
 	}
 
 	/**
@@ -720,13 +997,15 @@ public class Polygon {
 	 *            The main Graphics object to draw with
 	 */
 	public void draw(SimulatorGraphics g) {
-    if (aXPoints == null || aYPoints == null) {
+    if (aNumPoints == 0) {
       return;
     }
 
+    updateWorldPoints();
+
     Color tempC = g.getColor();
     g.setColor(Color.black);
-    g.drawPolyline(aXPoints, aYPoints, aXPoints.length);
+    g.drawPolyline(aXPoints, aYPoints, aNumPoints + 1);
     g.setColor(tempC);
 
   // Draw the edge normals
@@ -738,6 +1017,7 @@ public class Polygon {
 	}
 
 	public void drawBoundingBoxes(SimulatorGraphics g) {
+		updateWorldPoints();
 		double[] bbx = new double[5];
 		double[] bby = new double[5];
 
@@ -755,17 +1035,16 @@ public class Polygon {
 	public void drawEdgeNormals(Graphics g) {
         if (true)
             throw new UnsupportedOperationException ("Needs to be re-implemented.");
-		Vector2D p1 = points.getLast();
-
 		Color tempC = g.getColor();
 		g.setColor(Color.black);
 
 		// Walk through all edges, find their normal, draw it starting at the
 		// center of the edge
-		for (Vector2D p2 : points) {
-			Vector2D center = new Vector2D(0.5 * p1.x + 0.5 * p2.x, 0.5 * p1.y
-					+ 0.5 * p2.y);
-			Vector2D normal = computeNormal(p1, p2);
+		for (int i = 0; i < aNumPoints; i++) {
+			int p1 = (i == 0) ? aNumPoints - 1 : i - 1;
+			Vector2D center = new Vector2D(0.5 * aXPoints[p1] + 0.5 * aXPoints[i],
+					0.5 * aYPoints[p1] + 0.5 * aYPoints[i]);
+			Vector2D normal = new Vector2D(aNormalX[i], aNormalY[i]);
 
 			Vector2D outPoint = normal.times(5).plus(center);
 			g.drawLine((int) center.x,
@@ -773,20 +1052,18 @@ public class Polygon {
 					(int) outPoint.x,
 					(int) outPoint.y);
 
-			p1 = p2;
 		}
 		g.setColor(tempC);
 	}
 
 	public String toStringList() {
 		String s = "";
+		updateWorldPoints();
 
-		for (Vector2D p : points)
-			s += p.x + " " + p.y + "\n";
-
-		Vector2D first = points.getFirst();
+		for (int i = 0; i < aNumPoints; i++)
+			s += aXPoints[i] + " " + aYPoints[i] + "\n";
 
-		s += first.x + " " + first.y;
+		s += aXPoints[0] + " " + aYPoints[0];
 
 		return s;
 	}
@@ -19,6 +19,11 @@ package org.rlcommunity.critterbot.simulator;
   * Defines a class for doing ray tracing and point visibility. It encapsulates
   *  a set of Polygons.
   *
+  * The polygons are kept in a bounding volume hierarchy, so that rays only
+  *  need to be tested against polygons whose bounding box they cross. The
+  *  hierarchy is rebuilt whenever new polygons are added, and must be
+  *  refit() after the polygons move.
+  *
   * Note to whomever may want to extend this class - do NOT make it keep
   *  track of a set of SimulatorObjects or return a set of SimulatorObjects
   *  without consulting MGB.
@@ -26,15 +31,42 @@ package org.rlcommunity.critterbot.simulator;
   * @author Marc G. Bellemare
   */
 
-import java.util.Set;
-import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 
 public class Scene
 {
-  /** The set of objects contained in this Scene */
-  protected HashSet<Polygon> aPolySet = new HashSet<Polygon>();
+  /** The maximum number of polygons stored in a leaf of the hierarchy */
+  protected static final int LEAF_SIZE = 2;
+
+  /** The polygons known to this Scene; removed polygons keep their slot so
+    *  that they can be re-added without rebuilding the hierarchy */
+  protected Polygon[] aPolygons = new Polygon[16];
+  /** Whether the polygon in a given slot is currently part of the scene */
+  protected boolean[] aActive = new boolean[16];
+  /** The id of the root of the object owning the polygon in a given slot,
+    *  used to ignore whole object trees during queries */
+  protected int[] aOwners = new int[16];
+  protected int aNumPolygons;
+  /** Maps each known polygon to its slot */
+  protected HashMap<Polygon, Integer> aSlots = new HashMap<Polygon, Integer>();
+
+  /** The bounding volume hierarchy, stored as flat arrays. Each node has a
+    *  box { minX, minY, maxX, maxY }; internal nodes have two children and
+    *  leaves have a range of aLeafSlots. Children always come after their
+    *  parent, which refit() relies on. */
+  protected double[] aNodeBox;
+  protected int[] aNodeChildren;
+  protected int[] aNodeStart;
+  protected int[] aNodeCount;
+  protected int aNumNodes;
+  protected int[] aLeafSlots;
+
+  /** Whether the hierarchy needs to be rebuilt, i.e. new polygons were
+    *  added since it was built; only true while polygons are being added */
+  protected boolean aTreeDirty = true;
 
   /** Creates a new Scene containing all objects (their polygons) in the 
     *   given state.
@@ -52,8 +84,11 @@ public class Scene
       // If this object has a shape, add it
       Polygon poly = o.getShape();
       if (poly != null)
-        aPolySet.add(poly);
+        addPolygon(poly, o.getRoot().getId());
     }
+
+    // Build the hierarchy now, so that queries never modify the scene
+    buildTree();
   }
 
 
@@ -66,30 +101,421 @@ public class Scene
     * @return The intersection
 */
   public RayIntersection traceRay(Ray pRay)
+  {
+    return traceRay(pRay, null);
+  }
 
+  /**
+    * Traces the given ray and finds the first intersection (if any) with
+    *  this scene's Polygon set, ignoring the polygons of some object trees. 
+    *  This is equivalent to removing these trees with removeSubtree(), 
+    *  tracing the ray and adding them back, but does not modify the scene.
+    *  Once refit() has been called since the polygons last moved, it does
+    *  not modify the polygons either, so that any number of threads may
+    *  trace rays through the same scene, as long as no polygons move and no
+    *  objects are added or removed meanwhile.
+    *
+    * @param pRay The ray to be traced
+    * @param pIgnoredRoots The ids of the root objects whose trees should be
+    *   ignored, or null
+    *
+    * @return The intersection
+    */
+  public RayIntersection traceRay(Ray pRay, int[] pIgnoredRoots)
   {
+    if (aNumNodes == 0) return null;
+
+    double sx = pRay.src.x, sy = pRay.src.y;
+    double dx = pRay.dir.x, dy = pRay.dir.y;
+
     double minAlpha = Double.POSITIVE_INFINITY;
 
-    RayIntersection minIsect = null;
+    // Polygons only update this if they find a closer intersection
+    RayIntersection minIsect = new RayIntersection();
+    minIsect.rayAlpha = minAlpha;
+
+    // Nodes left to visit, along with the ray distance at which the ray
+    //  enters their box
+    int[] stack = new int[64];
+    double[] stackAlpha = new double[64];
+    int stackSize = 0;
+
+    double rootAlpha = enterBox(aNodeBox, 0, sx, sy, dx, dy);
+    if (rootAlpha == Double.POSITIVE_INFINITY) return null;
+
+    stack[stackSize] = 0;
+    stackAlpha[stackSize++] = rootAlpha;
 
-    for (Polygon poly : aPolySet)
+    while (stackSize > 0)
     {
-      RayIntersection isect = poly.intersect(pRay);
-      // Do we actually have an intersection?
-      if (isect != null) 
+      stackSize--;
+      int node = stack[stackSize];
+
+      // We already have a closer intersection than anything in this box
+      if (stackAlpha[stackSize] > minAlpha) continue;
+
+      if (aNodeCount[node] > 0)
       {
-        if (isect.rayAlpha < minAlpha)
+        int end = aNodeStart[node] + aNodeCount[node];
+        for (int i = aNodeStart[node]; i < end; i++)
         {
-          minIsect = isect;
-          minAlpha = isect.rayAlpha;
+          int slot = aLeafSlots[i];
+          if (!aActive[slot]) continue;
+          if (pIgnoredRoots != null && isIgnored(aOwners[slot], pIgnoredRoots))
+            continue;
+
+          Polygon poly = aPolygons[slot];
+          double alpha = enterBox(poly.bx - Polygon.EPSILON, 
+            poly.by - Polygon.EPSILON, poly.bx + poly.bw + Polygon.EPSILON,
+            poly.by + poly.bh + Polygon.EPSILON, sx, sy, dx, dy);
+          if (alpha == Double.POSITIVE_INFINITY || alpha > minAlpha) continue;
+
+          // Do we actually have a closer intersection?
+          if (poly.intersect(pRay, minIsect))
+            minAlpha = minIsect.rayAlpha;
         }
       }
-    }
+      else
+      {
+        int left = aNodeChildren[2 * node];
+        int right = aNodeChildren[2 * node + 1];
+        double leftAlpha = enterBox(aNodeBox, left, sx, sy, dx, dy);
+        double rightAlpha = enterBox(aNodeBox, right, sx, sy, dx, dy);
 
+        if (stackSize + 2 > stack.length)
+        {
+          int[] newStack = new int[stack.length * 2];
+          double[] newStackAlpha = new double[stack.length * 2];
+          System.arraycopy(stack, 0, newStack, 0, stackSize);
+          System.arraycopy(stackAlpha, 0, newStackAlpha, 0, stackSize);
+          stack = newStack;
+          stackAlpha = newStackAlpha;
+        }
 
-    if (minIsect == null) return null;
+        // Push the farther child first so that the nearer one is visited
+        //  first, and hopefully lets us skip the other
+        if (leftAlpha > rightAlpha)
+        {
+          int tmp = left; left = right; right = tmp;
+          double tmpAlpha = leftAlpha; leftAlpha = rightAlpha; 
+          rightAlpha = tmpAlpha;
+        }
+
+        if (rightAlpha != Double.POSITIVE_INFINITY)
+        {
+          stack[stackSize] = right;
+          stackAlpha[stackSize++] = rightAlpha;
+        }
+        if (leftAlpha != Double.POSITIVE_INFINITY)
+        {
+          stack[stackSize] = left;
+          stackAlpha[stackSize++] = leftAlpha;
+        }
+      }
+    }
+
+    if (minIsect.polygon == null) return null;
     else return minIsect;
   }
+
+  /** Returns whether the given root id is one of the ignored ones */
+  private static boolean isIgnored(int pRoot, int[] pIgnoredRoots)
+  {
+    for (int i = 0; i < pIgnoredRoots.length; i++)
+      if (pIgnoredRoots[i] == pRoot) return true;
+
+    return false;
+  }
+
+  /** Returns the ray distance at which the ray src + alpha * dir enters the
+    *  given node's box (possibly negative if src is inside the box), or
+    *  positive infinity if the ray misses the box.
+    */
+  private static double enterBox(double[] pBoxes, int pNode, 
+    double sx, double sy, double dx, double dy)
+  {
+    int b = 4 * pNode;
+    return enterBox(pBoxes[b], pBoxes[b + 1], pBoxes[b + 2], pBoxes[b + 3],
+      sx, sy, dx, dy);
+  }
+
+  /** Slab test; see enterBox(double[], int, ...). */
+  private static double enterBox(double pMinX, double pMinY, 
+    double pMaxX, double pMaxY, double sx, double sy, double dx, double dy)
+  {
+    double tMin = Double.NEGATIVE_INFINITY;
+    double tMax = Double.POSITIVE_INFINITY;
+
+    if (dx != 0)
+    {
+      double t1 = (pMinX - sx) / dx;
+      double t2 = (pMaxX - sx) / dx;
+      tMin = Math.min(t1, t2);
+      tMax = Math.max(t1, t2);
+    }
+    else if (sx < pMinX || sx > pMaxX)
+      return Double.POSITIVE_INFINITY;
+
+    if (dy != 0)
+    {
+      double t1 = (pMinY - sy) / dy;
+      double t2 = (pMaxY - sy) / dy;
+      tMin = Math.max(tMin, Math.min(t1, t2));
+      tMax = Math.min(tMax, Math.max(t1, t2));
+    }
+    else if (sy < pMinY || sy > pMaxY)
+      return Double.POSITIVE_INFINITY;
+
+    // Polygon.intersect() only reports intersections in front of the source
+    if (tMax < tMin || tMax < 0)
+      return Double.POSITIVE_INFINITY;
+    else
+      return tMin;
+  }
+
+  /** Recomputes the boxes of the hierarchy from the current position of 
+    *  its polygons. This must be called when the polygons of this scene 
+    *  have moved; it is much cheaper than creating a new Scene, although
+    *  the hierarchy becomes less efficient as objects drift apart. The
+    *  world coordinates of every polygon are brought up to date, so that
+    *  queries need not update them.
+    */
+  public void refit()
+  {
+    for (int i = 0; i < aNumPolygons; i++)
+      aPolygons[i].updateWorldPoints();
+
+    if (aTreeDirty)
+    {
+      buildTree();
+      return;
+    }
+
+    // Children come after their parents, so walking the nodes backwards
+    //  refits children first
+    for (int node = aNumNodes - 1; node >= 0; node--)
+    {
+      int b = 4 * node;
+      if (aNodeCount[node] > 0)
+      {
+        aNodeBox[b] = aNodeBox[b + 1] = Double.POSITIVE_INFINITY;
+        aNodeBox[b + 2] = aNodeBox[b + 3] = Double.NEGATIVE_INFINITY;
+        int end = aNodeStart[node] + aNodeCount[node];
+        for (int i = aNodeStart[node]; i < end; i++)
+          growBox(b, aPolygons[aLeafSlots[i]]);
+      }
+      else
+      {
+        int l = 4 * aNodeChildren[2 * node];
+        int r = 4 * aNodeChildren[2 * node + 1];
+        aNodeBox[b] = Math.min(aNodeBox[l], aNodeBox[r]);
+        aNodeBox[b + 1] = Math.min(aNodeBox[l + 1], aNodeBox[r + 1]);
+        aNodeBox[b + 2] = Math.max(aNodeBox[l + 2], aNodeBox[r + 2]);
+        aNodeBox[b + 3] = Math.max(aNodeBox[l + 3], aNodeBox[r + 3]);
+      }
+    }
+  }
+
+  /** Grows the box of a node so that it contains the given polygon, with
+    *  some slack for round-off errors.
+    *
+    * @param pBox The offset of the node's box in aNodeBox
+    * @param pPoly The polygon of interest
+    */
+  private void growBox(int pBox, Polygon pPoly)
+  {
+    pPoly.updateWorldPoints();
+    aNodeBox[pBox] = Math.min(aNodeBox[pBox], pPoly.bx - Polygon.EPSILON);
+    aNodeBox[pBox + 1] = Math.min(aNodeBox[pBox + 1], 
+      pPoly.by - Polygon.EPSILON);
+    aNodeBox[pBox + 2] = Math.max(aNodeBox[pBox + 2], 
+      pPoly.bx + pPoly.bw + Polygon.EPSILON);
+    aNodeBox[pBox + 3] = Math.max(aNodeBox[pBox + 3], 
+      pPoly.by + pPoly.bh + Polygon.EPSILON);
+  }
+
+  /** Builds the bounding volume hierarchy over all known polygons, active
+    *  or not, by recursively splitting them at the median along the longest
+    *  axis.
+    */
+  protected void buildTree()
+  {
+    aLeafSlots = new int[aNumPolygons];
+    int numSlots = 0;
+
+    // Polygons without points cannot be intersected
+    for (int i = 0; i < aNumPolygons; i++)
+      if (aPolygons[i].size() > 0)
+        aLeafSlots[numSlots++] = i;
+
+    int maxNodes = Math.max(1, 2 * numSlots);
+    aNodeBox = new double[4 * maxNodes];
+    aNodeChildren = new int[2 * maxNodes];
+    aNodeStart = new int[maxNodes];
+    aNodeCount = new int[maxNodes];
+    aNumNodes = 0;
+
+    aTreeDirty = false;
+
+    if (numSlots == 0) return;
+
+    // Sort keys: the center of each polygon's bounding box
+    final double[] centers = new double[2 * aNumPolygons];
+    for (int i = 0; i < numSlots; i++)
+    {
+      int slot = aLeafSlots[i];
+      Polygon poly = aPolygons[slot];
+      poly.updateWorldPoints();
+      centers[2 * slot] = poly.bx + poly.bw / 2;
+      centers[2 * slot + 1] = poly.by + poly.bh / 2;
+    }
+
+    Integer[] sortBuffer = new Integer[numSlots];
+    buildNode(0, numSlots, centers, sortBuffer);
+  }
+
+  /** Creates the node containing aLeafSlots[pStart] ... 
+    *  aLeafSlots[pEnd - 1], and its descendants.
+    *
+    * @return The index of the new node
+    */
+  private int buildNode(int pStart, int pEnd, final double[] pCenters, 
+    Integer[] pSortBuffer)
+  {
+    int node = aNumNodes++;
+    int b = 4 * node;
+
+    aNodeBox[b] = aNodeBox[b + 1] = Double.POSITIVE_INFINITY;
+    aNodeBox[b + 2] = aNodeBox[b + 3] = Double.NEGATIVE_INFINITY;
+
+    double minX = Double.POSITIVE_INFINITY, maxX = Double.NEGATIVE_INFINITY;
+    double minY = Double.POSITIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+
+    for (int i = pStart; i < pEnd; i++)
+    {
+      int slot = aLeafSlots[i];
+      growBox(b, aPolygons[slot]);
+
+      minX = Math.min(minX, pCenters[2 * slot]);
+      maxX = Math.max(maxX, pCenters[2 * slot]);
+      minY = Math.min(minY, pCenters[2 * slot + 1]);
+      maxY = Math.max(maxY, pCenters[2 * slot + 1]);
+    }
+
+    if (pEnd - pStart <= LEAF_SIZE)
+    {
+      aNodeStart[node] = pStart;
+      aNodeCount[node] = pEnd - pStart;
+      return node;
+    }
+
+    // Split along the axis where the polygons are most spread out
+    final int axis = (maxX - minX >= maxY - minY)? 0 : 1;
+
+    for (int i = pStart; i < pEnd; i++)
+      pSortBuffer[i] = aLeafSlots[i];
+
+    Arrays.sort(pSortBuffer, pStart, pEnd, new Comparator<Integer>() {
+      public int compare(Integer a, Integer b) {
+        return Double.compare(pCenters[2 * a + axis], pCenters[2 * b + axis]);
+      }
+    });
+
+    for (int i = pStart; i < pEnd; i++)
+      aLeafSlots[i] = pSortBuffer[i];
+
+    int mid = (pStart + pEnd) / 2;
+
+    aNodeCount[node] = 0;
+    aNodeChildren[2 * node] = buildNode(pStart, mid, pCenters, pSortBuffer);
+    aNodeChildren[2 * node + 1] = buildNode(mid, pEnd, pCenters, pSortBuffer);
+
+    return node;
+  }
+
+  /** Returns whether the polygons known to this scene are exactly the 
+    *  shapes of the given objects, in the same order, i.e. whether this scene
+    *  is what new Scene() would create from these objects, up to polygon
+    *  positions and removed objects.
+    *
+    * @param pObjects The objects of interest
+    * @return True if this scene was created from the given objects' shapes
+    */
+  public boolean matches(List<SimulatorObject> pObjects)
+  {
+    int slot = 0;
+
+    for (SimulatorObject o : pObjects)
+    {
+      Polygon poly = o.getShape();
+      if (poly == null) continue;
+
+      if (slot >= aNumPolygons || aPolygons[slot] != poly ||
+          aOwners[slot] != o.getRoot().getId())
+        return false;
+      slot++;
+    }
+
+    return (slot == aNumPolygons);
+  }
+
+  /** Adds back every polygon that was removed from this scene. */
+  public void addAll()
+  {
+    Arrays.fill(aActive, 0, aNumPolygons, true);
+  }
+
+  /** Adds a polygon to this scene. Polygons that were in the scene before
+    *  are simply re-activated; new polygons require the hierarchy to be
+    *  rebuilt.
+    *
+    * @param pPoly The polygon to be added
+    * @param pOwner The id of the root of the object owning the polygon
+    */
+  protected void addPolygon(Polygon pPoly, int pOwner)
+  {
+    Integer slot = aSlots.get(pPoly);
+
+    if (slot != null)
+    {
+      aActive[slot] = true;
+      aOwners[slot] = pOwner;
+      return;
+    }
+
+    if (aNumPolygons == aPolygons.length)
+    {
+      Polygon[] newPolygons = new Polygon[2 * aPolygons.length];
+      boolean[] newActive = new boolean[2 * aPolygons.length];
+      int[] newOwners = new int[2 * aPolygons.length];
+      System.arraycopy(aPolygons, 0, newPolygons, 0, aNumPolygons);
+      System.arraycopy(aActive, 0, newActive, 0, aNumPolygons);
+      System.arraycopy(aOwners, 0, newOwners, 0, aNumPolygons);
+      aPolygons = newPolygons;
+      aActive = newActive;
+      aOwners = newOwners;
+    }
+
+    aPolygons[aNumPolygons] = pPoly;
+    aActive[aNumPolygons] = true;
+    aOwners[aNumPolygons] = pOwner;
+    aSlots.put(pPoly, aNumPolygons);
+    aNumPolygons++;
+
+    aTreeDirty = true;
+  }
+
+  /** Removes a polygon from this scene. Its slot in the hierarchy is kept.
+    *
+    * @param pPoly The polygon to be removed
+    */
+  protected void removePolygon(Polygon pPoly)
+  {
+    Integer slot = aSlots.get(pPoly);
+
+    if (slot != null)
+      aActive[slot] = false;
+  }
  
   /**
     * Returns p1 is visible from p2. This relation should be symmetric, but
@@ -99,6 +525,20 @@ public class Scene
     * @param p2 The second point in the comparison
     */
   public boolean isVisible(Vector2D p1, Vector2D p2)
+  {
+    return isVisible(p1, p2, null);
+  }
+
+  /**
+    * Returns p1 is visible from p2, ignoring the polygons of some object
+    *  trees (see traceRay(Ray, int[])).
+    *
+    * @param p1 The first point in the comparison
+    * @param p2 The second point in the comparison
+    * @param pIgnoredRoots The ids of the root objects whose trees should be
+    *   ignored, or null
+    */
+  public boolean isVisible(Vector2D p1, Vector2D p2, int[] pIgnoredRoots)
   {
     // Avoid the ugly case when p1 == p2 and the 'vec' vector would be 0
     if (p1.equals(p2)) return true;
@@ -110,7 +550,7 @@ public class Scene
     Ray r = new Ray(p1, vec);
     // Find the first intersection of the ray with the polygon set
 
-    RayIntersection isect = traceRay(r);
+    RayIntersection isect = traceRay(r, pIgnoredRoots);
 
     // In the lucky case where we simply don't intersect anything, we're done!
     if (isect == null) return true;
@@ -140,7 +580,9 @@ public class Scene
     Polygon poly = pObject.getShape();
     
     if (poly != null)
-      aPolySet.add(poly);
+      addPolygon(poly, pObject.getRoot().getId());
+
+    if (aTreeDirty) buildTree();
   }
 
   /** Removes an object's polygon (but not its children's!) from this scene. 
@@ -152,7 +594,7 @@ public class Scene
     Polygon poly = pObject.getShape();
     
     if (poly != null)
-      aPolySet.remove(poly);
+      removePolygon(poly);
   }
   
   /** Adds an object's whole subtree (itself and children) to this scene. 
@@ -163,18 +605,21 @@ public class Scene
   {
     List<SimulatorObject> children = pObject.getChildren();
     Polygon poly = pObject.getShape();
+    int owner = pObject.getRoot().getId();
     
     // Add the root's polygon
     if (poly != null)
-      aPolySet.add(poly);
+      addPolygon(poly, owner);
 
     // Add the children's polygons 
     for (SimulatorObject o : children)
     {
       poly = o.getShape();
       if (poly != null)
-        aPolySet.add(poly);
+        addPolygon(poly, owner);
     }
+
+    if (aTreeDirty) buildTree();
   }
 
   /** Removes an object's whole subtree (itself and children) from this scene. 
@@ -187,14 +632,14 @@ public class Scene
     Polygon poly = pObject.getShape();
     
     if (poly != null)
-      aPolySet.remove(poly);
+      removePolygon(poly);
 
     // Remove the children's polygons
     for (SimulatorObject o : children)
     {
       poly = o.getShape();
       if (poly != null)
-        aPolySet.remove(poly);
+        removePolygon(poly);
     }
   }
 }
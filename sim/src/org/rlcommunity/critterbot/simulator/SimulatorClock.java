@@ -0,0 +1,81 @@
+/* Copyright 2009 Marc G. Bellemare
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package org.rlcommunity.critterbot.simulator;
+
+import org.rlcommunity.critterbot.javadrops.drops.DropClock;
+
+/**
+ * SimulatorClock
+ *
+ * Keeps track of simulated time. The clock only moves when the
+ *  SimulatorEngine takes a step, by the length of that step, so that the
+ *  times it reports do not depend on how fast the simulator actually runs.
+ *  Time stamps are given as a starting time (e.g., the wall-clock time at
+ *  which the simulation started) plus the simulated time elapsed since.
+ *
+ * @author Marc G. Bellemare
+ */
+public class SimulatorClock implements DropClock {
+    /** The time, in milliseconds, at which the simulation started */
+    protected final long aStartMillis;
+    /** The simulated time, in milliseconds, elapsed since the start */
+    protected volatile long aElapsedMillis;
+
+    /** Creates a clock which starts at time 0. */
+    public SimulatorClock() {
+        this(0);
+    }
+
+    /** Creates a clock which starts at the given time.
+     *
+     * @param pStartMillis The starting time, in milliseconds (for example
+     *   since the epoch).
+     */
+    public SimulatorClock(long pStartMillis) {
+        aStartMillis = pStartMillis;
+        aElapsedMillis = 0;
+    }
+
+    /** Moves the clock forward.
+     *
+     * @param pMillis The amount of simulated time, in milliseconds.
+     */
+    public void advance(int pMillis) {
+        aElapsedMillis += pMillis;
+    }
+
+    /** Returns the starting time of this clock, in milliseconds. */
+    public long getStartMillis() {
+        return aStartMillis;
+    }
+
+    /** Returns the simulated time elapsed since the start, in milliseconds. */
+    public long getElapsedMillis() {
+        return aElapsedMillis;
+    }
+
+    /** Returns the simulated time elapsed since the start, in nanoseconds;
+     *   this lets a DropInterface limit drop rates in simulated time.
+     */
+    public long nanoTime() {
+        return aElapsedMillis * 1000000L;
+    }
+
+    /** Returns the current simulated time, in milliseconds; this is the
+     *   starting time plus the elapsed time.
+     */
+    public long getTimeMillis() {
+        return aStartMillis + aElapsedMillis;
+    }
+}
@@ -17,7 +17,7 @@
  */
 package org.rlcommunity.critterbot.simulator;
 
-import java.util.LinkedList;
+import java.util.List;
 
 /**
  *
@@ -32,11 +32,11 @@ public class SimulatorComponentBattery implements SimulatorComponent {
 
     public void apply(SimulatorState pCurrent, SimulatorState pNext, int delta) {
 
-        LinkedList<SimulatorObject> oldBatterys = pCurrent.getObjects(ObjectStateBattery.NAME);
-        LinkedList<SimulatorObject> newBatterys = pNext.getObjects(ObjectStateBattery.NAME);        
+        List<SimulatorObject> oldBatterys = pCurrent.getObjects(ObjectStateBattery.NAME);
+        List<SimulatorObject> newBatterys = pNext.getObjects(ObjectStateBattery.NAME);        
         int numBatterys = newBatterys.size();
         
-        LinkedList<SimulatorObject> chargers = pCurrent.getObjects(ObjectStateBatteryCharger.NAME);
+        List<SimulatorObject> chargers = pCurrent.getObjects(ObjectStateBatteryCharger.NAME);
         int numChargers = chargers.size();
         
         SimulatorObject oldBattery, newBattery, charger;
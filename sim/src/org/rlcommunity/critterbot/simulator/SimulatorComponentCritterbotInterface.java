@@ -86,18 +86,48 @@ public class SimulatorComponentCritterbotInterface implements SimulatorComponent
     public static final double BUMP_SENSOR_MAX = 255.0;
 
     protected DropInterface aDropInterface;
+    /** The clock used to time stamp state drops; may be null */
+    protected SimulatorClock aClock;
     private final int numBatteries = 3;
 
     private final MotorCommand aCommand = new MotorCommand();
 
     public SimulatorComponentCritterbotInterface(DropInterface pInterface) {
+        this(pInterface, null);
+    }
+
+    /** Creates a new interface component whose state drops are time stamped
+     *   with the simulated time of the state they describe. This should be
+     *   the clock of the engine running this component.
+     *
+     * @param pInterface The interface through which drops are exchanged.
+     * @param pClock The simulated clock; if null, the drops' time stamp is
+     *   left at 0. The interface's rate-limited subscriptions are then also
+     *   timed by the simulated clock.
+     */
+    public SimulatorComponentCritterbotInterface(DropInterface pInterface,
+            SimulatorClock pClock) {
         aDropInterface = pInterface;
+        aClock = pClock;
+        if (pInterface != null && pClock != null)
+            pInterface.setClock(pClock);
     }
 
     public void apply(SimulatorState pCurrent, SimulatorState pNext, int delta) {
         if (aDropInterface != null) {
             // Read in drops
             List<SimulatorDrop> drops = aDropInterface.receiveDrops();
+
+            // Only the newest control drop matters, as each one overrides
+            //  the previous one (drops without a motor mode are ignored)
+            CritterControlDrop command = null;
+            for (SimulatorDrop drop : drops) {
+                if (drop instanceof CritterControlDrop &&
+                        ((CritterControlDrop) drop).motor_mode != null) {
+                    command = (CritterControlDrop) drop;
+                }
+            }
+
             List<SimulatorObject> critters =
                     pCurrent.getObjects(SimulatorComponentCritterbotInterface.NAME);
 
@@ -108,16 +138,9 @@ public class SimulatorComponentCritterbotInterface implements SimulatorComponent
                 ObjectStateCritterbotInterface nextIface =
                         (ObjectStateCritterbotInterface) nextObj.getState(ObjectStateCritterbotInterface.NAME);
 
-                for (SimulatorDrop drop : drops) {
-                    // @todo icky
-                    if (drop instanceof CritterControlDrop) {
-                        CritterControlDrop command = (CritterControlDrop) drop;
-
-                        // Set the NEXT object's Omnidrive data
-                        if (command != null) {
-                            setFromDrop(nextObj, command);
-                        }
-                    }
+                // Set the NEXT object's Omnidrive data
+                if (command != null) {
+                    setFromDrop(nextObj, command);
                 }
 
                 // Increment the interface timer
@@ -131,6 +154,10 @@ public class SimulatorComponentCritterbotInterface implements SimulatorComponent
                 }
             }
 
+            // Pass on the drops held back for slow subscribers, e.g. the
+            //  visualizer, even if no new drop follows them
+            aDropInterface.sendHeldDrops();
+
         }
     }
 
@@ -225,6 +252,11 @@ public class SimulatorComponentCritterbotInterface implements SimulatorComponent
 
         CritterStateDrop stateDrop = new CritterStateDrop();
 
+        // The clock is advanced after the components are applied, so that it
+        //  currently gives the time of pState
+        if (aClock != null)
+            stateDrop.time.setTimeInMillis(aClock.getTimeMillis());
+
         // Some bogus percentage
         stateDrop.cycle_time = 50;
 
@@ -325,7 +357,7 @@ public class SimulatorComponentCritterbotInterface implements SimulatorComponent
 
         ObjectStateBumpSensor bumpState = ObjectStateBumpSensor.retrieve(pObject);
         // Assume stateDrop.bump is initialized to 0's
-        int numEdges = pObject.getShape().getPoints().size();
+        int numEdges = pObject.getShape().size();
         int numSensors = stateDrop.bump.length;
 
         for (ObjectStateBumpSensor.BumpSensorData data : bumpState.getData()) {
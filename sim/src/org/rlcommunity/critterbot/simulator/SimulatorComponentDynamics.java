@@ -13,6 +13,8 @@
 
 package org.rlcommunity.critterbot.simulator;
 
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Random;
 
@@ -190,6 +192,12 @@ public class SimulatorComponentDynamics implements SimulatorComponent {
 
         List<SimulatorObject> dynamicObjects =
                 pNext.getObjects(SimulatorComponentDynamics.NAME);
+
+        // Broad phase: only pairs whose bounding boxes may overlap are
+        //  passed on to collidesWith()
+        int[] candidateStart = new int[dynamicObjects.size() + 1];
+        int[] candidates = findCandidatePairs(pCurrent, dynamicObjects,
+                candidateStart);
         
         while (positionReset) {
           deadlockLoopCount++;
@@ -198,11 +206,13 @@ public class SimulatorComponentDynamics implements SimulatorComponent {
           
             positionReset = false;
 
-            for (SimulatorObject obj : dynamicObjects) {
+            for (int i = 0; i < dynamicObjects.size(); i++) {
+                SimulatorObject obj = dynamicObjects.get(i);
                 // we only need to check for collisions if the object
                 // has moved
                 if (!obj.geometryEquals(pCurrent.getObject(obj))) {
-                    for (SimulatorObject compObj : dynamicObjects) {
+                    for (int c = candidateStart[i]; c < candidateStart[i + 1]; c++) {
+                        SimulatorObject compObj = dynamicObjects.get(candidates[c]);
 
                         //ignore this if it is the same object
 
@@ -378,6 +388,120 @@ public class SimulatorComponentDynamics implements SimulatorComponent {
         } //end while we need to check for collisions
     }
 
+    /**
+     * Sweep-and-prune broad phase for checkForCollisions. During collision
+     * resolution an object is only ever in one of two places: where pNext
+     * put it, or back at its position in pCurrent. Each object is therefore
+     * given a box covering the shapes of its whole tree at both positions,
+     * and two objects can only collide if their boxes overlap.
+     *
+     * The candidates of the i^th object are returned as indices into
+     * pObjects, in increasing order so that collisions are resolved in the
+     * same order as with an all-pairs test. They are stored in
+     * candidates[pStart[i]] ... candidates[pStart[i+1] - 1].
+     *
+     * @param pCurrent The current state of the system
+     * @param pObjects The dynamic objects in the next state
+     * @param pStart   Filled with the offset of each object's candidates;
+     *                 must have pObjects.size() + 1 elements
+     * @return The candidate indices of all objects
+     */
+    private int[] findCandidatePairs(SimulatorState pCurrent,
+            List<SimulatorObject> pObjects, int[] pStart) {
+        int n = pObjects.size();
+        final double[][] boxes = new double[n][];
+
+        Integer[] order = new Integer[n];
+        int numBoxes = 0;
+
+        for (int i = 0; i < n; i++) {
+            SimulatorObject obj = pObjects.get(i);
+            double[] box = new double[] {
+                Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY,
+                Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY };
+
+            boolean hasShape = obj.addBoundingBox(box);
+            SimulatorObject objP = pCurrent.getObject(obj);
+            if (objP != null)
+                hasShape |= objP.addBoundingBox(box);
+
+            // Objects without a shape cannot collide
+            if (!hasShape) continue;
+
+            // Resetting an object's geometry is only exact up to round-off
+            box[0] -= Polygon.EPSILON;
+            box[1] -= Polygon.EPSILON;
+            box[2] += Polygon.EPSILON;
+            box[3] += Polygon.EPSILON;
+
+            boxes[i] = box;
+            order[numBoxes++] = i;
+        }
+
+        // Sort the boxes along the x axis
+        Arrays.sort(order, 0, numBoxes, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return Double.compare(boxes[a][0], boxes[b][0]);
+            }
+        });
+
+        int[] active = new int[numBoxes];
+        int numActive = 0;
+        int[] pairs = new int[4 * n];
+        int numPairs = 0;
+
+        for (int k = 0; k < numBoxes; k++) {
+            int i = order[k];
+            double[] box = boxes[i];
+
+            // Drop the boxes that lie entirely to the left of this one;
+            //  the remaining active boxes overlap it along x
+            int kept = 0;
+            for (int a = 0; a < numActive; a++) {
+                int j = active[a];
+                if (boxes[j][2] >= box[0]) {
+                    active[kept++] = j;
+
+                    if (boxes[j][1] <= box[3] && box[1] <= boxes[j][3]) {
+                        if (numPairs + 2 > pairs.length) {
+                            int[] newPairs = new int[2 * pairs.length];
+                            System.arraycopy(pairs, 0, newPairs, 0, numPairs);
+                            pairs = newPairs;
+                        }
+                        pairs[numPairs++] = i;
+                        pairs[numPairs++] = j;
+                    }
+                }
+            }
+
+            numActive = kept;
+            active[numActive++] = i;
+        }
+
+        // Each pair is a candidate for both of its objects
+        Arrays.fill(pStart, 0);
+        for (int p = 0; p < numPairs; p++)
+            pStart[pairs[p] + 1]++;
+        for (int i = 0; i < n; i++)
+            pStart[i + 1] += pStart[i];
+
+        int[] candidates = new int[numPairs];
+        int[] fill = new int[n];
+        System.arraycopy(pStart, 0, fill, 0, n);
+
+        for (int p = 0; p < numPairs; p += 2) {
+            int i = pairs[p];
+            int j = pairs[p + 1];
+            candidates[fill[i]++] = j;
+            candidates[fill[j]++] = i;
+        }
+
+        for (int i = 0; i < n; i++)
+            Arrays.sort(candidates, pStart[i], pStart[i + 1]);
+
+        return candidates;
+    }
+
     /**
      * This is a helper function for setting the speed within legal ranges
      *
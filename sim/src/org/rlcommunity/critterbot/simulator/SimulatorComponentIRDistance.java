@@ -49,8 +49,8 @@ public class SimulatorComponentIRDistance implements SimulatorComponent {
       */
     public void apply(SimulatorState pCurrent, SimulatorState pNext, int delta) 
     {
-      // create a Scene corresponding to the current state
-      Scene scene = new Scene(pCurrent);
+      // get the (shared) Scene corresponding to the current state
+      Scene scene = pCurrent.getScene();
 
       // Find out all the IR distance sensors
       List<SimulatorObject> sensorObjs = 
@@ -68,10 +68,8 @@ public class SimulatorComponentIRDistance implements SimulatorComponent {
 
         assert(sensor != null);
 
-        SimulatorObject root = obj.getRoot();
-
-        // Remove this sensor's root's subtree (not necessarily a valid thing)
-        scene.removeSubtree(root);
+        // Ignore this sensor's root's subtree (not necessarily a valid thing)
+        int[] ignored = new int[] { obj.getRoot().getId() };
 
         Vector2D objPos = obj.getPosition();
 
@@ -80,7 +78,7 @@ public class SimulatorComponentIRDistance implements SimulatorComponent {
           Vector2D.unitVector(obj.getDirection())); 
 
         // Find the find intersection of the ray in the world
-        RayIntersection intersection = scene.traceRay(r);
+        RayIntersection intersection = scene.traceRay(r, ignored);
 
         // @todo remove me, for debugging purposes
         sensor.intersection = intersection;
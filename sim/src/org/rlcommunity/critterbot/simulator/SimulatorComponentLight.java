@@ -13,9 +13,9 @@
 
 package org.rlcommunity.critterbot.simulator;
 
-import com.sun.javadoc.SourcePosition;
 import java.util.Random;
 import java.util.LinkedList;
+import java.util.List;
 
 /**
  * SimulatorComponentLight
@@ -50,7 +50,7 @@ public class SimulatorComponentLight implements SimulatorComponent {
      */
     public void apply(SimulatorState pCurrent, SimulatorState pNext, int delta) {
 
-        Scene scene = new Scene(pCurrent);
+        Scene scene = pCurrent.getScene();
         Vector2D rayDirection;
         RayIntersection intersectData;
         Ray r;
@@ -70,10 +70,16 @@ public class SimulatorComponentLight implements SimulatorComponent {
 
         double lowerAngle, highAngle=0;
 
-        LinkedList<SimulatorObject> sensors = pNext.getObjects(ObjectStateLightSensor.NAME);
+        List<SimulatorObject> sensors = pNext.getObjects(ObjectStateLightSensor.NAME);
         int numSensors = sensors.size();
-        LinkedList<SimulatorObject> sources = pCurrent.getObjects(ObjectStateLightSource.NAME);
+        List<SimulatorObject> sources = pCurrent.getObjects(ObjectStateLightSource.NAME);
         int numSources = sources.size();
+
+        // The object trees to ignore when tracing rays from each source
+        int[][] sourceIgnored = new int[numSources][];
+        for (int Jsource = 0; Jsource < numSources; Jsource++)
+            sourceIgnored[Jsource] = new int[] {
+                sources.get(Jsource).getRoot().getId() };
                         
         for (int Ksensor = 0; Ksensor < numSensors; Ksensor++) {
             sensor = sensors.get(Ksensor);
@@ -84,6 +90,10 @@ public class SimulatorComponentLight implements SimulatorComponent {
             oldSensor = pCurrent.getObject(sensor);
             oldLightSensor = (ObjectStateLightSensor) oldSensor.getState(ObjectStateLightSensor.NAME);
 
+            //ignore the robot so it doesn't block its own rays
+            int sensorRootId = oldSensor.getRoot().getId();
+            int[] sensorIgnored = new int[] { sensorRootId };
+
             double sensorWidth = oldLightSensor.getSensorWidth();
             int numPixels = oldLightSensor.getNumPixels();
             double sensorDepth = oldLightSensor.getSensorDepth();
@@ -117,11 +127,9 @@ public class SimulatorComponentLight implements SimulatorComponent {
                 rayDirection = Vector2D.unitVector(currentRayAngle);
                 r = new Ray(sensorPosition, rayDirection);
 
-                //remove robot so it doesn't block ray
-                scene.removeSubtree(oldSensor.getRoot());
-
-                //find out first point (object) ray i intersects with
-                RayIntersection ri = scene.traceRay(r);
+                //find out first point (object) ray i intersects with, 
+                //ignoring the robot so it doesn't block the ray
+                RayIntersection ri = scene.traceRay(r, sensorIgnored);
                 intersectData = ri;
                 oldLightSensor.intersections.add(ri);
 
@@ -131,8 +139,7 @@ public class SimulatorComponentLight implements SimulatorComponent {
                     
                     double angle2 = intersectData.normal.direction();
 
-                    //put robot back in...robot may block light on intersection point
-                    scene.addSubtree(oldSensor.getRoot());
+                    //robot is not ignored below...robot may block light on intersection point
 
                     //for each light source sum up intensity at intersection point
                     for (int Jsource = 0; Jsource < numSources; Jsource++) {
@@ -154,7 +161,7 @@ public class SimulatorComponentLight implements SimulatorComponent {
                         } else {
 
                             //light source should have no polygon...incase marc changes his name
-                            scene.removeSubtree(source.getRoot());
+                            //its tree is ignored when checking visibility
 
                             //find angle between light source and surface normal
                             double angle1 = -srcPosition.minus(intersectData.point).direction();
@@ -167,7 +174,7 @@ public class SimulatorComponentLight implements SimulatorComponent {
                         
 
                             //is point illuminated?
-                            if (scene.isVisible(srcPosition, intersectData.point)) {
+                            if (scene.isVisible(srcPosition, intersectData.point, sourceIgnored[Jsource])) {
                                 double dist1 = srcPosition.distance(intersectData.point); 
                                 double dist2 = intersectData.point.distance(sensorPosition);
                                 
@@ -239,7 +246,9 @@ public class SimulatorComponentLight implements SimulatorComponent {
                   lightSource = (ObjectStateLightSource) source.getState(ObjectStateLightSource.NAME);
                   srcPosition=source.getPosition();
 
-                    scene.removeSubtree(oldSensor.getRoot());
+                  //ignore both the robot and the light source's tree
+                  int[] losIgnored = new int[] { sensorRootId,
+                      sourceIgnored[Jsource][0] };
 
                   Vector2D d = Vector2D.unitVector(oldSensor.getDirection());
                   Vector2D v = srcPosition.minus(sensorPosition);
@@ -255,7 +264,7 @@ public class SimulatorComponentLight implements SimulatorComponent {
 
                    // if(Ksensor==0)System.out.println("low = " + lowerAngle + " quest = "+ angle + " high = "+highAngle);
                  // if(scene.isVisible(srcPosition, sensorPosition))
-                  if(angle(v,d) <= angle(saveRay.dir,d) && scene.isVisible(srcPosition, sensorPosition))
+                  if(angle(v,d) <= angle(saveRay.dir,d) && scene.isVisible(srcPosition, sensorPosition, losIgnored))
                   {
                     //if(Ksensor==0)System.out.println("i can see the light");
                     double dis = srcPosition.distance(sensorPosition);
@@ -265,8 +274,6 @@ public class SimulatorComponentLight implements SimulatorComponent {
                   //else
                   //  if(Ksensor==0)System.out.println("i CAN NOT see the light");
 
-                scene.addSubtree(oldSensor.getRoot());
-
                   lineOSSum += intensity;
              }
 
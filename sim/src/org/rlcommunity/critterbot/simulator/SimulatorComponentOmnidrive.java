@@ -24,7 +24,7 @@ package org.rlcommunity.critterbot.simulator;
   * @author Marc G. Bellemare
   */
 
-import java.util.LinkedList;
+import java.util.List;
 import java.util.Random;
 
 public class SimulatorComponentOmnidrive implements SimulatorComponent
@@ -50,7 +50,7 @@ public class SimulatorComponentOmnidrive implements SimulatorComponent
   public void apply (SimulatorState pCurrent, SimulatorState pNext, int delta)
   {
     // Get all objects with an omni drive
-    LinkedList<SimulatorObject> drivable = pCurrent.getObjects(NAME);
+    List<SimulatorObject> drivable = pCurrent.getObjects(NAME);
 
     for (SimulatorObject thisObject : drivable)
     {
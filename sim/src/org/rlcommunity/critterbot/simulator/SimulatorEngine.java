@@ -42,15 +42,39 @@ public class SimulatorEngine {
 
     protected final EnvironmentDescription aEnvDescription;
     protected final Random aRandom;
+
+    /** The simulated time, advanced by each step */
+    protected final SimulatorClock aClock;
+
+    /** Records how long each component takes; null when not profiling */
+    protected volatile SimulatorProfiler aProfiler;
     
 	public SimulatorEngine(EnvironmentDescription pDescription) {
         this(pDescription, new Random());
         System.err.println ("Deprecated: using local Random object.");
     }
 
+    /** Creates a new engine whose clock starts at the current wall-clock
+     *   time.
+     */
     public SimulatorEngine(EnvironmentDescription pDescription, Random pRandom) {
+        this(pDescription, pRandom,
+                new SimulatorClock(System.currentTimeMillis()));
+    }
+
+    /** Creates a new engine driven by the given simulated clock. The clock is
+     *   advanced by the engine at every step and should not be shared with
+     *   another engine.
+     *
+     * @param pDescription The environment to simulate.
+     * @param pRandom The source of randomness for this engine.
+     * @param pClock The simulated clock.
+     */
+    public SimulatorEngine(EnvironmentDescription pDescription, Random pRandom,
+            SimulatorClock pClock) {
         aRandom = pRandom;
         aEnvDescription = pDescription;
+        aClock = pClock;
         
 		aComponents = new LinkedList<SimulatorComponent>();
 		vizHandler = new SimulatorVizEvents();
@@ -95,6 +119,17 @@ public class SimulatorEngine {
 		return aState.getObjects(pComponent);
 	}
 
+	/**
+	 * Returns the Scene corresponding to the current state. The same Scene is
+	 * used by all ray-casting components during a step, and is refit rather
+	 * than rebuilt from one step to the next.
+	 * 
+	 * @return The Scene as per SimulatorState.getScene()
+	 */
+	public Scene getScene() {
+		return aState.getScene();
+	}
+
 	/**
 	 * Returns the current state of the simulator.
 	 */
@@ -102,6 +137,28 @@ public class SimulatorEngine {
 		return aState;
 	}
 
+	/**
+	 * Returns the simulated clock of this engine.
+	 */
+	public SimulatorClock getClock() {
+		return aClock;
+	}
+
+	/**
+	 * Starts (or, if pProfiler is null, stops) recording the time taken and
+	 * the memory allocated by each component at every step. Profiling reads
+	 * the wall clock, so it should be left off when it is not needed.
+	 * 
+	 * @param pProfiler The profiler recording the steps, or null
+	 */
+	public void setProfiler(SimulatorProfiler pProfiler) {
+		aProfiler = pProfiler;
+	}
+
+	public SimulatorProfiler getProfiler() {
+		return aProfiler;
+	}
+
 	public void addComponent(SimulatorComponent pComponent) {
 		aComponents.add(pComponent);
 	}
@@ -158,13 +215,54 @@ public class SimulatorEngine {
 		 * Begin new (real) simulator code - everything above has to be moved
 		 * (more or less)
 		 */
+		applyComponents(ms);
+    }
+
+	/**
+	 * Takes a number of steps of the given length in a row, as fast as
+	 * possible. Unlike step(), this does not look at the keyboard or at the
+	 * wall clock, and never sleeps; time only passes on the simulated clock.
+	 * This is meant for running the simulator headless, e.g. for training.
+	 * 
+	 * @param pSteps The number of steps to take
+	 * @param pMsPerStep The length of each step, in (simulated) milliseconds
+	 */
+	public void stepN(int pSteps, int pMsPerStep) {
+		for (int i = 0; i < pSteps; i++) {
+			aNextState.clear();
+			applyComponents(pMsPerStep);
+		}
+	}
+
+	/**
+	 * Applies each component to the current state, then makes the resulting
+	 * next state the current state.
+	 * 
+	 * @param ms Time elapsed, in milliseconds, between the two states
+	 */
+	protected void applyComponents(int ms) {
+		SimulatorProfiler profiler = aProfiler;
+
 		// Apply each component in turn (order matters!)
-		for (SimulatorComponent comp : aComponents) {
-			comp.apply(aState, aNextState, ms);
+		if (profiler == null) {
+			for (SimulatorComponent comp : aComponents) {
+				comp.apply(aState, aNextState, ms);
+			}
+		}
+		else {
+			profiler.startStep();
+			int index = 0;
+			for (SimulatorComponent comp : aComponents) {
+				profiler.startComponent();
+				comp.apply(aState, aNextState, ms);
+				profiler.endComponent(index++, comp);
+			}
+			profiler.endStep();
 		}
 
         // Set the time stamp on the next state
         aNextState.setTime(aState.getTime() + ms);
+        aClock.advance(ms);
 
 		SimulatorState tmpState = aState;
 
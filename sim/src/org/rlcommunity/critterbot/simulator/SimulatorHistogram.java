@@ -0,0 +1,113 @@
+/* Copyright 2009 Marc G. Bellemare
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package org.rlcommunity.critterbot.simulator;
+
+/**
+ * SimulatorHistogram
+ *
+ * A histogram of non-negative values with one bucket per power of two, which
+ *  is enough to tell apart a component that takes 100 microseconds from one
+ *  that takes a millisecond. Recording a value takes constant time and does
+ *  not allocate. The methods are synchronized so that the histogram may be
+ *  read (e.g., through JMX) while the simulator is recording into it.
+ *
+ * @author Marc G. Bellemare
+ */
+public class SimulatorHistogram {
+    /** Bucket i counts the values v such that 2^(i-1) <= v < 2^i; bucket 0
+     *   counts the zeros (and the negative values). */
+    protected final long[] aBuckets = new long[65];
+
+    protected long aCount;
+    protected long aSum;
+    protected long aMax;
+
+    /** Adds a value to the histogram.
+     *
+     * @param pValue The value to be recorded.
+     */
+    public synchronized void record(long pValue) {
+        if (pValue < 0)
+            pValue = 0;
+
+        aBuckets[64 - Long.numberOfLeadingZeros(pValue)]++;
+        aCount++;
+        aSum += pValue;
+        if (pValue > aMax)
+            aMax = pValue;
+    }
+
+    /** Returns the number of recorded values. */
+    public synchronized long getCount() {
+        return aCount;
+    }
+
+    /** Returns the sum of the recorded values. */
+    public synchronized long getSum() {
+        return aSum;
+    }
+
+    /** Returns the largest recorded value, or 0 if there is none. */
+    public synchronized long getMax() {
+        return aMax;
+    }
+
+    /** Returns the mean of the recorded values, or 0 if there is none. */
+    public synchronized double getMean() {
+        if (aCount == 0)
+            return 0;
+        return (double) aSum / aCount;
+    }
+
+    /** Returns an upper bound on the given percentile of the recorded values,
+     *   precise to a factor of two.
+     *
+     * @param pPercentile The percentile of interest, between 0 and 100.
+     * @return The upper end of the bucket containing the percentile, capped
+     *   by the largest recorded value.
+     */
+    public synchronized long getPercentile(double pPercentile) {
+        if (aCount == 0)
+            return 0;
+
+        long rank = (long) Math.ceil(pPercentile / 100.0 * aCount);
+        if (rank < 1)
+            rank = 1;
+
+        long seen = 0;
+        for (int i = 0; i < aBuckets.length; i++) {
+            seen += aBuckets[i];
+            if (seen >= rank) {
+                long upper = (i == 0) ? 0 : (i >= 63 ? Long.MAX_VALUE : (1L << i) - 1);
+                return Math.min(upper, aMax);
+            }
+        }
+
+        return aMax;
+    }
+
+    /** Returns a copy of the bucket counts; see aBuckets. */
+    public synchronized long[] getBuckets() {
+        return aBuckets.clone();
+    }
+
+    /** Forgets all recorded values. */
+    public synchronized void reset() {
+        for (int i = 0; i < aBuckets.length; i++)
+            aBuckets[i] = 0;
+        aCount = 0;
+        aSum = 0;
+        aMax = 0;
+    }
+}
@@ -25,10 +25,13 @@ package org.rlcommunity.critterbot.simulator;
 import java.util.Random;
 
 import org.rlcommunity.critterbot.javadrops.*;
+import org.rlcommunity.critterbot.javadrops.clients.DiscoInterfaceNioServer;
 import org.rlcommunity.critterbot.javadrops.clients.DiscoInterfaceServer;
+import org.rlcommunity.critterbot.javadrops.clients.DropClient;
 import org.rlcommunity.critterbot.javadrops.clients.DumpClient;
 import org.rlcommunity.critterbot.javadrops.clients.KeyboardClient;
 import org.rlcommunity.critterbot.javadrops.drops.*;
+import org.rlcommunity.critterbot.javadrops.log.DropLogWriter;
 import org.rlcommunity.critterbot.simulator.environments.BasketBallEnvironment;
 import org.rlcommunity.critterbot.simulator.environments.StartsNearWallEnvironment;
 import org.rlcommunity.critterbot.simulator.environments.EnvironmentDescription;
@@ -50,6 +53,12 @@ public class SimulatorMain {
     static private boolean doPrintHelp = false;
     static private double timeScale = 1.0;
     static private String dumpFilePath = null;
+    /** The path prefix of the binary drop log segments, if logging */
+    static private String logPrefix = null;
+    /** How often (in steps) to print a profile summary; 0 to not profile */
+    static private int profileInterval = 0;
+    /** Whether to serve all Disco clients from a single thread */
+    static private boolean useNioServer = false;
     static private EnvironmentDescription environment = new FunEnvironment();
 
 
@@ -66,19 +75,28 @@ public class SimulatorMain {
         engine.addComponent(new SimulatorComponentOmnidrive(randomizer));
         engine.addComponent(new SimulatorComponentAccelerometer(randomizer));
         engine.addComponent(new SimulatorComponentGyroscope(randomizer));
-        engine.addComponent(new SimulatorComponentCritterbotInterface(dropInterface));
+        engine.addComponent(new SimulatorComponentCritterbotInterface(dropInterface,
+                engine.getClock()));
         engine.addComponent(new SimulatorComponentIRDistance(randomizer));
         engine.addComponent(new SimulatorComponentBattery());
         
         return engine;
     }
 
-    static private DiscoInterfaceServer launchDisco() {
+    static private DropClient launchDisco() {
         System.out.println("Starting Disco server on port " + discoServerPort);
         // Create a drop server to send and receive robot (subjective) data
-        DiscoInterfaceServer discoServer = new DiscoInterfaceServer(discoServerPort);
-        discoServer.start();
-        return discoServer;
+        if (useNioServer) {
+            DiscoInterfaceNioServer discoServer =
+                    new DiscoInterfaceNioServer(discoServerPort);
+            discoServer.start();
+            return discoServer;
+        }
+        else {
+            DiscoInterfaceServer discoServer = new DiscoInterfaceServer(discoServerPort);
+            discoServer.start();
+            return discoServer;
+        }
     }
 
     static private KeyboardClient createKeyboardClient(DropInterface dropInterface) {
@@ -94,18 +112,23 @@ public class SimulatorMain {
     static private CritterbotDataVisualizerClient createVisualizer(DropInterface dropInterface) {
       if (useVisualizer) {
         CritterbotDataVisualizerClient client = new CritterbotDataVisualizerClient();
-        dropInterface.addClient(client);
+        // The visualizer only displays state drops, and need not see them all
+        dropInterface.addClient(client,
+          CritterbotDataVisualizerClient.MAX_DISPLAY_RATE, CritterStateDrop.class);
         return client;
       }
       else
         return null;
     }
 
-    static private DropInterface createCentralDropInterface(DiscoInterfaceServer discoServer) {
+    static private DropInterface createCentralDropInterface(DropClient discoServer) {
         DropInterface dropInterface = new DropInterface();
         dropInterface.addClient(discoServer);
         if (dumpFilePath != null)
-            dropInterface.addClient(new DumpClient(dumpFilePath));
+            dropInterface.addClient(new DumpClient(dumpFilePath), 0,
+                    CritterStateDrop.class);
+        if (logPrefix != null)
+            dropInterface.addClient(new DropLogWriter(logPrefix));
         return dropInterface;
     }
 
@@ -139,6 +162,10 @@ public class SimulatorMain {
                 timeScale = Double.parseDouble(args[idx]);
                 idx++;
             }
+            else if (flag.equals("-l")) {
+                logPrefix = args[idx];
+                idx++;
+            }
             else if (flag.startsWith("-d")) {
                 dumpFilePath = args[idx];
                 idx++;
@@ -163,6 +190,13 @@ public class SimulatorMain {
             		environment = new FunEnvironment();
             	idx++;
             }
+            else if (flag.equals("-profile")) {
+                profileInterval = Integer.parseInt(args[idx]);
+                idx++;
+            }
+            else if (flag.equals("-nio")) {
+                useNioServer = true;
+            }
             else if (flag.equals("-h") || flag.equals("--help")) {
                 doPrintHelp = true;
             }
@@ -184,12 +218,17 @@ public class SimulatorMain {
         System.out.println ("\n");
         System.out.println ("Options are:");
         System.out.println ("  -p [port]          Set the Disco server port, default=2324");
+        System.out.println ("  -nio               Serve all Disco clients from a single thread");
         System.out.println ("  -ng                Disable the GUI");
         System.out.println ("  -nv                Disable the graphical visualizer");
         System.out.println ("  -nk                Disable the keyboard robot controller");
         System.out.println ("  -s [scale]         Set the simulator time scale, default=1.0");
         System.out.println ("  -d [dumpfile]      Data are dumped in [dumpfile]");
+        System.out.println ("  -l [logprefix]     All drops are logged, in binary, to the segment files");
+        System.out.println ("                       [logprefix].NNNNNN.droplog");
         System.out.println ("  -e [environment]   Name of environment you want to use, default=FunEnvironment");
+        System.out.println ("  -profile [steps]   Profile the simulator components (also via JMX) and");
+        System.out.println ("                       print a summary every [steps] steps");
     }
 
     public static void main(String[] args) {
@@ -199,13 +238,19 @@ public class SimulatorMain {
             printHelp();
             return;
         }
-        DiscoInterfaceServer discoServer = launchDisco();
+        DropClient discoServer = launchDisco();
         DropInterface dropInterface = createCentralDropInterface(discoServer);
         final KeyboardClient keyboardClient = createKeyboardClient(dropInterface);
         createVisualizer(dropInterface);
 
         int millisPerStep = 10;
         final SimulatorEngine engine = createSimulatorEngine(dropInterface, environment);
+
+        if (profileInterval > 0) {
+            SimulatorProfiler profiler = new SimulatorProfiler(profileInterval);
+            profiler.registerMBeans("main");
+            engine.setProfiler(profiler);
+        }
         
         if (useGui) {
             runGUI(engine, keyboardClient);
@@ -30,6 +30,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.rlcommunity.critterbot.simulator.svg.ShapeDrawing;
 
@@ -38,6 +39,12 @@ public class SimulatorObject {
      *   SimulatorEngine, which is a really bad thing to do.
      */
     static protected boolean svgDrawing = false;
+
+    /** Counts structural changes (children or ObjectStates being added or
+     *   removed) made to any object tree. SimulatorState uses it to decide
+     *   when its cached object indices must be rebuilt.
+     */
+    static private final AtomicInteger structureVersion = new AtomicInteger();
     
 	/** Some properties of the object - position, velocity */
 	protected Vector2D aPos;
@@ -45,7 +52,8 @@ public class SimulatorObject {
 
 	/**
 	 * A polygon describing the shape of the object; may be null if the object
-	 * is an invisible source
+	 * is an invisible source. The polygon's local frame is kept at the
+	 * object's global position and direction.
 	 */
 	protected Polygon aShape;
 
@@ -104,6 +112,9 @@ public class SimulatorObject {
 
 		aChildren.add(pChild);
 		pChild.setParent(this);
+		// The child's shapes stay where they are, but now move with us
+		pChild.updateShapeFrame();
+		structureChanged();
 	}
 
 	/**
@@ -120,8 +131,11 @@ public class SimulatorObject {
 		// LinkedList.remove() tells us whether the list contains the removed
 		// element
 		boolean wasChild = aChildren.remove(pChild);
-		if (wasChild)
+		if (wasChild) {
 			pChild.removeParent();
+			pChild.updateShapeFrame();
+			structureChanged();
+		}
 
 		return wasChild;
 	}
@@ -195,6 +209,10 @@ public class SimulatorObject {
     myObjects.add(this);
     compObjects.add(compObj);
 
+    // Room for the first two intersections between two polygons
+    double[] alphas = new double[2];
+    double[] betas = new double[2];
+
     // This is not recursive because we have two loops; recomputing the inner
     //   loop's list of objects everytime would be extra work.
     // Pairwise comparisons
@@ -210,43 +228,41 @@ public class SimulatorObject {
         if (rightShape == null) continue;
 
         // Get the first two intersections
-        List<Polygon.Intersection> isects = leftShape.getIntersections(rightShape, 2);
+        int numIsects = leftShape.getIntersections(rightShape, alphas, betas);
 
         // No intersection, no collision
-        if (isects.size() == 0) {
+        if (numIsects == 0) {
           continue;
         }
-        else if (isects.size() == 1) {
+        else if (numIsects == 1) {
           // @todo the case when we have one intersection is incorrect, as in
           // this case it's not clear what the normal is
           System.err.println("WARNING: Single-point intersection.");
           Collision col = new Collision();
-          Polygon.Intersection i1 = isects.get(0);
-          double alpha = i1.alpha;
+          double alpha = alphas[0];
           col.point = leftShape.getPoint(alpha);
           col.normal = leftShape.getNormal(alpha);
-          col.alpha = i1.alpha;
-          col.beta = i1.beta;
+          col.alpha = alphas[0];
+          col.beta = betas[0];
 
           return col;
         }
         else {
           Collision col = new Collision();
           // Look at the two intersections that we have
-          Polygon.Intersection i1 = isects.get(0);
-          Polygon.Intersection i2 = isects.get(1);
+          int i1 = 0;
+          int i2 = 1;
 
           // Ensure that the the second intersection comes after the first on the
           //   polygon, so that the normal to the alpha-related polygon is pointing
           //   outwards
-          if (i1.alpha > i2.alpha) {
-            Polygon.Intersection tmp = i1;
-            i1 = i2;
-            i2 = tmp;
+          if (alphas[i1] > alphas[i2]) {
+            i1 = 1;
+            i2 = 0;
           }
 
-          Vector2D p1 = leftShape.getPoint(i1.alpha);
-          Vector2D p2 = leftShape.getPoint(i2.alpha);
+          Vector2D p1 = leftShape.getPoint(alphas[i1]);
+          Vector2D p2 = leftShape.getPoint(alphas[i2]);
 
           // Keep the polygon coordinates of the collision point
           // This is an interpolation between the two points. Could be
@@ -259,8 +275,8 @@ public class SimulatorObject {
            *  (i.e. alpha = n-epsilon and alpha2 = epsilon interpolate to 0,
            *  not n/2
            */
-          col.alpha = i1.alpha;
-          col.beta = i1.beta;
+          col.alpha = alphas[i1];
+          col.beta = betas[i1];
 
           // this results in alpha = (n-1)/2 (when it should be n - 1/2)
           col.point = leftShape.getPoint(col.alpha);
@@ -307,19 +323,44 @@ public class SimulatorObject {
 	}
 
 	/**
-	 * Sets the shape of the object (which is shapeless by default).
+	 * Sets the shape of the object (which is shapeless by default). The
+	 * polygon is taken to be at the object's current position and direction,
+	 * and moves with the object from then on.
 	 * 
 	 * @param pShape
 	 *            The polygon representing the shape. It is not copied over.
 	 */
 	public void setShape(Polygon pShape) {
 		aShape = pShape;
+		if (aShape != null)
+			aShape.setLocalFrame(getPosition(), getDirection());
 	}
 
 	public Polygon getShape() {
 		return aShape;
 	}
 
+	/**
+	 * Grows the given box, stored as { minX, minY, maxX, maxY }, so that it
+	 * contains the shapes of this object and of all of its children, i.e.
+	 * everything collidesWith() may look at.
+	 *
+	 * @param pBox
+	 *            The box to be grown
+	 * @return Whether any object in this tree has a shape
+	 */
+	public boolean addBoundingBox(double[] pBox) {
+		boolean hasShape = false;
+
+		for (SimulatorObject c : aChildren)
+			hasShape |= c.addBoundingBox(pBox);
+
+		if (aShape != null)
+			hasShape |= aShape.addBoundingBox(pBox);
+
+		return hasShape;
+	}
+
 	/**
 	 * Returns the partial state corresponding to a particular component,
 	 * identified by pLabel.
@@ -347,7 +388,10 @@ public class SimulatorObject {
 	 *         store this state information.
      */
     public ObjectState removeState(String pLabel) {
-        return aStates.remove(pLabel);
+        ObjectState removed = aStates.remove(pLabel);
+        if (removed != null)
+            structureChanged();
+        return removed;
     }
 
 	/**
@@ -362,6 +406,26 @@ public class SimulatorObject {
 		// now; whether we should crash on duplicates is open to discussion
 		assert (!aStates.containsKey(pState.getName()));
 		aStates.put(pState.getName(), pState);
+		structureChanged();
+	}
+
+	/**
+	 * Records that some object tree has had a child or an ObjectState added
+	 * or removed.
+	 */
+	protected static void structureChanged() {
+		structureVersion.incrementAndGet();
+	}
+
+	/**
+	 * Returns a counter which changes every time any object tree is
+	 * structurally modified. Two equal values guarantee that no object
+	 * gained or lost a child or an ObjectState in between.
+	 * 
+	 * @return The current structure version
+	 */
+	public static int getStructureVersion() {
+		return structureVersion.get();
 	}
 
 	/**
@@ -475,10 +539,10 @@ public class SimulatorObject {
 			throw new UnsupportedOperationException("Not allowed to change the global position of a child object");
 		}
 
-		// If we have a shape, also translate it by the difference
-		updateShape(newLocalPos.minus(aPos), 0, Vector2D.ZERO);
-
 		aPos = newLocalPos;
+
+		// If we have a shape, also move it
+		updateShapePose();
 	}
 
 	/**
@@ -498,11 +562,10 @@ public class SimulatorObject {
 			throw new UnsupportedOperationException("Not allowed to change the global direction of a child object");
 		}
 
-		// If we have a shape, also rotate it
-		if (aShape != null)
-			updateShape(Vector2D.ZERO, newLocalDir - aDir, getPosition());
-
 		aDir = newLocalDir;
+
+		// If we have a shape, also rotate it
+		updateShapePose();
 	}
 
     /**
@@ -563,9 +626,9 @@ public class SimulatorObject {
 	 *            The new local position of the object
 	 */
 	public void setLocalPosition(Vector2D pPos) {
-		// In this case we update this object polygon's and its children
-		updateShape(pPos.minus(aPos), 0, Vector2D.ZERO);
 		aPos = pPos;
+		// In this case we update this object polygon's and its children
+		updateShapePose();
 	}
 
 	/**
@@ -585,8 +648,8 @@ public class SimulatorObject {
 	 *            The object's local direction
 	 */
 	public void setLocalDirection(double pDir) {
-		updateShape(Vector2D.ZERO, pDir - aDir, getPosition());
 		aDir = pDir;
+		updateShapePose();
 	}
 
 	/**
@@ -599,31 +662,36 @@ public class SimulatorObject {
 	}
 
 	/**
-	 * Updates the shape with a translation (possibly 0) and a rotation (also
-	 * 0), performed in this order. The center of rotation is provided, as it
-	 * should remain fixed as the object tree is traversed. Also updates the
-	 * Polygon of this object's children.
-	 * 
-	 * @param pTranslation
-	 *            The translation to perform on the object
-	 * @param pRotation
-	 *            The rotation to perform on the object
-	 * @param pRotCenter
-	 *            The center of rotation, if needed
-	 */
-	public void updateShape(Vector2D pTranslation, double pRotation,
-			Vector2D pRotCenter) {
-	 /* @todo MGB: This is not quite clean - I don't like having to pass a center
-	  *     of rotation around. There should be a better way.
-	  */
-		if (aShape != null) {
-			aShape.translate(pTranslation);
-			aShape.rotate(pRotation, pRotCenter);
-		}
+	 * Moves the Polygon of this object and of its children to their objects'
+	 * current global position and direction. The polygons only recompute
+	 * their points when they are next queried.
+	 */
+	protected void updateShapePose() {
+		updateShapePose(getPosition(), getDirection());
+	}
 
-		for (SimulatorObject c : aChildren) {
-			c.updateShape(pTranslation, pRotation, pRotCenter);
-		}
+	private void updateShapePose(Vector2D pPos, double pDir) {
+		if (aShape != null)
+			aShape.setPose(pPos, pDir);
+
+		// Same computation as getPosition() and getDirection(), without
+		//  walking back up the tree for each child
+		for (SimulatorObject c : aChildren)
+			c.updateShapePose(c.aPos.rotate(pDir).plus(pPos), c.aDir + pDir);
+	}
+
+	/**
+	 * Re-expresses the Polygon of this object and of its children relative to
+	 * their objects' current global position and direction, without moving
+	 * them. This is needed when the object's global position changes without
+	 * it being moved, i.e. when it gains or loses a parent.
+	 */
+	protected void updateShapeFrame() {
+		if (aShape != null)
+			aShape.setLocalFrame(getPosition(), getDirection());
+
+		for (SimulatorObject c : aChildren)
+			c.updateShapeFrame();
 	}
 
 	/**
@@ -690,13 +758,10 @@ public class SimulatorObject {
 	public void setGeometry(SimulatorObject compObj) {
 		assert (compObj.aId == this.aId);
 
+		// Our shape follows our pose, so this also puts it exactly where
+		// compObj's shape is
 		this.setPosition(compObj.getPosition());
 		this.setDirection(compObj.getDirection());
-		if (compObj.getShape() != null)
-			// @todo This fails - need to update the shape of object in our tree
-			// In theory setting the position and direction already reset the
-			// polygon to some machine epsilon precision
-			this.aShape = (Polygon) (compObj.getShape().clone());
 	}
 
 	/**
@@ -707,8 +772,8 @@ public class SimulatorObject {
 		this.aPos = (Vector2D) org.aPos.clone();
 		this.aDir = org.aDir;
 
-		// We must copy the shape around, because the polygons get modified
-		// by translations and rotations
+		// We must copy the shape around, because each polygon follows the
+		// pose of its own object
 		if (org.aShape != null)
 			this.aShape = (Polygon) org.aShape.clone();
 		else
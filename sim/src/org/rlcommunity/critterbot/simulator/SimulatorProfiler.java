@@ -0,0 +1,266 @@
+/* Copyright 2009 Marc G. Bellemare
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package org.rlcommunity.critterbot.simulator;
+
+/**
+ * SimulatorProfiler
+ *
+ * Records, for each SimulatorComponent of an engine, how long it takes and
+ *  how many bytes it allocates at every step. The results are kept in one
+ *  ComponentProfile per component, which can be registered as JMX MBeans,
+ *  and a one-line summary is printed every so many steps.
+ *
+ * Allocations are measured with the per-thread allocation counter of the
+ *  HotSpot ThreadMXBean, looked up at run time; on JVMs that do not provide
+ *  it, only times are recorded.
+ *
+ * @author Marc G. Bellemare
+ */
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+public class SimulatorProfiler {
+    /** The JMX domain under which profiles are registered */
+    public static final String JMX_DOMAIN = "org.rlcommunity.critterbot.simulator";
+
+    /** com.sun.management.ThreadMXBean.getThreadAllocatedBytes(long), if
+     *   available and enabled */
+    private static final Method allocatedBytesMethod = findAllocatedBytesMethod();
+    private static final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+
+    protected final List<ComponentProfile> aProfiles = new ArrayList<ComponentProfile>();
+    /** The profile of the whole step */
+    protected final ComponentProfile aStepProfile;
+
+    /** How often (in steps) the summary is printed, or 0 to never print it */
+    protected final int aSummaryInterval;
+    protected int aStepsSinceSummary;
+
+    /** What reading the allocation counter itself allocates */
+    protected final long aAllocationBias;
+
+    /** The JMX names under which the profiles were registered, if any */
+    protected String aJmxName;
+    protected final List<ObjectName> aRegisteredNames = new ArrayList<ObjectName>();
+
+    /** Start time and allocation of the current component and step */
+    private long aComponentStart, aComponentBytes;
+    private long aStepStart, aStepBytes;
+
+    /** Creates a new profiler.
+     *
+     * @param pSummaryInterval How often, in steps, a summary should be
+     *   printed to System.err; 0 to never print one.
+     */
+    public SimulatorProfiler(int pSummaryInterval) {
+        aSummaryInterval = pSummaryInterval;
+        aStepProfile = new ComponentProfile("Step", tracksAllocations());
+
+        // Reading the counter boxes its result, so measure what that costs
+        long bias = 0;
+        if (tracksAllocations()) {
+            long before = getAllocatedBytes();
+            long after = getAllocatedBytes();
+            bias = Math.max(0, after - before);
+        }
+        aAllocationBias = bias;
+    }
+
+    /** Returns whether this JVM lets us measure allocations. */
+    public static boolean tracksAllocations() {
+        return allocatedBytesMethod != null;
+    }
+
+    /** Returns the profile of each component, in the order in which the
+     *   components are applied. */
+    public synchronized List<ComponentProfile> getProfiles() {
+        return new ArrayList<ComponentProfile>(aProfiles);
+    }
+
+    /** Returns the profile of the whole step (all components). */
+    public ComponentProfile getStepProfile() {
+        return aStepProfile;
+    }
+
+    /** Called by the engine before it applies its components. */
+    public void startStep() {
+        aStepBytes = getAllocatedBytes();
+        aStepStart = System.nanoTime();
+    }
+
+    /** Called by the engine before it applies a component. */
+    public void startComponent() {
+        aComponentBytes = getAllocatedBytes();
+        aComponentStart = System.nanoTime();
+    }
+
+    /** Called by the engine after it has applied a component.
+     *
+     * @param pIndex The index of the component in the engine's list.
+     * @param pComponent The component that was applied.
+     */
+    public void endComponent(int pIndex, SimulatorComponent pComponent) {
+        long nanos = System.nanoTime() - aComponentStart;
+        long bytes = getAllocatedBytes() - aComponentBytes - aAllocationBias;
+
+        getProfile(pIndex, pComponent).record(nanos, bytes);
+    }
+
+    /** Called by the engine once the step is over. Prints the summary if it
+     *   is time to. */
+    public void endStep() {
+        long nanos = System.nanoTime() - aStepStart;
+        long bytes = getAllocatedBytes() - aStepBytes - aAllocationBias;
+        aStepProfile.record(nanos, bytes);
+
+        if (aSummaryInterval > 0 && ++aStepsSinceSummary >= aSummaryInterval) {
+            System.err.println(getSummary());
+            aStepsSinceSummary = 0;
+            reset();
+        }
+    }
+
+    /** Returns a one-line summary of the profiled steps. */
+    public synchronized String getSummary() {
+        StringBuilder s = new StringBuilder();
+        s.append("Step profile (").append(aStepProfile.getStepCount());
+        s.append(" steps): ").append(aStepProfile);
+
+        for (ComponentProfile p : aProfiles)
+            s.append("; ").append(p);
+
+        return s.toString();
+    }
+
+    /** Forgets the steps profiled so far. */
+    public synchronized void reset() {
+        aStepProfile.reset();
+        for (ComponentProfile p : aProfiles)
+            p.reset();
+    }
+
+    /** Registers the profiles with the platform MBean server, under
+     *   JMX_DOMAIN:type=ComponentProfile,engine=pEngineName,name=...
+     *   Components added to the engine later are registered as they are
+     *   first profiled.
+     *
+     * @param pEngineName A name telling apart engines in the same JVM.
+     */
+    public synchronized void registerMBeans(String pEngineName) {
+        aJmxName = pEngineName;
+
+        register(aStepProfile);
+        for (ComponentProfile p : aProfiles)
+            register(p);
+    }
+
+    /** Removes the profiles from the platform MBean server. */
+    public synchronized void unregisterMBeans() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+        for (ObjectName name : aRegisteredNames) {
+            try {
+                server.unregisterMBean(name);
+            }
+            catch (Exception e) {
+                System.err.println("Could not unregister " + name + ": " + e);
+            }
+        }
+
+        aRegisteredNames.clear();
+        aJmxName = null;
+    }
+
+    private void register(ComponentProfile pProfile) {
+        try {
+            ObjectName name = new ObjectName(JMX_DOMAIN +
+                    ":type=ComponentProfile,engine=" + ObjectName.quote(aJmxName) +
+                    ",name=" + ObjectName.quote(pProfile.getComponentName()));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(pProfile, name);
+            aRegisteredNames.add(name);
+        }
+        catch (Exception e) {
+            // Profiling is an aid; failing to publish it should not stop us
+            System.err.println("Could not register profile of " +
+                    pProfile.getComponentName() + ": " + e);
+        }
+    }
+
+    private synchronized ComponentProfile getProfile(int pIndex,
+            SimulatorComponent pComponent) {
+        while (aProfiles.size() <= pIndex) {
+            String name = pComponent.getClass().getSimpleName();
+
+            // Tell apart several components of the same class
+            int duplicates = 0;
+            for (ComponentProfile p : aProfiles)
+                if (p.getComponentName().equals(name) ||
+                        p.getComponentName().startsWith(name + "#"))
+                    duplicates++;
+            if (duplicates > 0)
+                name += "#" + (duplicates + 1);
+
+            ComponentProfile profile = new ComponentProfile(name,
+                    tracksAllocations());
+            aProfiles.add(profile);
+            if (aJmxName != null)
+                register(profile);
+        }
+
+        return aProfiles.get(pIndex);
+    }
+
+    /** Returns the number of bytes allocated so far by the current thread,
+     *   or 0 if we cannot tell. */
+    private static long getAllocatedBytes() {
+        if (allocatedBytesMethod == null)
+            return 0;
+
+        try {
+            return ((Long) allocatedBytesMethod.invoke(threadBean,
+                    Thread.currentThread().getId())).longValue();
+        }
+        catch (Exception e) {
+            return 0;
+        }
+    }
+
+    private static Method findAllocatedBytesMethod() {
+        try {
+            Class<?> beanClass = Class.forName("com.sun.management.ThreadMXBean");
+            ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+            if (!beanClass.isInstance(bean))
+                return null;
+
+            Method supported = beanClass.getMethod("isThreadAllocatedMemorySupported");
+            Method enabled = beanClass.getMethod("isThreadAllocatedMemoryEnabled");
+            if (!((Boolean) supported.invoke(bean)).booleanValue() ||
+                    !((Boolean) enabled.invoke(bean)).booleanValue())
+                return null;
+
+            return beanClass.getMethod("getThreadAllocatedBytes", long.class);
+        }
+        catch (Exception e) {
+            // Not a HotSpot JVM, or too old a one
+            return null;
+        }
+    }
+}
@@ -22,8 +22,12 @@ package org.rlcommunity.critterbot.simulator;
   * @author Marc G. Bellemare
   */
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 public class SimulatorState
 {
@@ -33,6 +37,31 @@ public class SimulatorState
   /** The time elapsed since the simulator was started. */
   protected int aTime;
 
+  /** Cached, read-only postorder list of all objects (see getObjects()) */
+  private List<SimulatorObject> aAllObjects;
+  /** Cached, read-only lists of objects containing a given ObjectState */
+  private final Map<String, List<SimulatorObject>> aObjectsByState =
+    new HashMap<String, List<SimulatorObject>>();
+  /** Id to object index; used when ids are small non-negative integers */
+  private SimulatorObject[] aIdTable;
+  /** Id to object index; used when aIdTable cannot hold all ids */
+  private Map<Integer, SimulatorObject> aIdMap;
+
+  /** The SimulatorObject structure version the caches were built at */
+  private int aCacheVersion;
+  /** Incremented whenever a root object is added */
+  private int aModCount;
+  /** The value of aModCount when the caches were built */
+  private int aCacheModCount = -1;
+
+  /** Scene over this state's polygons, shared by the ray-casting components
+    *  (see getScene()) */
+  private Scene aScene;
+  /** Incremented by clear(), after which objects may have moved */
+  private int aGeometryVersion;
+  /** The geometry version aScene was last fit to */
+  private int aSceneVersion = -1;
+
   /** Creates a new SimulatorState with a blank object list.
    *
    */
@@ -59,7 +88,8 @@ public class SimulatorState
   }
 
   /** Create a new SimulatorState with a pre-provided object list. This
-   *  constructor does not clone the list.
+   *  constructor does not clone the list, which must afterwards only be
+   *  changed through addObject().
    * 
    * @param pObjectList The list of objects present in this state.
    */
@@ -74,6 +104,7 @@ public class SimulatorState
   public void addObject(SimulatorObject pObj)
   {
     aObjList.add(pObj);
+    aModCount++;
   }
 
   /** Returns the object corresponding to the given ID.
@@ -83,17 +114,15 @@ public class SimulatorState
    */
   private SimulatorObject getObject(int pId)
   {
-    // @todo this needs to be optimized, most likely by having getObjects()
-    //  return the same list if the object structure is not modified
-    List<SimulatorObject> allObjects = getObjects();
+    validateCaches();
 
-    for (SimulatorObject o : allObjects)
+    if (aIdTable != null)
     {
-      if (o.getId() == pId)
-        return o;
+      if (pId < 0 || pId >= aIdTable.length) return null;
+      else return aIdTable[pId];
     }
-
-    return null;
+    else
+      return aIdMap.get(pId);
   }
 
   /** Returns a list of agents
@@ -115,13 +144,64 @@ public class SimulatorState
   }
 
   /** Returns a list of all objects current in the simulator, including
-    *  sub-objects (e.g. sensors or parts).
+    *  sub-objects (e.g. sensors or parts). The list is cached until the
+    *  object structure changes and must not be modified.
     *
-    * @return A list of all existing objects
+    * @return A read-only list of all existing objects
     */
-  public LinkedList<SimulatorObject> getObjects()
+  public List<SimulatorObject> getObjects()
   {
-    LinkedList<SimulatorObject> objs = new LinkedList<SimulatorObject>();
+    validateCaches();
+
+    return aAllObjects;
+  }
+
+  /** Returns all objects which are affected by the given component. The
+    *  list is cached until the object structure changes and must not be
+    *  modified.
+    * 
+    * @param pComponent The identifier of the component of interest
+    * @return A read-only list of objects o such that 
+    *  o.getState(pComponent) != null
+    */
+  public List<SimulatorObject> getObjects(String pComponent)
+  {
+    validateCaches();
+
+    List<SimulatorObject> objs = aObjectsByState.get(pComponent);
+
+    if (objs == null)
+    {
+      // Filtering the full postorder list keeps the ordering that 
+      //  SimulatorObject.getChildren(String) would produce
+      ArrayList<SimulatorObject> matching = new ArrayList<SimulatorObject>();
+      for (SimulatorObject o : aAllObjects)
+      {
+        if (o.getState(pComponent) != null)
+          matching.add(o);
+      }
+
+      matching.trimToSize();
+      objs = Collections.unmodifiableList(matching);
+      aObjectsByState.put(pComponent, objs);
+    }
+
+    return objs;
+  }
+
+  /** Discards the cached object lists and id index if objects were added to
+    *  this state, or if any object tree changed structure, since they were
+    *  built; rebuilds the full object list and the id index if needed.
+    */
+  private void validateCaches()
+  {
+    int version = SimulatorObject.getStructureVersion();
+
+    if (aAllObjects != null && version == aCacheVersion && 
+        aModCount == aCacheModCount)
+      return;
+
+    ArrayList<SimulatorObject> objs = new ArrayList<SimulatorObject>();
 
     // To preserve the postorder traversal, we'll add the head objects
     //  after
@@ -132,47 +212,63 @@ public class SimulatorState
     }
 
     objs.addAll(aObjList);
+    objs.trimToSize();
 
-    // @todo there is, of course, optimization to be done here; in particular,
-    //  we shouldn't be re-computing the full object list  everytime
-    return objs;
+    aAllObjects = Collections.unmodifiableList(objs);
+    aObjectsByState.clear();
+    buildIdIndex(objs);
+
+    aCacheVersion = version;
+    aCacheModCount = aModCount;
   }
 
-  /** Returns all objects which are affected by the given component.
-    * 
-    * @param pComponent The identifier of the component of interest
-    * @return A list of objects o such that o.getState(pComponent) != null
+  /** Builds the id to object index. Object ids are normally handed out
+    *  sequentially by the environment, in which case a plain array is used;
+    *  otherwise we fall back to a map.
+    *
+    * @param pObjects All of the objects in this state.
     */
-  public LinkedList<SimulatorObject> getObjects(String pComponent)
+  private void buildIdIndex(List<SimulatorObject> pObjects)
   {
-    LinkedList<SimulatorObject> objs = new LinkedList<SimulatorObject>();
+    int maxId = -1;
+    boolean dense = true;
 
-    // First, in postorder traversal, add all of the children that contain
-    //  the required ObjectState
-    for (SimulatorObject o : aObjList)
+    for (SimulatorObject o : pObjects)
     {
-      List<SimulatorObject> itsChildren = o.getChildren(pComponent);
-
-      objs.addAll(itsChildren);
+      if (o.getId() < 0) dense = false;
+      maxId = Math.max(maxId, o.getId());
     }
 
-    // Now add the top-level objects that also contain that state
-    for (SimulatorObject o : aObjList)
+    // Don't waste memory on very sparse ids
+    if (maxId >= 2 * pObjects.size() + 64) dense = false;
+
+    if (dense)
     {
-      if (o.getState(pComponent) != null)
-        objs.add(o);
+      aIdMap = null;
+      aIdTable = new SimulatorObject[maxId + 1];
+      // Keep the first object with a given id, as the linear search used to
+      for (SimulatorObject o : pObjects)
+        if (aIdTable[o.getId()] == null)
+          aIdTable[o.getId()] = o;
+    }
+    else
+    {
+      aIdTable = null;
+      aIdMap = new HashMap<Integer, SimulatorObject>();
+      for (SimulatorObject o : pObjects)
+        if (!aIdMap.containsKey(o.getId()))
+          aIdMap.put(o.getId(), o);
     }
-
-    return objs;
   }
 
   /** Returns the list of root objects, e.g. SimulatorObjects that do not have
    *   a parent.
    *
-   * @return The list of root objects.
+   * @return A read-only list of the root objects; use addObject() to add
+   *  one.
    */
   public List<SimulatorObject> getRootObjects() {
-      return aObjList;
+      return Collections.unmodifiableList(aObjList);
   }
 
   public Object clone()
@@ -192,6 +288,36 @@ public class SimulatorState
        return this.getObject(obj.getId());
     }
   
+  /** Returns a Scene containing the polygons of all objects in this state.
+    *  The Scene is shared by everyone who calls this method until the state
+    *  is cleared, at which point it is refit to the new object positions 
+    *  rather than rebuilt; it is only rebuilt if the set of polygons changed.
+    *
+    *  Objects removed from the Scene by a previous caller are added back, so
+    *  the returned Scene is always equivalent to new Scene(this).
+    *
+    * @return The Scene for this state.
+    */
+  public Scene getScene()
+  {
+    if (aScene == null || !aScene.matches(getObjects()))
+    {
+      aScene = new Scene(this);
+      aSceneVersion = aGeometryVersion;
+    }
+    else
+    {
+      aScene.addAll();
+      if (aSceneVersion != aGeometryVersion)
+      {
+        aScene.refit();
+        aSceneVersion = aGeometryVersion;
+      }
+    }
+
+    return aScene;
+  }
+
   /** This method clears this SimulatorState so that it can be filled with
     *  data from a new time step. It does not remove objects from the list,
     *  but will remove any transient attributes and/or reset them to their
@@ -205,6 +331,9 @@ public class SimulatorState
     {
       o.clearTransient();
     }
+
+    // Objects are about to be moved
+    aGeometryVersion++;
   }
 }
 
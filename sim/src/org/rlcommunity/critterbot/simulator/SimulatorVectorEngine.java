@@ -0,0 +1,313 @@
+/* Copyright 2009 Marc G. Bellemare
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package org.rlcommunity.critterbot.simulator;
+
+/**
+ * SimulatorVectorEngine
+ *
+ * Runs a number of independent SimulatorEngines side by side, within a single
+ *  JVM and without sockets, and steps them in parallel on a fixed pool of
+ *  threads. Each engine simulates one Critterbot environment with its own
+ *  seeded Random and its own simulated clock. Actions are given to, and
+ *  observations read from, all the environments at once as flat int arrays:
+ *  the action of environment i occupies ACTION_SIZE consecutive entries
+ *  starting at i * ACTION_SIZE, and likewise for observations.
+ *
+ * An action is an (x, y, theta) velocity command, as in a CritterControlDrop
+ *  in XYTHETA_SPACE mode. An observation is the content of the last
+ *  CritterStateDrop sent by the environment, laid out as in CritterEnv.
+ *
+ * Only the seeded Randoms given to the components are reproducible;
+ *  environments that place objects at random (through
+ *  CommonObjects.addObjectRandomPosition) still use Math.random().
+ *
+ * @author Marc G. Bellemare
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.rlcommunity.critterbot.javadrops.clients.DropClient;
+import org.rlcommunity.critterbot.javadrops.drops.CritterControlDrop;
+import org.rlcommunity.critterbot.javadrops.drops.CritterStateDrop;
+import org.rlcommunity.critterbot.javadrops.drops.DropInterface;
+import org.rlcommunity.critterbot.javadrops.drops.SimulatorDrop;
+import org.rlcommunity.critterbot.simulator.environments.EnvironmentDescription;
+
+public class SimulatorVectorEngine {
+    /** The number of ints describing the action of one environment */
+    public static final int ACTION_SIZE = 3;
+    /** The number of ints describing the observation of one environment */
+    public static final int OBSERVATION_SIZE = 84;
+
+    /** One simulated environment: an engine, and the client through which
+     *   it is controlled.
+     */
+    protected class Environment implements DropClient, Callable<Object> {
+        protected final SimulatorEngine aEngine;
+        protected final CritterControlDrop aControlDrop;
+        protected final List<SimulatorDrop> aControlDrops;
+        /** The last state drop sent by the engine; null until one is sent */
+        protected CritterStateDrop aLastState;
+
+        /** How the next call to call() should step the engine */
+        protected int aSteps, aMsPerStep;
+
+        public Environment(EnvironmentDescription pDescription, long pSeed) {
+            Random random = new Random(pSeed);
+            DropInterface dropInterface = new DropInterface();
+            dropInterface.addClient(this);
+
+            aEngine = new SimulatorEngine(pDescription, random,
+                    new SimulatorClock());
+            aEngine.addComponent(new SimulatorComponentDynamics(random));
+            aEngine.addComponent(new SimulatorComponentLight(random));
+            aEngine.addComponent(new SimulatorComponentBumpSensor(random));
+            aEngine.addComponent(new SimulatorComponentOmnidrive(random));
+            aEngine.addComponent(new SimulatorComponentAccelerometer(random));
+            aEngine.addComponent(new SimulatorComponentGyroscope(random));
+            aEngine.addComponent(new SimulatorComponentCritterbotInterface(
+                    dropInterface, aEngine.getClock()));
+            aEngine.addComponent(new SimulatorComponentIRDistance(random));
+            aEngine.addComponent(new SimulatorComponentBattery());
+
+            aControlDrop = new CritterControlDrop();
+            aControlDrop.motor_mode = CritterControlDrop.MotorMode.XYTHETA_SPACE;
+            aControlDrop.led_mode = CritterControlDrop.LedMode.NONE;
+            aControlDrops = Collections.singletonList((SimulatorDrop) aControlDrop);
+        }
+
+        /** The action is re-sent at every step, as the Omnidrive stops
+         *   the robot if it goes without commands for too long.
+         */
+        public List<SimulatorDrop> receive() {
+            return aControlDrops;
+        }
+
+        public void send(SimulatorDrop pDrop) {
+            if (pDrop instanceof CritterStateDrop)
+                aLastState = (CritterStateDrop) pDrop;
+        }
+
+        public Object call() {
+            aEngine.stepN(aSteps, aMsPerStep);
+            return null;
+        }
+    }
+
+    protected final Environment[] aEnvironments;
+    protected final List<Environment> aTasks;
+    protected final ExecutorService aExecutor;
+
+    /** Creates a vectorized engine with one environment per description and
+     *   one thread per available processor.
+     *
+     * @param pDescriptions The description of each environment. The same
+     *   description may be given more than once if its generateObjects()
+     *   returns new objects at every call.
+     * @param pSeed The seed from which each environment's seed is derived.
+     */
+    public SimulatorVectorEngine(EnvironmentDescription[] pDescriptions,
+            long pSeed) {
+        this(pDescriptions, pSeed, Runtime.getRuntime().availableProcessors());
+    }
+
+    /** Creates a vectorized engine with one environment per description.
+     *
+     * @param pDescriptions The description of each environment.
+     * @param pSeed The seed from which each environment's seed is derived;
+     *   environment i is seeded with pSeed + i.
+     * @param pNumThreads The number of threads used to step the
+     *   environments.
+     */
+    public SimulatorVectorEngine(EnvironmentDescription[] pDescriptions,
+            long pSeed, int pNumThreads) {
+        if (pDescriptions.length == 0)
+            throw new IllegalArgumentException("No environment given");
+        if (pNumThreads <= 0)
+            throw new IllegalArgumentException("Invalid number of threads: " +
+                    pNumThreads);
+
+        aEnvironments = new Environment[pDescriptions.length];
+        for (int i = 0; i < aEnvironments.length; i++)
+            aEnvironments[i] = new Environment(pDescriptions[i], pSeed + i);
+
+        aTasks = new ArrayList<Environment>(aEnvironments.length);
+        for (Environment env : aEnvironments)
+            aTasks.add(env);
+
+        // Daemon threads, so that a forgotten shutdown() does not keep the
+        //  JVM alive
+        aExecutor = Executors.newFixedThreadPool(
+                Math.min(pNumThreads, aEnvironments.length),
+                new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "SimulatorVectorEngine");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+    }
+
+    /** Returns the number of environments. */
+    public int getNumEnvironments() {
+        return aEnvironments.length;
+    }
+
+    /** Returns the engine of a given environment, e.g. for drawing it.
+     *   The engine should not be used while step() is running.
+     */
+    public SimulatorEngine getEngine(int pEnv) {
+        return aEnvironments[pEnv].aEngine;
+    }
+
+    /** Applies one action to each environment and steps all of them in
+     *   parallel, then returns their new observations.
+     *
+     * @param pActions The actions, ACTION_SIZE ints per environment.
+     * @param pSteps The number of engine steps to take with these actions.
+     * @param pMsPerStep The length of each step, in simulated milliseconds.
+     * @param pObservations Receives the observations, OBSERVATION_SIZE ints
+     *   per environment.
+     */
+    public void step(int[] pActions, int pSteps, int pMsPerStep,
+            int[] pObservations) {
+        if (pActions.length < aEnvironments.length * ACTION_SIZE)
+            throw new IllegalArgumentException("Action array too small: " +
+                    pActions.length);
+
+        for (int i = 0; i < aEnvironments.length; i++) {
+            Environment env = aEnvironments[i];
+            int offset = i * ACTION_SIZE;
+
+            env.aControlDrop.x_vel = pActions[offset];
+            env.aControlDrop.y_vel = pActions[offset + 1];
+            env.aControlDrop.theta_vel = pActions[offset + 2];
+            env.aSteps = pSteps;
+            env.aMsPerStep = pMsPerStep;
+        }
+
+        try {
+            List<Future<Object>> results = aExecutor.invokeAll(aTasks);
+            // Rethrow the first exception raised by an environment
+            for (Future<Object> result : results)
+                result.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+        catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+
+        getObservations(pObservations);
+    }
+
+    /** Copies the latest observation of each environment. Environments which
+     *   have not yet sent a state drop have an all-zero observation.
+     *
+     * @param pObservations Receives the observations, OBSERVATION_SIZE ints
+     *   per environment.
+     */
+    public void getObservations(int[] pObservations) {
+        if (pObservations.length < aEnvironments.length * OBSERVATION_SIZE)
+            throw new IllegalArgumentException("Observation array too small: " +
+                    pObservations.length);
+
+        for (int i = 0; i < aEnvironments.length; i++) {
+            int offset = i * OBSERVATION_SIZE;
+            CritterStateDrop state = aEnvironments[i].aLastState;
+
+            if (state == null)
+                Arrays.fill(pObservations, offset,
+                        offset + OBSERVATION_SIZE, 0);
+            else
+                writeObservation(state, pObservations, offset);
+        }
+    }
+
+    /** Regenerates the objects of one environment, e.g. at the start of a new
+     *   episode. Its clock keeps running.
+     *
+     * @param pEnv The index of the environment to reset.
+     */
+    public void reset(int pEnv) {
+        Environment env = aEnvironments[pEnv];
+        env.aEngine.initState();
+        env.aLastState = null;
+    }
+
+    /** Stops the threads used to step the environments. The vectorized
+     *   engine may not be stepped afterwards.
+     */
+    public void shutdown() {
+        aExecutor.shutdown();
+    }
+
+    /** Writes the content of a state drop into an observation array, in the
+     *   same order as CritterEnv.
+     *
+     * @param pState The state drop to be written.
+     * @param pOut The observation array.
+     * @param pOffset The index at which the observation starts.
+     */
+    public static void writeObservation(CritterStateDrop pState, int[] pOut,
+            int pOffset) {
+        int place = pOffset;
+
+        pOut[place++] = pState.bus_voltage;
+        pOut[place++] = pState.batv40;
+        pOut[place++] = pState.batv160;
+        pOut[place++] = pState.batv280;
+        pOut[place++] = pState.motor100.velocity;
+        pOut[place++] = pState.motor100.current;
+        pOut[place++] = pState.motor100.temp;
+        pOut[place++] = pState.motor220.velocity;
+        pOut[place++] = pState.motor220.current;
+        pOut[place++] = pState.motor220.temp;
+        pOut[place++] = pState.motor340.velocity;
+        pOut[place++] = pState.motor340.current;
+        pOut[place++] = pState.motor340.temp;
+        pOut[place++] = pState.mag.x;
+        pOut[place++] = pState.mag.y;
+        pOut[place++] = pState.mag.z;
+        pOut[place++] = pState.accel.x;
+        pOut[place++] = pState.accel.y;
+        pOut[place++] = pState.accel.z;
+        pOut[place++] = pState.rotation;
+        pOut[place++] = pState.error_flags;
+        pOut[place++] = pState.cycle_time;
+
+        for (int i = 0; i < CritterStateDrop.IR_DISTANCE_SIZE; i++)
+            pOut[place++] = pState.ir_distance[i];
+        for (int i = 0; i < CritterStateDrop.IR_LIGHT_SIZE; i++)
+            pOut[place++] = pState.ir_light[i];
+        for (int i = 0; i < CritterStateDrop.LIGHT_SIZE; i++)
+            pOut[place++] = pState.light[i];
+        for (int i = 0; i < CritterStateDrop.THERMAL_SIZE; i++)
+            pOut[place++] = pState.thermal[i];
+        for (int i = 0; i < CritterStateDrop.BUMP_SIZE; i++)
+            pOut[place++] = pState.bump[i];
+    }
+}
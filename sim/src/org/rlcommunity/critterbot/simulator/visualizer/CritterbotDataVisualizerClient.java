@@ -19,6 +19,8 @@ import org.rlcommunity.critterbot.simulator.SimulatorDrawWorld;
 public class CritterbotDataVisualizerClient implements DropClient {
   // The margin to leave between the simulator GUI and the data visualizer
   public static final int WINDOW_MARGIN = 8;
+  // The most state drops per second worth displaying
+  public static final double MAX_DISPLAY_RATE = 10;
 
   private CritterbotDataVisualizerFrame aGUI;
 
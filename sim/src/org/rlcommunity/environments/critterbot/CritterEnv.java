@@ -94,7 +94,8 @@ public class CritterEnv implements EnvironmentInterface, DropClient, HasAVisuali
         engine.addComponent(new SimulatorComponentAccelerometer());
         engine.addComponent(new SimulatorComponentGyroscope());
         engine.addComponent(
-                new SimulatorComponentCritterbotInterface(robotServ));
+                new SimulatorComponentCritterbotInterface(robotServ,
+                engine.getClock()));
         engine.addComponent(new SimulatorComponentIRDistance());
 
         return makeTaskSpec();
@@ -162,16 +163,10 @@ public class CritterEnv implements EnvironmentInterface, DropClient, HasAVisuali
     }
 
     private void stepThings() {
-        int stateThrottle = 0;
         int maxThrottle = 10;
 
-        for (stateThrottle = 0; stateThrottle <= maxThrottle; stateThrottle++) {
-            engine.step(25);
-            try {
-                Thread.sleep(1);
-            } catch (Exception e) {
-            }
-        }
+        // Simulated time only; there is no need to wait between steps
+        engine.stepN(maxThrottle + 1, 25);
     }
 
     public void env_cleanup() {
@@ -219,7 +214,8 @@ public class CritterEnv implements EnvironmentInterface, DropClient, HasAVisuali
         L.run();
     }
     Action lastAction = new Action(0, 4);
-    long lastDropTime = System.currentTimeMillis();
+    /** Simulated time of the last control drop; the first step sends one */
+    long lastDropTime = -1;
     long keyboardDropInterval = 1;
 
     /**
@@ -230,14 +226,16 @@ public class CritterEnv implements EnvironmentInterface, DropClient, HasAVisuali
     public List<SimulatorDrop> receive() {
         LinkedList<SimulatorDrop> dropList = new LinkedList<SimulatorDrop>();
 
-        if (System.currentTimeMillis() - lastDropTime >= keyboardDropInterval) {
+        long time = engine.getClock().getElapsedMillis();
+
+        if (time - lastDropTime >= keyboardDropInterval) {
             CritterControlDrop controlDrop = new CritterControlDrop();
             controlDrop.motor_mode = CritterControlDrop.MotorMode.XYTHETA_SPACE;
             controlDrop.x_vel = lastAction.intArray[1];
             controlDrop.y_vel = lastAction.intArray[2];
             controlDrop.theta_vel = lastAction.intArray[3];
 
-            lastDropTime = System.currentTimeMillis();
+            lastDropTime = time;
 
             dropList.add(controlDrop);
         }
@@ -0,0 +1,82 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.rlcommunity.critterbot.agents;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.rlcommunity.critterbot.javadrops.drops.CritterRewardDrop;
+import org.rlcommunity.critterbot.javadrops.drops.SimulatorDrop;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author anna
+ */
+public class DropRingBufferTest {
+
+    @Test
+    public void testFullRingDiscards() {
+        DropRingBuffer ring = new DropRingBuffer(3, DropRingBuffer.WaitStrategy.NONE);
+        assertEquals(4, ring.getCapacity());
+
+        for (int i = 0; i < 6; i++) {
+            assertEquals(i < 4, ring.offer(new CritterRewardDrop()));
+        }
+        assertEquals(4, ring.size());
+        assertEquals(2, ring.getDroppedCount());
+
+        List<SimulatorDrop> drops = new ArrayList<SimulatorDrop>();
+        assertEquals(4, ring.drainTo(drops));
+        assertEquals(0, ring.size());
+        assertEquals(0, ring.drainTo(drops));
+        assertTrue(ring.offer(new CritterRewardDrop()));
+    }
+
+    @Test
+    public void testPairOrdering() throws Exception {
+        testPairOrdering(DropRingBuffer.WaitStrategy.NONE);
+        testPairOrdering(DropRingBuffer.WaitStrategy.PARK);
+        testPairOrdering(DropRingBuffer.WaitStrategy.BLOCK);
+    }
+
+    private void testPairOrdering(DropRingBuffer.WaitStrategy pWait)
+            throws Exception {
+        final int count = 20000;
+        final DropClientRingBufferPair pair =
+                new DropClientRingBufferPair(16, pWait, pWait);
+
+        Thread producer = new Thread() {
+            public void run() {
+                for (int i = 0; i < count; i++) {
+                    CritterRewardDrop drop = new CritterRewardDrop();
+                    drop.reward = i;
+                    // Wait for room rather than lose drops
+                    while (pair.getFirstClient().getReceiveRing().size()
+                            == pair.getFirstClient().getReceiveRing().getCapacity()) {
+                        Thread.yield();
+                    }
+                    pair.getSecondClient().send(drop);
+                }
+            }
+        };
+        producer.start();
+
+        int expected = 0;
+        long deadline = System.currentTimeMillis() + 10000;
+        while (expected < count && System.currentTimeMillis() < deadline) {
+            for (SimulatorDrop drop : pair.getFirstClient().receive()) {
+                assertEquals(expected, ((CritterRewardDrop) drop).reward, 0);
+                expected++;
+            }
+        }
+        producer.join();
+
+        assertEquals(count, expected);
+        assertEquals(0, pair.getFirstClient().getReceiveRing().getDroppedCount());
+    }
+}
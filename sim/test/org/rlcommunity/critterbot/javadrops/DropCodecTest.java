@@ -0,0 +1,106 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.rlcommunity.critterbot.javadrops;
+
+import java.io.EOFException;
+import java.nio.ByteBuffer;
+
+import org.rlcommunity.critterbot.javadrops.drops.CritterControlDrop;
+import org.rlcommunity.critterbot.javadrops.drops.CritterStateDrop;
+import org.rlcommunity.critterbot.javadrops.drops.SimulatorDrop;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author anna
+ */
+public class DropCodecTest {
+
+    @Test
+    public void testPartialFrames() throws Exception {
+        DropProtocol protocol = new DropProtocol();
+        CritterStateDrop state = makeState();
+        ByteBuffer frame = protocol.getCodec().encodeCopy(state);
+        int nameLength = "CritterStateDrop".length();
+
+        // Within the name, within the size and within the data
+        int[] cuts = { 4 + 3, 4 + nameLength + 2, 4 + nameLength + 4 + 10 };
+
+        // The frame follows some data which was already decoded
+        int start = 7;
+        ByteBuffer in = ByteBuffer.allocate(start + frame.remaining());
+        in.position(start);
+        in.put(frame.duplicate());
+
+        for (int cut : cuts) {
+            in.limit(start + cut);
+            in.position(start);
+            try {
+                protocol.getCodec().decode(in);
+                fail("Decoded a frame cut after " + cut + " bytes");
+            }
+            catch (EOFException e) {
+                assertEquals(start, in.position());
+            }
+        }
+
+        // The rest of the frame arrives
+        in.limit(in.capacity());
+        SimulatorDrop drop = protocol.getCodec().decode(in);
+        assertEquals(in.capacity(), in.position());
+        assertEquals(frame, protocol.getCodec().encodeCopy(drop));
+    }
+
+    @Test
+    public void testRoundTripByName() throws Exception {
+        testRoundTrip(new DropProtocol(), new DropProtocol(), false);
+    }
+
+    @Test
+    public void testRoundTripById() throws Exception {
+        DropProtocol sender = new DropProtocol();
+        DropProtocol receiver = new DropProtocol();
+        assertNull(sender.getCodec().decode(receiver.encodeAnnouncement()));
+        assertNull(receiver.getCodec().decode(sender.encodeAnnouncement()));
+        assertTrue(sender.isNegotiated());
+
+        testRoundTrip(sender, receiver, true);
+    }
+
+    private void testRoundTrip(DropProtocol pSender, DropProtocol pReceiver,
+            boolean pById) throws Exception {
+        CritterControlDrop control = new CritterControlDrop();
+        control.motor_mode = CritterControlDrop.MotorMode.XYTHETA_SPACE;
+        control.led_mode = CritterControlDrop.LedMode.CUSTOM;
+        control.x_vel = 10;
+        control.y_vel = -20;
+        control.theta_vel = 30;
+        control.LEDValues[3].r = 255;
+
+        SimulatorDrop[] drops = { makeState(), control };
+        for (SimulatorDrop drop : drops) {
+            ByteBuffer frame = pSender.getCodec().encodeCopy(drop);
+            assertEquals(pById, frame.getInt(0) < 0);
+
+            SimulatorDrop received = pReceiver.getCodec().decode(frame.duplicate());
+            assertSame(drop.getClass(), received.getClass());
+            assertEquals(frame, pSender.getCodec().encodeCopy(received));
+        }
+    }
+
+    private static CritterStateDrop makeState() {
+        CritterStateDrop state = new CritterStateDrop();
+        state.time.setTimeInMillis(1234567890123L);
+        state.data_source = CritterStateDrop.DataSource.SIMULATOR;
+        state.bus_voltage = 120;
+        state.motor220.current = -45;
+        state.accel.y = 9;
+        state.ir_distance[4] = 200;
+        state.cycle_time = 17;
+        return state;
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.rlcommunity.critterbot.javadrops;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.rlcommunity.critterbot.javadrops.drops.CritterRewardDrop;
+import org.rlcommunity.critterbot.javadrops.drops.CritterStateDeltaDrop;
+import org.rlcommunity.critterbot.javadrops.drops.CritterStateDrop;
+import org.rlcommunity.critterbot.javadrops.drops.SimulatorDrop;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author anna
+ */
+public class StateDeltaCodecTest {
+
+    /** The first value which may hold any int; the time and enums precede it */
+    private static final int FIRST_FREE_VALUE =
+            CritterStateDrop.FIELD_NAMES.indexOf("bus_voltage");
+
+    @Test
+    public void testRoundTrip() {
+        StateDeltaCodec sender = new StateDeltaCodec(10);
+        StateDeltaCodec receiver = new StateDeltaCodec(10);
+        Random random = new Random(0);
+        int[] values = new int[StateDeltaCodec.STATE_VALUES];
+
+        for (int i = 0; i < 100; i++) {
+            // A few small changes, as between two consecutive states
+            for (int j = 0; j < 5; j++) {
+                int k = FIRST_FREE_VALUE + random.nextInt(values.length - FIRST_FREE_VALUE);
+                values[k] += random.nextInt(21) - 10;
+            }
+
+            CritterStateDeltaDrop delta = encode(sender, values);
+            assertEquals(i % 11 == 0, (delta.data[0] & StateDeltaCodec.KEYFRAME) != 0);
+            assertArrayEquals(values, getValues(receiver.decode(delta)));
+        }
+
+        assertEquals(100, sender.getEncodedCount());
+        assertTrue(sender.getEncodedBytes() < 100 * (8 + StateDeltaCodec.STATE_SIZE) / 4);
+        assertEquals(0, receiver.getLostCount());
+    }
+
+    @Test
+    public void testExtremeDeltas() {
+        StateDeltaCodec sender = new StateDeltaCodec();
+        StateDeltaCodec receiver = new StateDeltaCodec();
+        int[] steps = { Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MIN_VALUE,
+                0, Integer.MAX_VALUE, -1, Integer.MIN_VALUE + 1, 1 };
+        int[] values = new int[StateDeltaCodec.STATE_VALUES];
+
+        for (int step : steps) {
+            for (int k = FIRST_FREE_VALUE; k < values.length; k++) {
+                values[k] = (k % 2 == 0)? step : -step;
+            }
+            assertArrayEquals(values, getValues(receiver.decode(encode(sender, values))));
+        }
+    }
+
+    @Test
+    public void testSequenceWraparound() {
+        // No keyframe after the first, so that every delta depends on the last
+        StateDeltaCodec sender = new StateDeltaCodec(1000);
+        StateDeltaCodec receiver = new StateDeltaCodec(1000);
+        int[] values = new int[StateDeltaCodec.STATE_VALUES];
+
+        for (int i = 0; i < 600; i++) {
+            values[FIRST_FREE_VALUE] = i;
+            CritterStateDeltaDrop delta = encode(sender, values);
+            assertEquals(i & 0xFF, delta.data[1] & 0xFF);
+            assertArrayEquals(values, getValues(receiver.decode(delta)));
+        }
+        assertEquals(0, receiver.getLostCount());
+    }
+
+    @Test
+    public void testLostDelta() {
+        StateDeltaCodec sender = new StateDeltaCodec(5);
+        StateDeltaCodec receiver = new StateDeltaCodec(5);
+        int[] values = new int[StateDeltaCodec.STATE_VALUES];
+
+        for (int i = 0; i < 15; i++) {
+            values[FIRST_FREE_VALUE] = i;
+            CritterStateDeltaDrop delta = encode(sender, values);
+
+            // Lose the third delta; the next keyframe is the seventh
+            if (i == 2) {
+                continue;
+            }
+
+            CritterStateDrop state = receiver.decode(delta);
+            if (i > 2 && i < 6) {
+                assertNull(state);
+            }
+            else {
+                assertArrayEquals(values, getValues(state));
+            }
+        }
+
+        assertEquals(3, receiver.getLostCount());
+    }
+
+    @Test
+    public void testNegotiatedProtocol() throws Exception {
+        DropProtocol sender = new DropProtocol();
+        DropProtocol receiver = new DropProtocol();
+        sender.setDeltaEncoding(true);
+
+        // Only the sender accepts deltas
+        exchangeTables(sender, receiver);
+        assertFalse(sender.isDeltaNegotiated());
+        CritterStateDrop state = new CritterStateDrop();
+        ByteBuffer frame = sender.getCodec().encodeCopy(state);
+        assertSame(frame, sender.toWire(frame));
+
+        sender = new DropProtocol();
+        receiver = new DropProtocol();
+        sender.setDeltaEncoding(true);
+        receiver.setDeltaEncoding(true);
+        exchangeTables(sender, receiver);
+        assertTrue(sender.isDeltaNegotiated());
+
+        for (int i = 0; i < 250; i++) {
+            state.bus_voltage = i;
+            state.accel.x = -i * 1000;
+            ByteBuffer wire = sender.toWire(sender.getCodec().encodeCopy(state));
+            assertTrue(wire.remaining() < 8 + StateDeltaCodec.STATE_SIZE);
+
+            CritterStateDrop received =
+                    (CritterStateDrop) receiver.getCodec().decode(wire);
+            assertArrayEquals(getValues(state), getValues(received));
+        }
+
+        // Other drops are left alone
+        ByteBuffer other = sender.getCodec().encodeCopy(new CritterRewardDrop());
+        assertSame(other, sender.toWire(other));
+    }
+
+    private static void exchangeTables(DropProtocol pFirst, DropProtocol pSecond)
+            throws Exception {
+        assertNull(pSecond.getCodec().decode(pFirst.encodeAnnouncement()));
+        assertNull(pFirst.getCodec().decode(pSecond.encodeAnnouncement()));
+    }
+
+    /** Encodes a state made of the given values, and returns its delta */
+    private static CritterStateDeltaDrop encode(StateDeltaCodec pCodec, int[] pValues) {
+        ByteBuffer data = ByteBuffer.allocate(StateDeltaCodec.STATE_SIZE);
+        data.order(DropCodec.FRAME_ENDIAN);
+        DropCodec.putInts(data, pValues);
+
+        ByteBuffer frame = pCodec.encode(data, 0, -1);
+        assertEquals(-1, frame.getInt());
+        assertEquals(frame.remaining() - 4, frame.getInt());
+
+        CritterStateDeltaDrop delta = new CritterStateDeltaDrop();
+        delta.readData(frame, frame.remaining());
+        return delta;
+    }
+
+    private static int[] getValues(SimulatorDrop pState) {
+        assertNotNull(pState);
+        ByteBuffer data = ByteBuffer.allocate(StateDeltaCodec.STATE_SIZE);
+        data.order(DropCodec.FRAME_ENDIAN);
+        ((CritterStateDrop) pState).writeData(data);
+        data.flip();
+
+        int[] values = new int[StateDeltaCodec.STATE_VALUES];
+        DropCodec.getInts(data, values);
+        return values;
+    }
+}
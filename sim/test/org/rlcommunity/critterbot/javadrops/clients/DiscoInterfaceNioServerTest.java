@@ -0,0 +1,152 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.rlcommunity.critterbot.javadrops.clients;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.rlcommunity.critterbot.javadrops.DropProtocol;
+import org.rlcommunity.critterbot.javadrops.drops.CritterRewardDrop;
+import org.rlcommunity.critterbot.javadrops.drops.CritterStateDrop;
+import org.rlcommunity.critterbot.javadrops.drops.SimulatorDrop;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author anna
+ */
+public class DiscoInterfaceNioServerTest {
+
+    private static final long TIMEOUT = 5000;
+
+    private DiscoInterfaceNioServer server;
+    private DiscoInterfaceClient[] clients;
+
+    @Before
+    public void connect() throws Exception {
+        server = new DiscoInterfaceNioServer(0, 1000);
+        server.start();
+        assertTrue(server.getPort() > 0);
+
+        clients = new DiscoInterfaceClient[2];
+        for (int i = 0; i < clients.length; i++) {
+            clients[i] = new DiscoInterfaceClient(InetAddress.getLocalHost(),
+                    server.getPort(), 1000, true);
+            clients[i].start();
+        }
+        waitForClients(2);
+    }
+
+    @After
+    public void close() throws Exception {
+        server.close();
+        server.join(TIMEOUT);
+    }
+
+    @Test
+    public void testBothWays() throws Exception {
+        for (int i = 0; i < 50; i++) {
+            CritterStateDrop state = new CritterStateDrop();
+            state.cycle_time = i;
+            server.send(state);
+        }
+
+        // Every client gets every drop, in order
+        for (DiscoInterfaceClient client : clients) {
+            List<SimulatorDrop> drops = receive(client, 50);
+            for (int i = 0; i < 50; i++) {
+                assertEquals(i, ((CritterStateDrop) drops.get(i)).cycle_time);
+            }
+        }
+
+        for (int i = 0; i < clients.length; i++) {
+            CritterRewardDrop reward = new CritterRewardDrop();
+            reward.reward = i;
+            clients[i].send(reward);
+        }
+        List<SimulatorDrop> drops = receive(server, clients.length);
+        double sum = 0;
+        for (SimulatorDrop drop : drops) {
+            sum += ((CritterRewardDrop) drop).reward;
+        }
+        assertEquals(1, sum, 0);
+    }
+
+    @Test
+    public void testSplitFrames() throws Exception {
+        CritterRewardDrop reward = new CritterRewardDrop();
+        reward.reward = 42;
+        ByteBuffer frame = new DropProtocol().getCodec().encodeCopy(reward);
+
+        // A client writing one byte at a time
+        Socket socket = new Socket(InetAddress.getLocalHost(), server.getPort());
+        OutputStream out = socket.getOutputStream();
+        while (frame.hasRemaining()) {
+            out.write(frame.get());
+            out.flush();
+            Thread.sleep(1);
+        }
+
+        List<SimulatorDrop> drops = receive(server, 1);
+        assertEquals(42, ((CritterRewardDrop) drops.get(0)).reward, 0);
+        socket.close();
+    }
+
+    @Test
+    public void testGarbageClosesOnlyItsClient() throws Exception {
+        Socket socket = new Socket(InetAddress.getLocalHost(), server.getPort());
+        waitForClients(3);
+
+        // A name far longer than any drop's
+        OutputStream out = socket.getOutputStream();
+        out.write(new byte[] { 0, 0, 1, 0, 0, 0, 1, 0 });
+        out.flush();
+
+        InputStream in = socket.getInputStream();
+        socket.setSoTimeout((int) TIMEOUT);
+        assertEquals(-1, in.read());
+        socket.close();
+        waitForClients(2);
+
+        CritterStateDrop state = new CritterStateDrop();
+        state.cycle_time = 7;
+        server.send(state);
+        for (DiscoInterfaceClient client : clients) {
+            assertEquals(7, ((CritterStateDrop) receive(client, 1).get(0)).cycle_time);
+            assertFalse(client.isClosed());
+        }
+    }
+
+    private void waitForClients(int pCount) throws Exception {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (server.getNumClients() != pCount &&
+                System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(pCount, server.getNumClients());
+    }
+
+    /** Collects drops from a client until there are pCount of them */
+    private static List<SimulatorDrop> receive(DropClient pClient, int pCount)
+            throws Exception {
+        List<SimulatorDrop> drops = new ArrayList<SimulatorDrop>();
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (drops.size() < pCount && System.currentTimeMillis() < deadline) {
+            drops.addAll(pClient.receive());
+            Thread.sleep(10);
+        }
+        assertEquals(pCount, drops.size());
+        return drops;
+    }
+}
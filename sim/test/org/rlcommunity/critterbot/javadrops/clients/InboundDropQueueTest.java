@@ -0,0 +1,95 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.rlcommunity.critterbot.javadrops.clients;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.rlcommunity.critterbot.javadrops.drops.CritterControlDrop;
+import org.rlcommunity.critterbot.javadrops.drops.CritterRewardDrop;
+import org.rlcommunity.critterbot.javadrops.drops.SimulatorDrop;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author anna
+ */
+public class InboundDropQueueTest {
+
+    private static final int MAX_QUEUED = 5;
+
+    @Test
+    public void testOnlyNewestControlDropSurvives() {
+        InboundDropQueue queue = new InboundDropQueue(MAX_QUEUED);
+        CritterControlDrop newest = null;
+
+        // 16 drops in all, but never more than MAX_QUEUED rewards
+        for (int i = 0; i < 12; i++) {
+            newest = control(i);
+            assertNull(queue.add(newest));
+            if (i % 3 == 0) {
+                assertNull(queue.add(reward(i)));
+            }
+        }
+
+        assertEquals(5, queue.size());
+        assertEquals(11, queue.getCoalescedCount());
+        assertEquals(0, queue.getDiscardedCount());
+
+        List<SimulatorDrop> drops = new ArrayList<SimulatorDrop>();
+        queue.drainTo(drops);
+        int[] rewards = {0, 3, 6, 9};
+        for (int i = 0; i < rewards.length; i++) {
+            assertEquals(rewards[i],
+                    ((CritterRewardDrop) drops.get(i)).reward, 0);
+        }
+        assertSame(newest, drops.get(4));
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testOverflowOnlyDiscardsItsType() {
+        InboundDropQueue queue = new InboundDropQueue(MAX_QUEUED);
+
+        queue.add(control(0));
+        List<CritterRewardDrop> rewards = new ArrayList<CritterRewardDrop>();
+        for (int i = 0; i < MAX_QUEUED + 3; i++) {
+            CritterRewardDrop drop = reward(i);
+            rewards.add(drop);
+            SimulatorDrop discarded = queue.add(drop);
+            if (i < MAX_QUEUED) {
+                assertNull(discarded);
+            } else {
+                // The oldest reward, never the control drop
+                assertSame(rewards.get(i - MAX_QUEUED), discarded);
+            }
+        }
+        queue.add(control(1));
+
+        assertEquals(1, queue.getCoalescedCount());
+        assertEquals(3, queue.getDiscardedCount());
+        assertEquals(MAX_QUEUED + 1, queue.size());
+
+        for (int i = 3; i < MAX_QUEUED + 3; i++) {
+            assertSame(rewards.get(i), queue.poll());
+        }
+        assertEquals(1, ((CritterControlDrop) queue.poll()).m100_vel);
+        assertNull(queue.poll());
+    }
+
+    private static CritterControlDrop control(int pVelocity) {
+        CritterControlDrop drop = new CritterControlDrop();
+        drop.m100_vel = pVelocity;
+        return drop;
+    }
+
+    private static CritterRewardDrop reward(double pReward) {
+        CritterRewardDrop drop = new CritterRewardDrop();
+        drop.reward = pReward;
+        return drop;
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.rlcommunity.critterbot.javadrops.clients;
+
+import java.nio.ByteBuffer;
+
+import org.rlcommunity.critterbot.javadrops.drops.CritterRewardDrop;
+import org.rlcommunity.critterbot.javadrops.drops.CritterStateDrop;
+import org.rlcommunity.critterbot.javadrops.drops.DropTypeTable;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author anna
+ */
+public class OutboundDropQueueTest {
+
+    @Test
+    public void testPinnedFrameSurvivesOverflow() {
+        for (OutboundDropQueue.OverflowPolicy policy :
+                new OutboundDropQueue.OverflowPolicy[] {
+                    OutboundDropQueue.OverflowPolicy.DROP_OLDEST,
+                    OutboundDropQueue.OverflowPolicy.LATEST_ONLY }) {
+            OutboundDropQueue queue = new OutboundDropQueue(3, policy);
+            for (int i = 0; i < 3; i++) {
+                assertTrue(queue.offer(CritterRewardDrop.class, frame(i)));
+            }
+
+            ByteBuffer table = frame(-1);
+            queue.addFirst(DropTypeTable.class, table);
+            for (int i = 3; i < 6; i++) {
+                assertTrue(queue.offer(CritterRewardDrop.class, frame(i)));
+            }
+
+            assertSame(policy.toString(), table, queue.poll());
+
+            // Only the newest reward is left under LATEST_ONLY
+            int first = (policy == OutboundDropQueue.OverflowPolicy.LATEST_ONLY)? 5 : 3;
+            for (int i = first; i < 6; i++) {
+                assertEquals(i, queue.poll().getInt(0));
+            }
+            assertNull(queue.poll());
+        }
+    }
+
+    @Test
+    public void testDropOldestKeepsNewest() {
+        OutboundDropQueue queue = new OutboundDropQueue(3,
+                OutboundDropQueue.OverflowPolicy.DROP_OLDEST);
+        for (int i = 0; i < 5; i++) {
+            queue.offer(i % 2 == 0? CritterRewardDrop.class : CritterStateDrop.class,
+                    frame(i));
+        }
+        ByteBuffer table = frame(-1);
+        queue.addFirst(DropTypeTable.class, table);
+        queue.offer(CritterRewardDrop.class, frame(5));
+
+        assertEquals(4, queue.size());
+        assertSame(table, queue.poll());
+        for (int i = 3; i < 6; i++) {
+            assertEquals(i, queue.poll().getInt(0));
+        }
+        assertEquals(3, queue.getDroppedCount());
+    }
+
+    @Test
+    public void testPinnedFrameDoesNotCountTowardsCapacity() {
+        OutboundDropQueue queue = new OutboundDropQueue(3,
+                OutboundDropQueue.OverflowPolicy.DISCONNECT);
+        assertTrue(queue.offer(CritterRewardDrop.class, frame(0)));
+        assertTrue(queue.offer(CritterRewardDrop.class, frame(1)));
+        queue.addFirst(DropTypeTable.class, frame(-1));
+
+        assertTrue(queue.offer(CritterRewardDrop.class, frame(2)));
+        assertFalse(queue.isOverflowed());
+        assertFalse(queue.offer(CritterRewardDrop.class, frame(3)));
+        assertTrue(queue.isOverflowed());
+    }
+
+    private static ByteBuffer frame(int pValue) {
+        ByteBuffer frame = ByteBuffer.allocate(4);
+        frame.putInt(0, pValue);
+        return frame;
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.rlcommunity.critterbot.javadrops.drops;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.rlcommunity.critterbot.javadrops.clients.DropClient;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author anna
+ */
+public class DropSubscriptionTest {
+
+    private static final long MILLIS = 1000000L;
+
+    /** A clock which only moves when told to */
+    private static class SettableClock implements DropClock {
+        public long now;
+
+        public long nanoTime() {
+            return now;
+        }
+    }
+
+    /** A client which records what it is sent */
+    private static class RecordingClient implements DropClient {
+        public final List<SimulatorDrop> sent = new ArrayList<SimulatorDrop>();
+
+        public List<SimulatorDrop> receive() {
+            return new LinkedList<SimulatorDrop>();
+        }
+
+        public void send(SimulatorDrop pData) {
+            sent.add(pData);
+        }
+    }
+
+    private SettableClock clock;
+    private RecordingClient client;
+    private DropInterface dropInterface;
+    private DropSubscription subscription;
+
+    @Before
+    public void subscribe() {
+        clock = new SettableClock();
+        client = new RecordingClient();
+        dropInterface = new DropInterface();
+        dropInterface.setClock(clock);
+        subscription = dropInterface.addClient(client, 10,
+                CritterStateDrop.class, CritterRewardDrop.class);
+    }
+
+    @Test
+    public void testLatestDropOncePerInterval() {
+        // 100 Hz of each type for 300 ms, with the simulator passing on
+        //  held drops at every step
+        for (int t = 0; t < 300; t += 10) {
+            clock.now = t * MILLIS;
+            dropInterface.sendHeldDrops();
+            dropInterface.sendDrop(state(t));
+            dropInterface.sendDrop(reward(t));
+            dropInterface.sendDrop(new CritterControlDrop());
+        }
+
+        // Each type is passed on at 0, 100 and 200 ms, with the latest value
+        assertEquals(6, client.sent.size());
+        int[] times = {0, 90, 190};
+        for (int i = 0; i < times.length; i++) {
+            assertEquals(times[i],
+                    ((CritterStateDrop) client.sent.get(2 * i)).cycle_time);
+            assertEquals(times[i],
+                    ((CritterRewardDrop) client.sent.get(2 * i + 1)).reward, 0);
+        }
+        assertEquals(6, subscription.getSentCount());
+        // Of the 30 drops of each type, 3 were passed on and the one at
+        //  290 ms is still held
+        assertEquals(2 * 26, subscription.getDecimatedCount());
+    }
+
+    @Test
+    public void testHeldDropsSentWithoutNewDrops() {
+        dropInterface.sendDrop(state(0));
+        clock.now = 50 * MILLIS;
+        dropInterface.sendDrop(state(50));
+        dropInterface.sendDrop(reward(50));
+        clock.now = 60 * MILLIS;
+        dropInterface.sendDrop(reward(60));
+        clock.now = 70 * MILLIS;
+        dropInterface.sendDrop(reward(70));
+        assertEquals(2, client.sent.size());
+
+        // Not yet due
+        clock.now = 99 * MILLIS;
+        dropInterface.sendHeldDrops();
+        assertEquals(2, client.sent.size());
+
+        clock.now = 100 * MILLIS;
+        dropInterface.sendHeldDrops();
+        assertEquals(3, client.sent.size());
+        assertEquals(50, ((CritterStateDrop) client.sent.get(2)).cycle_time);
+
+        // The reward was last passed on at 50 ms
+        clock.now = 150 * MILLIS;
+        dropInterface.sendHeldDrops();
+        assertEquals(4, client.sent.size());
+        assertEquals(70, ((CritterRewardDrop) client.sent.get(3)).reward, 0);
+
+        // Nothing is held any more
+        clock.now = 500 * MILLIS;
+        dropInterface.sendHeldDrops();
+        assertEquals(4, client.sent.size());
+        assertEquals(4, subscription.getSentCount());
+        assertEquals(1, subscription.getDecimatedCount());
+    }
+
+    @Test
+    public void testUnsubscribedTypesNeverArrive() {
+        for (int t = 0; t < 1000; t += 10) {
+            clock.now = t * MILLIS;
+            dropInterface.sendDrop(new CritterControlDrop());
+            dropInterface.sendHeldDrops();
+        }
+
+        assertEquals(0, client.sent.size());
+        assertEquals(0, subscription.getSentCount());
+        assertEquals(0, subscription.getDecimatedCount());
+    }
+
+    private static CritterStateDrop state(int pTime) {
+        CritterStateDrop drop = new CritterStateDrop();
+        drop.cycle_time = pTime;
+        return drop;
+    }
+
+    private static CritterRewardDrop reward(double pReward) {
+        CritterRewardDrop drop = new CritterRewardDrop();
+        drop.reward = pReward;
+        return drop;
+    }
+}
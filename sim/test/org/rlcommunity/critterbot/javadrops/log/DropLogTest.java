@@ -0,0 +1,264 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.rlcommunity.critterbot.javadrops.log;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.rlcommunity.critterbot.javadrops.drops.CritterRewardDrop;
+import org.rlcommunity.critterbot.javadrops.drops.CritterStateDrop;
+import org.rlcommunity.critterbot.javadrops.drops.SimulatorDrop;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author anna
+ */
+public class DropLogTest {
+
+    /** The number of state drops, and of reward drops, in the log */
+    private static final int COUNT = 200;
+
+    private File dir;
+    private String prefix;
+
+    @Before
+    public void writeLog() throws Exception {
+        dir = File.createTempFile("droplog", "");
+        dir.delete();
+        assertTrue(dir.mkdir());
+        prefix = new File(dir, "log").getPath();
+
+        // Small segments, so that the log is rotated several times
+        DropLogWriter writer = new DropLogWriter(prefix, 8 << 10, 1, false);
+        for (int i = 0; i < COUNT; i++) {
+            CritterStateDrop state = new CritterStateDrop();
+            state.cycle_time = i;
+            state.bus_voltage = i % 10;
+            writer.send(state);
+
+            CritterRewardDrop reward = new CritterRewardDrop();
+            reward.reward = i;
+            writer.send(reward);
+
+            if (i % 10 == 0) {
+                Thread.sleep(5);
+            }
+        }
+        writer.close();
+
+        assertEquals(2 * COUNT, writer.getRecordCount());
+        assertTrue(writer.getSegmentCount() > 1);
+    }
+
+    @After
+    public void deleteLog() {
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void testReadBack() throws Exception {
+        DropLogReader reader = new DropLogReader(prefix);
+        assertTrue(reader.getSegments().size() > 1);
+
+        List<Long> timestamps = new ArrayList<Long>();
+        while (reader.next()) {
+            int i = timestamps.size();
+            SimulatorDrop drop = reader.getDrop();
+            if (i % 2 == 0) {
+                assertEquals(i / 2, ((CritterStateDrop) drop).cycle_time);
+            }
+            else {
+                assertEquals(i / 2, ((CritterRewardDrop) drop).reward, 0);
+            }
+
+            if (i > 0) {
+                assertTrue(reader.getTimestamp() >= timestamps.get(i - 1));
+            }
+            timestamps.add(reader.getTimestamp());
+        }
+        assertEquals(2 * COUNT, timestamps.size());
+
+        // Only some types
+        reader.setTypes(CritterRewardDrop.class);
+        reader.seek(Long.MIN_VALUE);
+        int count = 0;
+        while (reader.next()) {
+            assertEquals(count++, ((CritterRewardDrop) reader.getDrop()).reward, 0);
+        }
+        assertEquals(COUNT, count);
+
+        // Seek to the first record at or after a time
+        reader.setTypes();
+        int middle = 3 * COUNT / 2 + 1;
+        int first = timestamps.indexOf(timestamps.get(middle));
+        reader.seek(timestamps.get(middle));
+        assertTrue(reader.next());
+        assertEquals(timestamps.get(middle).longValue(), reader.getTimestamp());
+        assertEquals(first / 2, (first % 2 == 0)?
+                ((CritterStateDrop) reader.getDrop()).cycle_time :
+                ((CritterRewardDrop) reader.getDrop()).reward, 0);
+
+        reader.seek(timestamps.get(2 * COUNT - 1) + 1);
+        assertFalse(reader.next());
+        reader.close();
+    }
+
+    @Test
+    public void testQuery() throws Exception {
+        DropLogQuery query = new DropLogQuery(prefix);
+        query.addField("cycle_time");
+        query.addFilter("bus_voltage", 0, 4);
+        DropLogQuery.Result result = query.run(2);
+
+        // The states whose cycle time ends in 0 to 4
+        long sum = 0;
+        int matched = 0;
+        for (int i = 0; i < COUNT; i++) {
+            if (i % 10 <= 4) {
+                sum += i;
+                matched++;
+            }
+        }
+
+        assertEquals(COUNT, result.getRecordCount());
+        assertEquals(matched, result.getMatchedCount());
+        FieldStats stats = result.getStats("cycle_time");
+        assertEquals(matched, stats.getCount());
+        assertEquals(0, stats.getMin());
+        assertEquals(COUNT - 6, stats.getMax());
+        assertEquals((double) sum / matched, stats.getMean(), 1e-9);
+    }
+
+    @Test
+    public void testColumns() throws Exception {
+        File file = new File(dir, "log" + DropColumnFile.FILE_EXTENSION);
+        for (boolean compress : new boolean[] { false, true }) {
+            long rows = DropColumnWriter.convert(new DropLogReader(prefix),
+                    file, 64, compress);
+            assertEquals(COUNT, rows);
+
+            DropColumnFile columns = new DropColumnFile(file);
+            assertEquals(COUNT, columns.getRowCount());
+            assertEquals((COUNT + 63) / 64, columns.getChunkCount());
+
+            int[] cycleTimes = columns.readInts("cycle_time");
+            long[] timestamps = columns.readTimestamps();
+            for (int i = 0; i < COUNT; i++) {
+                assertEquals(i, cycleTimes[i]);
+                if (i > 0) {
+                    assertTrue(timestamps[i] >= timestamps[i - 1]);
+                }
+            }
+            assertEquals(9, columns.getMax("bus_voltage", 0));
+        }
+    }
+
+    @Test
+    public void testTruncatedIndex() throws Exception {
+        // A partly written last index entry is ignored, and the records it
+        //  would have covered are found by scanning
+        List<File> segments = DropLogReader.findSegments(prefix);
+        File index = DropLogIndex.getIndexFile(segments.get(segments.size() - 1));
+        truncate(index, index.length() - 5);
+
+        DropLogReader reader = new DropLogReader(prefix);
+        assertEquals(2 * COUNT, countRecords(reader));
+        reader.setTypes(CritterStateDrop.class);
+        reader.seek(Long.MIN_VALUE);
+        assertEquals(COUNT, countRecords(reader));
+        reader.close();
+    }
+
+    @Test
+    public void testTruncatedRecord() throws Exception {
+        // Find where the last record, a reward, starts
+        DropLogReader reader = new DropLogReader(prefix);
+        int lastStart = 0;
+        while (reader.nextFrame()) {
+            // Timestamp, type id and size precede the data
+            lastStart = reader.getDataOffset() - 16;
+        }
+        reader.close();
+
+        List<File> segments = DropLogReader.findSegments(prefix);
+        File last = segments.get(segments.size() - 1);
+
+        // Cut the last record within its data, then within its header
+        for (int cut : new int[] { 20, 10 }) {
+            truncate(last, lastStart + cut);
+
+            reader = new DropLogReader(prefix);
+            assertEquals(2 * COUNT - 1, countRecords(reader));
+            reader.setTypes(CritterRewardDrop.class);
+            reader.seek(Long.MIN_VALUE);
+            assertEquals(COUNT - 1, countRecords(reader));
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testRecordsAtSegmentBoundary() throws Exception {
+        List<File> segments = DropLogReader.findSegments(prefix);
+        DropLogReader reader = new DropLogReader(segments.subList(0, 1));
+        int firstCount = 0;
+        int lastStart = 0;
+        while (reader.nextFrame()) {
+            lastStart = reader.getDataOffset() - 16;
+            firstCount++;
+        }
+        reader.close();
+
+        // Give the last record of the first segment the time at which the
+        //  second one starts
+        reader = new DropLogReader(prefix);
+        long time = reader.getFirstTimestamp(1);
+        reader.close();
+        RandomAccessFile file = new RandomAccessFile(segments.get(0), "rw");
+        file.seek(lastStart);
+        file.write(ByteBuffer.allocate(8).order(DropLogFormat.ENDIAN)
+                .putLong(time).array());
+        file.close();
+
+        int expected = 2 * COUNT - firstCount + 1;
+        reader = new DropLogReader(prefix);
+        reader.seek(time);
+        assertTrue(reader.next());
+        assertEquals(time, reader.getTimestamp());
+        assertEquals(expected - 1, countRecords(reader));
+
+        int count = 0;
+        for (DropLogReader part : reader.splitBySegment(time, Long.MAX_VALUE)) {
+            count += countRecords(part);
+            part.close();
+        }
+        assertEquals(expected, count);
+        reader.close();
+    }
+
+    private static int countRecords(DropLogReader pReader) throws Exception {
+        int count = 0;
+        while (pReader.next()) {
+            count++;
+        }
+        return count;
+    }
+
+    private static void truncate(File pFile, long pLength) throws Exception {
+        RandomAccessFile file = new RandomAccessFile(pFile, "rw");
+        file.setLength(pLength);
+        file.close();
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.rlcommunity.critterbot.javadrops.log;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author anna
+ */
+public class FieldStatsTest {
+
+    @Test
+    public void testEmpty() {
+        FieldStats stats = new FieldStats();
+        assertEquals(0, stats.getCount());
+        assertTrue(Double.isNaN(stats.getMean()));
+        assertTrue(Double.isNaN(stats.getStandardDeviation()));
+
+        stats.merge(new FieldStats());
+        assertEquals(0, stats.getCount());
+    }
+
+    @Test
+    public void testLargeValues() {
+        // Values far from 0 with a small spread, which a sum of squares
+        //  cannot resolve
+        FieldStats stats = new FieldStats();
+        int base = Integer.MAX_VALUE - 10;
+        for (int i = 0; i < 100000; i++) {
+            stats.add(base + (i % 2) * 2);
+        }
+
+        assertEquals(base + 1, stats.getMean(), 1e-6);
+        assertEquals(1, stats.getStandardDeviation(), 1e-6);
+    }
+
+    @Test
+    public void testMerge() {
+        FieldStats all = new FieldStats();
+        FieldStats[] parts = { new FieldStats(), new FieldStats(),
+                new FieldStats() };
+        // Parts of different sizes and means
+        for (int i = 0; i < 1000; i++) {
+            int value = 1000000000 + i * i % 997;
+            all.add(value);
+            parts[(i < 100) ? 0 : (i < 900) ? 1 : 2].add(value);
+        }
+
+        FieldStats merged = new FieldStats();
+        for (FieldStats part : parts) {
+            merged.merge(part);
+        }
+
+        assertEquals(all.getCount(), merged.getCount());
+        assertEquals(all.getMin(), merged.getMin());
+        assertEquals(all.getMax(), merged.getMax());
+        assertEquals(all.getMean(), merged.getMean(), 1e-6);
+        assertEquals(all.getStandardDeviation(),
+                merged.getStandardDeviation(), 1e-6);
+    }
+}
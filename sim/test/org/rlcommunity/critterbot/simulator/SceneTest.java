@@ -0,0 +1,157 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.rlcommunity.critterbot.simulator;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author anna
+ */
+public class SceneTest {
+
+    SimulatorState state;
+    List<SimulatorObject> boxes;
+    Random random;
+
+    public SceneTest() {
+        random = new Random(0);
+        state = new SimulatorState();
+        boxes = new LinkedList<SimulatorObject>();
+
+        for (int i = 0; i < 40; i++) {
+            SimulatorObject box = new SimulatorObject("Box", i);
+            Polygon shape = new Polygon();
+            shape.addPoint(-0.1, -0.1);
+            shape.addPoint(-0.1, 0.1);
+            shape.addPoint(0.1, 0.1);
+            shape.addPoint(0.1, -0.1);
+            shape.doneAddPoints();
+            box.setShape(shape);
+            box.setPosition(new Vector2D(random.nextDouble() * 5,
+                    random.nextDouble() * 5));
+            box.setDirection(random.nextDouble() * Math.PI);
+
+            state.addObject(box);
+            boxes.add(box);
+        }
+    }
+
+    /** Finds the closest intersection by testing every polygon */
+    private double bruteForce(Ray r, List<SimulatorObject> pObjects) {
+        double minAlpha = Double.POSITIVE_INFINITY;
+        for (SimulatorObject o : pObjects) {
+            RayIntersection isect = o.getShape().intersect(r);
+            if (isect != null && isect.rayAlpha < minAlpha)
+                minAlpha = isect.rayAlpha;
+        }
+        return minAlpha;
+    }
+
+    private void checkRays(Scene pScene, List<SimulatorObject> pObjects) {
+        for (int i = 0; i < 500; i++) {
+            Ray r = new Ray(new Vector2D(random.nextDouble() * 5,
+                    random.nextDouble() * 5),
+                    Vector2D.unitVector(random.nextDouble() * 2 * Math.PI));
+            RayIntersection isect = pScene.traceRay(r);
+            double expected = bruteForce(r, pObjects);
+
+            if (expected == Double.POSITIVE_INFINITY)
+                assertNull(isect);
+            else {
+                assertNotNull(isect);
+                assertEquals(expected, isect.rayAlpha, 0);
+            }
+        }
+    }
+
+    @Test
+    public void testTraceRay() {
+        Scene scene = new Scene(state);
+        checkRays(scene, boxes);
+
+        // Axis-aligned rays
+        Ray r = new Ray(new Vector2D(-1, 2.5), new Vector2D(1, 0));
+        assertEquals(bruteForce(r, boxes), scene.traceRay(r).rayAlpha, 0);
+        r = new Ray(new Vector2D(2.5, -1), new Vector2D(0, 1));
+        assertEquals(bruteForce(r, boxes), scene.traceRay(r).rayAlpha, 0);
+    }
+
+    @Test
+    public void testRefit() {
+        Scene scene = new Scene(state);
+        checkRays(scene, boxes);
+
+        for (SimulatorObject box : boxes)
+            box.setPosition(box.getPosition().plus(
+                    new Vector2D(random.nextDouble() - 0.5,
+                    random.nextDouble() - 0.5)));
+
+        scene.refit();
+        checkRays(scene, boxes);
+    }
+
+    @Test
+    public void testRemoveObject() {
+        Scene scene = new Scene(state);
+        List<SimulatorObject> remaining = new LinkedList<SimulatorObject>(boxes);
+
+        for (int i = 0; i < 20; i++)
+            scene.removeObject(remaining.remove(0));
+        checkRays(scene, remaining);
+
+        scene.addObject(boxes.get(0));
+        remaining.add(boxes.get(0));
+        checkRays(scene, remaining);
+    }
+
+    @Test
+    public void testIgnoredRoots() {
+        // Give the first box a child box, so that its tree has two polygons
+        SimulatorObject parent = boxes.get(0);
+        SimulatorObject child = new SimulatorObject("Child", 100);
+        Polygon shape = new Polygon();
+        shape.addPoint(-0.1, -0.1);
+        shape.addPoint(-0.1, 0.1);
+        shape.addPoint(0.1, 0.1);
+        shape.addPoint(0.1, -0.1);
+        shape.doneAddPoints();
+        child.setShape(shape);
+        parent.addChild(child);
+        child.setLocalPosition(new Vector2D(0.3, 0));
+
+        Scene scene = new Scene(state);
+        Scene removed = new Scene(state);
+        removed.removeSubtree(parent);
+
+        int[] ignored = new int[] { parent.getId() };
+
+        for (int i = 0; i < 500; i++) {
+            Ray r = new Ray(new Vector2D(random.nextDouble() * 5,
+                    random.nextDouble() * 5),
+                    Vector2D.unitVector(random.nextDouble() * 2 * Math.PI));
+            RayIntersection isect = scene.traceRay(r, ignored);
+            RayIntersection expected = removed.traceRay(r);
+
+            if (expected == null)
+                assertNull(isect);
+            else
+                assertEquals(expected.rayAlpha, isect.rayAlpha, 0);
+
+            Vector2D p = r.getPoint(2);
+            assertEquals(removed.isVisible(r.src, p),
+                    scene.isVisible(r.src, p, ignored));
+        }
+
+        // The scene itself was not modified
+        checkRays(scene, state.getObjects());
+    }
+}
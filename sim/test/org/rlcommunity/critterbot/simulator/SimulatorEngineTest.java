@@ -0,0 +1,83 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.rlcommunity.critterbot.simulator;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.rlcommunity.critterbot.javadrops.clients.DropClient;
+import org.rlcommunity.critterbot.javadrops.drops.CritterStateDrop;
+import org.rlcommunity.critterbot.javadrops.drops.DropInterface;
+import org.rlcommunity.critterbot.javadrops.drops.SimulatorDrop;
+import org.rlcommunity.critterbot.simulator.environments.CommonObjects;
+import org.rlcommunity.critterbot.simulator.environments.EnvironmentDescription;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author anna
+ */
+public class SimulatorEngineTest {
+
+    static class RobotEnvironment implements EnvironmentDescription {
+        public List<SimulatorObject> generateObjects() {
+            List<SimulatorObject> objects = new LinkedList<SimulatorObject>();
+            CommonObjects.addObject(objects,
+                    CommonObjects.generateCritterbot("Critterbot", 0),
+                    new Vector2D(2, 2), 0, 0);
+            return objects;
+        }
+
+        public boolean usesSVG() {
+            return false;
+        }
+    }
+
+    static class StateRecorder implements DropClient {
+        List<CritterStateDrop> states = new LinkedList<CritterStateDrop>();
+
+        public List<SimulatorDrop> receive() {
+            return new LinkedList<SimulatorDrop>();
+        }
+
+        public void send(SimulatorDrop pDrop) {
+            if (pDrop instanceof CritterStateDrop)
+                states.add((CritterStateDrop) pDrop);
+        }
+    }
+
+    @Test
+    public void testStepN() {
+        SimulatorClock clock = new SimulatorClock(5000);
+        SimulatorEngine engine = new SimulatorEngine(new RobotEnvironment(),
+                new Random(0), clock);
+
+        DropInterface dropInterface = new DropInterface();
+        StateRecorder recorder = new StateRecorder();
+        dropInterface.addClient(recorder);
+        engine.addComponent(new SimulatorComponentDynamics(new Random(0)));
+        engine.addComponent(new SimulatorComponentCritterbotInterface(
+                dropInterface, clock));
+
+        engine.stepN(100, 10);
+
+        assertSame(clock, engine.getClock());
+        assertEquals(1000, clock.getElapsedMillis());
+        assertEquals(6000, clock.getTimeMillis());
+        assertEquals(1000, engine.getState().getTime());
+
+        // One state drop every 10 ms, stamped with the time of the state it
+        //  describes
+        assertEquals(100, recorder.states.size());
+        long expected = 5000;
+        for (CritterStateDrop drop : recorder.states) {
+            assertEquals(expected, drop.time.getTimeInMillis());
+            expected += 10;
+        }
+    }
+}
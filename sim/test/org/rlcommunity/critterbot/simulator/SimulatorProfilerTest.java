@@ -0,0 +1,84 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.rlcommunity.critterbot.simulator;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Random;
+
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author anna
+ */
+public class SimulatorProfilerTest {
+
+    @Test
+    public void testProfileComponents() throws Exception {
+        SimulatorEngine engine = new SimulatorEngine(
+                new SimulatorEngineTest.RobotEnvironment(), new Random(0),
+                new SimulatorClock());
+        engine.addComponent(new SimulatorComponentDynamics(new Random(0)));
+        engine.addComponent(new SimulatorComponentIRDistance(new Random(0)));
+        engine.addComponent(new SimulatorComponentIRDistance(new Random(0)));
+
+        SimulatorProfiler profiler = new SimulatorProfiler(0);
+        profiler.registerMBeans("test");
+        engine.setProfiler(profiler);
+        engine.stepN(50, 10);
+
+        List<ComponentProfile> profiles = profiler.getProfiles();
+        assertEquals(3, profiles.size());
+        assertEquals("SimulatorComponentDynamics",
+                profiles.get(0).getComponentName());
+        assertEquals("SimulatorComponentIRDistance#2",
+                profiles.get(2).getComponentName());
+        assertEquals(50, profiler.getStepProfile().getStepCount());
+
+        for (ComponentProfile p : profiles) {
+            assertEquals(50, p.getStepCount());
+            assertTrue(p.getTimeHistogram().getSum() <=
+                    profiler.getStepProfile().getTimeHistogram().getSum());
+        }
+
+        // The profiles are published through JMX
+        ObjectName name = new ObjectName(SimulatorProfiler.JMX_DOMAIN +
+                ":type=ComponentProfile,engine=\"test\"," +
+                "name=\"SimulatorComponentDynamics\"");
+        assertEquals(50L, ManagementFactory.getPlatformMBeanServer().
+                getAttribute(name, "StepCount"));
+
+        profiler.unregisterMBeans();
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+
+        // Turning profiling off stops recording
+        engine.setProfiler(null);
+        engine.stepN(10, 10);
+        assertEquals(50, profiler.getStepProfile().getStepCount());
+    }
+
+    @Test
+    public void testHistogram() {
+        SimulatorHistogram h = new SimulatorHistogram();
+        for (int i = 1; i <= 100; i++)
+            h.record(i);
+
+        assertEquals(100, h.getCount());
+        assertEquals(50.5, h.getMean(), 0);
+        assertEquals(100, h.getMax());
+        // 50 lies in the [32, 63] bucket and 99 in the [64, 127] one
+        assertEquals(63, h.getPercentile(50));
+        assertEquals(100, h.getPercentile(99));
+
+        h.reset();
+        assertEquals(0, h.getCount());
+        assertEquals(0, h.getPercentile(50));
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.rlcommunity.critterbot.simulator;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author anna
+ */
+public class SimulatorStateTest {
+
+    SimulatorState state;
+    SimulatorObject root;
+    SimulatorObject child;
+    SimulatorObject other;
+
+    public SimulatorStateTest() {
+        root = new SimulatorObject("Root", 1);
+        root.addState(new ObjectStateDynamics());
+        child = new SimulatorObject("Child", 2);
+        child.addState(new ObjectStateBattery(100, 10, 1));
+        root.addChild(child);
+        other = new SimulatorObject("Other", 1000);
+        other.addState(new ObjectStateDynamics());
+
+        state = new SimulatorState();
+        state.addObject(root);
+        state.addObject(other);
+    }
+
+    @Test
+    public void testGetObjectById() {
+        assertSame(root, state.getObject(new SimulatorObject("Probe", 1)));
+        assertSame(child, state.getObject(new SimulatorObject("Probe", 2)));
+        assertSame(other, state.getObject(new SimulatorObject("Probe", 1000)));
+        assertNull(state.getObject(new SimulatorObject("Probe", 3)));
+        assertNull(state.getObject(new SimulatorObject("Probe", -1)));
+    }
+
+    @Test
+    public void testGetObjectsByState() {
+        List<SimulatorObject> dyn = state.getObjects(ObjectStateDynamics.NAME);
+        assertEquals(2, dyn.size());
+        assertSame(root, dyn.get(0));
+        assertSame(other, dyn.get(1));
+
+        List<SimulatorObject> bat = state.getObjects(ObjectStateBattery.NAME);
+        assertEquals(1, bat.size());
+        assertSame(child, bat.get(0));
+
+        // Children come before their parents
+        List<SimulatorObject> all = state.getObjects();
+        assertEquals(3, all.size());
+        assertSame(child, all.get(0));
+        assertSame(root, all.get(1));
+    }
+
+    @Test
+    public void testCacheInvalidation() {
+        assertNull(state.getObject(new SimulatorObject("Probe", 5)));
+        assertEquals(1, state.getObjects(ObjectStateBattery.NAME).size());
+
+        SimulatorObject grandChild = new SimulatorObject("GrandChild", 5);
+        child.addChild(grandChild);
+        assertSame(grandChild, state.getObject(new SimulatorObject("Probe", 5)));
+
+        grandChild.addState(new ObjectStateBattery(100, 10, 1));
+        assertEquals(2, state.getObjects(ObjectStateBattery.NAME).size());
+
+        child.removeState(ObjectStateBattery.NAME);
+        assertEquals(1, state.getObjects(ObjectStateBattery.NAME).size());
+
+        child.removeChild(grandChild);
+        assertNull(state.getObject(new SimulatorObject("Probe", 5)));
+        assertEquals(0, state.getObjects(ObjectStateBattery.NAME).size());
+
+        SimulatorObject added = new SimulatorObject("Added", 7);
+        state.addObject(added);
+        assertSame(added, state.getObject(new SimulatorObject("Probe", 7)));
+    }
+
+    @Test
+    public void testRootObjectsReadOnly() {
+        List<SimulatorObject> roots = state.getRootObjects();
+        assertEquals(3, state.getObjects().size());
+        try {
+            roots.set(1, new SimulatorObject("Replaced", 8));
+            fail("Root objects changed outside of addObject()");
+        } catch (UnsupportedOperationException e) {
+        }
+
+        // The view follows objects added to the state
+        SimulatorObject added = new SimulatorObject("Added", 7);
+        state.addObject(added);
+        assertSame(added, roots.get(2));
+        assertEquals(4, state.getObjects().size());
+        assertSame(added, state.getObject(new SimulatorObject("Probe", 7)));
+    }
+
+    @Test
+    public void testGetScene() {
+        Polygon shape = new Polygon();
+        shape.addPoint(-0.1, -0.1);
+        shape.addPoint(-0.1, 0.1);
+        shape.addPoint(0.1, 0.1);
+        shape.addPoint(0.1, -0.1);
+        shape.doneAddPoints();
+        other.setShape(shape);
+
+        Ray r = new Ray(new Vector2D(-1, 0), new Vector2D(1, 0));
+
+        Scene scene = state.getScene();
+        assertEquals(0.9, scene.traceRay(r).rayAlpha, 0.000001);
+
+        // Objects removed by a previous user are back
+        scene.removeObject(other);
+        assertNull(scene.traceRay(r));
+        assertSame(scene, state.getScene());
+        assertNotNull(scene.traceRay(r));
+
+        // Moved objects are found at their new position
+        state.clear();
+        other.setPosition(new Vector2D(1, 0));
+        assertSame(scene, state.getScene());
+        assertEquals(1.9, scene.traceRay(r).rayAlpha, 0.000001);
+
+        // A new shape requires a new scene
+        other.setShape((Polygon) shape.clone());
+        assertNotSame(scene, state.getScene());
+    }
+
+    @Test
+    public void testSetGeometryKeepsShape() {
+        Polygon shape = new Polygon();
+        shape.addPoint(-0.1, -0.1);
+        shape.addPoint(-0.1, 0.1);
+        shape.addPoint(0.1, 0.1);
+        shape.addPoint(0.1, -0.1);
+        shape.doneAddPoints();
+        other.setShape(shape);
+
+        SimulatorObject moved = (SimulatorObject) other.clone();
+        moved.setPosition(new Vector2D(1, 2));
+        moved.setDirection(0.3);
+
+        Scene scene = state.getScene();
+        other.setGeometry(moved);
+
+        // The polygon is moved rather than replaced
+        assertSame(shape, other.getShape());
+        assertSame(scene, state.getScene());
+
+        List<Vector2D> expected = moved.getShape().getPoints();
+        List<Vector2D> actual = other.getShape().getPoints();
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).x, actual.get(i).x, 0);
+            assertEquals(expected.get(i).y, actual.get(i).y, 0);
+        }
+    }
+}
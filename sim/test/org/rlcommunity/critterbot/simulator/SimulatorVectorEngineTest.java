@@ -0,0 +1,72 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.rlcommunity.critterbot.simulator;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.rlcommunity.critterbot.simulator.environments.EnvironmentDescription;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author anna
+ */
+public class SimulatorVectorEngineTest {
+
+    static final int NUM_ENVS = 4;
+
+    private SimulatorVectorEngine makeEngine(int pThreads) {
+        EnvironmentDescription[] descriptions =
+                new EnvironmentDescription[NUM_ENVS];
+        Arrays.fill(descriptions, new SimulatorEngineTest.RobotEnvironment());
+
+        return new SimulatorVectorEngine(descriptions, 42, pThreads);
+    }
+
+    private int[] run(SimulatorVectorEngine pEngine) {
+        int[] actions = new int[NUM_ENVS * SimulatorVectorEngine.ACTION_SIZE];
+        int[] obs = new int[NUM_ENVS * SimulatorVectorEngine.OBSERVATION_SIZE];
+
+        for (int t = 0; t < 20; t++) {
+            for (int i = 0; i < actions.length; i++)
+                actions[i] = ((t + i) % 5 - 2) * 20;
+            pEngine.step(actions, 10, 10, obs);
+        }
+
+        return obs;
+    }
+
+    @Test
+    public void testStep() {
+        SimulatorVectorEngine engine = makeEngine(2);
+        assertEquals(NUM_ENVS, engine.getNumEnvironments());
+
+        int[] obs = run(engine);
+        engine.shutdown();
+
+        // Every environment has simulated 2 seconds and sent its state
+        for (int i = 0; i < NUM_ENVS; i++) {
+            assertEquals(2000, engine.getEngine(i).getState().getTime());
+
+            int[] envObs = new int[SimulatorVectorEngine.OBSERVATION_SIZE];
+            System.arraycopy(obs, i * envObs.length, envObs, 0, envObs.length);
+            assertFalse(Arrays.equals(
+                    new int[SimulatorVectorEngine.OBSERVATION_SIZE], envObs));
+        }
+    }
+
+    @Test
+    public void testDeterministic() {
+        SimulatorVectorEngine parallel = makeEngine(NUM_ENVS);
+        SimulatorVectorEngine serial = makeEngine(1);
+
+        assertTrue(Arrays.equals(run(serial), run(parallel)));
+
+        parallel.shutdown();
+        serial.shutdown();
+    }
+}